@@ -0,0 +1,66 @@
+#!/usr/bin/env bash
+#
+# Measures the time from JVM launch to the first successful booking (HTTP 201) for each
+# startup configuration. Build first with:
+#   ./mvnw -Pfast-startup -DskipTests package
+#
+# Usage: scripts/startup-benchmark.sh [runs per configuration, default 3]
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+RUNS=${1:-3}
+PORT=${PORT:-18080}
+CLASSPATH="$(ls target/hospital-*-cds.jar):$(cat target/classpath.txt)"
+# Hibernate runs the seed script right after creating the schema, which also holds with AOT where
+# spring.jpa.defer-datasource-initialization is fixed at build time.
+SEED="--spring.jpa.properties.jakarta.persistence.sql-load-script-source=scripts/startup-seed.sql \
+--server.port=${PORT}"
+
+declare -A CONFIGURATIONS=(
+  ["1-baseline"]=""
+  ["2-lazy"]="-Dspring.profiles.active=faststart"
+  ["3-aot-lazy"]="-Dspring.aot.enabled=true -Dspring.profiles.active=faststart"
+  ["4-aot-cds-lazy"]="-XX:SharedArchiveFile=target/hospital.jsa -Dspring.aot.enabled=true -Dspring.profiles.active=faststart"
+)
+
+now_ms() {
+  date +%s%3N
+}
+
+first_booking_ms() {
+  local jvm_options=$1
+  local start pid status
+  start=$(now_ms)
+  # shellcheck disable=SC2086
+  java ${jvm_options} -cp "${CLASSPATH}" com.okto.hospital.HospitalApplication ${SEED} > /dev/null 2>&1 &
+  pid=$!
+  status=000
+  until [ "${status}" = "201" ]; do
+    status=$(curl -s -o /dev/null -w '%{http_code}' -X POST \
+      -H 'Content-Type: application/json' \
+      -d "{\"patientId\": 1, \"date\": \"$(date -d tomorrow +%F)\", \"startTime\": \"09:00\"}" \
+      "http://localhost:${PORT}/api/v1/doctors/1/appointments" || true)
+    if ! kill -0 "${pid}" 2> /dev/null; then
+      echo "application exited before the first booking" >&2
+      exit 1
+    fi
+    if [ "${status}" != "000" ] && [ "${status}" != "201" ] && [ "${status}" != "503" ]; then
+      echo "unexpected HTTP ${status} for the first booking" >&2
+      kill "${pid}"
+      exit 1
+    fi
+    sleep 0.02
+  done
+  echo $(( $(now_ms) - start ))
+  kill "${pid}"
+  wait "${pid}" 2> /dev/null || true
+}
+
+printf '%-16s %s\n' "configuration" "time to first booking (ms)"
+for name in $(printf '%s\n' "${!CONFIGURATIONS[@]}" | sort); do
+  results=()
+  for _ in $(seq "${RUNS}"); do
+    results+=("$(first_booking_ms "${CONFIGURATIONS[${name}]}")")
+  done
+  printf '%-16s %s\n' "${name}" "${results[*]}"
+done
@@ -0,0 +1,11 @@
+-- Data for scripts/startup-benchmark.sh: one doctor working every day and one patient.
+-- Loaded by Hibernate, which expects one statement per line.
+INSERT INTO doctor (id, name) VALUES (1, 'Doctor Benchmark');
+INSERT INTO patient (id, name) VALUES (1, 'Patient Benchmark');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (1, 1, 'MONDAY', '08:00:00', '20:00:00');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (2, 1, 'TUESDAY', '08:00:00', '20:00:00');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (3, 1, 'WEDNESDAY', '08:00:00', '20:00:00');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (4, 1, 'THURSDAY', '08:00:00', '20:00:00');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (5, 1, 'FRIDAY', '08:00:00', '20:00:00');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (6, 1, 'SATURDAY', '08:00:00', '20:00:00');
+INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time) VALUES (7, 1, 'SUNDAY', '08:00:00', '20:00:00');
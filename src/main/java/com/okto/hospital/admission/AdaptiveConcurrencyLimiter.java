@@ -0,0 +1,49 @@
+package com.okto.hospital.admission;
+
+/**
+ * Sets the places of a {@link Bulkhead} from the observed latency of the requests inside it (additive increase,
+ * multiplicative decrease). While requests complete under the target latency the limit grows by roughly one per
+ * round of requests, up to the bulkhead's maxConcurrent. When they are slower, which under load means the
+ * database is saturated, the limit is cut by {@link #BACKOFF_RATIO}, so that excess requests wait in, and are
+ * then rejected by, the bulkhead instead of queueing for a connection.
+ * <p>
+ * The bulkhead stays the only concurrency limit: this class only moves it.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    private final Bulkhead bulkhead;
+    private final int minLimit;
+    private final long targetLatencyNanos;
+
+    private double limit;
+
+    public AdaptiveConcurrencyLimiter(Bulkhead bulkhead, int initialLimit, int minLimit, long targetLatencyNanos) {
+        this.bulkhead = bulkhead;
+        this.minLimit = Math.max(1, Math.min(bulkhead.getMaxConcurrent(), minLimit));
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.limit = Math.max(this.minLimit, Math.min(bulkhead.getMaxConcurrent(), initialLimit));
+        bulkhead.setLimit((int) limit);
+    }
+
+    /**
+     * Adapts the limit to the latency of a finished request. Called before the request gives its place back.
+     *
+     * @param latencyNanos how long the request took
+     * @param dropped      true if the request failed in a way that signals overload
+     */
+    public synchronized void onCompletion(long latencyNanos, boolean dropped) {
+        if (dropped || latencyNanos > targetLatencyNanos) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } else if (bulkhead.getActive() >= (int) limit) {
+            // only grow when the limit was actually reached, otherwise it would drift to the maximum
+            limit = Math.min(bulkhead.getMaxConcurrent(), limit + 1 / limit);
+        }
+        bulkhead.setLimit((int) limit);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+}
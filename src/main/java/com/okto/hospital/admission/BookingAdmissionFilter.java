@@ -0,0 +1,131 @@
+package com.okto.hospital.admission;
+
+import com.okto.hospital.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of the booking endpoint, so that a booking surge is rejected cheaply
+ * before it reaches the connection pool and slows down every other endpoint.
+ * <p>
+ * Requests go through two gates, in this order:
+ * <ol>
+ *     <li>a token bucket per client, answering 429</li>
+ *     <li>a token bucket per doctor, answering 429</li>
+ * </ol>
+ * Every rejection carries a Retry-After header and is counted in the "hospital.admission.rejected" metric.
+ * <p>
+ * A client is the authenticated principal, otherwise the remote address. The X-Client-Id header is only taken
+ * from the trusted proxies (hospital.admission.trusted-proxies): from anyone else, a new header on every request
+ * would get a new, full bucket every time.
+ * <p>
+ * The filter runs inside {@link BulkheadFilter}, whose bookings compartment is the only concurrency limit of the
+ * bookings; its size follows the booking latency through an {@link AdaptiveConcurrencyLimiter}.
+ */
+@Component
+@Order(BookingAdmissionFilter.ORDER)
+public class BookingAdmissionFilter extends OncePerRequestFilter {
+
+    /**
+     * Right inside {@link BulkheadFilter}.
+     */
+    public static final int ORDER = BulkheadFilter.ORDER + 10;
+
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    private static final String BOOKING_PATH = "/v1/doctors/{doctorId}/appointments";
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final AdmissionProperties properties;
+    private final TokenBucketRegistry clientBuckets;
+    private final TokenBucketRegistry doctorBuckets;
+    private final Counter clientRateRejections;
+    private final Counter doctorRateRejections;
+
+    public BookingAdmissionFilter(AdmissionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.clientBuckets = new TokenBucketRegistry(properties.clientBurst(),
+                properties.clientRatePerSecond(), properties.maxTrackedKeys(), System::nanoTime);
+        this.doctorBuckets = new TokenBucketRegistry(properties.doctorBurst(),
+                properties.doctorRatePerSecond(), properties.maxTrackedKeys(), System::nanoTime);
+
+        this.clientRateRejections = rejectionCounter(meterRegistry, "client_rate");
+        this.doctorRateRejections = rejectionCounter(meterRegistry, "doctor_rate");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !properties.enabled()
+                || !HttpMethod.POST.matches(request.getMethod())
+                || !pathMatcher.match(BOOKING_PATH, pathWithinApplication(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long clientWait = clientBuckets.tryConsume(clientKey(request));
+        if (clientWait > 0) {
+            clientRateRejections.increment();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, clientWait);
+            return;
+        }
+
+        String doctorId = pathMatcher.extractUriTemplateVariables(BOOKING_PATH, pathWithinApplication(request))
+                .get("doctorId");
+        long doctorWait = doctorBuckets.tryConsume(doctorId);
+        if (doctorWait > 0) {
+            doctorRateRejections.increment();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, doctorWait);
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, long retryAfterNanos) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        if (principal != null) {
+            return "principal:" + principal.getName();
+        }
+        String remoteAddr = request.getRemoteAddr();
+        if (properties.trustedProxies().contains(remoteAddr)) {
+            String clientId = request.getHeader(CLIENT_ID_HEADER);
+            if (clientId != null && !clientId.isBlank()) {
+                return "client:" + clientId;
+            }
+        }
+        return "address:" + remoteAddr;
+    }
+
+    private String pathWithinApplication(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private static Counter rejectionCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("hospital.admission.rejected")
+                .description("Booking requests rejected by admission control")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,123 @@
+package com.okto.hospital.admission;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of places, with a bounded number of callers allowed to wait for one. Callers beyond that are
+ * refused at once, and waiting callers give up after their timeout, so a flooded bulkhead holds at most
+ * maxConcurrent + maxWaiting threads whatever the load.
+ * <p>
+ * The places are handed out first come, first served: a caller arriving while others wait queues behind them.
+ * <p>
+ * The number of places can be lowered below maxConcurrent and raised back with {@link #setLimit(int)}, which
+ * {@link AdaptiveConcurrencyLimiter} does for the bookings. Callers inside keep their place when the limit drops;
+ * new callers only enter once enough of them have left.
+ */
+public class Bulkhead {
+
+    public enum Entry {
+        ENTERED,
+        /**
+         * No place was free and maxWaiting callers were already waiting.
+         */
+        QUEUE_FULL,
+        /**
+         * No place was freed within the timeout.
+         */
+        TIMED_OUT
+    }
+
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final Places places;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private int limit;
+
+    /**
+     * @param maxConcurrent callers inside at once
+     * @param maxWaiting    callers allowed to wait for a place
+     */
+    public Bulkhead(int maxConcurrent, int maxWaiting) {
+        if (maxConcurrent < 1 || maxWaiting < 0) {
+            throw new IllegalArgumentException("maxConcurrent must be at least 1 and maxWaiting at least 0");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.places = new Places(maxConcurrent);
+        this.limit = maxConcurrent;
+    }
+
+    /**
+     * Takes a place, waiting at most maxWaitNanos for one. A caller that entered must call {@link #exit()}.
+     *
+     * @param maxWaitNanos how long to wait for a place
+     * @return ENTERED if the caller took a place
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Entry enter(long maxWaitNanos) throws InterruptedException {
+        // the timed tryAcquire honours the fairness, the untimed one would jump the queue
+        if (places.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+            return Entry.ENTERED;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            return Entry.QUEUE_FULL;
+        }
+        try {
+            return places.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS) ? Entry.ENTERED : Entry.TIMED_OUT;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gives the place back.
+     */
+    public void exit() {
+        places.release();
+    }
+
+    /**
+     * Changes the number of places, within 1 and maxConcurrent.
+     *
+     * @param newLimit the number of places
+     */
+    public synchronized void setLimit(int newLimit) {
+        int bounded = Math.max(1, Math.min(maxConcurrent, newLimit));
+        if (bounded > limit) {
+            places.release(bounded - limit);
+        } else if (bounded < limit) {
+            places.reduce(limit - bounded);
+        }
+        limit = bounded;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getActive() {
+        return limit - places.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    private static class Places extends Semaphore {
+
+        Places(int permits) {
+            super(permits, true);
+        }
+
+        void reduce(int permits) {
+            reducePermits(permits);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.okto.hospital.admission;
+
+import com.okto.hospital.config.AdmissionProperties;
+import com.okto.hospital.config.BulkheadProperties;
+import com.okto.hospital.sharding.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulkheads between the schedule reads, the bookings and the schedule administration, so that a booking surge
+ * or a slow bulk schedule edit cannot take the worker threads and the connections the schedule reads need.
+ * <p>
+ * Every request of a compartment takes one of its places before it reaches the controller, waiting at most
+ * maxWait behind at most maxWaiting others; otherwise it is answered 503 with a Retry-After header. A compartment
+ * therefore never holds more than maxConcurrent + maxWaiting Tomcat threads, and, as a request only asks for a
+ * connection once inside, never more than maxConcurrent connections. With the places of all compartments, plus
+ * the reserved connections of the background work, within the connection pool, the pool is split between them;
+ * this is checked at startup.
+ * <p>
+ * The places of the bookings compartment follow the booking latency through an {@link AdaptiveConcurrencyLimiter}
+ * while admission control is on, between hospital.admission.min-concurrency and maxConcurrent. That limit belongs to
+ * admission control: with the bulkheads off, the bookings compartment is still guarded as long as admission control
+ * is on, and only the other two are left open.
+ * <p>
+ * Per compartment, "hospital.bulkhead.limit", "hospital.bulkhead.active" and "hospital.bulkhead.waiting" gauge the
+ * places, the places taken and the requests waiting, "hospital.bulkhead.wait" times the wait and
+ * "hospital.bulkhead.rejected" counts the requests refused, by reason.
+ */
+@Component
+@Order(BulkheadFilter.ORDER)
+public class BulkheadFilter extends OncePerRequestFilter {
+
+    /**
+     * Outside of the admission control and of the statement counting, after the framework's own filters.
+     */
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 100;
+
+    private static final Logger log = LoggerFactory.getLogger(BulkheadFilter.class);
+
+    private static final String SCHEDULE_PATH = "/v1/doctors/*/schedule";
+    private static final String SCHEDULE_LIST_PATH = "/v1/doctors/*/schedule/list";
+    private static final String APPOINTMENTS_PATH = "/v1/doctors/*/appointments/**";
+    private static final String HOLDS_PATH = "/v1/doctors/*/holds/**";
+    private static final String SCHEDULE_SEARCH_PATH = "/v1/schedules/search";
+    private static final String API_PATH = "/v1/**";
+
+    public enum Compartment {
+        READS("reads"),
+        BOOKINGS("bookings"),
+        SCHEDULE_ADMIN("schedule_admin");
+
+        private final String tag;
+
+        Compartment(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final BulkheadProperties properties;
+    private final ObjectProvider<DataSource> dataSource;
+    private final ObjectProvider<ServerProperties> serverProperties;
+    private final Map<Compartment, Bulkhead> bulkheads = new EnumMap<>(Compartment.class);
+    private final Map<Compartment, Long> maxWaitNanos = new EnumMap<>(Compartment.class);
+    private final Map<Compartment, Timer> waitTimers = new EnumMap<>(Compartment.class);
+    private final Map<Compartment, Counter> queueFullRejections = new EnumMap<>(Compartment.class);
+    private final Map<Compartment, Counter> timeoutRejections = new EnumMap<>(Compartment.class);
+    private final AdaptiveConcurrencyLimiter bookingLimiter;
+
+    public BulkheadFilter(BulkheadProperties properties, AdmissionProperties admissionProperties, MeterRegistry meterRegistry,
+                          ObjectProvider<DataSource> dataSource, ObjectProvider<ServerProperties> serverProperties) {
+        this.properties = properties;
+        this.dataSource = dataSource;
+        this.serverProperties = serverProperties;
+        for (Compartment compartment : Compartment.values()) {
+            BulkheadProperties.Compartment limits = limitsOf(compartment);
+            Bulkhead bulkhead = new Bulkhead(limits.maxConcurrent(), limits.maxWaiting());
+            bulkheads.put(compartment, bulkhead);
+            maxWaitNanos.put(compartment, limits.maxWait().toNanos());
+            Gauge.builder("hospital.bulkhead.limit", bulkhead, Bulkhead::getLimit)
+                    .description("Places of the bulkhead")
+                    .tag("compartment", compartment.tag)
+                    .register(meterRegistry);
+            Gauge.builder("hospital.bulkhead.active", bulkhead, Bulkhead::getActive)
+                    .description("Requests inside the bulkhead")
+                    .tag("compartment", compartment.tag)
+                    .register(meterRegistry);
+            Gauge.builder("hospital.bulkhead.waiting", bulkhead, Bulkhead::getWaiting)
+                    .description("Requests waiting for a place in the bulkhead")
+                    .tag("compartment", compartment.tag)
+                    .register(meterRegistry);
+            waitTimers.put(compartment, Timer.builder("hospital.bulkhead.wait")
+                    .description("Time spent waiting for a place in the bulkhead")
+                    .tag("compartment", compartment.tag)
+                    .register(meterRegistry));
+            queueFullRejections.put(compartment, rejectionCounter(meterRegistry, compartment, "queue_full"));
+            timeoutRejections.put(compartment, rejectionCounter(meterRegistry, compartment, "timeout"));
+        }
+        this.bookingLimiter = admissionProperties.enabled()
+                ? new AdaptiveConcurrencyLimiter(bulkheads.get(Compartment.BOOKINGS), admissionProperties.initialConcurrency(),
+                admissionProperties.minConcurrency(), admissionProperties.targetLatency().toNanos())
+                : null;
+    }
+
+    /**
+     * Returns the bulkhead of a compartment, for operations and tests.
+     *
+     * @param compartment the compartment
+     * @return its bulkhead
+     */
+    public Bulkhead getBulkhead(Compartment compartment) {
+        return bulkheads.get(compartment);
+    }
+
+    /**
+     * Warns when the compartments together, with the reserved connections, may hold more connections than the
+     * pool has, or more threads than Tomcat has, as one of them could then still starve the others.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void checkPartitions() {
+        if (!properties.enabled()) {
+            return;
+        }
+        int places = 0;
+        int threads = 0;
+        for (Compartment compartment : Compartment.values()) {
+            places += limitsOf(compartment).maxConcurrent();
+            threads += limitsOf(compartment).maxConcurrent() + limitsOf(compartment).maxWaiting();
+        }
+        int connections = places + properties.reservedConnections();
+        DataSource pool = dataSource.getIfAvailable();
+        // a request only uses the pool of its doctor's shard, so under sharding the smallest one counts
+        int poolSize = pool instanceof HikariDataSource hikari ? hikari.getMaximumPoolSize()
+                : pool instanceof ShardRoutingDataSource shards ? shards.getSmallestPoolSize()
+                : Integer.MAX_VALUE;
+        if (connections > poolSize) {
+            log.warn("The bulkheads allow {} requests at once and {} connections are reserved, but the connection pool "
+                            + "has {} connections, a compartment may wait for connections held by another",
+                    places, properties.reservedConnections(), poolSize);
+        }
+        ServerProperties server = serverProperties.getIfAvailable();
+        if (server != null && threads > server.getTomcat().getThreads().getMax()) {
+            log.warn("The bulkheads may hold {} threads but Tomcat has {}, a compartment may starve the others",
+                    threads, server.getTomcat().getThreads().getMax());
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        Compartment compartment = compartmentOf(request);
+        return compartment == null || !isGuarded(compartment);
+    }
+
+    /**
+     * Returns true if the requests of the compartment go through its bulkhead: all of them while the bulkheads are
+     * on, the bookings also while the adaptive booking limit of admission control is on.
+     */
+    private boolean isGuarded(Compartment compartment) {
+        return properties.enabled() || compartment == Compartment.BOOKINGS && bookingLimiter != null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Compartment compartment = compartmentOf(request);
+        Bulkhead bulkhead = bulkheads.get(compartment);
+        long start = System.nanoTime();
+        Bulkhead.Entry entry;
+        try {
+            entry = bulkhead.enter(maxWaitNanos.get(compartment));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            entry = Bulkhead.Entry.TIMED_OUT;
+        }
+        waitTimers.get(compartment).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        switch (entry) {
+            case QUEUE_FULL -> {
+                queueFullRejections.get(compartment).increment();
+                reject(response);
+            }
+            case TIMED_OUT -> {
+                timeoutRejections.get(compartment).increment();
+                reject(response);
+            }
+            case ENTERED -> {
+                long entered = System.nanoTime();
+                boolean async = false;
+                boolean dropped = true;
+                try {
+                    filterChain.doFilter(request, response);
+                    async = request.isAsyncStarted();
+                    dropped = response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value();
+                } finally {
+                    if (!async) {
+                        if (compartment == Compartment.BOOKINGS && bookingLimiter != null) {
+                            bookingLimiter.onCompletion(System.nanoTime() - entered, dropped);
+                        }
+                        bulkhead.exit();
+                    }
+                }
+                if (async) {
+                    exitOnCompletion(request, bulkhead);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the place of a streamed response until its body, written on an async thread, is complete.
+     */
+    private static void exitOnCompletion(HttpServletRequest request, Bulkhead bulkhead) {
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                bulkhead.exit();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    /**
+     * Sorts a request into its compartment, null for the requests outside of the API.
+     */
+    private Compartment compartmentOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String method = request.getMethod();
+        boolean write = HttpMethod.POST.matches(method) || HttpMethod.PUT.matches(method)
+                || HttpMethod.DELETE.matches(method) || HttpMethod.PATCH.matches(method);
+        if (write && (pathMatcher.match(SCHEDULE_PATH, path) || pathMatcher.match(SCHEDULE_LIST_PATH, path))) {
+            return Compartment.SCHEDULE_ADMIN;
+        }
+        if (write && (pathMatcher.match(APPOINTMENTS_PATH, path) || pathMatcher.match(HOLDS_PATH, path))) {
+            return Compartment.BOOKINGS;
+        }
+        if (HttpMethod.GET.matches(method) && pathMatcher.match(API_PATH, path)
+                || HttpMethod.POST.matches(method) && pathMatcher.match(SCHEDULE_SEARCH_PATH, path)) {
+            return Compartment.READS;
+        }
+        return null;
+    }
+
+    private BulkheadProperties.Compartment limitsOf(Compartment compartment) {
+        return switch (compartment) {
+            case READS -> properties.reads();
+            case BOOKINGS -> properties.bookings();
+            case SCHEDULE_ADMIN -> properties.scheduleAdmin();
+        };
+    }
+
+    private void reject(HttpServletResponse response) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(
+                properties.retryAfter().toNanos() + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+
+    private static Counter rejectionCounter(MeterRegistry meterRegistry, Compartment compartment, String reason) {
+        return Counter.builder("hospital.bulkhead.rejected")
+                .description("Requests refused by their bulkhead")
+                .tag("compartment", compartment.tag)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
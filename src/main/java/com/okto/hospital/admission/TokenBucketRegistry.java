@@ -0,0 +1,50 @@
+package com.okto.hospital.admission;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets keyed by client or doctor. The number of buckets is bounded: beyond maxKeys the least recently
+ * used bucket is dropped, in constant time, so a flood of distinct keys costs neither memory nor a scan.
+ * A dropped key that comes back starts over with a full bucket.
+ */
+public class TokenBucketRegistry {
+
+    private final Map<String, TokenBucket> buckets;
+    private final int capacity;
+    private final double tokensPerSecond;
+    private final LongSupplier nanoClock;
+
+    public TokenBucketRegistry(int capacity, double tokensPerSecond, int maxKeys, LongSupplier nanoClock) {
+        this.capacity = capacity;
+        this.tokensPerSecond = tokensPerSecond;
+        this.nanoClock = nanoClock;
+        this.buckets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    /**
+     * Takes one token from the bucket of the given key.
+     *
+     * @param key client or doctor key
+     * @return 0 if the request is admitted, otherwise the number of nanoseconds until it would be
+     */
+    public long tryConsume(String key) {
+        TokenBucket bucket;
+        synchronized (buckets) {
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(capacity, tokensPerSecond, nanoClock));
+        }
+        return bucket.tryConsume();
+    }
+
+    public int size() {
+        synchronized (buckets) {
+            return buckets.size();
+        }
+    }
+}
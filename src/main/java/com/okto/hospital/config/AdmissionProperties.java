@@ -0,0 +1,47 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Admission control for the booking endpoint, configured under the "hospital.admission" prefix.
+ *
+ * @param enabled              turns admission control on or off
+ * @param clientRatePerSecond  sustained booking requests per second allowed for a single client
+ * @param clientBurst          number of requests a client may send at once before being throttled
+ * @param doctorRatePerSecond  sustained booking requests per second allowed for a single doctor
+ * @param doctorBurst          number of requests a doctor may receive at once before being throttled
+ * @param initialConcurrency   places of the bookings bulkhead before any latency has been observed
+ * @param minConcurrency       lower bound of the adaptive limit; the upper bound is hospital.bulkhead.bookings.max-concurrent
+ * @param targetLatency        booking latency above which the bookings bulkhead is shrunk
+ * @param maxTrackedKeys       number of client and doctor buckets kept, the least recently used is dropped beyond it
+ * @param trustedProxies       remote addresses whose X-Client-Id header names the client; for anyone else the
+ *                             client is the authenticated principal or the remote address
+ */
+@ConfigurationProperties(prefix = "hospital.admission")
+public record AdmissionProperties(
+        @DefaultValue("true")
+        boolean enabled,
+        @DefaultValue("10")
+        double clientRatePerSecond,
+        @DefaultValue("20")
+        int clientBurst,
+        @DefaultValue("50")
+        double doctorRatePerSecond,
+        @DefaultValue("100")
+        int doctorBurst,
+        @DefaultValue("6")
+        int initialConcurrency,
+        @DefaultValue("2")
+        int minConcurrency,
+        @DefaultValue("100ms")
+        Duration targetLatency,
+        @DefaultValue("100000")
+        int maxTrackedKeys,
+        @DefaultValue
+        Set<String> trustedProxies
+) {
+}
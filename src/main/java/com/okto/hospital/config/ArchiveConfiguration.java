@@ -0,0 +1,32 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.service.AppointmentArchiver;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.FixedDelayTask;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Runs the appointment archival job every hospital.archive.interval when hospital.archive.enabled is true.
+ * The first run waits one interval, so a starting instance does not move a backlog of rows while it warms up.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableScheduling
+@ConditionalOnProperty(prefix = "hospital.archive", name = "enabled", havingValue = "true")
+public class ArchiveConfiguration implements SchedulingConfigurer {
+
+    private final AppointmentArchiver appointmentArchiver;
+    private final ArchiveProperties properties;
+
+    public ArchiveConfiguration(AppointmentArchiver appointmentArchiver, ArchiveProperties properties) {
+        this.appointmentArchiver = appointmentArchiver;
+        this.properties = properties;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addFixedDelayTask(new FixedDelayTask(appointmentArchiver::archive, properties.interval(), properties.interval()));
+    }
+}
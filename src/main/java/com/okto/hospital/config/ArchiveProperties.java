@@ -0,0 +1,28 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.time.Period;
+
+/**
+ * Archival of past appointments, configured under the "hospital.archive" prefix.
+ *
+ * @param enabled   runs the archival job every {@code interval}
+ * @param horizon   appointments dated more than this before today are archived
+ * @param batchSize number of appointments moved per transaction
+ * @param interval  delay between the end of a run and the start of the next one
+ */
+@ConfigurationProperties(prefix = "hospital.archive")
+public record ArchiveProperties(
+        @DefaultValue("false")
+        boolean enabled,
+        @DefaultValue("180d")
+        Period horizon,
+        @DefaultValue("1000")
+        int batchSize,
+        @DefaultValue("1h")
+        Duration interval
+) {
+}
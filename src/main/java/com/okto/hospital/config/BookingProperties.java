@@ -0,0 +1,35 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Period;
+
+/**
+ * Booking rules, configured under the "hospital.booking" prefix.
+ *
+ * @param maxOpenAppointmentsPerPatient maximum number of appointments a patient may hold from today on,
+ *                                      0 disables the limit
+ * @param decisionLogsPerSecond         maximum number of booking decisions logged per second, the others
+ *                                      are only counted
+ * @param suggestedSlots                number of free slots offered when the requested slot is taken or not
+ *                                      bookable, 0 turns the suggestions off
+ * @param conditionalInsert             decide a booking with one INSERT ... SELECT that checks the schedule and
+ *                                      the patient, instead of reading them first; H2 only, ignored with a
+ *                                      warning on other databases
+ * @param maxAppointmentRange           longest range of dates a doctor's appointments can be listed for at once
+ */
+@ConfigurationProperties(prefix = "hospital.booking")
+public record BookingProperties(
+        @DefaultValue("10")
+        int maxOpenAppointmentsPerPatient,
+        @DefaultValue("100")
+        int decisionLogsPerSecond,
+        @DefaultValue("3")
+        int suggestedSlots,
+        @DefaultValue("false")
+        boolean conditionalInsert,
+        @DefaultValue("1y")
+        Period maxAppointmentRange
+) {
+}
@@ -0,0 +1,54 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Bulkheads between the schedule reads, the bookings and the schedule administration, configured under the
+ * "hospital.bulkhead" prefix.
+ *
+ * @param enabled             turns the bulkheads on or off; the bookings one stays on while admission control is on
+ * @param retryAfter          value of the Retry-After header when a request is refused by its bulkhead
+ * @param reads               schedule, appointment, utilization and doctor search reads
+ * @param bookings            bookings, holds and cancellations; its places follow the booking latency
+ *                            (see hospital.admission), maxConcurrent is their upper bound
+ * @param scheduleAdmin       schedule creation and changes
+ * @param reservedConnections connections of the pool left out of the compartments, for the work that does not
+ *                            come through them: archiving, index rebuilds, the journal projector, the circuit
+ *                            breaker probe, and the second connection of a shard fan-out or a streamed response
+ */
+@ConfigurationProperties(prefix = "hospital.bulkhead")
+public record BulkheadProperties(
+        @DefaultValue("true")
+        boolean enabled,
+        @DefaultValue("1s")
+        Duration retryAfter,
+        @DefaultValue
+        Compartment reads,
+        @DefaultValue
+        Compartment bookings,
+        @DefaultValue
+        Compartment scheduleAdmin,
+        @DefaultValue("4")
+        int reservedConnections
+) {
+
+    /**
+     * Limits of one compartment.
+     *
+     * @param maxConcurrent requests of the compartment handled at once, each holding at most one connection
+     * @param maxWaiting    requests allowed to wait for a free place; above that they are refused at once
+     * @param maxWait       how long a request waits for a free place before it is refused
+     */
+    public record Compartment(
+            @DefaultValue("5")
+            int maxConcurrent,
+            @DefaultValue("20")
+            int maxWaiting,
+            @DefaultValue("1s")
+            Duration maxWait
+    ) {
+    }
+}
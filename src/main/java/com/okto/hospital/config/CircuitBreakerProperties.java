@@ -0,0 +1,39 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker in front of the database, configured under the "hospital.circuit-breaker" prefix.
+ *
+ * @param enabled              turns the breaker on or off
+ * @param windowSize           number of recent database calls the failure rate is computed over
+ * @param minimumCalls         calls needed in the window before the breaker may open
+ * @param failureRateThreshold share of failed or slow calls, between 0 and 1, that opens the breaker
+ * @param slowCallThreshold    duration above which a call counts as failed, even when it succeeds
+ * @param openDuration         how long the breaker refuses calls before a background probe is tried
+ * @param maxStaleness         age above which a last known schedule is no longer served while the breaker is open
+ * @param maxStaleEntries      doctors whose last known schedule is kept, the least recently read are dropped beyond it
+ */
+@ConfigurationProperties(prefix = "hospital.circuit-breaker")
+public record CircuitBreakerProperties(
+        @DefaultValue("true")
+        boolean enabled,
+        @DefaultValue("20")
+        int windowSize,
+        @DefaultValue("10")
+        int minimumCalls,
+        @DefaultValue("0.5")
+        double failureRateThreshold,
+        @DefaultValue("2s")
+        Duration slowCallThreshold,
+        @DefaultValue("10s")
+        Duration openDuration,
+        @DefaultValue("15m")
+        Duration maxStaleness,
+        @DefaultValue("10000")
+        int maxStaleEntries
+) {
+}
@@ -0,0 +1,25 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.diagnostics.SqlStatementCountInterceptor;
+import com.okto.hospital.diagnostics.SqlStatementCounter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Counts the SQL statements of streamed responses too, whose body is written on an async thread.
+ */
+@Configuration
+public class DiagnosticsConfiguration {
+
+    @Bean
+    public WebMvcConfigurer sqlStatementCountWebMvcConfigurer(SqlStatementCounter counter) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.registerCallableInterceptors(new SqlStatementCountInterceptor(counter));
+            }
+        };
+    }
+}
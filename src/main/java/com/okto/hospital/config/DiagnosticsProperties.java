@@ -0,0 +1,17 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Request diagnostics, configured under the "hospital.diagnostics" prefix.
+ *
+ * @param sqlStatementHeader adds the number of SQL statements run by the request as a response header,
+ *                           meant for development
+ */
+@ConfigurationProperties(prefix = "hospital.diagnostics")
+public record DiagnosticsProperties(
+        @DefaultValue("false")
+        boolean sqlStatementHeader
+) {
+}
@@ -0,0 +1,28 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.search.DoctorNameIndex;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Rebuilds the doctor name index every hospital.doctor-search.rebuild-interval. The first build happens at startup.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableScheduling
+public class DoctorSearchConfiguration implements SchedulingConfigurer {
+
+    private final DoctorNameIndex doctorNameIndex;
+    private final DoctorSearchProperties properties;
+
+    public DoctorSearchConfiguration(DoctorNameIndex doctorNameIndex, DoctorSearchProperties properties) {
+        this.doctorNameIndex = doctorNameIndex;
+        this.properties = properties;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addFixedDelayTask(doctorNameIndex::rebuild, properties.rebuildInterval());
+    }
+}
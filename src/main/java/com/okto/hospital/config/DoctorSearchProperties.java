@@ -0,0 +1,22 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Doctor name search, configured under the "hospital.doctor-search" prefix.
+ *
+ * @param maxResults      the most doctors a search returns, whatever limit the caller asks for
+ * @param rebuildInterval delay between two rebuilds of the name index from the doctor table, which pick up the
+ *                        doctors written without going through JPA
+ */
+@ConfigurationProperties(prefix = "hospital.doctor-search")
+public record DoctorSearchProperties(
+        @DefaultValue("50")
+        int maxResults,
+        @DefaultValue("10m")
+        Duration rebuildInterval
+) {
+}
@@ -0,0 +1,28 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.hold.SlotHolds;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Turns the slot hold timing wheel every hospital.hold.tick, which drops the expired holds.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableScheduling
+public class HoldConfiguration implements SchedulingConfigurer {
+
+    private final SlotHolds slotHolds;
+    private final HoldProperties properties;
+
+    public HoldConfiguration(SlotHolds slotHolds, HoldProperties properties) {
+        this.slotHolds = slotHolds;
+        this.properties = properties;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addFixedRateTask(slotHolds::expire, properties.tick());
+    }
+}
@@ -0,0 +1,30 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Temporary slot holds, configured under the "hospital.hold" prefix.
+ *
+ * @param ttl       how long a hold lasts when the request does not say
+ * @param maxTtl    the longest a hold may last
+ * @param maxHolds  live holds kept at most, further holds get 503 until some expire
+ * @param tick      resolution of the expiry timing wheel
+ * @param wheelSize buckets per level of the timing wheel
+ */
+@ConfigurationProperties(prefix = "hospital.hold")
+public record HoldProperties(
+        @DefaultValue("5m")
+        Duration ttl,
+        @DefaultValue("30m")
+        Duration maxTtl,
+        @DefaultValue("200000")
+        int maxHolds,
+        @DefaultValue("1s")
+        Duration tick,
+        @DefaultValue("64")
+        int wheelSize
+) {
+}
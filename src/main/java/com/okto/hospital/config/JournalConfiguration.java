@@ -0,0 +1,82 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.journal.BookingLedger;
+import com.okto.hospital.journal.FsyncPolicy;
+import com.okto.hospital.journal.JournalRecord;
+import com.okto.hospital.journal.MappedJournal;
+import com.okto.hospital.service.UtilizationService;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+
+/**
+ * Books against the {@link BookingLedger} when hospital.journal.enabled is true, and runs its snapshots every
+ * hospital.journal.snapshot-interval and, with the INTERVAL fsync policy, its forces every
+ * hospital.journal.fsync-interval. The utilization counters are updated by the projection, in the transaction that
+ * writes the appointment table.
+ * <p>
+ * The ledger is the single writer of one journal, so it cannot be combined with sharding, where each shard's
+ * appointments live in their own database.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableScheduling
+@ConditionalOnProperty(prefix = "hospital.journal", name = "enabled", havingValue = "true")
+public class JournalConfiguration implements SchedulingConfigurer {
+
+    private final JournalProperties properties;
+    private final ObjectProvider<BookingLedger> bookingLedger;
+
+    public JournalConfiguration(JournalProperties properties, ObjectProvider<BookingLedger> bookingLedger) {
+        this.properties = properties;
+        this.bookingLedger = bookingLedger;
+    }
+
+    @Bean
+    public BookingLedger bookingLedger(
+            ShardingProperties shardingProperties,
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            UtilizationService utilizationService,
+            Clock clock
+    ) {
+        if (shardingProperties.enabled()) {
+            throw new IllegalStateException("hospital.journal.enabled cannot be combined with hospital.sharding.enabled");
+        }
+        MappedJournal journal = new MappedJournal(
+                properties.directory(),
+                Math.toIntExact(properties.segmentSize().toBytes()),
+                properties.fsync(),
+                properties.fsyncInterval().toNanos());
+        return new BookingLedger(journal, properties.directory(), jdbcTemplate, new TransactionTemplate(transactionManager),
+                properties.projectionBatchSize(), properties.projectionQueueSize(),
+                record -> countUtilization(utilizationService, record), clock);
+    }
+
+    private static void countUtilization(UtilizationService utilizationService, JournalRecord record) {
+        switch (record.type()) {
+            case BOOKED -> utilizationService.recordBooking(record.doctorId(), record.date(), record.startTime(), record.endTime());
+            case CANCELLED -> utilizationService.recordCancellation(record.doctorId(), record.date(), record.startTime(), record.endTime());
+            case PROMOTED -> {
+                // the booking was counted by its own record
+            }
+        }
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        BookingLedger ledger = bookingLedger.getObject();
+        taskRegistrar.addFixedDelayTask(ledger::snapshot, properties.snapshotInterval());
+        if (properties.fsync() == FsyncPolicy.INTERVAL) {
+            taskRegistrar.addFixedDelayTask(ledger::force, properties.fsyncInterval());
+        }
+    }
+}
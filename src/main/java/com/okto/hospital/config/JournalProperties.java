@@ -0,0 +1,44 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.journal.FsyncPolicy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Booking journal, configured under the "hospital.journal" prefix.
+ *
+ * @param enabled             books against the in-memory state rebuilt from the journal, the appointment table
+ *                            becomes a projection written behind
+ * @param directory           directory of the journal segments and the snapshots
+ * @param segmentSize         size of a journal segment file
+ * @param fsync               when appended records are forced to the disk: ALWAYS, INTERVAL or NEVER
+ * @param fsyncInterval       for INTERVAL, the longest time a record stays unforced
+ * @param snapshotInterval    delay between two snapshots of the state, replay at startup starts at the latest
+ * @param projectionBatchSize records written to the appointment table per transaction
+ * @param projectionQueueSize records waiting to be written to the appointment table; when the projection falls
+ *                            that far behind, the bookings wait for it
+ */
+@ConfigurationProperties(prefix = "hospital.journal")
+public record JournalProperties(
+        @DefaultValue("false")
+        boolean enabled,
+        @DefaultValue("journal")
+        Path directory,
+        @DefaultValue("64MB")
+        DataSize segmentSize,
+        @DefaultValue("INTERVAL")
+        FsyncPolicy fsync,
+        @DefaultValue("10ms")
+        Duration fsyncInterval,
+        @DefaultValue("10m")
+        Duration snapshotInterval,
+        @DefaultValue("500")
+        int projectionBatchSize,
+        @DefaultValue("100000")
+        int projectionQueueSize
+) {
+}
@@ -0,0 +1,24 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Schedule read settings, configured under the "hospital.schedule" prefix.
+ *
+ * @param coalescingMaxWait how long a request waits for a concurrent load of the same doctor's schedule
+ * @param batchChunkSize    doctors per IN query of a batch schedule fetch
+ * @param impactBatchSize   appointments flagged or cancelled per transaction after a schedule change
+ */
+@ConfigurationProperties(prefix = "hospital.schedule")
+public record ScheduleProperties(
+        @DefaultValue("2s")
+        Duration coalescingMaxWait,
+        @DefaultValue("500")
+        int batchChunkSize,
+        @DefaultValue("500")
+        int impactBatchSize
+) {
+}
@@ -0,0 +1,115 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.sharding.ConsistentHashShardStrategy;
+import com.okto.hospital.sharding.DirectoryShardStrategy;
+import com.okto.hospital.sharding.ShardFanOut;
+import com.okto.hospital.sharding.ShardRebalancer;
+import com.okto.hospital.sharding.ShardRouter;
+import com.okto.hospital.sharding.ShardRoutingDataSource;
+import com.okto.hospital.sharding.ShardRoutingInterceptor;
+import com.okto.hospital.sharding.ShardSchemaInitializer;
+import com.okto.hospital.sharding.ShardStrategy;
+import com.okto.hospital.sharding.ShardsEndpoint;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shards doctors, with their schedules and appointments, over several databases when
+ * hospital.sharding.enabled is true. Patients are reference data and are expected on every shard.
+ * <p>
+ * The application keeps a single EntityManagerFactory on top of a {@link ShardRoutingDataSource}; the shard is
+ * picked per request from the doctor in the path. Entity ids are only unique within a shard, so the
+ * second-level cache, which is keyed by id, is turned off.
+ * <p>
+ * Every shard gets a pool of its own with the spring.datasource.hikari settings, so each shard has as many
+ * connections as the single pool would have without sharding.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "hospital.sharding", name = "enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+    @Bean
+    public ShardRouter shardRouter(ShardingProperties properties) {
+        if (properties.shards().isEmpty()) {
+            throw new IllegalStateException("hospital.sharding.shards must list at least one shard");
+        }
+        var shards = new ArrayList<>(properties.shards().keySet());
+        ShardStrategy consistentHash = new ConsistentHashShardStrategy(shards, properties.virtualNodes());
+        ShardStrategy strategy = switch (properties.strategy()) {
+            case CONSISTENT_HASH -> consistentHash;
+            case DIRECTORY -> new DirectoryShardStrategy(properties.directory(), consistentHash);
+        };
+        return new ShardRouter(shards, strategy);
+    }
+
+    @Bean
+    public ShardRoutingDataSource dataSource(ShardingProperties properties, ShardRouter shardRouter, Environment environment) {
+        Binder binder = Binder.get(environment);
+        Map<String, HikariDataSource> shards = new LinkedHashMap<>();
+        properties.shards().forEach((name, shard) -> {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .build();
+            binder.bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+            dataSource.setJdbcUrl(shard.url());
+            dataSource.setUsername(shard.username());
+            dataSource.setPassword(shard.password());
+            dataSource.setPoolName("hospital-" + name);
+            shards.put(name, dataSource);
+        });
+        return new ShardRoutingDataSource(shards, shardRouter.getDefaultShard());
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer shardingHibernatePropertiesCustomizer() {
+        return hibernateProperties -> {
+            hibernateProperties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, false);
+            hibernateProperties.put(AvailableSettings.USE_QUERY_CACHE, false);
+        };
+    }
+
+    @Bean
+    public ShardSchemaInitializer shardSchemaInitializer(EntityManagerFactory entityManagerFactory, ShardRouter shardRouter) {
+        return new ShardSchemaInitializer(entityManagerFactory, shardRouter);
+    }
+
+    @Bean
+    public ShardFanOut shardFanOut(ShardRouter shardRouter, ShardingProperties properties) {
+        return new ShardFanOut(shardRouter, properties.fanOutTimeout());
+    }
+
+    @Bean
+    public ShardRebalancer shardRebalancer(ShardRouter shardRouter, ShardRoutingDataSource dataSource) {
+        return new ShardRebalancer(shardRouter, dataSource);
+    }
+
+    @Bean
+    public ShardsEndpoint shardsEndpoint(ShardRouter shardRouter, ShardRebalancer shardRebalancer) {
+        return new ShardsEndpoint(shardRouter, shardRebalancer);
+    }
+
+    @Bean
+    public WebMvcConfigurer shardRoutingWebMvcConfigurer(ShardRouter shardRouter) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new ShardRoutingInterceptor(shardRouter));
+            }
+        };
+    }
+}
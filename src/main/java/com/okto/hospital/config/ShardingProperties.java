@@ -0,0 +1,58 @@
+package com.okto.hospital.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sharding by doctor, configured under the "hospital.sharding" prefix.
+ * The setting is read when the context is built, so AOT builds must be made with the same value.
+ *
+ * @param enabled       routes every doctor to one of the shards instead of the single spring.datasource
+ * @param strategy      how doctors are mapped to shards
+ * @param shards        the shard datasources by name, the first one is the default shard
+ * @param directory     doctor id to shard name, used by the directory strategy; unlisted doctors fall back to
+ *                      consistent hashing
+ * @param virtualNodes  points per shard on the consistent hash ring, more points spread doctors more evenly
+ * @param fanOutTimeout how long a cross-shard read waits for the slowest shard
+ */
+@ConfigurationProperties(prefix = "hospital.sharding")
+public record ShardingProperties(
+        @DefaultValue("false")
+        boolean enabled,
+        @DefaultValue("consistent-hash")
+        Strategy strategy,
+        @DefaultValue
+        LinkedHashMap<String, Shard> shards,
+        @DefaultValue
+        Map<Integer, String> directory,
+        @DefaultValue("128")
+        int virtualNodes,
+        @DefaultValue("5s")
+        Duration fanOutTimeout
+) {
+
+    public enum Strategy {
+        CONSISTENT_HASH,
+        DIRECTORY
+    }
+
+    /**
+     * Connection settings of one shard.
+     *
+     * @param url      JDBC url
+     * @param username user name
+     * @param password password
+     */
+    public record Shard(
+            String url,
+            @DefaultValue("sa")
+            String username,
+            @DefaultValue("")
+            String password
+    ) {
+    }
+}
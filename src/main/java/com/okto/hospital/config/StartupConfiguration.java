@@ -0,0 +1,61 @@
+package com.okto.hospital.config;
+
+import com.okto.hospital.journal.BookingLedger;
+import com.okto.hospital.search.DoctorNameIndex;
+import com.okto.hospital.waitlist.Waitlist;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.sql.init.AbstractScriptDatabaseInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import javax.sql.DataSource;
+
+/**
+ * Startup tuning used by the "faststart" profile and the fast-startup Maven profile.
+ * <p>
+ * Nothing here depends on a profile or a condition on purpose: with Spring AOT the bean
+ * definitions are fixed at build time, so the behaviour is switched by properties at runtime.
+ */
+@Configuration(proxyBeanMethods = false)
+public class StartupConfiguration {
+
+    public static final String TRAINING_RUN_PROPERTY = "hospital.startup.training-run";
+
+    /**
+     * When lazy initialization is on, keeps the datasource, its SQL scripts and the Hibernate bootstrap
+     * eager. Otherwise their cost would move from startup to the first booking, which is what autoscaled
+     * instances are waiting for, and the scripts would never run since no bean depends on them.
+     * The waitlist, the booking ledger and the doctor name index stay eager too: they load their state once all
+     * singletons exist, a callback a bean created later never gets, and the ledger starts its projection there.
+     *
+     * @return filter excluding the persistence layer from lazy initialization
+     */
+    @Bean
+    static LazyInitializationExcludeFilter eagerPersistenceLayer() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                DataSource.class,
+                AbstractScriptDatabaseInitializer.class,
+                EntityManagerFactory.class,
+                Waitlist.class,
+                BookingLedger.class,
+                DoctorNameIndex.class
+        );
+    }
+
+    /**
+     * Ends the application as soon as it is ready when started as a training run, so that the JVM
+     * can write the AppCDS archive of the classes loaded during startup.
+     *
+     * @param event the ready event
+     */
+    @EventListener
+    public void exitAfterTrainingRun(ApplicationReadyEvent event) {
+        if (event.getApplicationContext().getEnvironment().getProperty(TRAINING_RUN_PROPERTY, Boolean.class, false)) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
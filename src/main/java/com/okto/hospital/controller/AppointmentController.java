@@ -1,18 +1,31 @@
 package com.okto.hospital.controller;
 
 import com.okto.hospital.model.request.AppointmentRequest;
+import com.okto.hospital.model.request.AppointmentSeriesRequest;
+import com.okto.hospital.model.request.SlotHoldRequest;
 import com.okto.hospital.model.response.Appointment;
+import com.okto.hospital.model.response.AppointmentSeries;
+import com.okto.hospital.model.response.SlotHold;
 import com.okto.hospital.service.AppointmentService;
+import com.okto.hospital.service.BookingOutcome;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.LocalDate;
+import java.util.List;
+
 @RestController
 @RequestMapping("/v1")
 public class AppointmentController {
@@ -24,22 +37,150 @@ public class AppointmentController {
     }
 
     /**
-     * Create an appointment for a patient with a doctor
+     * Create an appointment for a patient with a doctor.
+     * When the slot is taken or not bookable, the 409 body lists the doctor's next free slots that day.
      *
-     * @param doctorId          The doctor's id
-     * @param appointmentRequest The appointment request
+     * @param doctorId            The doctor's id
+     * @param appointmentRequest  The appointment request
+     * @param suggestOtherDoctors Also suggest free slots with other doctors on a conflict
      * @return The created appointment
      */
     @PostMapping("/doctors/{doctorId}/appointments")
     @ResponseStatus(HttpStatus.CREATED)
     public Appointment createAppointment(
             @PathVariable Integer doctorId,
-            @Valid @NotNull @RequestBody AppointmentRequest appointmentRequest
+            @Valid @NotNull @RequestBody AppointmentRequest appointmentRequest,
+            @RequestParam(defaultValue = "false") boolean suggestOtherDoctors
     ) {
         return appointmentService.createAppointment(doctorId,
+                appointmentRequest.patientId(),
+                appointmentRequest.date(),
+                appointmentRequest.startTime(),
+                suggestOtherDoctors
+        );
+    }
+
+    /**
+     * Create an appointment, or join the waitlist of the slot when it is already booked.
+     * Selected with the waitlist=true query parameter.
+     *
+     * @param doctorId           The doctor's id
+     * @param appointmentRequest The appointment request
+     * @return 201 with the created appointment, or 202 with the patient's place in the waitlist
+     */
+    @PostMapping(value = "/doctors/{doctorId}/appointments", params = "waitlist=true")
+    public ResponseEntity<?> createAppointmentOrJoinWaitlist(
+            @PathVariable Integer doctorId,
+            @Valid @NotNull @RequestBody AppointmentRequest appointmentRequest
+    ) {
+        BookingOutcome outcome = appointmentService.createAppointmentOrJoinWaitlist(doctorId,
                 appointmentRequest.patientId(),
                 appointmentRequest.date(),
                 appointmentRequest.startTime()
         );
+        return outcome.appointment() != null
+                ? ResponseEntity.status(HttpStatus.CREATED).body(outcome.appointment())
+                : ResponseEntity.status(HttpStatus.ACCEPTED).body(outcome.waitlistEntry());
+    }
+
+    /**
+     * Book a weekly recurring appointment for a patient with a doctor
+     *
+     * @param doctorId      The doctor's id
+     * @param seriesRequest The series request
+     * @return 201 with the outcome of every occurrence when at least one was booked, 409 when none was
+     */
+    @PostMapping("/doctors/{doctorId}/appointments/series")
+    public ResponseEntity<AppointmentSeries> createAppointmentSeries(
+            @PathVariable Integer doctorId,
+            @Valid @NotNull @RequestBody AppointmentSeriesRequest seriesRequest
+    ) {
+        AppointmentSeries series = appointmentService.createAppointmentSeries(doctorId,
+                seriesRequest.patientId(),
+                seriesRequest.firstDate(),
+                seriesRequest.startTime(),
+                seriesRequest.occurrences(),
+                seriesRequest.intervalWeeksOrDefault(),
+                seriesRequest.mode()
+        );
+        return ResponseEntity.status(series.booked() > 0 ? HttpStatus.CREATED : HttpStatus.CONFLICT).body(series);
+    }
+
+    /**
+     * Hold a slot for a patient for a few minutes, while the patient fills in the booking form.
+     * Other patients get 409 for the slot until the hold is confirmed, released or expires.
+     *
+     * @param doctorId    The doctor's id
+     * @param holdRequest The slot, the patient and how many minutes to hold it
+     * @return The hold, with the token that confirms it
+     */
+    @PostMapping("/doctors/{doctorId}/holds")
+    @ResponseStatus(HttpStatus.CREATED)
+    public SlotHold holdSlot(
+            @PathVariable Integer doctorId,
+            @Valid @NotNull @RequestBody SlotHoldRequest holdRequest
+    ) {
+        return appointmentService.holdSlot(doctorId,
+                holdRequest.patientId(),
+                holdRequest.date(),
+                holdRequest.startTime(),
+                holdRequest.ttl()
+        );
+    }
+
+    /**
+     * Book the held slot for the patient who holds it
+     *
+     * @param doctorId The doctor's id
+     * @param token    The token of the hold
+     * @return The created appointment, 404 if the hold does not exist or has expired
+     */
+    @PostMapping("/doctors/{doctorId}/holds/{token}/confirm")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Appointment confirmHold(@PathVariable Integer doctorId, @PathVariable String token) {
+        return appointmentService.confirmHold(doctorId, token);
+    }
+
+    /**
+     * Give a held slot up before it expires
+     *
+     * @param doctorId The doctor's id
+     * @param token    The token of the hold
+     */
+    @DeleteMapping("/doctors/{doctorId}/holds/{token}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void releaseHold(@PathVariable Integer doctorId, @PathVariable String token) {
+        appointmentService.releaseHold(doctorId, token);
+    }
+
+    /**
+     * Cancel an appointment. The slot goes to the first patient on its waitlist, if any.
+     *
+     * @param doctorId      The doctor's id
+     * @param appointmentId The appointment's id
+     */
+    @DeleteMapping("/doctors/{doctorId}/appointments/{appointmentId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void cancelAppointment(@PathVariable Integer doctorId, @PathVariable Integer appointmentId) {
+        appointmentService.cancelAppointment(doctorId, appointmentId);
+    }
+
+    /**
+     * Get the appointments of a doctor between two dates
+     *
+     * @param doctorId        The doctor's id
+     * @param from            The first date, included
+     * @param to              The last date, included
+     * @param includeArchived Also return the past appointments moved to the archive
+     * @return The appointments, ordered by date and start time
+     */
+    @GetMapping("/doctors/{doctorId}/appointments")
+    public List<Appointment> getAppointments(
+            @PathVariable Integer doctorId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "false") boolean includeArchived
+    ) {
+        return appointmentService.getAppointments(doctorId, from, to, includeArchived);
     }
 }
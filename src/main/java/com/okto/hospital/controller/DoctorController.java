@@ -0,0 +1,38 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.model.response.DoctorMatch;
+import com.okto.hospital.service.DoctorSearchService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/v1")
+public class DoctorController {
+
+    private final DoctorSearchService doctorSearchService;
+
+    public DoctorController(DoctorSearchService doctorSearchService) {
+        this.doctorSearchService = doctorSearchService;
+    }
+
+    /**
+     * Search doctors by name, for type-ahead: every word of the query must start a word of the name
+     *
+     * @param q                The words typed so far, in any order, case and accents ignored
+     * @param limit            The most doctors returned, capped at hospital.doctor-search.max-results
+     * @param withAvailability Also tell whether each doctor has a free slot from now to Sunday
+     * @return The matching doctors, best match first
+     */
+    @GetMapping("/doctors/search")
+    public List<DoctorMatch> searchDoctors(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "false") boolean withAvailability
+    ) {
+        return doctorSearchService.searchDoctors(q, limit, withAvailability);
+    }
+}
@@ -1,22 +1,47 @@
 package com.okto.hospital.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.okto.hospital.config.BinaryFormatConfiguration;
+import com.okto.hospital.model.request.ScheduleBatchRequest;
 import com.okto.hospital.model.request.ScheduleRequest;
+import com.okto.hospital.model.response.DoctorSchedules;
 import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.model.response.ScheduleImpact;
+import com.okto.hospital.resilience.Served;
+import com.okto.hospital.service.ScheduleImpactService;
 import com.okto.hospital.service.ScheduleService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.List;
 
 @RestController
@@ -24,21 +49,156 @@ import java.util.List;
 @Validated
 public class ScheduleController {
 
+    private static final Logger log = LoggerFactory.getLogger(ScheduleController.class);
+
+    private static final List<MediaType> STREAMED_MEDIA_TYPES = List.of(
+            MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, BinaryFormatConfiguration.APPLICATION_SMILE);
+
     private final ScheduleService scheduleService;
+    private final ScheduleImpactService scheduleImpactService;
+    private final List<AbstractJackson2HttpMessageConverter> converters;
+    private final ContentNegotiationManager contentNegotiationManager;
+    private final Clock clock;
 
-    public ScheduleController(ScheduleService scheduleService) {
+    public ScheduleController(ScheduleService scheduleService, ScheduleImpactService scheduleImpactService, List<AbstractJackson2HttpMessageConverter> converters, ContentNegotiationManager contentNegotiationManager, Clock clock) {
         this.scheduleService = scheduleService;
+        this.scheduleImpactService = scheduleImpactService;
+        this.converters = converters;
+        this.contentNegotiationManager = contentNegotiationManager;
+        this.clock = clock;
     }
 
     /**
      * Get the schedule of a doctor
+     * While the database is unavailable, the last known schedule is returned with its Age in seconds and a
+     * 110 "Response is Stale" Warning.
      *
      * @param doctorId The doctor's id
      * @return The schedule of the doctor
      */
     @GetMapping("/doctors/{doctorId}/schedule")
-    public List<Schedule> getSchedule(@PathVariable Integer doctorId) {
-        return scheduleService.getScheduleByDoctorId(doctorId);
+    public ResponseEntity<List<Schedule>> getSchedule(@PathVariable Integer doctorId) {
+        Served<List<Schedule>> schedules = scheduleService.getScheduleByDoctorId(doctorId);
+        if (!schedules.stale()) {
+            return ResponseEntity.ok(schedules.value());
+        }
+        long age = Math.max(0, Duration.between(schedules.loadedAt(), clock.instant()).toSeconds());
+        return ResponseEntity.ok()
+                .header(HttpHeaders.AGE, String.valueOf(age))
+                .header(HttpHeaders.WARNING, "110 - \"Response is Stale\"")
+                .body(schedules.value());
+    }
+
+    /**
+     * Get the schedules of several doctors, for example GET /v1/schedules?doctorIds=1,2,3
+     * The response is a list with one entry per doctor, in the order of the request; doctors without schedules
+     * are reported NOT_FOUND.
+     *
+     * @param doctorIds The doctors' ids
+     * @param request   The request, for its Accept header
+     * @return The schedules, streamed in the negotiated format
+     */
+    @GetMapping(value = "/schedules", produces = {
+            MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, BinaryFormatConfiguration.APPLICATION_SMILE_VALUE
+    })
+    public ResponseEntity<StreamingResponseBody> getSchedules(
+            @RequestParam @NotEmpty @Size(max = ScheduleBatchRequest.MAX_DOCTORS) List<@NotNull Integer> doctorIds,
+            HttpServletRequest request
+    ) throws HttpMediaTypeNotAcceptableException {
+        return streamSchedules(doctorIds, request);
+    }
+
+    /**
+     * Same as GET /v1/schedules, for id lists too long for a query string
+     *
+     * @param batchRequest The doctors' ids
+     * @param request      The request, for its Accept header
+     * @return The schedules, streamed in the negotiated format
+     */
+    @PostMapping(value = "/schedules/search", produces = {
+            MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, BinaryFormatConfiguration.APPLICATION_SMILE_VALUE
+    })
+    public ResponseEntity<StreamingResponseBody> searchSchedules(
+            @Valid @RequestBody ScheduleBatchRequest batchRequest,
+            HttpServletRequest request
+    ) throws HttpMediaTypeNotAcceptableException {
+        return streamSchedules(batchRequest.doctorIds(), request);
+    }
+
+    /**
+     * Writes the entries chunk by chunk as the service loads them, flushing after every chunk, instead of
+     * building the whole list first. The body is written on an async request thread, with the object mapper of
+     * the format the Accept header asks for; formats other than JSON, CBOR and Smile are refused with 406
+     * before the handler runs.
+     * <p>
+     * The first chunk is loaded here, before the status is sent, so a database that is already failing gets the
+     * usual error answer. Once the status and the first entries are out, a failure can no longer be answered:
+     * the array is then left open and the connection aborted, so the client cannot take a truncated list for
+     * the whole one.
+     */
+    private ResponseEntity<StreamingResponseBody> streamSchedules(List<Integer> doctorIds, HttpServletRequest request)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType mediaType = negotiate(contentNegotiationManager.resolveMediaTypes(new ServletWebRequest(request)));
+        AbstractJackson2HttpMessageConverter converter = converters.stream()
+                .filter(candidate -> candidate.canWrite(DoctorSchedules.class, mediaType))
+                .findFirst()
+                .orElseThrow(() -> new HttpMediaTypeNotAcceptableException(STREAMED_MEDIA_TYPES));
+
+        Iterator<List<DoctorSchedules>> chunks = scheduleService.streamSchedules(doctorIds);
+        List<DoctorSchedules> firstChunk = chunks.next();
+        ObjectMapper objectMapper = converter.getObjectMapper();
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartArray();
+            write(generator, firstChunk);
+            while (chunks.hasNext()) {
+                List<DoctorSchedules> chunk;
+                try {
+                    chunk = chunks.next();
+                } catch (RuntimeException e) {
+                    log.warn("Aborting the schedules stream of {} doctors after a failed chunk", doctorIds.size(), e);
+                    throw new StreamAborted();
+                }
+                write(generator, chunk);
+            }
+            generator.writeEndArray();
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(mediaType).body(body);
+    }
+
+    private static void write(JsonGenerator generator, List<DoctorSchedules> chunk) throws IOException {
+        for (DoctorSchedules doctorSchedules : chunk) {
+            generator.writeObject(doctorSchedules);
+        }
+        generator.flush();
+    }
+
+    /**
+     * Thrown out of a committed schedules stream. No handler maps it, and it carries no cause a handler could
+     * match, so it reaches the container, which closes the connection instead of ending the response.
+     */
+    static class StreamAborted extends RuntimeException {
+
+        StreamAborted() {
+            super("Schedules stream aborted", null, false, false);
+        }
+    }
+
+    /**
+     * Picks the first streamed format the client accepts, JSON for a wildcard.
+     */
+    private static MediaType negotiate(List<MediaType> accepted) throws HttpMediaTypeNotAcceptableException {
+        for (MediaType acceptedType : accepted) {
+            for (MediaType streamed : STREAMED_MEDIA_TYPES) {
+                if (acceptedType.isCompatibleWith(streamed)) {
+                    return streamed;
+                }
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(STREAMED_MEDIA_TYPES);
     }
 
     /**
@@ -83,6 +243,31 @@ public class ScheduleController {
         );
     }
 
+    /**
+     * Update a schedule for a doctor and handle the future appointments left outside the new hours.
+     * Selected with the impact query parameter: DRY_RUN only reports them and changes nothing, FLAG flags them,
+     * CANCEL cancels them.
+     *
+     * @param doctorId The doctor's id
+     * @param schedule The schedule request
+     * @param impact   DRY_RUN, FLAG or CANCEL
+     * @return The affected appointments
+     */
+    @PutMapping(value = "/doctors/{doctorId}/schedule", params = "impact")
+    public ScheduleImpact updateSchedule(
+            @PathVariable Integer doctorId,
+            @Valid @RequestBody ScheduleRequest schedule,
+            @RequestParam ScheduleImpact.Mode impact
+    ) {
+        return scheduleImpactService.updateSchedule(
+                doctorId,
+                schedule.dayOfWeek(),
+                schedule.startTime(),
+                schedule.endTime(),
+                impact
+        );
+    }
+
     /**
      * Upsert a list of schedules for a doctor
      *
@@ -97,4 +282,22 @@ public class ScheduleController {
     ) {
         return scheduleService.upsertScheduleList(doctorId, scheduleRequestList);
     }
+
+    /**
+     * Upsert a list of schedules for a doctor and handle the future appointments left outside the new hours,
+     * as for a single schedule
+     *
+     * @param doctorId            The doctor's id
+     * @param scheduleRequestList The list of schedule requests
+     * @param impact              DRY_RUN, FLAG or CANCEL
+     * @return The affected appointments
+     */
+    @PutMapping(value = "/doctors/{doctorId}/schedule/list", params = "impact")
+    public ScheduleImpact upsertScheduleList(
+            @PathVariable Integer doctorId,
+            @RequestBody @NotEmpty List<@Valid @NotNull ScheduleRequest> scheduleRequestList,
+            @RequestParam ScheduleImpact.Mode impact
+    ) {
+        return scheduleImpactService.upsertScheduleList(doctorId, scheduleRequestList, impact);
+    }
 }
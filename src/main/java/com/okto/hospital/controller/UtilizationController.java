@@ -0,0 +1,43 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.model.UtilizationEntity;
+import com.okto.hospital.model.response.DoctorUtilization;
+import com.okto.hospital.service.UtilizationService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+
+@RestController
+@RequestMapping("/v1")
+public class UtilizationController {
+
+    private final UtilizationService utilizationService;
+
+    public UtilizationController(UtilizationService utilizationService) {
+        this.utilizationService = utilizationService;
+    }
+
+    /**
+     * Get the booked and available minutes of a doctor between two dates, from the utilization counters
+     *
+     * @param doctorId The doctor's id
+     * @param from     The first date, included
+     * @param to       The last date, included, at most ten years after the first
+     * @param period   Break the range down per DAY, WEEK or MONTH
+     * @return The utilization of the range and of every period in it
+     */
+    @GetMapping("/doctors/{doctorId}/utilization")
+    public DoctorUtilization getUtilization(
+            @PathVariable Integer doctorId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "DAY") UtilizationEntity.Period period
+    ) {
+        return utilizationService.getUtilization(doctorId, from, to, period);
+    }
+}
@@ -0,0 +1,189 @@
+package com.okto.hospital.diagnostics;
+
+import com.okto.hospital.config.DiagnosticsProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the SQL statements run by every request, so that N+1 regressions show up per endpoint.
+ * <p>
+ * The count is recorded in the "hospital.http.sql.statements" distribution summary, tagged with the
+ * method and the URI pattern. With hospital.diagnostics.sql-statement-header=true it is also returned in the
+ * X-SQL-Statement-Count response header. The response is buffered for that, so only turn it on in development.
+ * <p>
+ * Streamed responses (StreamingResponseBody, ResponseBodyEmitter) are never buffered and carry no header. Their
+ * body is written on an async thread, whose statements {@link SqlStatementCountInterceptor} adds to the count;
+ * the metric is recorded when the async request completes.
+ */
+@Component
+@Order(SqlStatementCountFilter.ORDER)
+public class SqlStatementCountFilter extends OncePerRequestFilter {
+
+    /**
+     * Inside the bulkheads and the admission control, so that only the requests they let through are counted.
+     */
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 50;
+
+    public static final String STATEMENT_COUNT_HEADER = "X-SQL-Statement-Count";
+
+    private static final String UNKNOWN_URI = "UNKNOWN";
+
+    /**
+     * Set by ShallowEtagHeaderFilter.disableContentCaching, which the handlers of streamed bodies call.
+     */
+    private static final String STREAMING_ATTRIBUTE = ShallowEtagHeaderFilter.class.getName() + ".STREAMING";
+
+    private final SqlStatementCounter counter;
+    private final DiagnosticsProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    public SqlStatementCountFilter(SqlStatementCounter counter, DiagnosticsProperties properties, MeterRegistry meterRegistry) {
+        this.counter = counter;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        counter.start();
+        int statements;
+        if (properties.sqlStatementHeader()) {
+            var responseWrapper = new StatementCountResponseWrapper(request, response, counter);
+            try {
+                filterChain.doFilter(request, responseWrapper);
+            } finally {
+                statements = counter.stop();
+            }
+            if (!streaming(request)) {
+                responseWrapper.setStatementCountHeader(statements);
+                responseWrapper.copyBodyToResponse();
+            }
+        } else {
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                statements = counter.stop();
+            }
+        }
+
+        AtomicInteger asyncStatements = SqlStatementCountInterceptor.asyncCount(request);
+        if (request.isAsyncStarted() && asyncStatements != null) {
+            asyncStatements.addAndGet(statements);
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    record(request, asyncStatements.get());
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            record(request, statements);
+        }
+    }
+
+    private void record(HttpServletRequest request, int statements) {
+        DistributionSummary.builder("hospital.http.sql.statements")
+                .description("SQL statements run per HTTP request")
+                .tag("method", request.getMethod())
+                .tag("uri", uriPattern(request))
+                .register(meterRegistry)
+                .record(statements);
+    }
+
+    private static boolean streaming(HttpServletRequest request) {
+        return request.getAttribute(STREAMING_ATTRIBUTE) != null;
+    }
+
+    private String uriPattern(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return pattern == null ? UNKNOWN_URI : pattern.toString();
+    }
+
+    /**
+     * Holds the body back until the count is known. Errors are sent, and the response committed,
+     * before the filter chain returns, so the header is set with the count reached at that point.
+     * Once a handler has turned content caching off for a streamed body, the body goes straight to the response.
+     */
+    private static class StatementCountResponseWrapper extends ContentCachingResponseWrapper {
+
+        private final HttpServletRequest request;
+        private final SqlStatementCounter counter;
+
+        StatementCountResponseWrapper(HttpServletRequest request, HttpServletResponse response, SqlStatementCounter counter) {
+            super(response);
+            this.request = request;
+            this.counter = counter;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            return streaming(request)
+                    ? getResponse().getOutputStream()
+                    : super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            return streaming(request)
+                    ? getResponse().getWriter()
+                    : super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (streaming(request)) {
+                getResponse().flushBuffer();
+            } else {
+                super.flushBuffer();
+            }
+        }
+
+        void setStatementCountHeader(int statements) {
+            if (!isCommitted()) {
+                setHeader(STATEMENT_COUNT_HEADER, String.valueOf(statements));
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            setStatementCountHeader(counter.current());
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            setStatementCountHeader(counter.current());
+            super.sendError(sc, msg);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.okto.hospital.diagnostics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the SQL statements of the async part of a request, like the body of a StreamingResponseBody, which runs
+ * on another thread than the one {@link SqlStatementCountFilter} counts on. The statements are added to a count
+ * kept in a request attribute, which the filter completes with the statements of the request thread.
+ */
+public class SqlStatementCountInterceptor implements CallableProcessingInterceptor {
+
+    private static final String ASYNC_COUNT_ATTRIBUTE = SqlStatementCountInterceptor.class.getName() + ".COUNT";
+
+    private final SqlStatementCounter counter;
+
+    public SqlStatementCountInterceptor(SqlStatementCounter counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * Returns the statements counted on async threads for the request.
+     *
+     * @param request the request
+     * @return the count, null if the request did not start async work
+     */
+    static AtomicInteger asyncCount(HttpServletRequest request) {
+        return (AtomicInteger) request.getAttribute(ASYNC_COUNT_ATTRIBUTE);
+    }
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        request.setAttribute(ASYNC_COUNT_ATTRIBUTE, new AtomicInteger(), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+        counter.start();
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+        AtomicInteger count = (AtomicInteger) request.getAttribute(ASYNC_COUNT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        int statements = counter.stop();
+        if (count != null) {
+            count.addAndGet(statements);
+        }
+    }
+}
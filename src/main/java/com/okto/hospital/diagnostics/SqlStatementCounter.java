@@ -0,0 +1,62 @@
+package com.okto.hospital.diagnostics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread while a count is open.
+ * It is registered as Hibernate's statement inspector and leaves the SQL untouched.
+ * <p>
+ * Statements run outside of Hibernate (plain JDBC, SQL scripts) are not counted.
+ */
+@Component
+public class SqlStatementCounter implements StatementInspector, HibernatePropertiesCustomizer {
+
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<>();
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    @Override
+    public String inspect(String sql) {
+        int[] count = COUNT.get();
+        if (count != null) {
+            count[0]++;
+        }
+        return sql;
+    }
+
+    /**
+     * Starts counting the statements of the current thread from zero.
+     */
+    public void start() {
+        COUNT.set(new int[1]);
+    }
+
+    /**
+     * Returns the number of statements counted since {@link #start()}, or 0 if no count is open.
+     *
+     * @return number of statements
+     */
+    public int current() {
+        int[] count = COUNT.get();
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Stops counting on the current thread.
+     *
+     * @return number of statements counted since {@link #start()}
+     */
+    public int stop() {
+        int count = current();
+        COUNT.remove();
+        return count;
+    }
+}
@@ -2,7 +2,10 @@ package com.okto.hospital.exception;
 
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.ConstraintViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
@@ -10,7 +13,9 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 import java.io.IOException;
 
 /**
- * Custom exception handler used for handling constraint violations exceptions
+ * Custom exception handler used for handling constraint violations exceptions,
+ * for the slot conflicts, whose body lists the free slots to try instead,
+ * and for the calls refused by the open circuit breaker, told when to retry
  */
 @ControllerAdvice
 public class CustomExceptionHandler extends ResponseEntityExceptionHandler {
@@ -20,4 +25,21 @@ public class CustomExceptionHandler extends ResponseEntityExceptionHandler {
         response.sendError(HttpStatus.BAD_REQUEST.value());
     }
 
-}
\ No newline at end of file
+    @ExceptionHandler(SlotConflict.class)
+    public ResponseEntity<ProblemDetail> slotConflict(SlotConflict exception) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.CONFLICT, exception.getMessage());
+        problem.setProperty("suggestedSlots", exception.getSuggestedSlots());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(problem);
+    }
+
+    @ExceptionHandler(DatabaseUnavailable.class)
+    public ResponseEntity<ProblemDetail> databaseUnavailable(DatabaseUnavailable exception) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, exception.getMessage());
+        // rounded up, a client retrying after 0 seconds would be refused again
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(problem);
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.okto.hospital.exception;
+
+import java.time.Duration;
+
+/**
+ * A call refused without touching the database because the circuit breaker in front of it is open.
+ * Answered 503 with a Retry-After header by the {@link CustomExceptionHandler}.
+ */
+public class DatabaseUnavailable extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public DatabaseUnavailable(Duration retryAfter) {
+        super("The database is unavailable, please retry later");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,8 @@
+package com.okto.hospital.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.BAD_REQUEST, reason = "The range must end on or after its first date and must not be longer than the maximum allowed")
+public class InvalidDateRange extends RuntimeException{
+}
@@ -0,0 +1,8 @@
+package com.okto.hospital.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.CONFLICT, reason = "Patient has reached the limit of open appointments")
+public class PatientAppointmentLimitReached extends RuntimeException{
+}
@@ -0,0 +1,8 @@
+package com.okto.hospital.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "Service is temporarily unavailable, please retry")
+public class ServiceUnavailable extends RuntimeException{
+}
@@ -1,8 +1,19 @@
 package com.okto.hospital.exception;
 
+import com.okto.hospital.model.response.SuggestedSlot;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import java.util.List;
+
 @ResponseStatus(code = HttpStatus.CONFLICT, reason = "Slot is already booked")
-public class SlotAlreadyBooked extends RuntimeException{
+public class SlotAlreadyBooked extends SlotConflict {
+
+    public SlotAlreadyBooked() {
+        this(List.of());
+    }
+
+    public SlotAlreadyBooked(List<SuggestedSlot> suggestedSlots) {
+        super("Slot is already booked", suggestedSlots);
+    }
 }
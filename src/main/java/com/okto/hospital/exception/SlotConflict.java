@@ -0,0 +1,23 @@
+package com.okto.hospital.exception;
+
+import com.okto.hospital.model.response.SuggestedSlot;
+
+import java.util.List;
+
+/**
+ * A booking rejected because of the requested slot itself. Carries the free slots to offer instead,
+ * returned in the 409 body by the {@link CustomExceptionHandler}.
+ */
+public abstract class SlotConflict extends RuntimeException {
+
+    private final List<SuggestedSlot> suggestedSlots;
+
+    protected SlotConflict(String message, List<SuggestedSlot> suggestedSlots) {
+        super(message);
+        this.suggestedSlots = List.copyOf(suggestedSlots);
+    }
+
+    public List<SuggestedSlot> getSuggestedSlots() {
+        return suggestedSlots;
+    }
+}
@@ -1,8 +1,19 @@
 package com.okto.hospital.exception;
 
+import com.okto.hospital.model.response.SuggestedSlot;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import java.util.List;
+
 @ResponseStatus(code = HttpStatus.CONFLICT, reason = "Slot is not bookable")
-public class SlotNotBookable extends RuntimeException{
+public class SlotNotBookable extends SlotConflict {
+
+    public SlotNotBookable() {
+        this(List.of());
+    }
+
+    public SlotNotBookable(List<SuggestedSlot> suggestedSlots) {
+        super("Slot is not bookable", suggestedSlots);
+    }
 }
@@ -0,0 +1,201 @@
+package com.okto.hospital.hold;
+
+import com.okto.hospital.config.HoldProperties;
+import com.okto.hospital.exception.ServiceUnavailable;
+import com.okto.hospital.exception.SlotAlreadyBooked;
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.model.response.SlotHold;
+import com.okto.hospital.support.HierarchicalTimingWheel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The live slot holds, in memory only: a restart drops them and the patients simply pick a slot again.
+ * <p>
+ * The holds are indexed by token and by doctor and day. A day's holds are an immutable map replaced atomically,
+ * so the booking checks read them without locking and two patients cannot hold the same slot. Expiry is driven by
+ * a {@link HierarchicalTimingWheel} turned every hospital.hold.tick, one entry per hold, so a hundred thousand live
+ * holds cost a few megabytes and no scheduled task each. Reads check the expiry time as well, so a hold stops
+ * blocking the slot at its deadline even when the wheel turns late.
+ */
+@Component
+public class SlotHolds {
+
+    private final Map<DayKey, Map<LocalTime, SlotHold>> byDay = new ConcurrentHashMap<>();
+    private final Map<String, SlotHold> byToken = new ConcurrentHashMap<>();
+    // guarded by the wheel
+    private final HierarchicalTimingWheel<SlotHold> wheel;
+    private final Map<String, HierarchicalTimingWheel.Timeout<SlotHold>> timeouts = new HashMap<>();
+    private final HoldProperties properties;
+    private final Clock clock;
+
+    public SlotHolds(HoldProperties properties, Clock clock, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.clock = clock;
+        this.wheel = new HierarchicalTimingWheel<>(properties.tick(), properties.wheelSize(), clock.millis());
+        Gauge.builder("hospital.holds.live", byToken, Map::size)
+                .description("Slot holds waiting to be confirmed or to expire")
+                .register(meterRegistry);
+    }
+
+    private record DayKey(int doctorId, LocalDate date) {
+    }
+
+    /**
+     * Holds the slot for the patient. Holding a slot the patient already holds returns the existing hold.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      the date of the slot
+     * @param startTime the start time of the slot
+     * @param endTime   the end time of the slot
+     * @param ttl       how long the hold lasts, at most hospital.hold.max-ttl; null for hospital.hold.ttl
+     * @return the hold
+     * @throws SlotAlreadyBooked   if another patient holds the slot
+     * @throws ServiceUnavailable  if hospital.hold.max-holds holds are live
+     */
+    public SlotHold hold(int doctorId, int patientId, LocalDate date, LocalTime startTime, LocalTime endTime, Duration ttl) {
+        if (byToken.size() >= properties.maxHolds()) {
+            throw new ServiceUnavailable();
+        }
+        Instant now = clock.instant();
+        Duration requestedTtl = ttl != null ? ttl : properties.ttl();
+        Duration cappedTtl = requestedTtl.compareTo(properties.maxTtl()) > 0 ? properties.maxTtl() : requestedTtl;
+        SlotHold candidate = new SlotHold(UUID.randomUUID().toString(), doctorId, patientId, date, startTime, endTime,
+                now.plus(cappedTtl));
+        SlotHold[] current = new SlotHold[1];
+        byDay.compute(new DayKey(doctorId, date), (key, slots) -> {
+            SlotHold existing = slots == null ? null : slots.get(startTime);
+            if (existing != null && existing.expiresAt().isAfter(now)) {
+                current[0] = existing;
+                return slots;
+            }
+            // replaces an expired hold the wheel has not dropped yet
+            Map<LocalTime, SlotHold> changed = slots == null ? new HashMap<>() : new HashMap<>(slots);
+            changed.put(startTime, candidate);
+            current[0] = candidate;
+            return Map.copyOf(changed);
+        });
+        if (current[0] != candidate) {
+            if (current[0].patientId() == patientId) {
+                return current[0];
+            }
+            throw new SlotAlreadyBooked();
+        }
+        byToken.put(candidate.token(), candidate);
+        synchronized (wheel) {
+            timeouts.put(candidate.token(), wheel.add(candidate, candidate.expiresAt().toEpochMilli()));
+        }
+        return candidate;
+    }
+
+    /**
+     * Returns the live hold with this token.
+     *
+     * @param token the token of the hold
+     * @return the hold, empty if it does not exist or has expired
+     */
+    public Optional<SlotHold> find(String token) {
+        Instant now = clock.instant();
+        return Optional.ofNullable(byToken.get(token)).filter(hold -> hold.expiresAt().isAfter(now));
+    }
+
+    /**
+     * Returns the live holds of the doctor's day as booked slots, for the booking conflict checks. The holds of
+     * the patient who is booking are left out, the patient may book the slots they hold.
+     *
+     * @param doctorId  Doctor id
+     * @param date      the day
+     * @param patientId the patient who is booking
+     * @return the slots held by other patients
+     */
+    public List<BookedSlot> heldSlots(Integer doctorId, LocalDate date, Integer patientId) {
+        Map<LocalTime, SlotHold> slots = byDay.get(new DayKey(doctorId, date));
+        if (slots == null) {
+            return List.of();
+        }
+        Instant now = clock.instant();
+        List<BookedSlot> held = new ArrayList<>(slots.size());
+        for (SlotHold hold : slots.values()) {
+            if (hold.expiresAt().isAfter(now) && !hold.patientId().equals(patientId)) {
+                held.add(new BookedSlot(null, hold.doctorId(), hold.patientId(), hold.date(), hold.startTime(), hold.endTime()));
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Drops a hold, confirmed or given up.
+     *
+     * @param token the token of the hold
+     * @return true if the hold existed
+     */
+    public boolean release(String token) {
+        SlotHold hold = byToken.remove(token);
+        if (hold == null) {
+            return false;
+        }
+        removeFromDay(hold);
+        synchronized (wheel) {
+            HierarchicalTimingWheel.Timeout<SlotHold> timeout = timeouts.remove(token);
+            if (timeout != null) {
+                wheel.cancel(timeout);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns the wheel to now and drops the holds that have expired.
+     */
+    public void expire() {
+        List<SlotHold> expired = new ArrayList<>();
+        synchronized (wheel) {
+            wheel.advance(clock.millis(), hold -> {
+                timeouts.remove(hold.token());
+                expired.add(hold);
+            });
+        }
+        for (SlotHold hold : expired) {
+            byToken.remove(hold.token(), hold);
+            removeFromDay(hold);
+        }
+    }
+
+    /**
+     * Returns the number of holds not dropped yet, expired ones included until the wheel reaches them.
+     *
+     * @return holds kept in memory
+     */
+    public int size() {
+        return byToken.size();
+    }
+
+    private void removeFromDay(SlotHold hold) {
+        byDay.computeIfPresent(new DayKey(hold.doctorId(), hold.date()), (key, slots) -> {
+            if (slots.get(hold.startTime()) != hold) {
+                return slots;
+            }
+            if (slots.size() == 1) {
+                return null;
+            }
+            Map<LocalTime, SlotHold> changed = new HashMap<>(slots);
+            changed.remove(hold.startTime());
+            return Map.copyOf(changed);
+        });
+    }
+}
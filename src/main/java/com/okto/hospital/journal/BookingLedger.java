@@ -0,0 +1,450 @@
+package com.okto.hospital.journal;
+
+import com.okto.hospital.exception.ResourceNotFound;
+import com.okto.hospital.model.projection.BookedSlot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.Time;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The booked appointments when hospital.journal.enabled is true. Every booking and cancellation is appended to the
+ * {@link MappedJournal} and applied to the in-memory {@link BookingState}, which the booking checks read instead of
+ * the appointment table. The table becomes a projection, written behind by the {@link JournalProjector} once the
+ * records are durable, so reads of the appointments may lag the decisions by the fsync interval plus one batch.
+ * <p>
+ * Decisions run one at a time inside {@link #decide}: the checks read the state and the outcome is appended
+ * before the next decision starts, so two bookings cannot both take the same slot. The journal is forced after
+ * the lock is released, which lets the records of concurrent decisions share one force.
+ * <p>
+ * At startup the state is rebuilt from the latest snapshot plus the journal records after it. On the very first
+ * start there is neither, and the state is read from the appointment table. A snapshot is written every
+ * hospital.journal.snapshot-interval, after which the segments it covers are deleted once they are projected.
+ * <p>
+ * A booking the projection moves to journal_dead_letter, because the database refused it, is dropped from the
+ * state the next time the lock is taken, and its patient is looked up again on the next booking. Its slot is free
+ * again. At startup the dead-lettered bookings are dropped from the recovered state the same way.
+ */
+public class BookingLedger implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(BookingLedger.class);
+    private static final Duration STOP_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final BookingState state = new BookingState();
+    private final Set<Integer> knownPatients = new HashSet<>();
+    // records the projection dead-lettered, dropped from the state under the lock; the projection cannot take it,
+    // a decision may be waiting for room in its queue
+    private final Queue<JournalRecord> refused = new ConcurrentLinkedQueue<>();
+    // appended records waiting to be durable before they are projected
+    private final Deque<JournalRecord> pending = new ArrayDeque<>();
+    private final MappedJournal journal;
+    private final SnapshotStore snapshots;
+    // not private, the crash recovery test stops it like a crash would
+    final JournalProjector projector;
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+    private volatile long snapshotSequence = -1;
+
+    /**
+     * @param journal             the opened journal
+     * @param directory           directory of the snapshots, next to the journal segments
+     * @param jdbcTemplate        access to the appointment table and the projection checkpoint
+     * @param transactionTemplate transactions of the projection
+     * @param projectionBatchSize records written per projection transaction
+     * @param projectionQueueSize records waiting for the projection before the decisions wait for it
+     * @param onProjected         called for every record in the transaction that writes it to the table
+     * @param clock               clock of the creation times
+     */
+    public BookingLedger(
+            MappedJournal journal,
+            Path directory,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            int projectionBatchSize,
+            int projectionQueueSize,
+            Consumer<JournalRecord> onProjected,
+            Clock clock
+    ) {
+        this.journal = journal;
+        this.snapshots = new SnapshotStore(directory);
+        this.projector = new JournalProjector(jdbcTemplate, transactionTemplate, projectionBatchSize,
+                projectionQueueSize, onProjected, refused::add);
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+    }
+
+    /**
+     * Rebuilds the state and starts the projection of the records the appointment table does not hold yet.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        long start = System.nanoTime();
+        Optional<SnapshotStore.Snapshot> snapshot = snapshots.latest();
+        long checkpoint = projector.readCheckpoint();
+        // started before the replay hands it the records, its queue may hold fewer than the replay has
+        projector.start();
+        if (snapshot.isEmpty() && journal.lastSequence() == 0) {
+            seedFromTable();
+            snapshots.write(0, state.maxAppointmentId(), state.all());
+            snapshotSequence = 0;
+            log.info("Booking state read from the appointment table: {} appointments", state.size());
+        } else {
+            long snapshotSequence = snapshot.map(SnapshotStore.Snapshot::sequence).orElse(0L);
+            snapshot.ifPresent(found -> {
+                found.slots().forEach(state::add);
+                state.raiseMaxAppointmentId(found.maxAppointmentId());
+            });
+            if (journal.lastSequence() < snapshotSequence) {
+                throw new IllegalStateException("The journal ends at sequence " + journal.lastSequence()
+                        + " before the snapshot of sequence " + snapshotSequence);
+            }
+            long[] replayed = new long[1];
+            journal.replay(Math.min(snapshotSequence, checkpoint), record -> {
+                if (record.sequence() > snapshotSequence) {
+                    apply(record);
+                    replayed[0]++;
+                }
+                if (record.sequence() > checkpoint) {
+                    projector.enqueue(record);
+                }
+            });
+            this.snapshotSequence = snapshotSequence;
+            raiseMaxAppointmentIdFromTables();
+            log.info("Booking state recovered: {} appointments from the snapshot of sequence {} and {} journal records in {} ms",
+                    state.size(), snapshotSequence, replayed[0], (System.nanoTime() - start) / 1_000_000);
+        }
+        dropDeadLetters();
+        if (checkpoint > journal.lastSequence()) {
+            log.warn("The appointment table is projected up to sequence {}, past the end of the journal at {}",
+                    checkpoint, journal.lastSequence());
+        }
+    }
+
+    /**
+     * Runs a booking decision. The decision reads the state with {@link #bookedSlots} and {@link #find} and records
+     * its outcome with {@link #book} and {@link #cancel}; when it returns, or throws, its records are made durable
+     * as the fsync policy asks. Decisions may nest, the records are then committed by the outermost one.
+     *
+     * @param decision the decision
+     * @param <T>      its result
+     * @return the result of the decision
+     */
+    public <T> T decide(Supplier<T> decision) {
+        acquireLock();
+        try {
+            return decision.get();
+        } finally {
+            boolean outermost = lock.getHoldCount() == 1;
+            lock.unlock();
+            if (outermost) {
+                journal.commit();
+                project();
+            }
+        }
+    }
+
+    /**
+     * Same rows as AppointmentRepository.findBookedSlotsForSeries: the doctor's appointments between the two dates,
+     * plus the patient's appointments between the two dates and from today on.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param from      first date
+     * @param to        last date
+     * @param today     the current date
+     * @return the appointments
+     */
+    public List<BookedSlot> bookedSlots(Integer doctorId, Integer patientId, LocalDate from, LocalDate to, LocalDate today) {
+        acquireLock();
+        try {
+            return state.bookedSlots(doctorId, patientId, from, to, today);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param doctorId Doctor id
+     * @param date     the day
+     * @return the appointments of the other doctors that day
+     */
+    public List<BookedSlot> slotsOfOtherDoctors(Integer doctorId, LocalDate date) {
+        acquireLock();
+        try {
+            return state.slotsOfOtherDoctors(doctorId, date);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param appointmentId Appointment id
+     * @param doctorId      Doctor id
+     * @return the doctor's appointment, empty if the doctor has no appointment with that id
+     */
+    public Optional<BookedSlot> find(Integer appointmentId, Integer doctorId) {
+        acquireLock();
+        try {
+            return Optional.ofNullable(state.get(appointmentId)).filter(slot -> slot.doctorId().equals(doctorId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Books the appointment with the next appointment id. Only inside {@link #decide}, after the checks.
+     * Throws ResourceNotFound if the patient does not exist.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      the date of the appointment
+     * @param startTime the start time of the appointment
+     * @param endTime   the end time of the appointment
+     * @return the journal record of the booking
+     */
+    public JournalRecord book(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime, LocalTime endTime) {
+        requireDecision();
+        requirePatient(patientId);
+        JournalRecord record = new JournalRecord(JournalRecord.Type.BOOKED, journal.lastSequence() + 1,
+                state.maxAppointmentId() + 1, doctorId, patientId, date, startTime, endTime, clock.instant());
+        append(record);
+        return record;
+    }
+
+    /**
+     * Cancels the doctor's appointment. Only inside {@link #decide}.
+     *
+     * @param appointmentId Appointment id
+     * @param doctorId      Doctor id
+     * @return the cancelled appointment, empty if the doctor has no appointment with that id
+     */
+    public Optional<BookedSlot> cancel(Integer appointmentId, Integer doctorId) {
+        requireDecision();
+        Optional<BookedSlot> slot = find(appointmentId, doctorId);
+        slot.ifPresent(found -> append(new JournalRecord(JournalRecord.Type.CANCELLED, journal.lastSequence() + 1,
+                found.id(), found.doctorId(), found.patientId(), found.date(), found.startTime(), found.endTime(),
+                clock.instant())));
+        return slot;
+    }
+
+    /**
+     * Records that the patient of an appointment just booked from the waitlist left the waitlist of its slot. Only
+     * inside {@link #decide}, after the booking. The projection deletes the waitlist entry in the transaction that
+     * writes the appointment, so nothing outside the journal has to be written, or rolled back, by the decision.
+     *
+     * @param appointmentId Appointment id of the booking
+     * @param doctorId      Doctor id
+     * @return the journal record
+     */
+    public JournalRecord promoted(Integer appointmentId, Integer doctorId) {
+        requireDecision();
+        BookedSlot slot = find(appointmentId, doctorId).orElseThrow(ResourceNotFound::new);
+        JournalRecord record = new JournalRecord(JournalRecord.Type.PROMOTED, journal.lastSequence() + 1, slot.id(),
+                slot.doctorId(), slot.patientId(), slot.date(), slot.startTime(), slot.endTime(), clock.instant());
+        append(record);
+        return record;
+    }
+
+    /**
+     * Forces the appended records to the disk and hands them to the projection. Run every
+     * hospital.journal.fsync-interval with the INTERVAL policy, so a quiet journal does not keep records unforced.
+     */
+    public void force() {
+        journal.force();
+        project();
+    }
+
+    /**
+     * Writes a snapshot of the state, then deletes the journal segments that are covered by it and projected.
+     * The state is copied under the lock; the file is written without it, so bookings go on meanwhile.
+     */
+    public void snapshot() {
+        long sequence;
+        int maxAppointmentId;
+        List<BookedSlot> slots;
+        acquireLock();
+        try {
+            sequence = journal.lastSequence();
+            if (sequence == snapshotSequence) {
+                // nothing new, the projection may have caught up with the snapshot since
+                journal.deleteUpTo(Math.min(sequence, projector.projectedSequence()));
+                return;
+            }
+            maxAppointmentId = state.maxAppointmentId();
+            slots = new ArrayList<>(state.all());
+        } finally {
+            lock.unlock();
+        }
+        // the journal must not end before the snapshot after a crash
+        force();
+        long start = System.nanoTime();
+        snapshots.write(sequence, maxAppointmentId, slots);
+        snapshotSequence = sequence;
+        journal.deleteUpTo(Math.min(sequence, projector.projectedSequence()));
+        log.info("Booking state snapshot of sequence {} written: {} appointments in {} ms",
+                sequence, slots.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Waits until the appointment table holds every decision made so far.
+     *
+     * @param timeout how long to wait
+     * @return true if it does
+     */
+    public boolean awaitProjected(Duration timeout) throws InterruptedException {
+        force();
+        return projector.awaitProjected(journal.lastSequence(), timeout);
+    }
+
+    /**
+     * @return the sequence of the last journal record
+     */
+    public long lastSequence() {
+        return journal.lastSequence();
+    }
+
+    /**
+     * @return the number of booked appointments
+     */
+    public int size() {
+        acquireLock();
+        try {
+            return state.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Projects what is left and closes the journal. No snapshot is written, the next start replays the journal
+     * since the last one like after a crash.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        force();
+        projector.stop(STOP_TIMEOUT);
+        journal.close();
+    }
+
+    /**
+     * Takes the lock, then drops the bookings the projection dead-lettered meanwhile from the state.
+     */
+    private void acquireLock() {
+        lock.lock();
+        JournalRecord record;
+        while ((record = refused.poll()) != null) {
+            knownPatients.remove(record.patientId());
+            if (record.type() == JournalRecord.Type.BOOKED) {
+                state.remove(record.appointmentId());
+            }
+        }
+    }
+
+    private void dropDeadLetters() {
+        List<Integer> appointmentIds = jdbcTemplate.queryForList(
+                "SELECT appointment_id FROM journal_dead_letter WHERE type = 'BOOKED'", Integer.class);
+        appointmentIds.forEach(state::remove);
+        if (!appointmentIds.isEmpty()) {
+            log.warn("{} dead-lettered bookings are not part of the booking state, see journal_dead_letter",
+                    appointmentIds.size());
+        }
+    }
+
+    private void requireDecision() {
+        if (!lock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("Bookings are changed inside BookingLedger.decide only");
+        }
+    }
+
+    private void requirePatient(Integer patientId) {
+        if (knownPatients.contains(patientId)) {
+            return;
+        }
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM patient WHERE id = ?", Integer.class, patientId);
+        if (count == null || count == 0) {
+            throw new ResourceNotFound();
+        }
+        knownPatients.add(patientId);
+    }
+
+    private void append(JournalRecord record) {
+        journal.append(record);
+        apply(record);
+        synchronized (pending) {
+            pending.addLast(record);
+        }
+    }
+
+    private void apply(JournalRecord record) {
+        switch (record.type()) {
+            case BOOKED -> state.add(new BookedSlot(record.appointmentId(), record.doctorId(), record.patientId(),
+                    record.date(), record.startTime(), record.endTime()));
+            case CANCELLED -> state.remove(record.appointmentId());
+            case PROMOTED -> {
+                // the waitlist is not part of the state
+            }
+        }
+    }
+
+    /**
+     * Hands the records that are durable to the projection, in sequence order.
+     */
+    private void project() {
+        long durable = journal.durableSequence();
+        synchronized (pending) {
+            while (!pending.isEmpty() && pending.peekFirst().sequence() <= durable) {
+                projector.enqueue(pending.pollFirst());
+            }
+        }
+    }
+
+    private void seedFromTable() {
+        jdbcTemplate.query("SELECT id, doctor_id, patient_id, date, start_time, end_time FROM appointment", resultSet -> {
+            LocalTime startTime = resultSet.getObject("start_time", Time.class).toLocalTime();
+            Time endTime = resultSet.getObject("end_time", Time.class);
+            state.add(new BookedSlot(resultSet.getInt("id"), resultSet.getInt("doctor_id"), resultSet.getInt("patient_id"),
+                    resultSet.getObject("date", Date.class).toLocalDate(),
+                    startTime,
+                    // the journal always holds an end time, older rows may not
+                    endTime != null ? endTime.toLocalTime() : startTime.plusMinutes(60)));
+        });
+        raiseMaxAppointmentIdFromTables();
+    }
+
+    /**
+     * Archived appointments keep their id, which must not be handed out again.
+     */
+    private void raiseMaxAppointmentIdFromTables() {
+        Integer maxId = jdbcTemplate.queryForObject("""
+                SELECT GREATEST(
+                    (SELECT COALESCE(MAX(id), 0) FROM appointment),
+                    (SELECT COALESCE(MAX(appointment_id), 0) FROM appointment_archive))
+                """, Integer.class);
+        if (maxId != null) {
+            state.raiseMaxAppointmentId(maxId);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.okto.hospital.journal;
+
+import com.okto.hospital.model.projection.BookedSlot;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The booked appointments held in memory when the journal is on, indexed the way the booking checks read them:
+ * by doctor and day, by patient, and by day for the suggestions with other doctors. Not thread safe, the {@link BookingLedger} guards it.
+ */
+class BookingState {
+
+    private final Map<Integer, BookedSlot> byId = new HashMap<>();
+    private final Map<Long, List<BookedSlot>> byDoctorDay = new HashMap<>();
+    private final Map<Integer, List<BookedSlot>> byPatient = new HashMap<>();
+    private final Map<LocalDate, List<BookedSlot>> byDate = new HashMap<>();
+    private int maxAppointmentId;
+
+    void add(BookedSlot slot) {
+        byId.put(slot.id(), slot);
+        byDoctorDay.computeIfAbsent(key(slot.doctorId(), slot.date()), key -> new ArrayList<>(4)).add(slot);
+        byPatient.computeIfAbsent(slot.patientId(), patient -> new ArrayList<>(4)).add(slot);
+        byDate.computeIfAbsent(slot.date(), date -> new ArrayList<>()).add(slot);
+        maxAppointmentId = Math.max(maxAppointmentId, slot.id());
+    }
+
+    BookedSlot remove(int appointmentId) {
+        BookedSlot slot = byId.remove(appointmentId);
+        if (slot != null) {
+            removeFrom(byDoctorDay, key(slot.doctorId(), slot.date()), slot);
+            removeFrom(byPatient, slot.patientId(), slot);
+            removeFrom(byDate, slot.date(), slot);
+        }
+        return slot;
+    }
+
+    BookedSlot get(int appointmentId) {
+        return byId.get(appointmentId);
+    }
+
+    int maxAppointmentId() {
+        return maxAppointmentId;
+    }
+
+    void raiseMaxAppointmentId(int appointmentId) {
+        maxAppointmentId = Math.max(maxAppointmentId, appointmentId);
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    Collection<BookedSlot> all() {
+        return byId.values();
+    }
+
+    /**
+     * Same rows as AppointmentRepository.findBookedSlotsForSeries: the doctor's appointments between the two dates,
+     * plus the patient's appointments between the two dates and from today on.
+     */
+    List<BookedSlot> bookedSlots(int doctorId, int patientId, LocalDate from, LocalDate to, LocalDate today) {
+        Map<Integer, BookedSlot> slots = new LinkedHashMap<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            for (BookedSlot slot : byDoctorDay.getOrDefault(key(doctorId, date), List.of())) {
+                slots.put(slot.id(), slot);
+            }
+        }
+        for (BookedSlot slot : byPatient.getOrDefault(patientId, List.of())) {
+            boolean inRange = !slot.date().isBefore(from) && !slot.date().isAfter(to);
+            if (inRange || !slot.date().isBefore(today)) {
+                slots.putIfAbsent(slot.id(), slot);
+            }
+        }
+        return new ArrayList<>(slots.values());
+    }
+
+    /**
+     * Same rows as AppointmentRepository.findSlotsOfOtherDoctors.
+     */
+    List<BookedSlot> slotsOfOtherDoctors(int doctorId, LocalDate date) {
+        return byDate.getOrDefault(date, List.of()).stream()
+                .filter(slot -> slot.doctorId() != doctorId)
+                .toList();
+    }
+
+    private static <K> void removeFrom(Map<K, List<BookedSlot>> index, K key, BookedSlot slot) {
+        List<BookedSlot> slots = index.get(key);
+        if (slots != null && slots.remove(slot) && slots.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static long key(int doctorId, LocalDate date) {
+        return date.toEpochDay() << 32 | doctorId;
+    }
+}
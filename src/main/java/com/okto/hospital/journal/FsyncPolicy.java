@@ -0,0 +1,22 @@
+package com.okto.hospital.journal;
+
+/**
+ * When the appended journal records are forced from the page cache to the disk. Every policy survives a crash of
+ * the process, since the records are in the kernel's page cache once appended; they differ in what a crash of
+ * the machine can lose.
+ */
+public enum FsyncPolicy {
+    /**
+     * Forces every decision before it is answered. Nothing acknowledged is lost, each booking waits for the disk.
+     */
+    ALWAYS,
+    /**
+     * Forces at most once per interval, on a decision or from the background task. A machine crash loses at most
+     * the last interval of decisions.
+     */
+    INTERVAL,
+    /**
+     * Never forces, the kernel writes the pages back when it sees fit.
+     */
+    NEVER
+}
@@ -0,0 +1,257 @@
+package com.okto.hospital.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the appointment table in step with the journal, on its own thread: the records are written in batches,
+ * one transaction per batch, together with the last projected sequence in journal_checkpoint. After a restart
+ * the projection resumes after that sequence, so every record is written exactly once.
+ * <p>
+ * A record the database refuses, for example an appointment of a patient that was deleted meanwhile, would be
+ * refused again on every retry. The records before it are written, then it is logged as an error and moved to
+ * journal_dead_letter, with the checkpoint advanced past it, and handed to a second callback, which lets the
+ * ledger drop it from its state; the projection goes on with the records behind it. Any other failure, like a
+ * lost connection, retries the records of the batch not written yet.
+ * <p>
+ * At most queueCapacity records wait for the projection; beyond that {@link #enqueue} blocks, which holds the
+ * bookings back until the table catches up instead of growing the queue without bound.
+ * <p>
+ * Every written record is also handed to a callback inside the batch transaction, which keeps the tables derived
+ * from the appointments, like the utilization counters, in step with it.
+ */
+class JournalProjector {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalProjector.class);
+
+    private static final String INSERT = """
+            INSERT INTO appointment (id, patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+    private static final String DELETE = "DELETE FROM appointment WHERE id = ?";
+    private static final String DELETE_WAITER = """
+            DELETE FROM waitlist_entry WHERE doctor_id = ? AND patient_id = ? AND date = ? AND start_time = ?
+            """;
+    private static final String CHECKPOINT = "UPDATE journal_checkpoint SET sequence = ? WHERE id = 1";
+    private static final String DEAD_LETTER = """
+            INSERT INTO journal_dead_letter (sequence, type, appointment_id, doctor_id, patient_id, date, start_time,
+                end_time, created_at, error, dead_lettered_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+            """;
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final BlockingQueue<JournalRecord> queue;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Consumer<JournalRecord> onProjected;
+    private final Consumer<JournalRecord> onRefused;
+    private final Thread thread;
+    private final Object progress = new Object();
+    private volatile long projectedSequence;
+    private volatile boolean running = true;
+
+    JournalProjector(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, int batchSize, int queueCapacity,
+                     Consumer<JournalRecord> onProjected, Consumer<JournalRecord> onRefused) {
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.onProjected = onProjected;
+        this.onRefused = onRefused;
+        this.thread = new Thread(this::run, "journal-projector");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Reads the checkpoint, creating it on the first start.
+     *
+     * @return the last projected sequence
+     */
+    long readCheckpoint() {
+        List<Long> sequences = jdbcTemplate.queryForList("SELECT sequence FROM journal_checkpoint WHERE id = 1", Long.class);
+        if (sequences.isEmpty()) {
+            jdbcTemplate.update("INSERT INTO journal_checkpoint (id, sequence) VALUES (1, 0)");
+            projectedSequence = 0;
+        } else {
+            projectedSequence = sequences.get(0);
+        }
+        return projectedSequence;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands a record to the projection, waiting while the queue is full.
+     *
+     * @param record the record
+     */
+    void enqueue(JournalRecord record) {
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the journal projection", e);
+        }
+    }
+
+    long projectedSequence() {
+        return projectedSequence;
+    }
+
+    /**
+     * Waits until the records up to the sequence are in the database.
+     *
+     * @param sequence the sequence to wait for
+     * @param timeout  how long to wait
+     * @return true if they are
+     */
+    boolean awaitProjected(long sequence, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (progress) {
+            while (projectedSequence < sequence) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, left);
+            }
+        }
+        return true;
+    }
+
+    void stop(Duration timeout) throws InterruptedException {
+        running = false;
+        thread.join(timeout.toMillis());
+        if (thread.isAlive()) {
+            thread.interrupt();
+            log.warn("Journal projection stopped with {} records left, they are projected after the restart", queue.size());
+        }
+    }
+
+    private void run() {
+        List<JournalRecord> batch = new ArrayList<>(batchSize);
+        while ((running || !queue.isEmpty() || !batch.isEmpty()) && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (batch.isEmpty()) {
+                    JournalRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                project(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // the database is unreachable, the records of the batch not written yet are tried again
+                log.error("Journal projection failed, retrying", e);
+                sleepBeforeRetry();
+                continue;
+            }
+            if (!batch.isEmpty()) {
+                sleepBeforeRetry();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch in one transaction. When the database refuses it, writes its records one per transaction
+     * and moves the ones it refuses to journal_dead_letter. Records are taken off the batch as soon as they are
+     * committed, also when a later one fails otherwise, so the retry starts right after them instead of writing
+     * them twice.
+     *
+     * @param batch the records, left with the ones not written
+     */
+    private void project(List<JournalRecord> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> write(batch));
+            projected(batch, batch.size());
+        } catch (DataIntegrityViolationException batchFailure) {
+            while (!batch.isEmpty()) {
+                JournalRecord record = batch.get(0);
+                try {
+                    transactionTemplate.executeWithoutResult(status -> write(List.of(record)));
+                } catch (DataIntegrityViolationException e) {
+                    log.error("Journal record {} refused by the database, moved to journal_dead_letter", record, e);
+                    transactionTemplate.executeWithoutResult(status -> deadLetter(record, e));
+                    onRefused.accept(record);
+                }
+                projected(batch, 1);
+            }
+        }
+    }
+
+    private void projected(List<JournalRecord> batch, int written) {
+        synchronized (progress) {
+            projectedSequence = batch.get(written - 1).sequence();
+            progress.notifyAll();
+        }
+        batch.subList(0, written).clear();
+    }
+
+    private void write(List<JournalRecord> records) {
+        List<Object[]> inserts = new ArrayList<>();
+        for (JournalRecord record : records) {
+            if (record.type() == JournalRecord.Type.BOOKED) {
+                inserts.add(new Object[]{record.appointmentId(), record.patientId(), record.doctorId(),
+                        Date.valueOf(record.date()), Time.valueOf(record.startTime()), Time.valueOf(record.endTime()),
+                        Timestamp.from(record.createdAt())});
+                continue;
+            }
+            // keep the order: a cancellation may follow the booking in the same batch
+            flush(inserts);
+            if (record.type() == JournalRecord.Type.CANCELLED) {
+                jdbcTemplate.update(DELETE, record.appointmentId());
+            } else {
+                jdbcTemplate.update(DELETE_WAITER, record.doctorId(), record.patientId(),
+                        Date.valueOf(record.date()), Time.valueOf(record.startTime()));
+            }
+        }
+        flush(inserts);
+        records.forEach(onProjected);
+        jdbcTemplate.update(CHECKPOINT, records.get(records.size() - 1).sequence());
+    }
+
+    private void deadLetter(JournalRecord record, DataIntegrityViolationException e) {
+        String error = String.valueOf(e.getMostSpecificCause().getMessage());
+        jdbcTemplate.update(DEAD_LETTER, record.sequence(), record.type().name(), record.appointmentId(),
+                record.doctorId(), record.patientId(), Date.valueOf(record.date()), Time.valueOf(record.startTime()),
+                Time.valueOf(record.endTime()), Timestamp.from(record.createdAt()),
+                error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+        jdbcTemplate.update(CHECKPOINT, record.sequence());
+    }
+
+    private void flush(List<Object[]> inserts) {
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT, inserts);
+            inserts.clear();
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.okto.hospital.journal;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * One state change of the bookings, as written to the journal.
+ *
+ * @param type          booked, cancelled or promoted
+ * @param sequence      position in the journal, starting at 1 and without gaps
+ * @param appointmentId Appointment id
+ * @param doctorId      Doctor id
+ * @param patientId     Patient id
+ * @param date          the date of the appointment
+ * @param startTime     the start time of the appointment
+ * @param endTime       the end time of the appointment
+ * @param createdAt     when the change was decided
+ */
+public record JournalRecord(
+        Type type,
+        long sequence,
+        int appointmentId,
+        int doctorId,
+        int patientId,
+        LocalDate date,
+        LocalTime startTime,
+        LocalTime endTime,
+        Instant createdAt
+) {
+
+    /**
+     * Size of an encoded record: type, sequence, three ids, the date as epoch day, the two times as seconds of
+     * the day and the creation time in epoch milliseconds.
+     */
+    static final int SIZE = 1 + 8 + 4 * 3 + 4 + 4 * 2 + 8;
+
+    public enum Type {
+        BOOKED,
+        CANCELLED,
+        /**
+         * The patient of the appointment, just booked for them from the waitlist, left the waitlist of its slot.
+         * Only the waitlist_entry table changes, not the booked appointments.
+         */
+        PROMOTED
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put((byte) type.ordinal())
+                .putLong(sequence)
+                .putInt(appointmentId)
+                .putInt(doctorId)
+                .putInt(patientId)
+                .putInt((int) date.toEpochDay())
+                .putInt(startTime.toSecondOfDay())
+                .putInt(endTime.toSecondOfDay())
+                .putLong(createdAt.toEpochMilli());
+    }
+
+    static JournalRecord readFrom(ByteBuffer buffer) {
+        return new JournalRecord(
+                Type.values()[buffer.get()],
+                buffer.getLong(),
+                buffer.getInt(),
+                buffer.getInt(),
+                buffer.getInt(),
+                LocalDate.ofEpochDay(buffer.getInt()),
+                LocalTime.ofSecondOfDay(buffer.getInt()),
+                LocalTime.ofSecondOfDay(buffer.getInt()),
+                Instant.ofEpochMilli(buffer.getLong()));
+    }
+}
@@ -0,0 +1,306 @@
+package com.okto.hospital.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of {@link JournalRecord}s in memory-mapped segment files of a fixed size, named after the
+ * sequence of their first record. Every record is framed as
+ * <pre>
+ * int length | int crc32c of the record | record
+ * </pre>
+ * and the length is written last, so a record is either complete or reads as the zero-filled end of the segment.
+ * <p>
+ * Opening the journal scans the segments and stops at the first frame that is not complete, fails its checksum
+ * or breaks the sequence, which is where an interrupted append or a machine crash left the log. The rest of that
+ * segment is zeroed and later segments are renamed to *.discarded, so appends continue right after the last good
+ * record.
+ * <p>
+ * Not thread safe for appends; the {@link BookingLedger} is the single writer. {@link #force} may be called from
+ * another thread.
+ */
+public class MappedJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedJournal.class);
+
+    static final int FRAME_SIZE = 8 + JournalRecord.SIZE;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final CRC32C crc = new CRC32C();
+
+    private final List<Long> segments = new ArrayList<>();
+    private MappedByteBuffer active;
+    private long lastSequence;
+    private int forcedPosition;
+    private volatile long forcedSequence;
+    private volatile long lastForce = System.nanoTime();
+
+    /**
+     * Opens the journal in the directory, creating it when needed, and recovers the end of the log.
+     *
+     * @param directory     directory of the segment files
+     * @param segmentSize   size of a segment file in bytes
+     * @param fsyncPolicy   when appended records are forced to the disk
+     * @param fsyncInterval for {@link FsyncPolicy#INTERVAL}, the longest time between two forces, in nanoseconds
+     */
+    public MappedJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncInterval) {
+        if (segmentSize < FRAME_SIZE * 2) {
+            throw new IllegalArgumentException("segment size must hold at least two records");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the sequence of the last record, 0 when the journal is empty
+     */
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return the sequence of the last record that survives a machine crash; with {@link FsyncPolicy#NEVER} the
+     * operating system decides when records reach the disk, and this is the last appended sequence
+     */
+    public long durableSequence() {
+        return fsyncPolicy == FsyncPolicy.NEVER ? lastSequence() : forcedSequence;
+    }
+
+    /**
+     * Appends the record. Its sequence must follow the last one. The record is not forced to the disk,
+     * see {@link #commit}.
+     *
+     * @param record the record
+     */
+    public synchronized void append(JournalRecord record) {
+        if (record.sequence() != lastSequence + 1) {
+            throw new IllegalArgumentException("expected sequence " + (lastSequence + 1) + " but got " + record.sequence());
+        }
+        if (active == null || active.remaining() < FRAME_SIZE) {
+            roll(record.sequence());
+        }
+        int position = active.position();
+        ByteBuffer payload = active.slice(position + 8, JournalRecord.SIZE);
+        record.writeTo(payload);
+        crc.reset();
+        crc.update(active.slice(position + 8, JournalRecord.SIZE));
+        active.putInt(position + 4, (int) crc.getValue());
+        // the length goes last, until it is written the frame reads as the end of the log
+        active.putInt(position, JournalRecord.SIZE);
+        active.position(position + FRAME_SIZE);
+        lastSequence = record.sequence();
+    }
+
+    /**
+     * Makes the appended records durable as the fsync policy asks: forces them now, once the interval has
+     * elapsed, or never.
+     */
+    public void commit() {
+        switch (fsyncPolicy) {
+            case ALWAYS -> force();
+            case INTERVAL -> {
+                if (System.nanoTime() - lastForce >= fsyncIntervalNanos) {
+                    force();
+                }
+            }
+            case NEVER -> {
+            }
+        }
+    }
+
+    /**
+     * Forces the records appended since the last force to the disk.
+     */
+    public synchronized void force() {
+        lastForce = System.nanoTime();
+        if (active != null && active.position() > forcedPosition) {
+            active.force(forcedPosition, active.position() - forcedPosition);
+            forcedPosition = active.position();
+        }
+        forcedSequence = lastSequence;
+    }
+
+    /**
+     * Reads the records with a sequence above the given one, in order.
+     *
+     * @param afterSequence records up to this sequence are skipped
+     * @param consumer      receives the records
+     */
+    public synchronized void replay(long afterSequence, Consumer<JournalRecord> consumer) {
+        for (int i = 0; i < segments.size(); i++) {
+            // a segment only holds records below the first sequence of the next one
+            if (i + 1 < segments.size() && segments.get(i + 1) <= afterSequence + 1) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segmentPath(segments.get(i)), StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (segment.remaining() >= FRAME_SIZE) {
+                    int length = segment.getInt();
+                    if (length == 0) {
+                        break;
+                    }
+                    segment.getInt();
+                    JournalRecord record = JournalRecord.readFrom(segment);
+                    if (record.sequence() > lastSequence) {
+                        return;
+                    }
+                    if (record.sequence() > afterSequence) {
+                        consumer.accept(record);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments that only hold records up to the given sequence. The active segment is kept.
+     *
+     * @param sequence the last sequence that is no longer needed
+     */
+    public synchronized void deleteUpTo(long sequence) {
+        while (segments.size() > 1 && segments.get(1) <= sequence + 1) {
+            try {
+                Files.deleteIfExists(segmentPath(segments.remove(0)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        force();
+        active = null;
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        if (!segments.isEmpty()) {
+            // the segments before were deleted once a snapshot covered them
+            lastSequence = segments.get(0) - 1;
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) != lastSequence + 1) {
+                // records are missing between the previous segment and this one
+                log.warn("Journal truncated after sequence {}: segment {} does not follow", lastSequence, segments.get(i));
+                discard(segments.subList(i, segments.size()));
+                break;
+            }
+            active = map(segments.get(i));
+            forcedPosition = 0;
+            boolean clean = scan(active);
+            forcedPosition = active.position();
+            boolean full = active.remaining() < FRAME_SIZE;
+            if (!clean || !full) {
+                discard(segments.subList(i + 1, segments.size()));
+                break;
+            }
+        }
+        forcedSequence = lastSequence;
+    }
+
+    /**
+     * Moves the buffer past the valid records of a segment and zeroes what follows a broken record.
+     *
+     * @return true if the segment ends cleanly, with a zero length or at its end
+     */
+    private boolean scan(MappedByteBuffer segment) {
+        while (segment.remaining() >= FRAME_SIZE) {
+            int position = segment.position();
+            int length = segment.getInt(position);
+            if (length == 0) {
+                return true;
+            }
+            crc.reset();
+            crc.update(segment.slice(position + 8, JournalRecord.SIZE));
+            boolean valid = length == JournalRecord.SIZE && segment.getInt(position + 4) == (int) crc.getValue();
+            if (valid) {
+                JournalRecord record = JournalRecord.readFrom(segment.slice(position + 8, JournalRecord.SIZE));
+                valid = record.sequence() == lastSequence + 1;
+                if (valid) {
+                    lastSequence = record.sequence();
+                    segment.position(position + FRAME_SIZE);
+                    continue;
+                }
+            }
+            log.warn("Journal truncated after sequence {}: broken record at offset {}", lastSequence, position);
+            for (int offset = position; offset < segment.capacity(); offset++) {
+                segment.put(offset, (byte) 0);
+            }
+            segment.force();
+            return false;
+        }
+        return true;
+    }
+
+    private void discard(List<Long> later) throws IOException {
+        if (!later.isEmpty()) {
+            log.warn("Journal segments {} discarded", later);
+        }
+        for (Long first : later) {
+            Path path = segmentPath(first);
+            Files.move(path, path.resolveSibling(path.getFileName() + ".discarded"));
+        }
+        later.clear();
+    }
+
+    private void roll(long firstSequence) {
+        if (active != null) {
+            force();
+        }
+        try {
+            active = map(firstSequence);
+            segments.add(firstSequence);
+            forcedPosition = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer map(long firstSequence) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // a new file is zero filled, which reads as the end of the log
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize));
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve("%020d%s".formatted(firstSequence, SUFFIX));
+    }
+}
@@ -0,0 +1,163 @@
+package com.okto.hospital.journal;
+
+import com.okto.hospital.model.projection.BookedSlot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshots of the {@link BookingState}, one file per snapshot named after the last journal sequence it covers:
+ * <pre>
+ * int magic | long sequence | int max appointment id | int count | count x slot | long crc32c of what precedes
+ * </pre>
+ * A snapshot is written to a temporary file, forced and then renamed, so a crash never leaves a half written
+ * snapshot under its final name. The two most recent snapshots are kept.
+ */
+class SnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+
+    private static final int MAGIC = 0x484a5331;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int KEPT = 2;
+
+    /**
+     * The content of a snapshot.
+     *
+     * @param sequence         last journal sequence applied to the state
+     * @param maxAppointmentId highest appointment id handed out
+     * @param slots            the booked appointments
+     */
+    record Snapshot(long sequence, int maxAppointmentId, List<BookedSlot> slots) {
+    }
+
+    private final Path directory;
+
+    SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    void write(long sequence, int maxAppointmentId, Collection<BookedSlot> slots) {
+        Path target = path(sequence);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            CRC32C crc = new CRC32C();
+            try (OutputStream file = Files.newOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+                out.writeInt(MAGIC);
+                out.writeLong(sequence);
+                out.writeInt(maxAppointmentId);
+                out.writeInt(slots.size());
+                for (BookedSlot slot : slots) {
+                    out.writeInt(slot.id());
+                    out.writeInt(slot.doctorId());
+                    out.writeInt(slot.patientId());
+                    out.writeInt((int) slot.date().toEpochDay());
+                    out.writeInt(slot.startTime().toSecondOfDay());
+                    out.writeInt(slot.endTime().toSecondOfDay());
+                }
+                out.flush();
+                // the checksum itself is not part of what it covers
+                new DataOutputStream(file).writeLong(crc.getValue());
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            List<Path> snapshots = list();
+            for (int i = KEPT; i < snapshots.size(); i++) {
+                Files.deleteIfExists(snapshots.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the most recent snapshot that reads back with a valid checksum
+     */
+    Optional<Snapshot> latest() {
+        try {
+            for (Path path : list()) {
+                Optional<Snapshot> snapshot = read(path);
+                if (snapshot.isPresent()) {
+                    return snapshot;
+                }
+                log.warn("Journal snapshot {} is damaged, trying an older one", path.getFileName());
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Optional<Snapshot> read(Path path) throws IOException {
+        long size = Files.size(path);
+        CRC32C crc = new CRC32C();
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+             DataInputStream in = new DataInputStream(new CheckedInputStream(file, crc))) {
+            if (size < 20 + 8 || in.readInt() != MAGIC) {
+                return Optional.empty();
+            }
+            long sequence = in.readLong();
+            int maxAppointmentId = in.readInt();
+            int count = in.readInt();
+            if (size != 20 + 24L * count + 8) {
+                return Optional.empty();
+            }
+            List<BookedSlot> slots = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                slots.add(new BookedSlot(in.readInt(), in.readInt(), in.readInt(),
+                        LocalDate.ofEpochDay(in.readInt()),
+                        LocalTime.ofSecondOfDay(in.readInt()),
+                        LocalTime.ofSecondOfDay(in.readInt())));
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(file).readLong() != expected) {
+                return Optional.empty();
+            }
+            return Optional.of(new Snapshot(sequence, maxAppointmentId, slots));
+        }
+    }
+
+    /**
+     * @return the snapshot files, most recent first
+     */
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(PREFIX)
+                            && path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing((Path path) -> path.getFileName().toString()).reversed())
+                    .toList();
+        }
+    }
+
+    private Path path(long sequence) {
+        return directory.resolve("%s%020d%s".formatted(PREFIX, sequence, SUFFIX));
+    }
+}
@@ -1,6 +1,7 @@
 package com.okto.hospital.mapper;
 
 import com.okto.hospital.model.AppointmentEntity;
+import com.okto.hospital.model.ArchivedAppointmentEntity;
 import com.okto.hospital.model.response.Appointment;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
@@ -11,4 +12,8 @@ public interface AppointmentMapper {
     @Mapping(target = "doctorId", source = "appointmentEntity.doctor.id")
     @Mapping(target = "patientId", source = "appointmentEntity.patient.id")
     Appointment toAppointment(AppointmentEntity appointmentEntity);
+
+    @Mapping(target = "id", source = "appointmentId")
+    @Mapping(target = "flaggedAt", ignore = true)
+    Appointment toAppointment(ArchivedAppointmentEntity archivedAppointmentEntity);
 }
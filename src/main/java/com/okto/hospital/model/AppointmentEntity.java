@@ -7,15 +7,31 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 
+/**
+ * A booked slot. The (doctor_id, date) index serves the doctor side of the conflict check and
+ * the (patient_id, date, start_time) index serves the patient side. The unique (doctor_id, date, start_time)
+ * constraint makes the database refuse a second booking of a slot that two concurrent requests both found free. The date index lets the archival job
+ * pick the oldest appointments without scanning the table.
+ */
 @Entity(name = "appointment")
+@Table(name = "appointment", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_appointment_doctor_date_start", columnNames = {"doctor_id", "date", "start_time"})
+}, indexes = {
+        @Index(name = "idx_appointment_doctor_date", columnList = "doctor_id, date"),
+        @Index(name = "idx_appointment_patient_date_start", columnList = "patient_id, date, start_time"),
+        @Index(name = "idx_appointment_date", columnList = "date")
+})
 public class AppointmentEntity {
 
     @Id
@@ -31,6 +47,8 @@ public class AppointmentEntity {
     @JoinColumn(name = "doctor_id")
     private DoctorEntity doctor;
     private LocalDate date;
+
+    @Column(name = "start_time")
     private LocalTime startTime;
 
     private LocalTime endTime;
@@ -39,6 +57,13 @@ public class AppointmentEntity {
     @Column(nullable = false, updatable = false)
     private Instant createdAt;
 
+    /**
+     * Set when a schedule change left the appointment outside the doctor's working hours, until staff reschedule
+     * or cancel it.
+     */
+    @Column(name = "flagged_at")
+    private Instant flaggedAt;
+
     public AppointmentEntity() {
     }
 
@@ -112,5 +137,13 @@ public class AppointmentEntity {
         this.endTime = endTime;
     }
 
+    public Instant getFlaggedAt() {
+        return flaggedAt;
+    }
+
+    public void setFlaggedAt(Instant flaggedAt) {
+        this.flaggedAt = flaggedAt;
+    }
+
 
 }
@@ -1,15 +1,28 @@
 package com.okto.hospital.model;
 
+import com.okto.hospital.search.DoctorIndexListener;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.List;
 
+/**
+ * Doctors are reference data, so they are kept in the "doctor" second-level cache region.
+ * The collections are deliberately not cached since they are unbounded.
+ * Changes to the name are applied to the doctor name index by {@link DoctorIndexListener}.
+ */
 @Entity(name = "doctor")
+@EntityListeners(DoctorIndexListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "doctor")
 public class DoctorEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
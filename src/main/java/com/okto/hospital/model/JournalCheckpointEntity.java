@@ -0,0 +1,33 @@
+package com.okto.hospital.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * The last booking journal sequence written to the "appointment" table, in a single row with id 1. The journal
+ * projection updates it in the transaction of every batch, so after a restart it resumes right after it.
+ * Only mapped for the schema, the projection writes it with plain JDBC.
+ */
+@Entity(name = "journal_checkpoint")
+@Table(name = "journal_checkpoint")
+public class JournalCheckpointEntity {
+
+    @Id
+    private Integer id;
+
+    @Column(nullable = false)
+    private long sequence;
+
+    public JournalCheckpointEntity() {
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+}
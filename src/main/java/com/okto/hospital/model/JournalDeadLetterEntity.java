@@ -0,0 +1,76 @@
+package com.okto.hospital.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A booking journal record the database refused, for example the appointment of a patient deleted after it was
+ * booked. The journal projection moves it here in the transaction that advances journal_checkpoint past it, and
+ * goes on with the next record. Only mapped for the schema, the projection writes it with plain JDBC.
+ */
+@Entity(name = "journal_dead_letter")
+@Table(name = "journal_dead_letter")
+public class JournalDeadLetterEntity {
+
+    @Id
+    private long sequence;
+
+    @Column(nullable = false, length = 16)
+    private String type;
+
+    @Column(nullable = false)
+    private int appointmentId;
+
+    @Column(nullable = false)
+    private int doctorId;
+
+    @Column(nullable = false)
+    private int patientId;
+
+    @Column(nullable = false)
+    private LocalDate date;
+
+    @Column(nullable = false)
+    private LocalTime startTime;
+
+    @Column(nullable = false)
+    private LocalTime endTime;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    @Column(nullable = false, length = 1000)
+    private String error;
+
+    @Column(nullable = false)
+    private Instant deadLetteredAt;
+
+    public JournalDeadLetterEntity() {
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
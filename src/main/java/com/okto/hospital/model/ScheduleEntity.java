@@ -1,5 +1,6 @@
 package com.okto.hospital.model;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
@@ -12,11 +13,19 @@ import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.time.DayOfWeek;
 import java.time.LocalTime;
 
+/**
+ * Working hours of a doctor for a day of the week. Read on every booking and changed rarely,
+ * so they are kept in the "schedule" second-level cache region.
+ */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "schedule")
 @Table(name = "schedule", uniqueConstraints = {@UniqueConstraint(columnNames = {"doctor_id", "day_of_week"})})
 public class ScheduleEntity {
 
@@ -0,0 +1,109 @@
+package com.okto.hospital.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Booked and available minutes of a doctor over one day, one ISO week or one month, keyed by the first date of
+ * the period. The counters are maintained by the UtilizationService in the transactions that book, cancel and
+ * change schedules, so utilization is read from here instead of from the appointment table.
+ * Only periods with at least one booking have a row; the others have the hours of the doctor's schedule.
+ */
+@Entity(name = "doctor_utilization")
+@Table(name = "doctor_utilization")
+@IdClass(UtilizationEntity.Key.class)
+public class UtilizationEntity {
+
+    public enum Period {
+        DAY,
+        WEEK,
+        MONTH
+    }
+
+    @Id
+    @Column(name = "doctor_id")
+    private Integer doctorId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 5)
+    private Period period;
+
+    @Id
+    @Column(name = "start_date")
+    private LocalDate startDate;
+
+    @Column(name = "available_minutes", nullable = false)
+    private int availableMinutes;
+
+    @Column(name = "booked_minutes", nullable = false)
+    private int bookedMinutes;
+
+    @Column(nullable = false)
+    private int appointments;
+
+    public UtilizationEntity() {
+    }
+
+    public Integer getDoctorId() {
+        return doctorId;
+    }
+
+    public Period getPeriod() {
+        return period;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public int getAvailableMinutes() {
+        return availableMinutes;
+    }
+
+    public int getBookedMinutes() {
+        return bookedMinutes;
+    }
+
+    public int getAppointments() {
+        return appointments;
+    }
+
+    public static class Key implements Serializable {
+
+        private Integer doctorId;
+        private Period period;
+        private LocalDate startDate;
+
+        public Key() {
+        }
+
+        public Key(Integer doctorId, Period period, LocalDate startDate) {
+            this.doctorId = doctorId;
+            this.period = period;
+            this.startDate = startDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key
+                    && Objects.equals(doctorId, key.doctorId)
+                    && period == key.period
+                    && Objects.equals(startDate, key.startDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(doctorId, period, startDate);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.okto.hospital.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A patient waiting for a booked slot. The table makes the waitlist durable, the order of the waiters is the
+ * order of the ids. It is read once at startup, afterwards the in-memory Waitlist answers the lookups.
+ */
+@Entity(name = "waitlist_entry")
+@Table(name = "waitlist_entry", indexes = {
+        @Index(name = "idx_waitlist_entry_date", columnList = "date")
+})
+public class WaitlistEntryEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "doctor_id", nullable = false)
+    private Integer doctorId;
+
+    @Column(name = "patient_id", nullable = false)
+    private Integer patientId;
+
+    @Column(nullable = false)
+    private LocalDate date;
+
+    @Column(name = "start_time", nullable = false)
+    private LocalTime startTime;
+
+    @CreationTimestamp
+    @Column(nullable = false, updatable = false)
+    private Instant createdAt;
+
+    public WaitlistEntryEntity() {
+    }
+
+    public WaitlistEntryEntity(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        this.doctorId = doctorId;
+        this.patientId = patientId;
+        this.date = date;
+        this.startTime = startTime;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public Integer getDoctorId() {
+        return doctorId;
+    }
+
+    public void setDoctorId(Integer doctorId) {
+        this.doctorId = doctorId;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+
+    public LocalTime getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(LocalTime startTime) {
+        this.startTime = startTime;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
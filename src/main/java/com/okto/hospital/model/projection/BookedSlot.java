@@ -0,0 +1,17 @@
+package com.okto.hospital.model.projection;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Minimal view of an existing appointment, used by the booking conflict checks.
+ */
+public record BookedSlot(
+        Integer id,
+        Integer doctorId,
+        Integer patientId,
+        LocalDate date,
+        LocalTime startTime,
+        LocalTime endTime
+) {
+}
@@ -0,0 +1,10 @@
+package com.okto.hospital.model.projection;
+
+/**
+ * Id and name of a doctor, used to build the doctor name index.
+ */
+public record DoctorName(
+        Integer id,
+        String name
+) {
+}
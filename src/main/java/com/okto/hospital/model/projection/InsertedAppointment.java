@@ -0,0 +1,16 @@
+package com.okto.hospital.model.projection;
+
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+
+/**
+ * The columns of an appointment the database fills in, returned by the statement that inserts it.
+ */
+public interface InsertedAppointment {
+
+    Integer getId();
+
+    LocalTime getEndTime();
+
+    OffsetDateTime getCreatedAt();
+}
@@ -0,0 +1,35 @@
+package com.okto.hospital.model.request;
+
+import com.okto.hospital.model.response.AppointmentSeries;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A weekly recurring appointment: {@code occurrences} appointments at the same time, every
+ * {@code intervalWeeks} weeks from {@code firstDate}.
+ */
+public record AppointmentSeriesRequest(
+        @NotNull
+        Integer patientId,
+        @NotNull
+        LocalDate firstDate,
+        @NotNull
+        LocalTime startTime,
+        @NotNull
+        @Min(1)
+        @Max(52)
+        Integer occurrences,
+        @Min(1)
+        @Max(4)
+        Integer intervalWeeks,
+        @NotNull
+        AppointmentSeries.Mode mode
+) {
+    public int intervalWeeksOrDefault() {
+        return intervalWeeks != null ? intervalWeeks : 1;
+    }
+}
@@ -0,0 +1,18 @@
+package com.okto.hospital.model.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * The doctors of a batch schedule fetch, for lists too long for a query string.
+ */
+public record ScheduleBatchRequest(
+        @NotEmpty
+        @Size(max = MAX_DOCTORS)
+        List<@NotNull Integer> doctorIds
+) {
+    public static final int MAX_DOCTORS = 10_000;
+}
@@ -0,0 +1,28 @@
+package com.okto.hospital.model.request;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A slot to hold for a patient while the patient fills in the booking form.
+ *
+ * @param minutes how long the slot is held, hospital.hold.ttl when missing, at most hospital.hold.max-ttl
+ */
+public record SlotHoldRequest(
+        @NotNull
+        Integer patientId,
+        @NotNull
+        LocalDate date,
+        @NotNull
+        LocalTime startTime,
+        @Min(1)
+        Integer minutes
+) {
+    public Duration ttl() {
+        return minutes != null ? Duration.ofMinutes(minutes) : null;
+    }
+}
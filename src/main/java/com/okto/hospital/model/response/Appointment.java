@@ -1,6 +1,7 @@
 package com.okto.hospital.model.response;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.time.Instant;
 import java.time.LocalDate;
@@ -16,6 +17,8 @@ public record Appointment(
         LocalTime startTime,
         @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm")
         LocalTime endTime,
-        Instant createdAt
+        Instant createdAt,
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        Instant flaggedAt
 ) {
 }
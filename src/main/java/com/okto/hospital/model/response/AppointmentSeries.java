@@ -0,0 +1,61 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Outcome of a recurring booking, one entry per occurrence in date order.
+ *
+ * @param mode        how the occurrences were booked
+ * @param booked      number of booked occurrences
+ * @param occurrences the outcome of every occurrence
+ */
+public record AppointmentSeries(
+        Mode mode,
+        int booked,
+        List<Occurrence> occurrences
+) {
+
+    public enum Mode {
+        /**
+         * Books every occurrence or none of them.
+         */
+        ALL_OR_NOTHING,
+        /**
+         * Books the occurrences that pass the checks and reports the others.
+         */
+        BEST_EFFORT
+    }
+
+    public enum Outcome {
+        BOOKED,
+        /**
+         * The occurrence failed a booking rule, see the reason.
+         */
+        REJECTED,
+        /**
+         * The occurrence passed the checks but was not booked, because another occurrence of an
+         * all-or-nothing series was rejected.
+         */
+        NOT_BOOKED
+    }
+
+    /**
+     * @param date        the date of the occurrence
+     * @param outcome     what happened to it
+     * @param reason      the rule that rejected it, same codes as the booking decision logs
+     * @param appointment the booked appointment
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Occurrence(
+            @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+            LocalDate date,
+            Outcome outcome,
+            String reason,
+            Appointment appointment
+    ) {
+    }
+}
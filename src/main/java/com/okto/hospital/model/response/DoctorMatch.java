@@ -0,0 +1,18 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A doctor found by the name search.
+ *
+ * @param id                Doctor id
+ * @param name              the doctor's name
+ * @param freeSlotsThisWeek whether the doctor has a slot left from now to Sunday, only when asked for
+ */
+public record DoctorMatch(
+        Integer id,
+        String name,
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        Boolean freeSlotsThisWeek
+) {
+}
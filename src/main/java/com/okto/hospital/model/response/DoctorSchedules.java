@@ -0,0 +1,30 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One doctor's entry in a batch schedule fetch. A doctor without schedules is NOT_FOUND, as on the single doctor
+ * endpoint, and has no schedules field.
+ *
+ * @param doctorId  Doctor id
+ * @param status    FOUND or NOT_FOUND
+ * @param schedules the doctor's working hours, ordered by schedule id
+ */
+public record DoctorSchedules(
+        Integer doctorId,
+        Status status,
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        List<Schedule> schedules
+) {
+
+    public enum Status {
+        FOUND,
+        NOT_FOUND
+    }
+
+    public static DoctorSchedules of(Integer doctorId, List<Schedule> schedules) {
+        return new DoctorSchedules(doctorId, schedules.isEmpty() ? Status.NOT_FOUND : Status.FOUND, schedules);
+    }
+}
@@ -0,0 +1,22 @@
+package com.okto.hospital.model.response;
+
+import com.okto.hospital.model.UtilizationEntity;
+
+import java.util.List;
+
+/**
+ * Utilization of a doctor over a range, in total and per day, week or month. The first and the last period are
+ * cut to the range.
+ *
+ * @param doctorId Doctor id
+ * @param period   DAY, WEEK or MONTH
+ * @param total    the whole range
+ * @param periods  every period of the range, in date order
+ */
+public record DoctorUtilization(
+        Integer doctorId,
+        UtilizationEntity.Period period,
+        Utilization total,
+        List<Utilization> periods
+) {
+}
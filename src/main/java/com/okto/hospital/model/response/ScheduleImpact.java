@@ -0,0 +1,48 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * The future appointments a schedule change leaves outside the doctor's working hours, and what was done with them.
+ *
+ * @param mode         DRY_RUN, FLAG or CANCEL
+ * @param affected     number of affected appointments
+ * @param appointments the affected appointments, ordered by date and start time
+ */
+public record ScheduleImpact(
+        Mode mode,
+        int affected,
+        List<AffectedAppointment> appointments
+) {
+
+    public enum Mode {
+        /**
+         * Reports the affected appointments and changes nothing, the schedule included.
+         */
+        DRY_RUN,
+        /**
+         * Changes the schedule and flags the affected appointments for staff to reschedule.
+         */
+        FLAG,
+        /**
+         * Changes the schedule and cancels the affected appointments.
+         */
+        CANCEL
+    }
+
+    public record AffectedAppointment(
+            Integer id,
+            Integer patientId,
+            @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+            LocalDate date,
+            @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm")
+            LocalTime startTime,
+            @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm")
+            LocalTime endTime
+    ) {
+    }
+}
@@ -0,0 +1,27 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A slot reserved for a patient until it expires; confirming it with its token books the appointment.
+ *
+ * @param token     the secret that confirms or releases the hold
+ * @param expiresAt when the slot is offered to everyone again
+ */
+public record SlotHold(
+        String token,
+        Integer doctorId,
+        Integer patientId,
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+        LocalDate date,
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm")
+        LocalTime startTime,
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm")
+        LocalTime endTime,
+        Instant expiresAt
+) {
+}
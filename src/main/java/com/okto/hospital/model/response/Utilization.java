@@ -0,0 +1,32 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDate;
+
+/**
+ * Booked against available time of a doctor between two dates, both included.
+ *
+ * @param from             first date
+ * @param to               last date
+ * @param availableMinutes minutes of the doctor's working hours
+ * @param bookedMinutes    minutes of the appointments
+ * @param appointments     number of appointments
+ * @param utilization      booked minutes divided by available minutes, 0 when the doctor does not work
+ */
+public record Utilization(
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+        LocalDate from,
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+        LocalDate to,
+        int availableMinutes,
+        int bookedMinutes,
+        int appointments,
+        double utilization
+) {
+
+    public static Utilization of(LocalDate from, LocalDate to, int availableMinutes, int bookedMinutes, int appointments) {
+        return new Utilization(from, to, availableMinutes, bookedMinutes, appointments,
+                availableMinutes == 0 ? 0 : (double) bookedMinutes / availableMinutes);
+    }
+}
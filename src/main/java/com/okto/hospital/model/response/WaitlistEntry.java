@@ -0,0 +1,23 @@
+package com.okto.hospital.model.response;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * A patient's place in the queue of a booked slot.
+ *
+ * @param position 1 for the next patient to get the slot when it is cancelled
+ */
+public record WaitlistEntry(
+        Integer id,
+        Integer doctorId,
+        Integer patientId,
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
+        LocalDate date,
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "HH:mm")
+        LocalTime startTime,
+        int position
+) {
+}
@@ -1,14 +1,279 @@
 package com.okto.hospital.repository;
 
 import com.okto.hospital.model.AppointmentEntity;
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.model.projection.InsertedAppointment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface AppointmentRepository extends JpaRepository<AppointmentEntity, Integer> {
 
     List<AppointmentEntity> findByDoctorIdAndDate(Integer doctorId, LocalDate date);
+
+    List<AppointmentEntity> findByDoctorIdAndDateBetweenOrderByDateAscStartTimeAsc(Integer doctorId, LocalDate from, LocalDate to);
+
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.id = :id and a.doctor.id = :doctorId
+            """)
+    Optional<BookedSlot> findSlotByIdAndDoctorId(@Param("id") Integer id, @Param("doctorId") Integer doctorId);
+
+    @Modifying
+    @Query("delete from appointment a where a.id = :id and a.doctor.id = :doctorId")
+    int deleteByIdAndDoctorId(@Param("id") Integer id, @Param("doctorId") Integer doctorId);
+
+    /**
+     * Returns the ids of the oldest appointments dated before the cutoff, one archival batch at a time.
+     *
+     * @param cutoff   appointments dated before this date are returned
+     * @param pageable size of the batch
+     * @return appointment ids, oldest first
+     */
+    @Query("select a.id from appointment a where a.date < :cutoff order by a.date")
+    List<Integer> findIdsDatedBefore(@Param("cutoff") LocalDate cutoff, Pageable pageable);
+
+    /**
+     * Loads, in a single round trip, everything the booking path needs to detect a conflict:
+     * the doctor's appointments on that date, plus the patient's appointments on that date and
+     * from today on. Each branch is served by its own index.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      the date of the new appointment
+     * @param today     the current date, appointments from then on count as open
+     * @return the matching appointments, each one listed once
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.doctor.id = :doctorId and a.date = :date
+            union
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.patient.id = :patientId and (a.date = :date or a.date >= :today)
+            """)
+    List<BookedSlot> findBookedSlotsForBooking(
+            @Param("doctorId") Integer doctorId,
+            @Param("patientId") Integer patientId,
+            @Param("date") LocalDate date,
+            @Param("today") LocalDate today
+    );
+
+    /**
+     * Loads the patient's appointments on that date and from today on, with any doctor.
+     * Used for the patient side of the conflict check on the shards that do not hold the doctor.
+     *
+     * @param patientId Patient id
+     * @param date      the date of the new appointment
+     * @param today     the current date, appointments from then on count as open
+     * @return the matching appointments
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.patient.id = :patientId and (a.date = :date or a.date >= :today)
+            """)
+    List<BookedSlot> findPatientSlots(
+            @Param("patientId") Integer patientId,
+            @Param("date") LocalDate date,
+            @Param("today") LocalDate today
+    );
+
+    /**
+     * Range version of findBookedSlotsForBooking, for a series of appointments: the doctor's appointments
+     * between the first and the last date, plus the patient's appointments in that range and from today on.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param from      the date of the first appointment of the series
+     * @param to        the date of the last appointment of the series
+     * @param today     the current date, appointments from then on count as open
+     * @return the matching appointments, each one listed once
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.doctor.id = :doctorId and a.date between :from and :to
+            union
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.patient.id = :patientId and (a.date between :from and :to or a.date >= :today)
+            """)
+    List<BookedSlot> findBookedSlotsForSeries(
+            @Param("doctorId") Integer doctorId,
+            @Param("patientId") Integer patientId,
+            @Param("from") LocalDate from,
+            @Param("to") LocalDate to,
+            @Param("today") LocalDate today
+    );
+
+    /**
+     * Range version of findPatientSlots, read on the other shards when a series is booked.
+     *
+     * @param patientId Patient id
+     * @param from      the date of the first appointment of the series
+     * @param to        the date of the last appointment of the series
+     * @param today     the current date, appointments from then on count as open
+     * @return the matching appointments
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.patient.id = :patientId and (a.date between :from and :to or a.date >= :today)
+            """)
+    List<BookedSlot> findPatientSlotsBetween(
+            @Param("patientId") Integer patientId,
+            @Param("from") LocalDate from,
+            @Param("to") LocalDate to,
+            @Param("today") LocalDate today
+    );
+
+    /**
+     * Loads the appointments of every doctor but one on that date, to suggest free slots with other doctors.
+     *
+     * @param doctorId the doctor to leave out
+     * @param date     the date
+     * @return the other doctors' appointments on that date
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.date = :date and a.doctor.id <> :doctorId
+            """)
+    List<BookedSlot> findSlotsOfOtherDoctors(@Param("doctorId") Integer doctorId, @Param("date") LocalDate date);
+
+    /**
+     * Loads the appointments of several doctors between two dates, to tell which of them still have free slots.
+     *
+     * @param doctorIds the doctors
+     * @param from      the first date
+     * @param to        the last date
+     * @return the doctors' appointments in that range
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.doctor.id in :doctorIds and a.date between :from and :to
+            """)
+    List<BookedSlot> findSlotsOfDoctorsBetween(
+            @Param("doctorIds") Collection<Integer> doctorIds,
+            @Param("from") LocalDate from,
+            @Param("to") LocalDate to
+    );
+
+    /**
+     * Returns the date of the doctor's last appointment from today on, read from the end of the doctor/date index.
+     *
+     * @param doctorId Doctor id
+     * @param today    the current date
+     * @return the last date, empty if the doctor has no appointment from today on
+     */
+    @Query("select max(a.date) from appointment a where a.doctor.id = :doctorId and a.date >= :today")
+    Optional<LocalDate> findLastDateFrom(@Param("doctorId") Integer doctorId, @Param("today") LocalDate today);
+
+    /**
+     * Loads the doctor's appointments on the given dates that do not fit into new working hours: starting before
+     * them or ending after them, or all of them when the doctor no longer works that day. The dates are the days
+     * of one day of the week, so each one is a seek into the doctor/date index and the other days are never read.
+     * An appointment without an end time lasts an hour, it ends too late when it starts after latestStart, or
+     * always when latestStart is null.
+     *
+     * @param doctorId    Doctor id
+     * @param dates       the dates to look at
+     * @param dayRemoved  true if the doctor no longer works on those dates
+     * @param startTime   the new start of the working hours
+     * @param endTime     the new end of the working hours
+     * @param latestStart the latest start of an hour long appointment ending in time, null if none does
+     * @return the appointments outside the working hours, ordered by date and start time
+     */
+    @Query("""
+            select new com.okto.hospital.model.projection.BookedSlot(a.id, a.doctor.id, a.patient.id, a.date, a.startTime, a.endTime)
+            from appointment a
+            where a.doctor.id = :doctorId and a.date in :dates
+            and (:dayRemoved = true
+                or a.startTime < :startTime
+                or a.endTime > :endTime
+                or (a.endTime is null and (:latestStart is null or a.startTime > :latestStart)))
+            order by a.date, a.startTime
+            """)
+    List<BookedSlot> findSlotsOutsideHours(
+            @Param("doctorId") Integer doctorId,
+            @Param("dates") Collection<LocalDate> dates,
+            @Param("dayRemoved") boolean dayRemoved,
+            @Param("startTime") LocalTime startTime,
+            @Param("endTime") LocalTime endTime,
+            @Param("latestStart") LocalTime latestStart
+    );
+
+    @Modifying
+    @Query("update appointment a set a.flaggedAt = :flaggedAt where a.id in :ids")
+    int flagAll(@Param("ids") Collection<Integer> ids, @Param("flaggedAt") Instant flaggedAt);
+
+    /**
+     * Decides a booking with one statement: the appointment is inserted only if the doctor's schedule of that
+     * weekday has a slot starting then, the patient has no appointment overlapping it and is below the open
+     * appointment limit. The utilization counters are not part of it, the caller updates them afterwards. A slot
+     * already booked is refused by the unique (doctor_id, date, start_time) constraint. The end time is the end of
+     * the slot, cut at the end of the day. The slot is on the hour of the schedule's start when their minutes match
+     * and both are on a whole minute; the caller only passes whole-minute start times. Runs in the caller's
+     * transaction.
+     * <p>
+     * H2 only: the new row is read back with SELECT ... FROM FINAL TABLE (INSERT ...), and the overlap uses H2's
+     * time plus interval arithmetic. The caller checks the dialect and takes the checked path on other databases.
+     *
+     * @param doctorId       Doctor id
+     * @param patientId      Patient id
+     * @param date           the date of the appointment
+     * @param dayOfWeek      the day of the week of the date, as stored in the schedule
+     * @param startTime      the start time of the appointment
+     * @param minute         the minute of the start time
+     * @param plusOneHour    the start time plus the length of a slot
+     * @param today          the current date, appointments from then on count as open
+     * @param maxOpen        the open appointment limit, 0 disables it
+     * @param createdAt      the creation time of the appointment
+     * @return the id, end time and creation time of the new appointment, empty when a rule refused it
+     */
+    @Query(nativeQuery = true, value = """
+            SELECT id, end_time AS endTime, created_at AS createdAt FROM FINAL TABLE (
+                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                SELECT :patientId, s.doctor_id, :date, :startTime,
+                       CASE WHEN :plusOneHour > s.end_time THEN s.end_time ELSE :plusOneHour END, :createdAt
+                FROM schedule s
+                WHERE s.doctor_id = :doctorId AND s.day_of_week = :dayOfWeek
+                  AND s.start_time <= :startTime AND s.end_time > :startTime
+                  AND EXTRACT(MINUTE FROM s.start_time) = :minute AND EXTRACT(SECOND FROM s.start_time) = 0
+                  AND NOT EXISTS (
+                      SELECT 1 FROM appointment a
+                      WHERE a.patient_id = :patientId AND a.date = :date
+                        AND a.start_time < CASE WHEN :plusOneHour > s.end_time THEN s.end_time ELSE :plusOneHour END
+                        AND COALESCE(a.end_time, a.start_time + INTERVAL '1' HOUR) > :startTime)
+                  AND (:maxOpen <= 0
+                      OR (SELECT COUNT(*) FROM appointment a WHERE a.patient_id = :patientId AND a.date >= :today) < :maxOpen)
+            )
+            """)
+    Optional<InsertedAppointment> insertIfBookable(
+            @Param("doctorId") Integer doctorId,
+            @Param("patientId") Integer patientId,
+            @Param("date") LocalDate date,
+            @Param("dayOfWeek") String dayOfWeek,
+            @Param("startTime") LocalTime startTime,
+            @Param("minute") int minute,
+            @Param("plusOneHour") LocalTime plusOneHour,
+            @Param("today") LocalDate today,
+            @Param("maxOpen") int maxOpen,
+            @Param("createdAt") Instant createdAt
+    );
 }
@@ -0,0 +1,45 @@
+package com.okto.hospital.repository;
+
+import com.okto.hospital.model.ArchivedAppointmentEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ArchivedAppointmentRepository extends JpaRepository<ArchivedAppointmentEntity, Integer> {
+
+    List<ArchivedAppointmentEntity> findByDoctorIdAndDateBetweenOrderByDateAscStartTimeAsc(
+            Integer doctorId,
+            LocalDate from,
+            LocalDate to
+    );
+
+    /**
+     * Copies appointments into the archive in one statement. Run in the same transaction as the delete of the
+     * copied rows, so an appointment is always in exactly one of the two tables. Only appointment_archive is
+     * declared as written, so Hibernate keeps the doctor and schedule caches instead of clearing every region.
+     *
+     * @param ids        ids of the appointments to copy
+     * @param archivedAt when the appointments are archived
+     * @return the number of archived appointments
+     */
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "appointment_archive"))
+    @Query(nativeQuery = true, value = """
+            INSERT INTO appointment_archive (appointment_id, doctor_id, patient_id, date, start_time, end_time, created_at, archived_at)
+            SELECT id, doctor_id, patient_id, date, start_time, end_time, created_at, :archivedAt
+            FROM appointment
+            WHERE id IN (:ids)
+            """)
+    int copyFromAppointments(@Param("ids") Collection<Integer> ids, @Param("archivedAt") Instant archivedAt);
+}
@@ -1,7 +1,19 @@
 package com.okto.hospital.repository;
 
 import com.okto.hospital.model.DoctorEntity;
+import com.okto.hospital.model.projection.DoctorName;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface DoctorRepository extends JpaRepository<DoctorEntity, Integer>{
+
+    /**
+     * Returns the id and name of every doctor, without loading the entities into the second-level cache.
+     *
+     * @return all doctors
+     */
+    @Query("select new com.okto.hospital.model.projection.DoctorName(d.id, d.name) from doctor d")
+    List<DoctorName> findAllNames();
 }
@@ -2,21 +2,84 @@ package com.okto.hospital.repository;
 
 import com.okto.hospital.model.DoctorEntity;
 import com.okto.hospital.model.ScheduleEntity;
+import com.okto.hospital.model.response.Schedule;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.DayOfWeek;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * The finder queries are cached in the "schedule-queries" region. Hibernate invalidates them
+ * whenever the schedule table is written through the persistence context, so cached results
+ * stay correct when a schedule is created, updated or replaced.
+ * <p>
+ * Read only paths use the {@link Schedule} projections, which select straight into the response
+ * record instead of loading managed entities into the persistence context.
+ */
 @Repository
 public interface ScheduleRepository extends JpaRepository<ScheduleEntity, Integer> {
 
-    Optional<List<ScheduleEntity>> findAllByDoctorId(Integer doctorId);
+    String QUERY_CACHE_REGION = "schedule-queries";
 
-    void deleteAllByDoctor(DoctorEntity doctor);
+    @Query("""
+            select new com.okto.hospital.model.response.Schedule(s.id, s.doctor.id, s.dayOfWeek, s.startTime, s.endTime)
+            from ScheduleEntity s
+            where s.doctor.id = :doctorId
+            """)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
+    List<Schedule> findSchedulesByDoctorId(@Param("doctorId") Integer doctorId);
 
-    Optional<ScheduleEntity> findByDoctorIdAndDayOfWeek(Integer doctorId, DayOfWeek dayOfWeek);
+    /**
+     * The schedules of several doctors with one query, grouped by doctor. Not cached: the query cache is keyed
+     * by the whole id list, which rarely repeats.
+     *
+     * @param doctorIds the doctors, at most as many as the database accepts parameters
+     * @return the schedules, ordered by doctor id and schedule id
+     */
+    @Query("""
+            select new com.okto.hospital.model.response.Schedule(s.id, s.doctor.id, s.dayOfWeek, s.startTime, s.endTime)
+            from ScheduleEntity s
+            where s.doctor.id in :doctorIds
+            order by s.doctor.id, s.id
+            """)
+    List<Schedule> findSchedulesByDoctorIdIn(@Param("doctorIds") Collection<Integer> doctorIds);
 
+    @Query("""
+            select new com.okto.hospital.model.response.Schedule(s.id, s.doctor.id, s.dayOfWeek, s.startTime, s.endTime)
+            from ScheduleEntity s
+            where s.dayOfWeek = :dayOfWeek
+            """)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
+    List<Schedule> findSchedulesByDayOfWeek(@Param("dayOfWeek") DayOfWeek dayOfWeek);
+
+    /**
+     * Deletes the doctor's schedules with one bulk statement, instead of loading them and deleting them one by one.
+     * Hibernate evicts the schedule cache regions for it.
+     *
+     * @param doctor the doctor
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("delete from ScheduleEntity s where s.doctor = :doctor")
+    void deleteAllByDoctor(@Param("doctor") DoctorEntity doctor);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = QUERY_CACHE_REGION)
+    })
     Optional<ScheduleEntity> findByDoctorAndDayOfWeek(DoctorEntity doctor, DayOfWeek dayOfWeek);
 }
@@ -0,0 +1,118 @@
+package com.okto.hospital.repository;
+
+import com.okto.hospital.model.UtilizationEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface UtilizationRepository extends JpaRepository<UtilizationEntity, UtilizationEntity.Key> {
+
+    List<UtilizationEntity> findByDoctorIdAndPeriodAndStartDateBetween(
+            Integer doctorId,
+            UtilizationEntity.Period period,
+            LocalDate from,
+            LocalDate to
+    );
+
+    List<UtilizationEntity> findByDoctorIdAndStartDateGreaterThanEqual(Integer doctorId, LocalDate from);
+
+    /**
+     * Adds minutes to the available minutes of one row, in place, so the counters that concurrent bookings
+     * change in the meantime are not written back.
+     *
+     * @param doctorId  Doctor id
+     * @param period    DAY, WEEK or MONTH
+     * @param startDate the first date of the period
+     * @param minutes   minutes to add, negative when hours are removed
+     * @return the number of rows written, 0 or 1
+     */
+    @Modifying
+    @Query("""
+            UPDATE doctor_utilization u SET u.availableMinutes = u.availableMinutes + :minutes
+            WHERE u.doctorId = :doctorId AND u.period = :period AND u.startDate = :startDate
+            """)
+    int addAvailableMinutes(
+            @Param("doctorId") Integer doctorId,
+            @Param("period") UtilizationEntity.Period period,
+            @Param("startDate") LocalDate startDate,
+            @Param("minutes") int minutes
+    );
+
+    /**
+     * Adds bookings to an existing row, in place; nothing is written if the period has no row.
+     *
+     * @param doctorId      Doctor id
+     * @param period        DAY, WEEK or MONTH
+     * @param startDate     the first date of the period
+     * @param bookedMinutes minutes to add, negative for cancellations
+     * @param appointments  appointments to add, negative for cancellations
+     * @return the number of rows written, 0 or 1
+     */
+    @Modifying
+    @Query("""
+            UPDATE doctor_utilization u
+            SET u.bookedMinutes = u.bookedMinutes + :bookedMinutes, u.appointments = u.appointments + :appointments
+            WHERE u.doctorId = :doctorId AND u.period = :period AND u.startDate = :startDate
+            """)
+    int addBookings(
+            @Param("doctorId") Integer doctorId,
+            @Param("period") UtilizationEntity.Period period,
+            @Param("startDate") LocalDate startDate,
+            @Param("bookedMinutes") int bookedMinutes,
+            @Param("appointments") int appointments
+    );
+
+    /**
+     * Adds a booking or a cancellation to the counters of its day, week and month with one statement, creating
+     * the rows that do not exist yet with the available minutes given for them. Standard SQL MERGE, so the row
+     * is created or updated atomically by the database. The statement is declared to write doctor_utilization
+     * only, otherwise Hibernate would assume it writes every table and evict the schedule caches on each booking.
+     *
+     * @param doctorId          Doctor id
+     * @param day               the date of the appointment
+     * @param dayAvailable      available minutes of the day, used when its row is created
+     * @param week              the Monday of the week
+     * @param weekAvailable     available minutes of the week, used when its row is created
+     * @param month             the first day of the month
+     * @param monthAvailable    available minutes of the month, used when its row is created
+     * @param bookedMinutes     minutes to add, negative for a cancellation
+     * @param appointments      appointments to add, negative for a cancellation
+     * @return the number of rows written
+     */
+    @Modifying
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "doctor_utilization"))
+    @Query(nativeQuery = true, value = """
+            MERGE INTO doctor_utilization u
+            USING (VALUES
+                (CAST(:doctorId AS INTEGER), 'DAY', CAST(:day AS DATE), CAST(:dayAvailable AS INTEGER)),
+                (CAST(:doctorId AS INTEGER), 'WEEK', CAST(:week AS DATE), CAST(:weekAvailable AS INTEGER)),
+                (CAST(:doctorId AS INTEGER), 'MONTH', CAST(:month AS DATE), CAST(:monthAvailable AS INTEGER))
+            ) AS k (doctor_id, period, start_date, available_minutes)
+            ON u.doctor_id = k.doctor_id AND u.period = k.period AND u.start_date = k.start_date
+            WHEN MATCHED THEN UPDATE SET
+                booked_minutes = u.booked_minutes + :bookedMinutes,
+                appointments = u.appointments + :appointments
+            WHEN NOT MATCHED THEN INSERT (doctor_id, period, start_date, available_minutes, booked_minutes, appointments)
+                VALUES (k.doctor_id, k.period, k.start_date, k.available_minutes, :bookedMinutes, :appointments)
+            """)
+    int add(
+            @Param("doctorId") Integer doctorId,
+            @Param("day") LocalDate day,
+            @Param("dayAvailable") int dayAvailable,
+            @Param("week") LocalDate week,
+            @Param("weekAvailable") int weekAvailable,
+            @Param("month") LocalDate month,
+            @Param("monthAvailable") int monthAvailable,
+            @Param("bookedMinutes") int bookedMinutes,
+            @Param("appointments") int appointments
+    );
+}
@@ -0,0 +1,21 @@
+package com.okto.hospital.repository;
+
+import com.okto.hospital.model.WaitlistEntryEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface WaitlistEntryRepository extends JpaRepository<WaitlistEntryEntity, Integer> {
+
+    List<WaitlistEntryEntity> findByDateGreaterThanEqualOrderByIdAsc(LocalDate date);
+
+    @Modifying
+    @Query("delete from waitlist_entry w where w.date < :date")
+    int deleteDatedBefore(@Param("date") LocalDate date);
+}
@@ -0,0 +1,154 @@
+package com.okto.hospital.resilience;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based circuit breaker. The outcomes of the last {@code windowSize} calls are kept in a ring; once at
+ * least {@code minimumCalls} are in it and the share of failed or slow ones reaches the threshold, the breaker
+ * opens and refuses every call for {@code openNanos}. The first call asked for after that is the probe: while it
+ * runs every other call is still refused, its success closes the breaker with an empty window, its failure opens
+ * it again.
+ * <p>
+ * A slow call counts as a failure even when it succeeds, since a stalled database first shows as slow calls,
+ * not as errors. Outcomes reported while the breaker is open come from calls started before it opened and are
+ * ignored.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * What a call may do.
+     */
+    public enum Permit {
+        /**
+         * Run, and report the outcome.
+         */
+        GRANTED,
+        /**
+         * Run as the probe of a half-open breaker, and report the outcome.
+         */
+        PROBE,
+        /**
+         * Do not run, the breaker is open.
+         */
+        DENIED
+    }
+
+    private final boolean[] failures;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int next;
+    private int calls;
+    private int failed;
+
+    /**
+     * @param windowSize           number of recent calls the failure rate is computed over
+     * @param minimumCalls         calls needed in the window before the breaker may open
+     * @param failureRateThreshold share of failed or slow calls, between 0 and 1, that opens the breaker
+     * @param slowCallNanos        duration above which a successful call counts as failed
+     * @param openNanos            how long the breaker stays open before letting a probe through
+     * @param nanoClock            source of {@link System#nanoTime()}-like time
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long slowCallNanos,
+                          long openNanos, LongSupplier nanoClock) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("windowSize and minimumCalls must be at least 1, minimumCalls at most windowSize");
+        }
+        this.failures = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallNanos;
+        this.openNanos = openNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Asks whether a call may run now.
+     *
+     * @return the permit of the call
+     */
+    public synchronized Permit tryAcquire() {
+        if (state == State.CLOSED) {
+            return Permit.GRANTED;
+        }
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            return Permit.PROBE;
+        }
+        return Permit.DENIED;
+    }
+
+    /**
+     * Reports the outcome of a call that was granted a permit.
+     *
+     * @param failed        true if the call failed in a way that points at the database
+     * @param durationNanos how long the call took
+     */
+    public synchronized void onResult(boolean failed, long durationNanos) {
+        boolean failure = failed || durationNanos > slowCallNanos;
+        switch (state) {
+            case HALF_OPEN -> {
+                if (failure) {
+                    open();
+                } else {
+                    state = State.CLOSED;
+                }
+            }
+            case CLOSED -> record(failure);
+            case OPEN -> {
+                // started before the breaker opened
+            }
+        }
+    }
+
+    /**
+     * Opens the breaker now, whatever the recent calls, as if the failure rate had been reached.
+     */
+    public synchronized void open() {
+        state = State.OPEN;
+        openedAt = nanoClock.getAsLong();
+        next = 0;
+        calls = 0;
+        failed = 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how long the breaker stays open, 0 when it is not open or its probe is due.
+     *
+     * @return nanoseconds until a probe is let through
+     */
+    public synchronized long remainingOpenNanos() {
+        return state == State.OPEN ? Math.max(0, openNanos - (nanoClock.getAsLong() - openedAt)) : 0;
+    }
+
+    private void record(boolean failure) {
+        if (calls == failures.length) {
+            if (failures[next]) {
+                failed--;
+            }
+        } else {
+            calls++;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failed++;
+        }
+        next = (next + 1) % failures.length;
+        if (calls >= minimumCalls && failed > 0 && failed >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+}
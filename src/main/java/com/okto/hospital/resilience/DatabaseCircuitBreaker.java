@@ -0,0 +1,180 @@
+package com.okto.hospital.resilience;
+
+import com.okto.hospital.config.CircuitBreakerProperties;
+import com.okto.hospital.exception.DatabaseUnavailable;
+import com.okto.hospital.sharding.ShardContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.exception.JDBCConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The {@link CircuitBreaker} in front of the database, for the schedule reads and writes, the availability
+ * reads and the bookings. When the database stalls or fails, the breaker opens and those calls are refused at
+ * once with {@link DatabaseUnavailable} instead of piling up on the connection pool; reads that have an earlier
+ * copy are answered with it.
+ * <p>
+ * Only failures that point at the database count: no connection, a transaction that cannot start, a timeout,
+ * or a call slower than hospital.circuit-breaker.slow-call-threshold. A rejected booking or a missing doctor is
+ * a success. The probe of a half-open breaker is run on a background thread when the caller has a copy to
+ * answer with, so no request waits on a database that may still be down; it runs on the caller's shard.
+ */
+@Component
+public class DatabaseCircuitBreaker implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseCircuitBreaker.class);
+
+    private final CircuitBreaker breaker;
+    private final boolean enabled;
+    private final Clock clock;
+    private final ThreadPoolExecutor prober;
+    private final Counter rejected;
+    private final Counter staleServed;
+
+    public DatabaseCircuitBreaker(CircuitBreakerProperties properties, Clock clock, MeterRegistry meterRegistry) {
+        this.breaker = new CircuitBreaker(properties.windowSize(), properties.minimumCalls(),
+                properties.failureRateThreshold(), properties.slowCallThreshold().toNanos(),
+                properties.openDuration().toNanos(), System::nanoTime);
+        this.enabled = properties.enabled();
+        this.clock = clock;
+        // one probe at a time, the ones asked for meanwhile are dropped
+        this.prober = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), runnable -> {
+            Thread thread = new Thread(runnable, "database-probe");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        this.rejected = Counter.builder("hospital.circuit_breaker.rejected")
+                .description("Database calls refused because the circuit breaker was open")
+                .register(meterRegistry);
+        this.staleServed = Counter.builder("hospital.circuit_breaker.stale_served")
+                .description("Reads answered with a last known copy instead of the database")
+                .register(meterRegistry);
+        Gauge.builder("hospital.circuit_breaker.state", breaker, cb -> cb.getState().ordinal())
+                .description("0 closed, 1 open, 2 half-open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a database call through the breaker.
+     *
+     * @param call the call
+     * @param <T>  result type
+     * @return the result of the call
+     * @throws DatabaseUnavailable if the breaker is open
+     */
+    public <T> T call(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        if (breaker.tryAcquire() == CircuitBreaker.Permit.DENIED) {
+            rejected.increment();
+            throw new DatabaseUnavailable(Duration.ofNanos(breaker.remainingOpenNanos()));
+        }
+        return run(call);
+    }
+
+    /**
+     * Reads through the breaker, and answers with the last known copy when the breaker is open or the read
+     * fails on the database. When the breaker lets its probe through, the read is run in the background, its
+     * result handed to onRefreshed, and the copy is returned meanwhile.
+     *
+     * @param read        the read
+     * @param lastKnown   the last value read, null if there is none
+     * @param onRefreshed receives every value read, to keep it as the next last known one
+     * @param <T>         value type
+     * @return the value read now, or the copy marked stale
+     * @throws DatabaseUnavailable if the breaker is open and there is no copy
+     */
+    public <T> Served<T> readOrStale(Supplier<T> read, Served<T> lastKnown, Consumer<Served<T>> onRefreshed) {
+        if (lastKnown == null || !enabled) {
+            Served<T> served = Served.fresh(call(read), clock.instant());
+            onRefreshed.accept(served);
+            return served;
+        }
+        switch (breaker.tryAcquire()) {
+            case GRANTED -> {
+                try {
+                    Served<T> served = Served.fresh(run(read), clock.instant());
+                    onRefreshed.accept(served);
+                    return served;
+                } catch (RuntimeException e) {
+                    if (!isDatabaseFailure(e)) {
+                        throw e;
+                    }
+                    log.warn("Database read failed, serving the copy read at {}", lastKnown.loadedAt(), e);
+                }
+            }
+            case PROBE -> {
+                // the probe reads the caller's shard, like the read it stands for
+                String shard = ShardContext.current();
+                prober.execute(() -> ShardContext.runOn(shard, () -> {
+                    try {
+                        onRefreshed.accept(Served.fresh(run(read), clock.instant()));
+                    } catch (RuntimeException e) {
+                        log.debug("Database probe failed", e);
+                    }
+                }));
+            }
+            case DENIED -> rejected.increment();
+        }
+        staleServed.increment();
+        return lastKnown.asStale();
+    }
+
+    /**
+     * Opens the breaker now, for operations and tests.
+     */
+    public void open() {
+        breaker.open();
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    @Override
+    public void destroy() {
+        prober.shutdownNow();
+    }
+
+    /**
+     * Runs a call that was granted a permit and reports its outcome.
+     */
+    private <T> T run(Supplier<T> call) {
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            failed = isDatabaseFailure(e);
+            throw e;
+        } finally {
+            breaker.onResult(failed, System.nanoTime() - start);
+        }
+    }
+
+    private static boolean isDatabaseFailure(RuntimeException e) {
+        // lock conflicts and deadlock victims are contention between bookings, not a database in trouble
+        return e instanceof DataAccessResourceFailureException
+                || e instanceof TransientDataAccessResourceException
+                || e instanceof QueryTimeoutException
+                || e instanceof CannotCreateTransactionException
+                || e instanceof JDBCConnectionException;
+    }
+}
@@ -0,0 +1,23 @@
+package com.okto.hospital.resilience;
+
+import java.time.Instant;
+
+/**
+ * A value read from the database, either just now or earlier and served again because the database could not
+ * be reached.
+ *
+ * @param value    the value
+ * @param loadedAt when it was read from the database
+ * @param stale    true if it is a copy served instead of a fresh read
+ * @param <T>      value type
+ */
+public record Served<T>(T value, Instant loadedAt, boolean stale) {
+
+    public static <T> Served<T> fresh(T value, Instant loadedAt) {
+        return new Served<>(value, loadedAt, false);
+    }
+
+    public Served<T> asStale() {
+        return new Served<>(value, loadedAt, true);
+    }
+}
@@ -0,0 +1,50 @@
+package com.okto.hospital.search;
+
+import com.okto.hospital.model.DoctorEntity;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Applies the doctors written through JPA to the {@link DoctorNameIndex} once their transaction has committed, so
+ * a rolled back change is never searchable. Created by Hibernate through Spring; the index is looked up lazily
+ * since the listener exists before the repositories it depends on.
+ */
+public class DoctorIndexListener {
+
+    private final ObjectProvider<DoctorNameIndex> doctorNameIndex;
+
+    public DoctorIndexListener(ObjectProvider<DoctorNameIndex> doctorNameIndex) {
+        this.doctorNameIndex = doctorNameIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void saved(DoctorEntity doctor) {
+        Integer id = doctor.getId();
+        String name = doctor.getName();
+        afterCommit(() -> doctorNameIndex.getObject().put(id, name));
+    }
+
+    @PostRemove
+    public void removed(DoctorEntity doctor) {
+        Integer id = doctor.getId();
+        afterCommit(() -> doctorNameIndex.getObject().remove(id));
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,317 @@
+package com.okto.hospital.search;
+
+import com.okto.hospital.model.projection.DoctorName;
+import com.okto.hospital.repository.DoctorRepository;
+import com.okto.hospital.sharding.ShardContext;
+import com.okto.hospital.sharding.ShardRouter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory prefix index over the doctor names, for the type-ahead search.
+ * <p>
+ * Names are split into words, lower-cased and stripped of accents. Every word of every doctor is one entry of a
+ * sorted array, so the doctors with a word starting with a prefix are a contiguous range found with two binary
+ * searches. A query matches the doctors that have a word starting with each of its words, in any order.
+ * <p>
+ * The index is an immutable snapshot behind a volatile field: searches never lock and never touch the database.
+ * It is built at startup and rebuilt every hospital.doctor-search.rebuild-interval; the doctors written through
+ * JPA are applied by {@link DoctorIndexListener} as soon as their transaction commits. Each change copies the
+ * snapshot, which is cheap for the few thousand doctors of a hospital and for how rarely they change.
+ * <p>
+ * A rebuild reads the doctors without holding the index, so the commits are not held up by it. The changes
+ * applied while it reads are kept and applied again on top of what it read, which may predate them.
+ */
+@Component
+public class DoctorNameIndex implements SmartInitializingSingleton {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+
+    private final DoctorRepository doctorRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<ShardRouter> shardRouter;
+
+    private final Object rebuildLock = new Object();
+    private volatile Snapshot snapshot = Snapshot.of(Map.of());
+    // guarded by this, null when no rebuild is reading
+    private Map<Integer, Entry> changesDuringRebuild;
+
+    public DoctorNameIndex(
+            DoctorRepository doctorRepository,
+            PlatformTransactionManager transactionManager,
+            ObjectProvider<ShardRouter> shardRouter
+    ) {
+        this.doctorRepository = doctorRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.shardRouter = shardRouter;
+    }
+
+    /**
+     * A doctor found by a search.
+     *
+     * @param doctorId Doctor id
+     * @param name     the doctor's name as stored
+     */
+    public record Match(int doctorId, String name) {
+    }
+
+    /**
+     * Builds the index once every singleton exists, so the schema of every shard has been created.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    /**
+     * Replaces the index with the doctors currently in the database, of every shard when sharded. A doctor is
+     * only taken from the shard it is routed to, so the copies left behind by a rebalancing are not listed.
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            synchronized (this) {
+                changesDuringRebuild = new HashMap<>();
+            }
+            Map<Integer, Entry> entries = new HashMap<>();
+            try {
+                ShardRouter router = shardRouter.getIfAvailable();
+                if (router == null) {
+                    load().forEach(doctor -> entries.put(doctor.id(), Entry.of(doctor.id(), doctor.name())));
+                } else {
+                    for (String shard : router.getShards()) {
+                        ShardContext.callOn(shard, this::load).stream()
+                                .filter(doctor -> shard.equals(router.shardFor(doctor.id())))
+                                .forEach(doctor -> entries.put(doctor.id(), Entry.of(doctor.id(), doctor.name())));
+                    }
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    changesDuringRebuild = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                // a removal is kept as a null entry
+                changesDuringRebuild.forEach((doctorId, entry) -> {
+                    if (entry == null) {
+                        entries.remove(doctorId);
+                    } else {
+                        entries.put(doctorId, entry);
+                    }
+                });
+                changesDuringRebuild = null;
+                snapshot = Snapshot.of(entries);
+            }
+        }
+    }
+
+    private List<DoctorName> load() {
+        return transactionTemplate.execute(status -> doctorRepository.findAllNames());
+    }
+
+    /**
+     * Adds a doctor, or replaces the name of one already indexed.
+     *
+     * @param doctorId Doctor id
+     * @param name     the doctor's name
+     */
+    public synchronized void put(int doctorId, String name) {
+        Entry entry = Entry.of(doctorId, name);
+        Map<Integer, Entry> entries = new HashMap<>(snapshot.entries());
+        entries.put(doctorId, entry);
+        snapshot = Snapshot.of(entries);
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.put(doctorId, entry);
+        }
+    }
+
+    /**
+     * Removes a doctor from the index.
+     *
+     * @param doctorId Doctor id
+     */
+    public synchronized void remove(int doctorId) {
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.put(doctorId, null);
+        }
+        if (!snapshot.entries().containsKey(doctorId)) {
+            return;
+        }
+        Map<Integer, Entry> entries = new HashMap<>(snapshot.entries());
+        entries.remove(doctorId);
+        snapshot = Snapshot.of(entries);
+    }
+
+    /**
+     * Returns the doctors having a word starting with each word of the query, best first: names with more
+     * words matched exactly, then names starting with the first word of the query, then shorter names.
+     *
+     * @param query the words typed so far, in any case, with or without accents
+     * @param limit the most doctors returned
+     * @return the matching doctors, empty for a query without letters or digits
+     */
+    public List<Match> search(String query, int limit) {
+        String[] words = words(query);
+        Snapshot current = snapshot;
+        if (words.length == 0 || limit <= 0) {
+            return List.of();
+        }
+
+        // the candidates come from the narrowest range, the other words are checked on each candidate
+        int narrowest = 0;
+        int[][] ranges = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            ranges[i] = current.rangeOf(words[i]);
+            if (ranges[i][1] - ranges[i][0] < ranges[narrowest][1] - ranges[narrowest][0]) {
+                narrowest = i;
+            }
+        }
+        Set<Integer> candidates = new LinkedHashSet<>();
+        for (int i = ranges[narrowest][0]; i < ranges[narrowest][1]; i++) {
+            candidates.add(current.doctorIds()[i]);
+        }
+
+        List<Ranked> ranked = new ArrayList<>();
+        for (Integer doctorId : candidates) {
+            Entry entry = current.entries().get(doctorId);
+            int score = entry.score(words);
+            if (score >= 0) {
+                ranked.add(new Ranked(entry, score));
+            }
+        }
+        return ranked.stream()
+                .sorted(Comparator.comparingInt(Ranked::score).reversed()
+                        .thenComparingInt(candidate -> candidate.entry().name().length())
+                        .thenComparing(candidate -> candidate.entry().name())
+                        .thenComparingInt(candidate -> candidate.entry().doctorId()))
+                .limit(limit)
+                .map(candidate -> new Match(candidate.entry().doctorId(), candidate.entry().name()))
+                .toList();
+    }
+
+    /**
+     * Returns the number of doctors in the index.
+     *
+     * @return indexed doctors
+     */
+    public int size() {
+        return snapshot.entries().size();
+    }
+
+    /**
+     * Splits a name or a query into lower-case words without accents.
+     */
+    static String[] words(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String folded = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        return Arrays.stream(SEPARATORS.split(folded))
+                .filter(word -> !word.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private record Entry(int doctorId, String name, String[] words) {
+
+        static Entry of(int doctorId, String name) {
+            return new Entry(doctorId, name == null ? "" : name, DoctorNameIndex.words(name));
+        }
+
+        /**
+         * Two points per word of the query equal to a word of the name, one per word only starting one, one more
+         * if the name starts with the first word of the query; -1 if a word of the query matches nothing.
+         */
+        int score(String[] query) {
+            int score = 0;
+            for (String queryWord : query) {
+                int best = -1;
+                for (String word : words) {
+                    if (word.equals(queryWord)) {
+                        best = 2;
+                        break;
+                    }
+                    if (word.startsWith(queryWord)) {
+                        best = 1;
+                    }
+                }
+                if (best < 0) {
+                    return -1;
+                }
+                score += best;
+            }
+            return words.length > 0 && words[0].startsWith(query[0]) ? score + 1 : score;
+        }
+    }
+
+    private record Ranked(Entry entry, int score) {
+    }
+
+    /**
+     * The doctors, and all their words sorted, with the id of the doctor of each word in a parallel array.
+     */
+    private record Snapshot(Map<Integer, Entry> entries, String[] words, int[] doctorIds) {
+
+        static Snapshot of(Map<Integer, Entry> entries) {
+            List<Entry> byWord = new ArrayList<>();
+            List<String> words = new ArrayList<>();
+            entries.values().forEach(entry -> {
+                for (String word : entry.words()) {
+                    byWord.add(entry);
+                    words.add(word);
+                }
+            });
+            Integer[] order = new Integer[words.size()];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparing(words::get));
+            String[] sortedWords = new String[order.length];
+            int[] doctorIds = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedWords[i] = words.get(order[i]);
+                doctorIds[i] = byWord.get(order[i]).doctorId();
+            }
+            return new Snapshot(Map.copyOf(entries), sortedWords, doctorIds);
+        }
+
+        /**
+         * Returns the first index of the words starting with the prefix and the index after the last one.
+         */
+        int[] rangeOf(String prefix) {
+            int from = lowerBound(prefix);
+            // every word starting with the prefix sorts before the prefix followed by the highest character
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            return new int[]{from, to};
+        }
+
+        private int lowerBound(String key) {
+            int low = 0;
+            int high = words.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (words[middle].compareTo(key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.config.ArchiveProperties;
+import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.ArchivedAppointmentRepository;
+import com.okto.hospital.sharding.ShardContext;
+import com.okto.hospital.sharding.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Moves appointments dated more than hospital.archive.horizon before today from the "appointment" table into
+ * "appointment_archive", so the table the booking path reads only holds recent and future appointments.
+ * <p>
+ * Appointments are moved oldest first, hospital.archive.batch-size at a time, each batch in its own short
+ * transaction: copy, then delete the copied rows. Bookings keep running between batches and a run that stops
+ * halfway leaves every appointment in exactly one of the two tables. When doctors are sharded, every shard is
+ * archived in turn.
+ * <p>
+ * The booking conflict checks do not look into the archive, so bookings for dates before the horizon are only
+ * checked against the appointments that were not archived yet.
+ */
+@Service
+public class AppointmentArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentArchiver.class);
+
+    private final AppointmentRepository appointmentRepository;
+    private final ArchivedAppointmentRepository archivedAppointmentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ArchiveProperties properties;
+    private final Clock clock;
+    private final ObjectProvider<ShardRouter> shardRouter;
+    private final Counter archivedAppointments;
+
+    public AppointmentArchiver(
+            AppointmentRepository appointmentRepository,
+            ArchivedAppointmentRepository archivedAppointmentRepository,
+            PlatformTransactionManager transactionManager,
+            ArchiveProperties properties,
+            Clock clock,
+            ObjectProvider<ShardRouter> shardRouter,
+            MeterRegistry meterRegistry
+    ) {
+        this.appointmentRepository = appointmentRepository;
+        this.archivedAppointmentRepository = archivedAppointmentRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties;
+        this.clock = clock;
+        this.shardRouter = shardRouter;
+        this.archivedAppointments = Counter.builder("hospital.archive.appointments")
+                .description("Appointments moved to the archive table")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Archives every appointment dated before the horizon.
+     *
+     * @return the number of archived appointments
+     */
+    public int archive() {
+        LocalDate cutoff = LocalDate.now(clock).minus(properties.horizon());
+        ShardRouter router = shardRouter.getIfAvailable();
+        if (router == null) {
+            return archiveBefore(cutoff);
+        }
+        int archived = 0;
+        for (String shard : router.getShards()) {
+            archived += ShardContext.callOn(shard, () -> archiveBefore(cutoff));
+        }
+        return archived;
+    }
+
+    private int archiveBefore(LocalDate cutoff) {
+        long start = System.nanoTime();
+        int archived = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> archiveBatch(cutoff));
+            archived += batch;
+        } while (batch == properties.batchSize());
+
+        if (archived > 0) {
+            log.info("Archived {} appointments dated before {} in {} ms", archived, cutoff, (System.nanoTime() - start) / 1_000_000);
+        }
+        return archived;
+    }
+
+    private int archiveBatch(LocalDate cutoff) {
+        List<Integer> ids = appointmentRepository.findIdsDatedBefore(cutoff, PageRequest.of(0, properties.batchSize()));
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        archivedAppointmentRepository.copyFromAppointments(ids, clock.instant());
+        appointmentRepository.deleteAllByIdInBatch(ids);
+        archivedAppointments.increment(ids.size());
+        return ids.size();
+    }
+}
@@ -1,11 +1,32 @@
 package com.okto.hospital.service;
 
 import com.okto.hospital.model.response.Appointment;
+import com.okto.hospital.model.response.AppointmentSeries;
+import com.okto.hospital.model.response.SlotHold;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.List;
+import java.util.Optional;
 
 public interface AppointmentService {
 
     Appointment createAppointment(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime);
+
+    Appointment createAppointment(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime, boolean suggestOtherDoctors);
+
+    AppointmentSeries createAppointmentSeries(Integer doctorId, Integer patientId, LocalDate firstDate, LocalTime startTime, int occurrences, int intervalWeeks, AppointmentSeries.Mode mode);
+
+    BookingOutcome createAppointmentOrJoinWaitlist(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime);
+
+    SlotHold holdSlot(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime, Duration ttl);
+
+    Appointment confirmHold(Integer doctorId, String token);
+
+    void releaseHold(Integer doctorId, String token);
+
+    Optional<Appointment> cancelAppointment(Integer doctorId, Integer appointmentId);
+
+    List<Appointment> getAppointments(Integer doctorId, LocalDate from, LocalDate to, boolean includeArchived);
 }
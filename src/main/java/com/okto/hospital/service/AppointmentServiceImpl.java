@@ -1,50 +1,131 @@
 package com.okto.hospital.service;
 
+import com.okto.hospital.config.BookingProperties;
 import com.okto.hospital.exception.DoctorScheduleAvailabilityException;
+import com.okto.hospital.exception.InvalidDateRange;
+import com.okto.hospital.exception.PatientAlreadyBooked;
+import com.okto.hospital.exception.PatientAppointmentLimitReached;
+import com.okto.hospital.exception.ResourceNotFound;
 import com.okto.hospital.exception.SlotAlreadyBooked;
 import com.okto.hospital.exception.SlotNotBookable;
+import com.okto.hospital.hold.SlotHolds;
+import com.okto.hospital.journal.BookingLedger;
 import com.okto.hospital.mapper.AppointmentMapper;
 import com.okto.hospital.model.AppointmentEntity;
 import com.okto.hospital.model.DoctorEntity;
 import com.okto.hospital.model.PatientEntity;
-import com.okto.hospital.model.ScheduleEntity;
+import com.okto.hospital.model.WaitlistEntryEntity;
+import com.okto.hospital.model.projection.BookedSlot;
 import com.okto.hospital.model.response.Appointment;
+import com.okto.hospital.model.response.AppointmentSeries;
+import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.model.response.SlotHold;
+import com.okto.hospital.model.response.SuggestedSlot;
+import com.okto.hospital.model.response.WaitlistEntry;
 import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.ArchivedAppointmentRepository;
 import com.okto.hospital.repository.ScheduleRepository;
+import com.okto.hospital.repository.WaitlistEntryRepository;
+import com.okto.hospital.resilience.DatabaseCircuitBreaker;
+import com.okto.hospital.sharding.ShardFanOut;
+import com.okto.hospital.support.LogSampler;
+import com.okto.hospital.waitlist.Waitlist;
 import jakarta.persistence.EntityManager;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Clock;
 import java.time.DayOfWeek;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class AppointmentServiceImpl implements AppointmentService {
 
     private static final Logger log = LoggerFactory.getLogger(AppointmentServiceImpl.class);
+    private static final Duration SLOT_LENGTH = Duration.ofMinutes(60);
+    private static final String SLOT_CONSTRAINT = "uk_appointment_doctor_date_start";
+    private static final String UTILIZATION_TABLE = "doctor_utilization";
 
     private final AppointmentRepository appointmentRepository;
+    private final ArchivedAppointmentRepository archivedAppointmentRepository;
+    private final ScheduleLoader scheduleLoader;
     private final ScheduleRepository scheduleRepository;
     private final EntityManager entityManager;
     private final AppointmentMapper appointmentMapper;
+    private final BookingProperties bookingProperties;
+    private final boolean conditionalInsert;
+    private final Clock clock;
+    private final LogSampler decisionLogSampler;
+    private final ObjectProvider<ShardFanOut> shardFanOut;
+    private final Waitlist waitlist;
+    private final WaitlistEntryRepository waitlistEntryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<BookingLedger> bookingLedger;
+    private final UtilizationService utilizationService;
+    private final SlotHolds slotHolds;
+    private final DatabaseCircuitBreaker circuitBreaker;
 
-    public AppointmentServiceImpl(AppointmentRepository appointmentRepository, ScheduleRepository scheduleRepository, EntityManager entityManager, AppointmentMapper appointmentMapper) {
+    public AppointmentServiceImpl(AppointmentRepository appointmentRepository, ArchivedAppointmentRepository archivedAppointmentRepository, ScheduleLoader scheduleLoader, ScheduleRepository scheduleRepository, EntityManager entityManager, AppointmentMapper appointmentMapper, BookingProperties bookingProperties, Clock clock, ObjectProvider<ShardFanOut> shardFanOut, Waitlist waitlist, WaitlistEntryRepository waitlistEntryRepository, PlatformTransactionManager transactionManager, ObjectProvider<BookingLedger> bookingLedger, UtilizationService utilizationService, SlotHolds slotHolds, DatabaseCircuitBreaker circuitBreaker) {
         this.appointmentRepository = appointmentRepository;
+        this.archivedAppointmentRepository = archivedAppointmentRepository;
+        this.scheduleLoader = scheduleLoader;
         this.scheduleRepository = scheduleRepository;
         this.entityManager = entityManager;
         this.appointmentMapper = appointmentMapper;
+        this.bookingProperties = bookingProperties;
+        this.conditionalInsert = bookingProperties.conditionalInsert() && supportsConditionalInsert(entityManager);
+        this.clock = clock;
+        this.decisionLogSampler = new LogSampler(bookingProperties.decisionLogsPerSecond(), System::nanoTime);
+        this.shardFanOut = shardFanOut;
+        this.waitlist = waitlist;
+        this.waitlistEntryRepository = waitlistEntryRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.bookingLedger = bookingLedger;
+        this.utilizationService = utilizationService;
+        this.slotHolds = slotHolds;
+        this.circuitBreaker = circuitBreaker;
     }
 
     /**
      * Creates a new appointment for the specified doctor, patient, date, and start time.
      * Throws an exception if the doctor is not available on that day, the slot is not bookable, or the doctor is already booked in that time slot.
+     * Also throws if the patient already has an overlapping appointment with any doctor, or holds too many open appointments.
+     * A slot held by another patient counts as booked.
+     * The doctor and patient checks share a single query.
      * Calls the private method saveAppointment() to persist the new appointment to the database.
+     * Every decision is logged as a key/value event, sampled so that a burst of bookings does not flood the log.
      * Returns the new Appointment object created from the persisted AppointmentEntity object.
+     * Runs in one transaction so the doctor and patient references are still attached when the appointment is saved,
+     * also when the request has no open session (spring.jpa.open-in-view=false); see inBookingTransaction.
+     * With the booking journal on, the checks read the ledger's state and the booking is appended to the journal.
+     * With hospital.booking.conditional-insert on, and on H2, the booking is first tried with one conditional insert
+     * and the checks only run when it is refused; see bookInOneStatement.
+     * Runs under the waitlist lock of the doctor's day, which holdSlot takes too, so a hold of the slot cannot
+     * pass its checks while the booking is between its own checks and its commit.
      *
      * @param doctorId   Doctor id
      * @param patientId  Patient id
@@ -54,32 +135,792 @@ public class AppointmentServiceImpl implements AppointmentService {
      */
     @Override
     public Appointment createAppointment(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
-        var dayAvailability = scheduleRepository.findByDoctorIdAndDayOfWeek(
-                doctorId,
-                getDayOfWeek(date)
-        );
+        return createAppointment(doctorId, patientId, date, startTime, false);
+    }
 
-        if (dayAvailability.isEmpty() || !isDoctorAvailableThatDayAndHours(dayAvailability, doctorId, date, startTime)) {
-            throw new DoctorScheduleAvailabilityException();
+    /**
+     * Same as createAppointment, and when the slot is already booked or not bookable the exception carries the
+     * doctor's next free slots that day, worked out from the schedule and the appointments the checks loaded.
+     * Nothing more is read for a taken slot; for a start time that is not a slot, the conflict query the booking
+     * would have run is run to find the free ones. With suggestOtherDoctors the free slots of the other doctors
+     * working that day are added, which costs two more queries on the conflict path only.
+     *
+     * @param doctorId            Doctor id
+     * @param patientId           Patient id
+     * @param date                Date of the appointment
+     * @param startTime           Start time of the appointment
+     * @param suggestOtherDoctors also suggest slots with other doctors
+     * @return Appointment
+     */
+    @Override
+    public Appointment createAppointment(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime, boolean suggestOtherDoctors) {
+        return waitlist.withLock(doctorId, date, () -> {
+            if (canBookInOneStatement(doctorId, patientId, date, startTime)) {
+                Optional<Appointment> booked = bookInOneStatement(doctorId, patientId, date, startTime);
+                if (booked.isPresent()) {
+                    return booked.get();
+                }
+            }
+            return inBookingTransaction(() -> {
+                var dayAvailability = findDayAvailability(doctorId, getDayOfWeek(date));
+                return decide(() -> book(dayAvailability, doctorId, patientId, date, startTime, suggestOtherDoctors));
+            });
+        });
+    }
+
+    /**
+     * Tells whether the booking can be decided by the single conditional insert of hospital.booking.conditional-insert.
+     * It cannot on a database other than H2, when the checks do not read the appointment table (booking journal),
+     * when the patient's appointments are spread over shards, inside a cancellation's transaction, for a start time
+     * with seconds, or when another patient holds the slot, since holds only live in memory.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      Date of the appointment
+     * @param startTime Start time of the appointment
+     * @return true if bookInOneStatement may be tried
+     */
+    private boolean canBookInOneStatement(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        return conditionalInsert
+                && bookingLedger.getIfAvailable() == null
+                && shardFanOut.getIfAvailable() == null
+                && !TransactionSynchronizationManager.isActualTransactionActive()
+                && startTime.getSecond() == 0 && startTime.getNano() == 0
+                && slotHolds.heldSlots(doctorId, date, patientId).stream().noneMatch(slot -> slot.startTime().equals(startTime));
+    }
+
+    /**
+     * Returns true if the database runs the statement of AppointmentRepository.insertIfBookable, which is written
+     * for H2. Otherwise hospital.booking.conditional-insert is ignored, with a warning, and every booking takes the
+     * checked path.
+     */
+    private static boolean supportsConditionalInsert(EntityManager entityManager) {
+        Dialect dialect = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect();
+        if (dialect instanceof H2Dialect) {
+            return true;
+        }
+        log.warn("hospital.booking.conditional-insert is only supported on H2, not with {}; bookings take the checked path",
+                dialect.getClass().getSimpleName());
+        return false;
+    }
+
+    /**
+     * Books the appointment with one INSERT ... SELECT that only inserts it when the schedule and the patient
+     * allow it, then adds it to the utilization counters, in a transaction of its own. Nothing is read before the
+     * insert; the counters take the utilization MERGE, and the doctor's schedule when it is not cached yet.
+     * When the statement inserts nothing, some rule refused the booking; the caller then runs the checked path,
+     * which names that rule and suggests other slots. A slot already booked breaks the unique constraint and is
+     * rejected right away, unless slots are to be suggested. Any other failure, like the race for a new counter
+     * row, also goes to the checked path, which starts over in a new transaction.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      Date of the appointment
+     * @param startTime Start time of the appointment
+     * @return the appointment, empty if the checked path has to decide
+     */
+    private Optional<Appointment> bookInOneStatement(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        try {
+            return circuitBreaker.call(() -> transactionTemplate.execute(status -> appointmentRepository.insertIfBookable(doctorId, patientId, date,
+                            getDayOfWeek(date).name(), startTime, startTime.getMinute(), startTime.plus(SLOT_LENGTH),
+                            LocalDate.now(clock), bookingProperties.maxOpenAppointmentsPerPatient(), clock.instant())
+                    .map(inserted -> {
+                        utilizationService.recordBooking(doctorId, date, startTime, inserted.getEndTime());
+                        logDecision("booked", null, doctorId, patientId, date, startTime);
+                        return new Appointment(inserted.getId(), doctorId, patientId, date, startTime,
+                                inserted.getEndTime(), inserted.getCreatedAt().toInstant(), null);
+                    })));
+        } catch (DataIntegrityViolationException e) {
+            if (isSlotConstraintViolation(e) && !suggestsSlots(Rejection.SLOT_ALREADY_BOOKED)) {
+                throw rejected(Rejection.SLOT_ALREADY_BOOKED, List.of(), doctorId, patientId, date, startTime);
+            }
+            return Optional.empty();
+        } catch (ConcurrencyFailureException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Appointment book(
+            Optional<Schedule> dayAvailability,
+            Integer doctorId,
+            Integer patientId,
+            LocalDate date,
+            LocalTime startTime,
+            boolean suggestOtherDoctors
+    ) {
+        checkBooking(dayAvailability, doctorId, patientId, date, startTime, suggestOtherDoctors);
+
+        Appointment result = saveAppointment(dayAvailability.get(), doctorId, patientId, date, startTime);
+        logDecision("booked", null, doctorId, patientId, date, startTime);
+
+        return result;
+    }
+
+    /**
+     * Runs every check of a booking and throws the exception of the first rule that rejects it, with the
+     * suggested slots for a slot conflict. The slots other patients hold count as booked.
+     *
+     * @param dayAvailability     the doctor's schedule of that day
+     * @param doctorId            Doctor id
+     * @param patientId           Patient id
+     * @param date                Date of the appointment
+     * @param startTime           Start time of the appointment
+     * @param suggestOtherDoctors also suggest slots with other doctors
+     */
+    private void checkBooking(
+            Optional<Schedule> dayAvailability,
+            Integer doctorId,
+            Integer patientId,
+            LocalDate date,
+            LocalTime startTime,
+            boolean suggestOtherDoctors
+    ) {
+        Optional<Rejection> rejection = checkSchedule(dayAvailability, doctorId, date, startTime);
+        if (rejection.isPresent() && !suggestsSlots(rejection.get())) {
+            throw rejected(rejection.get(), List.of(), doctorId, patientId, date, startTime);
+        }
+
+        LocalDate today = LocalDate.now(clock);
+        List<BookedSlot> bookedSlots = findBookedSlots(doctorId, patientId, date, today);
+
+        if (rejection.isEmpty()) {
+            rejection = checkBookedSlots(bookedSlots, dayAvailability.get(), doctorId, patientId, date, startTime, today);
+        }
+        if (rejection.isPresent()) {
+            List<SuggestedSlot> suggestedSlots = suggestsSlots(rejection.get())
+                    ? suggestSlots(dayAvailability.get(), bookedSlots, patientId, date, startTime, today, suggestOtherDoctors)
+                    : List.of();
+            throw rejected(rejection.get(), suggestedSlots, doctorId, patientId, date, startTime);
+        }
+    }
+
+    /**
+     * Books a weekly recurring appointment: one appointment at the same start time every intervalWeeks weeks,
+     * starting on firstDate. Every occurrence falls on the same day of the week, so the schedule is resolved and
+     * checked once, and the conflicts of all the occurrences are read with one range query.
+     * The occurrences are checked in date order against the existing appointments and the occurrences accepted
+     * before them, so the open appointment limit counts the series itself.
+     * In ALL_OR_NOTHING mode nothing is booked when one occurrence is rejected; in BEST_EFFORT mode the accepted
+     * occurrences are booked and the rejected ones reported. The appointments are inserted in one transaction,
+     * under the waitlist locks of all the dates, like a single booking.
+     *
+     * @param doctorId      Doctor id
+     * @param patientId     Patient id
+     * @param firstDate     Date of the first appointment
+     * @param startTime     Start time of every appointment
+     * @param occurrences   Number of appointments
+     * @param intervalWeeks Weeks between two appointments
+     * @param mode          ALL_OR_NOTHING or BEST_EFFORT
+     * @return the outcome of every occurrence
+     */
+    @Override
+    public AppointmentSeries createAppointmentSeries(
+            Integer doctorId,
+            Integer patientId,
+            LocalDate firstDate,
+            LocalTime startTime,
+            int occurrences,
+            int intervalWeeks,
+            AppointmentSeries.Mode mode
+    ) {
+        List<LocalDate> dates = Stream.iterate(firstDate, date -> date.plusWeeks(intervalWeeks)).limit(occurrences).toList();
+        return waitlist.withLocks(doctorId, dates, () -> inBookingTransaction(() -> {
+            var dayAvailability = findDayAvailability(doctorId, getDayOfWeek(firstDate));
+            return decide(() -> bookSeries(dayAvailability, doctorId, patientId, dates, startTime, mode));
+        }));
+    }
+
+    private AppointmentSeries bookSeries(
+            Optional<Schedule> dayAvailability,
+            Integer doctorId,
+            Integer patientId,
+            List<LocalDate> dates,
+            LocalTime startTime,
+            AppointmentSeries.Mode mode
+    ) {
+        LocalDate firstDate = dates.get(0);
+        int occurrences = dates.size();
+
+        Optional<Rejection> scheduleRejection = checkSchedule(dayAvailability, doctorId, firstDate, startTime);
+        LocalDate today = LocalDate.now(clock);
+        List<BookedSlot> bookedSlots = scheduleRejection.isPresent()
+                ? List.of()
+                : new ArrayList<>(findBookedSlots(doctorId, patientId, firstDate, dates.get(dates.size() - 1), today));
+        if (scheduleRejection.isEmpty()) {
+            dates.forEach(date -> bookedSlots.addAll(slotHolds.heldSlots(doctorId, date, patientId)));
+        }
+
+        List<Optional<Rejection>> rejections = new ArrayList<>(occurrences);
+        for (LocalDate date : dates) {
+            Optional<Rejection> rejection = scheduleRejection.isPresent()
+                    ? scheduleRejection
+                    : checkBookedSlots(bookedSlots, dayAvailability.get(), doctorId, patientId, date, startTime, today);
+            if (rejection.isEmpty()) {
+                // the next occurrences are checked against this one too
+                bookedSlots.add(new BookedSlot(null, doctorId, patientId, date, startTime, calculateEndTime(dayAvailability.get(), startTime)));
+            }
+            rejections.add(rejection);
+        }
+
+        boolean bookAccepted = mode == AppointmentSeries.Mode.BEST_EFFORT || rejections.stream().allMatch(Optional::isEmpty);
+        List<Appointment> accepted = new ArrayList<>();
+        if (bookAccepted) {
+            List<LocalDate> acceptedDates = new ArrayList<>();
+            for (int i = 0; i < dates.size(); i++) {
+                if (rejections.get(i).isEmpty()) {
+                    acceptedDates.add(dates.get(i));
+                }
+            }
+            if (!acceptedDates.isEmpty()) {
+                accepted = saveAppointments(dayAvailability.get(), doctorId, patientId, acceptedDates, startTime);
+            }
+        }
+
+        List<AppointmentSeries.Occurrence> outcomes = new ArrayList<>(occurrences);
+        int booked = 0;
+        for (int i = 0; i < dates.size(); i++) {
+            LocalDate date = dates.get(i);
+            Optional<Rejection> rejection = rejections.get(i);
+            if (rejection.isPresent()) {
+                logDecision("rejected", rejection.get().reason, doctorId, patientId, date, startTime);
+                outcomes.add(new AppointmentSeries.Occurrence(date, AppointmentSeries.Outcome.REJECTED, rejection.get().reason, null));
+            } else if (bookAccepted) {
+                logDecision("booked", null, doctorId, patientId, date, startTime);
+                outcomes.add(new AppointmentSeries.Occurrence(date, AppointmentSeries.Outcome.BOOKED, null, accepted.get(booked++)));
+            } else {
+                outcomes.add(new AppointmentSeries.Occurrence(date, AppointmentSeries.Outcome.NOT_BOOKED, null, null));
+            }
+        }
+        return new AppointmentSeries(mode, booked, outcomes);
+    }
+
+    /**
+     * Books the appointment like createAppointment, but when the slot is already booked the patient joins the
+     * slot's waitlist instead of getting a conflict. Joining twice returns the existing place, so a client that
+     * retries does not queue up more than once.
+     * Runs under the waitlist lock of the doctor's day, so a concurrent cancellation either frees the slot before
+     * the booking is tried or sees the new waiter.
+     *
+     * @param doctorId   Doctor id
+     * @param patientId  Patient id
+     * @param date       Date of the appointment
+     * @param startTime  Start time of the appointment
+     * @return the booked appointment, or the patient's place in the waitlist
+     */
+    @Override
+    public BookingOutcome createAppointmentOrJoinWaitlist(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        return waitlist.withLock(doctorId, date, () -> {
+            try {
+                return BookingOutcome.booked(createAppointment(doctorId, patientId, date, startTime));
+            } catch (SlotAlreadyBooked e) {
+                return BookingOutcome.waitlisted(joinWaitlist(doctorId, patientId, date, startTime));
+            }
+        });
+    }
+
+    private WaitlistEntry joinWaitlist(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        Waitlist.Position position = waitlist.find(doctorId, patientId, date, startTime).orElseGet(() -> {
+            WaitlistEntryEntity entry = waitlistEntryRepository.save(new WaitlistEntryEntity(doctorId, patientId, date, startTime));
+            waitlist.add(entry.getId(), doctorId, patientId, date, startTime);
+            logDecision("waitlisted", null, doctorId, patientId, date, startTime);
+            return waitlist.find(doctorId, patientId, date, startTime).orElseThrow();
+        });
+        return new WaitlistEntry(position.entryId(), doctorId, patientId, date, startTime, position.position());
+    }
+
+    /**
+     * Holds a slot for the patient for a while, after the checks of a booking: the doctor works then, the slot is
+     * neither booked nor held by someone else, and the patient could book it. Nothing is written, the hold lives
+     * in memory until it is confirmed, released or expires. Holding a slot the patient already holds returns the
+     * existing hold. Runs under the waitlist lock of the doctor's day, like the bookings, so a booking of the slot
+     * is either committed before the checks read the day or checked after the hold exists.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      Date of the slot
+     * @param startTime Start time of the slot
+     * @param ttl       how long the slot is held, at most hospital.hold.max-ttl; null for hospital.hold.ttl
+     * @return the hold and its token
+     */
+    @Override
+    public SlotHold holdSlot(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime, Duration ttl) {
+        return waitlist.withLock(doctorId, date, () -> inBookingTransaction(() -> {
+            var dayAvailability = findDayAvailability(doctorId, getDayOfWeek(date));
+            return decide(() -> {
+                checkBooking(dayAvailability, doctorId, patientId, date, startTime, false);
+                SlotHold hold = slotHolds.hold(doctorId, patientId, date, startTime,
+                        calculateEndTime(dayAvailability.get(), startTime), ttl);
+                logDecision("held", null, doctorId, patientId, date, startTime);
+                return hold;
+            });
+        }));
+    }
+
+    /**
+     * Books the held slot for the patient who holds it, like createAppointment, and drops the hold. The hold keeps
+     * the slot from other patients, but the patient's own checks run again: an appointment the patient booked
+     * elsewhere in the meantime still rejects it, and the hold is then kept until it expires.
+     *
+     * @param doctorId Doctor id
+     * @param token    the token of the hold
+     * @return the booked appointment
+     */
+    @Override
+    public Appointment confirmHold(Integer doctorId, String token) {
+        SlotHold hold = slotHolds.find(token)
+                .filter(found -> found.doctorId().equals(doctorId))
+                .orElseThrow(ResourceNotFound::new);
+        Appointment appointment = createAppointment(doctorId, hold.patientId(), hold.date(), hold.startTime());
+        slotHolds.release(token);
+        return appointment;
+    }
+
+    /**
+     * Gives a held slot up before it expires.
+     *
+     * @param doctorId Doctor id
+     * @param token    the token of the hold
+     */
+    @Override
+    public void releaseHold(Integer doctorId, String token) {
+        slotHolds.find(token)
+                .filter(found -> found.doctorId().equals(doctorId))
+                .orElseThrow(ResourceNotFound::new);
+        slotHolds.release(token);
+    }
+
+    /**
+     * Cancels the appointment and gives the slot to the first patient on its waitlist who can still take it,
+     * in the same transaction: either the cancellation and the promotion are both committed, or neither is.
+     * The utilization counters are updated in that transaction too.
+     * Waiters who cannot take the slot now, because of an overlapping appointment or the open appointment limit,
+     * keep their place for the next cancellation.
+     * With the booking journal on, the decision writes nothing outside the journal: the promoted waiter leaves the
+     * waitlist through a journal record of its own, applied by the projection with the appointment, so a failure
+     * after the records were appended cannot leave the waitlist table rolled back behind them.
+     *
+     * @param doctorId      Doctor id
+     * @param appointmentId Appointment id
+     * @return the appointment of the promoted patient, empty if nobody was promoted
+     */
+    @Override
+    public Optional<Appointment> cancelAppointment(Integer doctorId, Integer appointmentId) {
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        BookedSlot slot = (ledger != null
+                ? ledger.find(appointmentId, doctorId)
+                : appointmentRepository.findSlotByIdAndDoctorId(appointmentId, doctorId))
+                .orElseThrow(ResourceNotFound::new);
+
+        return waitlist.withLock(doctorId, slot.date(), () -> {
+            Promotion promotion = transactionTemplate.execute(status -> decide(() -> {
+                boolean cancelled = ledger != null
+                        ? ledger.cancel(appointmentId, doctorId).isPresent()
+                        : appointmentRepository.deleteByIdAndDoctorId(appointmentId, doctorId) > 0;
+                if (!cancelled) {
+                    // cancelled concurrently
+                    throw new ResourceNotFound();
+                }
+                if (ledger == null) {
+                    utilizationService.recordCancellation(doctorId, slot.date(), slot.startTime(), endTimeOf(slot));
+                }
+                logDecision("cancelled", null, doctorId, slot.patientId(), slot.date(), slot.startTime());
+                return promoteNextWaiter(doctorId, slot.date(), slot.startTime());
+            }));
+            if (promotion == null) {
+                return Optional.empty();
+            }
+            waitlist.remove(promotion.entryId(), doctorId, slot.date());
+            return Optional.of(promotion.appointment());
+        });
+    }
+
+    private record Promotion(int entryId, Appointment appointment) {
+    }
+
+    private Promotion promoteNextWaiter(Integer doctorId, LocalDate date, LocalTime startTime) {
+        for (Waitlist.Waiter waiter : waitlist.waitersFor(doctorId, date, startTime)) {
+            try {
+                Appointment appointment = createAppointment(doctorId, waiter.patientId(), date, startTime);
+                BookingLedger ledger = bookingLedger.getIfAvailable();
+                if (ledger != null) {
+                    ledger.promoted(appointment.id(), doctorId);
+                } else {
+                    waitlistEntryRepository.deleteAllByIdInBatch(List.of(waiter.entryId()));
+                }
+                return new Promotion(waiter.entryId(), appointment);
+            } catch (PatientAlreadyBooked | PatientAppointmentLimitReached e) {
+                // rejected before anything was written, try the next waiter
+            } catch (DoctorScheduleAvailabilityException | SlotNotBookable e) {
+                // the schedule changed and the slot no longer exists, nobody can take it
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the doctor's appointments between two dates, both included, ordered by date and start time.
+     * Appointments moved to the archive by the AppointmentArchiver are only read when asked for.
+     * With the booking journal on, the appointment table is written behind the decisions, so a booking may show
+     * up a few milliseconds after it was answered.
+     *
+     * @param doctorId        Doctor id
+     * @param from            first date
+     * @param to              last date, at most hospital.booking.max-appointment-range after the first
+     * @param includeArchived also read the archived appointments
+     * @return List of appointments
+     */
+    @Override
+    public List<Appointment> getAppointments(Integer doctorId, LocalDate from, LocalDate to, boolean includeArchived) {
+        if (to.isBefore(from) || to.isAfter(from.plus(bookingProperties.maxAppointmentRange()))) {
+            throw new InvalidDateRange();
+        }
+        List<Appointment> appointments = new ArrayList<>();
+        if (includeArchived) {
+            archivedAppointmentRepository.findByDoctorIdAndDateBetweenOrderByDateAscStartTimeAsc(doctorId, from, to)
+                    .forEach(archived -> appointments.add(appointmentMapper.toAppointment(archived)));
+        }
+        appointmentRepository.findByDoctorIdAndDateBetweenOrderByDateAscStartTimeAsc(doctorId, from, to)
+                .forEach(appointment -> appointments.add(appointmentMapper.toAppointment(appointment)));
+        if (includeArchived) {
+            appointments.sort(Comparator.comparing(Appointment::date).thenComparing(Appointment::startTime));
+        }
+        return appointments;
+    }
+
+    /**
+     * Loads the appointments needed for the conflict checks. When doctors are sharded, the patient may also hold
+     * appointments with doctors on other shards; those are read from every other shard in parallel.
+     * The slots of that date held by other patients are added as if they were booked.
+     *
+     * @param doctorId Doctor id
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param today the current date
+     * @return the doctor's appointments and held slots on that date and the patient's relevant appointments
+     */
+    private List<BookedSlot> findBookedSlots(Integer doctorId, Integer patientId, LocalDate date, LocalDate today) {
+        List<BookedSlot> bookedSlots = new ArrayList<>(slotHolds.heldSlots(doctorId, date, patientId));
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        if (ledger != null) {
+            bookedSlots.addAll(ledger.bookedSlots(doctorId, patientId, date, date, today));
+            return bookedSlots;
+        }
+        bookedSlots.addAll(appointmentRepository.findBookedSlotsForBooking(doctorId, patientId, date, today));
+        ShardFanOut fanOut = shardFanOut.getIfAvailable();
+        if (fanOut != null) {
+            bookedSlots.addAll(fanOut.onOtherShards(() -> appointmentRepository.findPatientSlots(patientId, date, today)));
+        }
+        return bookedSlots;
+    }
+
+    /**
+     * Same as findBookedSlots, for all the dates of a series at once.
+     *
+     * @param doctorId Doctor id
+     * @param patientId Patient id
+     * @param from the date of the first appointment
+     * @param to the date of the last appointment
+     * @param today the current date
+     * @return the doctor's appointments between the two dates and the patient's relevant appointments
+     */
+    private List<BookedSlot> findBookedSlots(Integer doctorId, Integer patientId, LocalDate from, LocalDate to, LocalDate today) {
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        if (ledger != null) {
+            return ledger.bookedSlots(doctorId, patientId, from, to, today);
+        }
+        List<BookedSlot> bookedSlots = appointmentRepository.findBookedSlotsForSeries(doctorId, patientId, from, to, today);
+        ShardFanOut fanOut = shardFanOut.getIfAvailable();
+        if (fanOut == null) {
+            return bookedSlots;
         }
 
+        List<BookedSlot> allBookedSlots = new ArrayList<>(bookedSlots);
+        allBookedSlots.addAll(fanOut.onOtherShards(() -> appointmentRepository.findPatientSlotsBetween(patientId, from, to, today)));
+        return allBookedSlots;
+    }
+
+    /**
+     * The rules a booking can be rejected by, in the order they are checked, with the reason code used in the
+     * decision logs and the exception thrown for a single booking, given the suggested slots.
+     */
+    private enum Rejection {
+        DOCTOR_NOT_AVAILABLE("doctor_not_available", false, slots -> new DoctorScheduleAvailabilityException()),
+        SLOT_NOT_BOOKABLE("slot_not_bookable", true, SlotNotBookable::new),
+        SLOT_ALREADY_BOOKED("slot_already_booked", true, SlotAlreadyBooked::new),
+        PATIENT_ALREADY_BOOKED("patient_already_booked", false, slots -> new PatientAlreadyBooked()),
+        PATIENT_APPOINTMENT_LIMIT("patient_appointment_limit", false, slots -> new PatientAppointmentLimitReached());
+
+        private final String reason;
+        private final boolean slotConflict;
+        private final Function<List<SuggestedSlot>, RuntimeException> exception;
+
+        Rejection(String reason, boolean slotConflict, Function<List<SuggestedSlot>, RuntimeException> exception) {
+            this.reason = reason;
+            this.slotConflict = slotConflict;
+            this.exception = exception;
+        }
+    }
+
+    private boolean suggestsSlots(Rejection rejection) {
+        return rejection.slotConflict && bookingProperties.suggestedSlots() > 0;
+    }
+
+    /**
+     * Returns the doctor's next free slots that day, at or after the requested start time, then, when asked,
+     * the next free slots of the other doctors working that day. Only slots the patient could book are returned:
+     * none when the patient is at the open appointment limit. When doctors are sharded, the other doctors are
+     * the ones on the shard of the requested doctor.
+     *
+     * @param dayAvailability the doctor's schedule of that day
+     * @param bookedSlots the appointments loaded for this booking
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param startTime the requested start time
+     * @param today the current date
+     * @param otherDoctors also suggest slots with other doctors
+     * @return up to hospital.booking.suggested-slots slots of the doctor, and as many of the other doctors
+     */
+    private List<SuggestedSlot> suggestSlots(
+            Schedule dayAvailability,
+            List<BookedSlot> bookedSlots,
+            Integer patientId,
+            LocalDate date,
+            LocalTime startTime,
+            LocalDate today,
+            boolean otherDoctors
+    ) {
+        int limit = bookingProperties.suggestedSlots();
+        if (!isPatientBelowOpenAppointmentLimit(bookedSlots, patientId, today)) {
+            return List.of();
+        }
+        List<SuggestedSlot> suggestedSlots = new ArrayList<>(freeSlots(dayAvailability, bookedSlots, patientId, date, startTime, today)
+                .limit(limit)
+                .toList());
+        if (!otherDoctors) {
+            return suggestedSlots;
+        }
+
+        Integer doctorId = dayAvailability.doctorId();
+        List<BookedSlot> allBookedSlots = new ArrayList<>(bookedSlots);
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        allBookedSlots.addAll(ledger != null
+                ? ledger.slotsOfOtherDoctors(doctorId, date)
+                : appointmentRepository.findSlotsOfOtherDoctors(doctorId, date));
+        scheduleRepository.findSchedulesByDayOfWeek(getDayOfWeek(date)).stream()
+                .filter(schedule -> !schedule.doctorId().equals(doctorId))
+                .flatMap(schedule -> freeSlots(schedule, allBookedSlots, patientId, date, startTime, today).limit(limit))
+                .sorted(Comparator.comparing(SuggestedSlot::startTime).thenComparing(SuggestedSlot::doctorId))
+                .limit(limit)
+                .forEach(suggestedSlots::add);
+        return suggestedSlots;
+    }
+
+    /**
+     * Walks the doctor's slots of the day from the requested start time and keeps the ones that pass the
+     * booking checks.
+     *
+     * @param dayAvailability the doctor's schedule of that day
+     * @param bookedSlots the appointments of the doctor and the patient
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param from the requested start time
+     * @param today the current date
+     * @return the free slots, in time order
+     */
+    private Stream<SuggestedSlot> freeSlots(
+            Schedule dayAvailability,
+            List<BookedSlot> bookedSlots,
+            Integer patientId,
+            LocalDate date,
+            LocalTime from,
+            LocalDate today
+    ) {
+        LocalTime endOfDay = dayAvailability.endTime();
+        return Stream.iterate(dayAvailability.startTime(),
+                        slot -> slot.isBefore(endOfDay),
+                        // stops at midnight instead of wrapping around
+                        slot -> slot.plus(SLOT_LENGTH).isAfter(slot) ? slot.plus(SLOT_LENGTH) : endOfDay)
+                .filter(slot -> !slot.isBefore(from))
+                .filter(slot -> checkBookedSlots(bookedSlots, dayAvailability, dayAvailability.doctorId(), patientId, date, slot, today).isEmpty())
+                .map(slot -> new SuggestedSlot(dayAvailability.doctorId(), date, slot, calculateEndTime(dayAvailability, slot)));
+    }
+
+    /**
+     * Checks the start time against the doctor's schedule of that day.
+     *
+     * @param dayAvailability the doctor's availability on that day
+     * @param doctorId Doctor id
+     * @param date the date of the appointment
+     * @param startTime the start time of the appointment
+     * @return the rule that rejects the booking, empty if the schedule allows it
+     */
+    private Optional<Rejection> checkSchedule(Optional<Schedule> dayAvailability, Integer doctorId, LocalDate date, LocalTime startTime) {
+        if (dayAvailability.isEmpty() || !isDoctorAvailableThatDayAndHours(dayAvailability, doctorId, date, startTime)) {
+            return Optional.of(Rejection.DOCTOR_NOT_AVAILABLE);
+        }
         if (!isSlotBookable(dayAvailability, startTime)) {
-            throw new SlotNotBookable();
+            return Optional.of(Rejection.SLOT_NOT_BOOKABLE);
         }
+        return Optional.empty();
+    }
 
-        if (!isDoctorFreeInThatTimeSlot(doctorId, date, startTime)) {
-            log.info("Slot already booked for doctorId: {}, date: {}, startTime: {}", doctorId, date, startTime);
-            throw new SlotAlreadyBooked();
+    /**
+     * Checks the appointment against the doctor's and the patient's existing appointments.
+     *
+     * @param bookedSlots the appointments loaded for this booking
+     * @param dayAvailability the doctor's schedule of that day
+     * @param doctorId Doctor id
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param startTime the start time of the appointment
+     * @param today the current date
+     * @return the rule that rejects the booking, empty if it can be booked
+     */
+    private Optional<Rejection> checkBookedSlots(
+            List<BookedSlot> bookedSlots,
+            Schedule dayAvailability,
+            Integer doctorId,
+            Integer patientId,
+            LocalDate date,
+            LocalTime startTime,
+            LocalDate today
+    ) {
+        if (!isDoctorFreeInThatTimeSlot(bookedSlots, doctorId, date, startTime)) {
+            return Optional.of(Rejection.SLOT_ALREADY_BOOKED);
+        }
+        LocalTime endTime = calculateEndTime(dayAvailability, startTime);
+        if (!isPatientFreeInThatTimeSlot(bookedSlots, patientId, date, startTime, endTime)) {
+            return Optional.of(Rejection.PATIENT_ALREADY_BOOKED);
+        }
+        if (!isPatientBelowOpenAppointmentLimit(bookedSlots, patientId, today)) {
+            return Optional.of(Rejection.PATIENT_APPOINTMENT_LIMIT);
         }
+        return Optional.empty();
+    }
 
-        AppointmentEntity result = saveAppointment(dayAvailability.get(), doctorId, patientId, date, startTime);
+    /**
+     * Logs the rejection of a booking and returns the exception to throw.
+     *
+     * @param rejection the rule that rejected the booking
+     * @param suggestedSlots the free slots to offer instead
+     * @param doctorId Doctor id
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param startTime the start time of the appointment
+     * @return the exception describing the rejection
+     */
+    private RuntimeException rejected(
+            Rejection rejection,
+            List<SuggestedSlot> suggestedSlots,
+            Integer doctorId,
+            Integer patientId,
+            LocalDate date,
+            LocalTime startTime
+    ) {
+        logDecision("rejected", rejection.reason, doctorId, patientId, date, startTime);
+        return rejection.exception.apply(suggestedSlots);
+    }
 
-        return appointmentMapper.toAppointment(result);
+    /**
+     * Logs a booking decision as a key/value event. Nothing is built when INFO is off for this logger,
+     * and events beyond the sampling rate are only counted, the next logged event reports how many were dropped.
+     * A decision that writes is only logged once its transaction has committed, so a booking rolled back, or
+     * run again by inBookingTransaction, is not logged as booked; a rejection is logged right away, since its
+     * exception rolls the transaction back.
+     *
+     * @param outcome booked or rejected
+     * @param reason the rejection reason, null when booked
+     * @param doctorId Doctor id
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param startTime the start time of the appointment
+     */
+    private void logDecision(String outcome, String reason, Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        if (reason == null && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    logSampledDecision(outcome, null, doctorId, patientId, date, startTime);
+                }
+            });
+            return;
+        }
+        logSampledDecision(outcome, reason, doctorId, patientId, date, startTime);
+    }
+
+    private void logSampledDecision(String outcome, String reason, Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        OptionalLong suppressed = decisionLogSampler.sample();
+        if (suppressed.isEmpty()) {
+            return;
+        }
+        LoggingEventBuilder event = log.atInfo()
+                .setMessage("Booking decision")
+                .addKeyValue("outcome", outcome);
+        if (reason != null) {
+            event = event.addKeyValue("reason", reason);
+        }
+        event.addKeyValue("doctorId", doctorId)
+                .addKeyValue("patientId", patientId)
+                .addKeyValue("date", date)
+                .addKeyValue("startTime", startTime)
+                .addKeyValue("suppressed", suppressed.getAsLong())
+                .log();
+    }
+
+    /**
+     * Runs a booking in a transaction of its own, or as part of the caller's one when there is one.
+     * The first two bookings of a doctor's day, week or month can both find no utilization counter row and both
+     * insert it; the second insert fails and its transaction is rolled back. The row is there once the first one
+     * has committed, so the booking is run once more, in a new transaction, and reads what the first one booked.
+     * A booking the database picked as the victim of a deadlock on the counter rows is run once more the same way,
+     * and so is one that lost the race for its slot at commit, whose second run then rejects it with the suggested
+     * slots. Any other violation, like a patient deleted meanwhile, would fail the same way again and is thrown at
+     * once. While the database circuit breaker is open the booking fails at once with DatabaseUnavailable, before any
+     * connection is asked for.
+     *
+     * @param booking the checks and the writes of a booking
+     * @return the result of the booking
+     */
+    private <T> T inBookingTransaction(Supplier<T> booking) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // a promotion in a cancellation: a rejection must not roll the cancellation back
+            return booking.get();
+        }
+        return circuitBreaker.call(() -> {
+            try {
+                return transactionTemplate.execute(status -> booking.get());
+            } catch (DataIntegrityViolationException e) {
+                if (!isSlotConstraintViolation(e) && !isCounterRowViolation(e)) {
+                    throw e;
+                }
+                return transactionTemplate.execute(status -> booking.get());
+            } catch (ConcurrencyFailureException e) {
+                return transactionTemplate.execute(status -> booking.get());
+            }
+        });
     }
 
     /**
-     * Creates a new AppointmentEntity object and saves it to the database via the appointmentRepository.
-     * Returns the saved AppointmentEntity object.
+     * Runs the booking decision in the booking ledger when the journal is on, so it is checked and recorded
+     * before the next decision starts; otherwise runs it as is, inside the caller's transaction.
+     *
+     * @param decision the checks and the writes of a booking or a cancellation
+     * @return the result of the decision
+     */
+    private <T> T decide(Supplier<T> decision) {
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        return ledger != null ? ledger.decide(decision) : decision.get();
+    }
+
+    /**
+     * Creates a new AppointmentEntity object and saves it to the database via the appointmentRepository,
+     * or books it in the booking ledger when the journal is on.
+     * Returns the new Appointment.
      *
      * @param dayAvailability the aviailability of the doctor on that day
      * @param doctorId Doctor id
@@ -88,27 +929,94 @@ public class AppointmentServiceImpl implements AppointmentService {
      * @param startTime the start time of the appointment(Start of the slot)
      * @return List of appointments
      */
-    private AppointmentEntity saveAppointment(
-            ScheduleEntity dayAvailability,
+    private Appointment saveAppointment(
+            Schedule dayAvailability,
             Integer doctorId,
             Integer patientId,
             LocalDate date,
             LocalTime startTime
+    ) {
+        return saveAppointments(dayAvailability, doctorId, patientId, List.of(date), startTime).get(0);
+    }
+
+    /**
+     * Saves appointments at the same start time on several dates with one saveAll and adds them to the
+     * utilization counters, or books them one by one in the booking ledger when the journal is on; the journal
+     * projection then counts them when it writes them to the table.
+     * Two requests can both find a slot free; the unique constraint on the doctor's slot lets only the first
+     * insert through, the other one gets SlotAlreadyBooked.
+     *
+     * @param dayAvailability the availability of the doctor on those days
+     * @param doctorId Doctor id
+     * @param patientId Patient id
+     * @param dates the dates of the appointments
+     * @param startTime the start time of the appointments
+     * @return the new appointments, in the order of the dates
+     */
+    private List<Appointment> saveAppointments(
+            Schedule dayAvailability,
+            Integer doctorId,
+            Integer patientId,
+            List<LocalDate> dates,
+            LocalTime startTime
     ) {
         LocalTime endTime = calculateEndTime(dayAvailability, startTime);
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        if (ledger != null) {
+            return dates.stream()
+                    .map(date -> ledger.book(doctorId, patientId, date, startTime, endTime))
+                    .map(record -> new Appointment(record.appointmentId(), doctorId, patientId, record.date(),
+                            startTime, endTime, record.createdAt(), null))
+                    .toList();
+        }
 
         DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
         PatientEntity patient = entityManager.getReference(PatientEntity.class, patientId);
 
-        return appointmentRepository.save(
-                new AppointmentEntity(patient,
-                        doctor,
-                        date,
-                        startTime,
-                        endTime)
-        );
+        List<AppointmentEntity> appointments = dates.stream()
+                .map(date -> new AppointmentEntity(patient, doctor, date, startTime, endTime))
+                .toList();
+        List<Appointment> saved;
+        try {
+            saved = appointmentRepository.saveAll(appointments).stream()
+                    .map(appointmentMapper::toAppointment)
+                    .toList();
+        } catch (DataIntegrityViolationException e) {
+            if (isSlotConstraintViolation(e)) {
+                // a concurrent booking of the same slot committed after the conflict check read the day
+                throw new SlotAlreadyBooked();
+            }
+            throw e;
+        }
+        dates.forEach(date -> utilizationService.recordBooking(doctorId, date, startTime, endTime));
+        return saved;
+    }
+
+    /**
+     * Tells whether the violation is a second booking of a doctor's slot. The name of the constraint is only
+     * known to Hibernate for the statements it generates, otherwise it is read from the database's message.
+     *
+     * @param e the violation
+     * @return true if the unique constraint of the doctor's slot was violated
+     */
+    private boolean isSlotConstraintViolation(DataIntegrityViolationException e) {
+        String constraint = e.getCause() instanceof ConstraintViolationException violation && violation.getConstraintName() != null
+                ? violation.getConstraintName()
+                : e.getMostSpecificCause().getMessage();
+        return constraint != null && constraint.toLowerCase(Locale.ROOT).contains(SLOT_CONSTRAINT);
     }
 
+    /**
+     * Tells whether the violation is the second insert of a utilization counter row, by the table named in the
+     * database's message.
+     *
+     * @param e the violation
+     * @return true if a doctor_utilization row was inserted twice
+     */
+    private boolean isCounterRowViolation(DataIntegrityViolationException e) {
+        String message = e.getMostSpecificCause().getMessage();
+        return message != null && message.toLowerCase(Locale.ROOT).contains(UTILIZATION_TABLE);
+    }
 
     /**
      * Returns the end time of the appointment. If startTime + 60 minutes exceeds the end of
@@ -118,10 +1026,10 @@ public class AppointmentServiceImpl implements AppointmentService {
      * @param startTime the start time of the appointment(Start of the slot)
      * @return List of appointments
      */
-    private LocalTime calculateEndTime(ScheduleEntity dayAvailability, LocalTime startTime) {
+    private LocalTime calculateEndTime(Schedule dayAvailability, LocalTime startTime) {
         LocalTime plusOneHour = startTime.plusMinutes(60);
-        return (plusOneHour.isAfter(dayAvailability.getEndTime()))
-                ? dayAvailability.getEndTime()
+        return (plusOneHour.isAfter(dayAvailability.endTime()))
+                ? dayAvailability.endTime()
                 : plusOneHour;
     }
 
@@ -129,6 +1037,22 @@ public class AppointmentServiceImpl implements AppointmentService {
         return date.getDayOfWeek();
     }
 
+    /**
+     * Returns the doctor's working hours for that day of the week. The whole weekly schedule is
+     * loaded through the ScheduleLoader, so concurrent bookings and schedule reads for the same
+     * doctor share one query.
+     *
+     * @param doctorId Doctor id
+     * @param dayOfWeek the day of the week of the appointment
+     * @return the schedule of that day, empty if the doctor does not work that day
+     */
+    private Optional<Schedule> findDayAvailability(Integer doctorId, DayOfWeek dayOfWeek) {
+        return scheduleLoader.loadByDoctorId(doctorId)
+                .stream()
+                .filter(schedule -> schedule.dayOfWeek() == dayOfWeek)
+                .findFirst();
+    }
+
     /**
      * Returns true if the doctor is works that day and the working hours include
      * the appointment's start time.
@@ -140,69 +1064,127 @@ public class AppointmentServiceImpl implements AppointmentService {
      * @return boolean
      */
     private boolean isDoctorAvailableThatDayAndHours(
-            Optional<ScheduleEntity> dayAvailability,
+            Optional<Schedule> dayAvailability,
             Integer doctorId,
             LocalDate date,
             LocalTime appointmentStartTime
     ) {
         if (dayAvailability.isEmpty()) {
-            log.info("Doctor with id={} is not available that day={}", doctorId, date);
+            log.debug("Doctor with id={} is not available that day={}", doctorId, date);
             return false;
         }
 
-        var startHour = dayAvailability.get().getStartTime();
-        var endHour = dayAvailability.get().getEndTime();
+        var startHour = dayAvailability.get().startTime();
+        var endHour = dayAvailability.get().endTime();
         var isAvailableThatHours = (startHour.equals(appointmentStartTime) || startHour.isBefore(appointmentStartTime))
                 && endHour.isAfter(appointmentStartTime);
 
-        log.info("Doctor with id={}, isAvailableThatHours={} for day={} and hours={}", doctorId, isAvailableThatHours, date, appointmentStartTime);
+        if (log.isDebugEnabled()) {
+            log.debug("Doctor with id={}, isAvailableThatHours={} for day={} and hours={}", doctorId, isAvailableThatHours, date, appointmentStartTime);
+        }
         return isAvailableThatHours;
     }
 
     /**
-     * Given the working hours, its generates the available slots for the doctor.
+     * Checks the proposed start time against the doctor's slots for the day.
      * We are assuming the doctor works in 1 hour slots.
      * So if they work from 10:00 to 16:00, they have 6 slots available.
      * which are 10:00, 11:00, 12:00, 13:00, 14:00, 15:00
-     * After generating the timeslots, checks if the proposed appointment's start time is in the list of available slots.
+     * The slots are not generated: the start time is bookable if it falls within the working hours
+     * at a whole number of slots from the start of the day.
      *
      * @param dayAvailability doctor's availability on that day
      * @param appointmentStartTime the start time of the appointment(Start of the slot)
-     * @return boolean returns true if the appointment's start time is in the list of available slots.
+     * @return boolean returns true if the appointment's start time is one of the available slots.
      */
-    private boolean isSlotBookable(Optional<ScheduleEntity> dayAvailability, LocalTime appointmentStartTime) {
+    private boolean isSlotBookable(Optional<Schedule> dayAvailability, LocalTime appointmentStartTime) {
         if (dayAvailability.isEmpty()) {
             return false;
         }
 
-        ScheduleEntity scheduleOfTheDay = dayAvailability.get();
-        LocalTime startHour = scheduleOfTheDay.getStartTime();
-        LocalTime endHour = scheduleOfTheDay.getEndTime();
+        Schedule scheduleOfTheDay = dayAvailability.get();
+        LocalTime startHour = scheduleOfTheDay.startTime();
+        LocalTime endHour = scheduleOfTheDay.endTime();
 
-        List<LocalTime> slots = new ArrayList<>();
-        while (startHour.isBefore(endHour)) {
-            slots.add(startHour);
-            startHour = startHour.plusMinutes(60);
-        }
+        boolean isBookable = !appointmentStartTime.isBefore(startHour)
+                && appointmentStartTime.isBefore(endHour)
+                && Duration.between(startHour, appointmentStartTime).toNanos() % SLOT_LENGTH.toNanos() == 0;
 
-        log.info("Doctor with id={} for day={} has the following slots available={} and patient wanted to book slot={}",
-                scheduleOfTheDay.getDoctor().getId(), scheduleOfTheDay.getDayOfWeek(), slots, appointmentStartTime);
+        if (log.isDebugEnabled()) {
+            log.debug("Doctor with id={} for day={} has slots of {} minutes from {} to {}, patient wanted to book slot={}, isBookable={}",
+                    scheduleOfTheDay.doctorId(), scheduleOfTheDay.dayOfWeek(), SLOT_LENGTH.toMinutes(), startHour, endHour,
+                    appointmentStartTime, isBookable);
+        }
 
-        return slots.contains(appointmentStartTime);
+        return isBookable;
     }
 
     /**
-     * Returns true if the doctor is not booked in that time slot. We fetch all the appointments
-     * of the doctor on that day and check if the appointment's start time is equal to the proposed
+     * Returns true if the doctor is not booked in that time slot, i.e. none of the doctor's
+     * appointments on that day starts at the proposed start time.
      *
+     * @param bookedSlots the appointments loaded for this booking
      * @param doctorId Doctor id
      * @param date the date of the appointment
      * @param appointmentStartTime the start time of the appointment(Start of the slot)
      * @return boolean true
      */
-    private boolean isDoctorFreeInThatTimeSlot(Integer doctorId, LocalDate date, LocalTime appointmentStartTime) {
-        return appointmentRepository.findByDoctorIdAndDate(doctorId, date)
-                .stream()
-                .noneMatch(appointment -> appointment.getStartTime().equals(appointmentStartTime));
+    private boolean isDoctorFreeInThatTimeSlot(
+            List<BookedSlot> bookedSlots,
+            Integer doctorId,
+            LocalDate date,
+            LocalTime appointmentStartTime
+    ) {
+        return bookedSlots.stream()
+                .noneMatch(slot -> slot.doctorId().equals(doctorId)
+                        && slot.date().equals(date)
+                        && slot.startTime().equals(appointmentStartTime));
+    }
+
+    /**
+     * Returns true if none of the patient's appointments on that day overlaps with the proposed one.
+     * Doctors may use different slot boundaries, so the comparison is on time ranges, not on start times.
+     *
+     * @param bookedSlots the appointments loaded for this booking
+     * @param patientId Patient id
+     * @param date the date of the appointment
+     * @param appointmentStartTime the start time of the appointment
+     * @param appointmentEndTime the end time of the appointment
+     * @return boolean
+     */
+    private boolean isPatientFreeInThatTimeSlot(
+            List<BookedSlot> bookedSlots,
+            Integer patientId,
+            LocalDate date,
+            LocalTime appointmentStartTime,
+            LocalTime appointmentEndTime
+    ) {
+        return bookedSlots.stream()
+                .filter(slot -> slot.patientId().equals(patientId) && slot.date().equals(date))
+                .noneMatch(slot -> slot.startTime().isBefore(appointmentEndTime)
+                        && endTimeOf(slot).isAfter(appointmentStartTime));
+    }
+
+    /**
+     * Returns true if the patient may hold one more appointment from today on.
+     *
+     * @param bookedSlots the appointments loaded for this booking
+     * @param patientId Patient id
+     * @param today the current date
+     * @return boolean
+     */
+    private boolean isPatientBelowOpenAppointmentLimit(List<BookedSlot> bookedSlots, Integer patientId, LocalDate today) {
+        int limit = bookingProperties.maxOpenAppointmentsPerPatient();
+        if (limit <= 0) {
+            return true;
+        }
+        long openAppointments = bookedSlots.stream()
+                .filter(slot -> slot.patientId().equals(patientId) && !slot.date().isBefore(today))
+                .count();
+        return openAppointments < limit;
+    }
+
+    private LocalTime endTimeOf(BookedSlot slot) {
+        return slot.endTime() != null ? slot.endTime() : slot.startTime().plusMinutes(60);
     }
 }
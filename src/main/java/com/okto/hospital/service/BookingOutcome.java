@@ -0,0 +1,21 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.model.response.Appointment;
+import com.okto.hospital.model.response.WaitlistEntry;
+
+/**
+ * Result of a booking that may join the waitlist: exactly one of the two is set.
+ *
+ * @param appointment   the booked appointment
+ * @param waitlistEntry the patient's place in the queue, when the slot was already booked
+ */
+public record BookingOutcome(Appointment appointment, WaitlistEntry waitlistEntry) {
+
+    public static BookingOutcome booked(Appointment appointment) {
+        return new BookingOutcome(appointment, null);
+    }
+
+    public static BookingOutcome waitlisted(WaitlistEntry waitlistEntry) {
+        return new BookingOutcome(null, waitlistEntry);
+    }
+}
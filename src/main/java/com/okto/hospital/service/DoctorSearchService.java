@@ -0,0 +1,177 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.config.DoctorSearchProperties;
+import com.okto.hospital.exception.DatabaseUnavailable;
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.model.response.DoctorMatch;
+import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.ScheduleRepository;
+import com.okto.hospital.resilience.DatabaseCircuitBreaker;
+import com.okto.hospital.search.DoctorNameIndex;
+import com.okto.hospital.sharding.ShardContext;
+import com.okto.hospital.sharding.ShardRouter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Searches doctors by name in the {@link DoctorNameIndex}, and tells which of the doctors found still have a free
+ * slot this week.
+ * <p>
+ * The name search never reads the database. The availability costs two queries for the whole page of results,
+ * one per shard holding some of them when sharded: the schedules of the doctors found, and their appointments
+ * from today to Sunday. While the database circuit breaker is open the availability is left out and the names
+ * are still returned.
+ */
+@Service
+public class DoctorSearchService {
+
+    private static final Duration SLOT_LENGTH = Duration.ofMinutes(60);
+
+    private final DoctorNameIndex doctorNameIndex;
+    private final ScheduleRepository scheduleRepository;
+    private final AppointmentRepository appointmentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final DoctorSearchProperties properties;
+    private final Clock clock;
+    private final ObjectProvider<ShardRouter> shardRouter;
+    private final DatabaseCircuitBreaker circuitBreaker;
+
+    public DoctorSearchService(
+            DoctorNameIndex doctorNameIndex,
+            ScheduleRepository scheduleRepository,
+            AppointmentRepository appointmentRepository,
+            PlatformTransactionManager transactionManager,
+            DoctorSearchProperties properties,
+            Clock clock,
+            ObjectProvider<ShardRouter> shardRouter,
+            DatabaseCircuitBreaker circuitBreaker
+    ) {
+        this.doctorNameIndex = doctorNameIndex;
+        this.scheduleRepository = scheduleRepository;
+        this.appointmentRepository = appointmentRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.properties = properties;
+        this.clock = clock;
+        this.shardRouter = shardRouter;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the doctors whose names match the words typed so far, best match first.
+     *
+     * @param query            the words typed so far
+     * @param limit            the most doctors returned, capped at hospital.doctor-search.max-results
+     * @param withAvailability also tell whether each doctor has a free slot from now to Sunday, if the database
+     *                         can be reached
+     * @return the matching doctors
+     */
+    public List<DoctorMatch> searchDoctors(String query, int limit, boolean withAvailability) {
+        List<DoctorNameIndex.Match> matches = doctorNameIndex.search(query, Math.min(limit, properties.maxResults()));
+        Set<Integer> available = withAvailability && !matches.isEmpty() ? availableThisWeek(matches) : null;
+        if (available == null) {
+            return matches.stream()
+                    .map(match -> new DoctorMatch(match.doctorId(), match.name(), null))
+                    .toList();
+        }
+        return matches.stream()
+                .map(match -> new DoctorMatch(match.doctorId(), match.name(), available.contains(match.doctorId())))
+                .toList();
+    }
+
+    private Set<Integer> availableThisWeek(List<DoctorNameIndex.Match> matches) {
+        List<Integer> doctorIds = matches.stream().map(DoctorNameIndex.Match::doctorId).toList();
+        try {
+            return circuitBreaker.call(() -> withFreeSlotsThisWeek(doctorIds));
+        } catch (DatabaseUnavailable e) {
+            return null;
+        }
+    }
+
+    private Set<Integer> withFreeSlotsThisWeek(List<Integer> doctorIds) {
+        ShardRouter router = shardRouter.getIfAvailable();
+        if (router == null) {
+            return withFreeSlotsThisWeekOnShard(doctorIds);
+        }
+        Set<Integer> available = new HashSet<>();
+        doctorIds.stream()
+                .collect(Collectors.groupingBy(router::shardFor))
+                .forEach((shard, doctorsOfShard) ->
+                        available.addAll(ShardContext.callOn(shard, () -> withFreeSlotsThisWeekOnShard(doctorsOfShard))));
+        return available;
+    }
+
+    private Set<Integer> withFreeSlotsThisWeekOnShard(List<Integer> doctorIds) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        LocalDate today = now.toLocalDate();
+        LocalDate sunday = today.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+        return transactionTemplate.execute(status -> {
+            Map<Integer, List<Schedule>> schedules = scheduleRepository.findSchedulesByDoctorIdIn(doctorIds).stream()
+                    .collect(Collectors.groupingBy(Schedule::doctorId));
+            Map<Integer, List<BookedSlot>> bookedSlots = appointmentRepository.findSlotsOfDoctorsBetween(schedules.keySet(), today, sunday).stream()
+                    .collect(Collectors.groupingBy(BookedSlot::doctorId));
+            Set<Integer> available = new HashSet<>();
+            schedules.forEach((doctorId, schedulesOfDoctor) -> {
+                if (hasFreeSlot(schedulesOfDoctor, bookedSlots.getOrDefault(doctorId, List.of()), now, sunday)) {
+                    available.add(doctorId);
+                }
+            });
+            return available;
+        });
+    }
+
+    /**
+     * Walks the doctor's slots from now to Sunday and stops at the first one no appointment overlaps.
+     */
+    private static boolean hasFreeSlot(List<Schedule> schedules, List<BookedSlot> bookedSlots, LocalDateTime now, LocalDate sunday) {
+        Map<DayOfWeek, Schedule> byDay = schedules.stream()
+                .collect(Collectors.toMap(Schedule::dayOfWeek, schedule -> schedule, (first, second) -> first));
+        Map<LocalDate, List<BookedSlot>> bookedByDate = bookedSlots.stream()
+                .collect(Collectors.groupingBy(BookedSlot::date));
+        for (LocalDate date = now.toLocalDate(); !date.isAfter(sunday); date = date.plusDays(1)) {
+            Schedule hours = byDay.get(date.getDayOfWeek());
+            if (hours == null) {
+                continue;
+            }
+            List<BookedSlot> booked = bookedByDate.getOrDefault(date, List.of());
+            for (LocalTime slot = hours.startTime(); slot.isBefore(hours.endTime()); slot = next(slot, hours.endTime())) {
+                if (date.equals(now.toLocalDate()) && !slot.isAfter(now.toLocalTime())) {
+                    continue;
+                }
+                if (isFree(booked, slot, next(slot, hours.endTime()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the start of the next slot, or the end of the day when the next one would run past it or past midnight.
+     */
+    private static LocalTime next(LocalTime slot, LocalTime endOfDay) {
+        LocalTime next = slot.plus(SLOT_LENGTH);
+        return next.isAfter(slot) && next.isBefore(endOfDay) ? next : endOfDay;
+    }
+
+    private static boolean isFree(List<BookedSlot> booked, LocalTime start, LocalTime end) {
+        return booked.stream().noneMatch(slot -> slot.startTime().isBefore(end)
+                && (slot.endTime() != null ? slot.endTime() : slot.startTime().plus(SLOT_LENGTH)).isAfter(start));
+    }
+}
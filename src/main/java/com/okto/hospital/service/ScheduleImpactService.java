@@ -0,0 +1,244 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.config.ScheduleProperties;
+import com.okto.hospital.exception.ResourceNotFound;
+import com.okto.hospital.exception.ServiceUnavailable;
+import com.okto.hospital.journal.BookingLedger;
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.model.request.ScheduleRequest;
+import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.model.response.ScheduleImpact;
+import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.ScheduleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Finds the future appointments a schedule change leaves outside the doctor's working hours, and flags or cancels
+ * them when asked to.
+ * <p>
+ * Only the days of the week whose hours shrink or disappear are looked at, with one query per such day: the dates of
+ * that day from today up to the doctor's last appointment, as an IN list on the doctor/date index. A doctor booked
+ * years ahead costs a few hundred index seeks per changed day, and the appointments of the other days are never read.
+ * <p>
+ * The schedule is changed first, in its own transaction, and the impact is read once it is committed, so no booking
+ * outside the new hours can start afterwards. The affected appointments are then flagged or cancelled
+ * hospital.schedule.impact-batch-size at a time, one transaction per batch like the archival; cancellations update
+ * the utilization counters in the same transaction. Nobody is promoted from a waitlist, the slots no longer exist.
+ * With the booking journal on, the projection is awaited before the table is read and the cancellations go through
+ * the booking ledger.
+ */
+@Service
+public class ScheduleImpactService {
+
+    private static final Logger log = LoggerFactory.getLogger(ScheduleImpactService.class);
+
+    private static final int MAX_DATES_PER_QUERY = 1000;
+    private static final Duration PROJECTION_TIMEOUT = Duration.ofSeconds(5);
+
+    private final ScheduleService scheduleService;
+    private final ScheduleRepository scheduleRepository;
+    private final AppointmentRepository appointmentRepository;
+    private final UtilizationService utilizationService;
+    private final TransactionTemplate transactionTemplate;
+    private final ScheduleProperties scheduleProperties;
+    private final Clock clock;
+    private final ObjectProvider<BookingLedger> bookingLedger;
+
+    public ScheduleImpactService(
+            ScheduleService scheduleService,
+            ScheduleRepository scheduleRepository,
+            AppointmentRepository appointmentRepository,
+            UtilizationService utilizationService,
+            PlatformTransactionManager transactionManager,
+            ScheduleProperties scheduleProperties,
+            Clock clock,
+            ObjectProvider<BookingLedger> bookingLedger
+    ) {
+        this.scheduleService = scheduleService;
+        this.scheduleRepository = scheduleRepository;
+        this.appointmentRepository = appointmentRepository;
+        this.utilizationService = utilizationService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.scheduleProperties = scheduleProperties;
+        this.clock = clock;
+        this.bookingLedger = bookingLedger;
+    }
+
+    /**
+     * Updates the hours of one day of the week like ScheduleService.updateSchedule, and handles the appointments
+     * left outside them. In DRY_RUN mode nothing is written.
+     *
+     * @param doctorId  Doctor id
+     * @param dayOfWeek Day of week
+     * @param startTime new start time
+     * @param endTime   new end time
+     * @param mode      DRY_RUN, FLAG or CANCEL
+     * @return the affected appointments
+     */
+    public ScheduleImpact updateSchedule(Integer doctorId, DayOfWeek dayOfWeek, LocalTime startTime, LocalTime endTime, ScheduleImpact.Mode mode) {
+        List<Schedule> before = scheduleRepository.findSchedulesByDoctorId(doctorId);
+        Schedule current = before.stream()
+                .filter(schedule -> schedule.dayOfWeek() == dayOfWeek)
+                .findFirst()
+                .orElseThrow(ResourceNotFound::new);
+        List<Schedule> after = Stream.concat(
+                before.stream().filter(schedule -> schedule != current),
+                Stream.of(new Schedule(current.id(), doctorId, dayOfWeek, startTime, endTime))
+        ).toList();
+        if (mode != ScheduleImpact.Mode.DRY_RUN) {
+            scheduleService.updateSchedule(doctorId, dayOfWeek, startTime, endTime);
+        }
+        return handleImpact(doctorId, before, after, mode);
+    }
+
+    /**
+     * Replaces the doctor's schedules like ScheduleService.upsertScheduleList, and handles the appointments left
+     * outside the new hours, including all the appointments on the days the doctor no longer works. In DRY_RUN mode
+     * nothing is written.
+     *
+     * @param doctorId            Doctor id
+     * @param scheduleRequestList the new schedules
+     * @param mode                DRY_RUN, FLAG or CANCEL
+     * @return the affected appointments
+     */
+    public ScheduleImpact upsertScheduleList(Integer doctorId, List<ScheduleRequest> scheduleRequestList, ScheduleImpact.Mode mode) {
+        List<Schedule> before = scheduleRepository.findSchedulesByDoctorId(doctorId);
+        List<Schedule> after = scheduleRequestList.stream()
+                .map(request -> new Schedule(null, doctorId, request.dayOfWeek(), request.startTime(), request.endTime()))
+                .toList();
+        if (mode != ScheduleImpact.Mode.DRY_RUN) {
+            scheduleService.upsertScheduleList(doctorId, scheduleRequestList);
+        }
+        return handleImpact(doctorId, before, after, mode);
+    }
+
+    private ScheduleImpact handleImpact(Integer doctorId, List<Schedule> before, List<Schedule> after, ScheduleImpact.Mode mode) {
+        List<BookedSlot> affected = findAffected(doctorId, before, after);
+        int batchSize = scheduleProperties.impactBatchSize();
+        for (int from = 0; mode != ScheduleImpact.Mode.DRY_RUN && from < affected.size(); from += batchSize) {
+            List<BookedSlot> batch = affected.subList(from, Math.min(from + batchSize, affected.size()));
+            transactionTemplate.executeWithoutResult(status -> {
+                if (mode == ScheduleImpact.Mode.FLAG) {
+                    appointmentRepository.flagAll(batch.stream().map(BookedSlot::id).toList(), clock.instant());
+                } else {
+                    cancel(doctorId, batch);
+                }
+            });
+        }
+        if (mode != ScheduleImpact.Mode.DRY_RUN && !affected.isEmpty()) {
+            log.info("Schedule change of doctor {}: {} future appointments outside the new hours, {}", doctorId, affected.size(), mode);
+        }
+        return new ScheduleImpact(mode, affected.size(), affected.stream()
+                .map(slot -> new ScheduleImpact.AffectedAppointment(slot.id(), slot.patientId(), slot.date(), slot.startTime(), slot.endTime()))
+                .toList());
+    }
+
+    private List<BookedSlot> findAffected(Integer doctorId, List<Schedule> before, List<Schedule> after) {
+        Map<DayOfWeek, Schedule> hoursBefore = byDayOfWeek(before);
+        Map<DayOfWeek, Schedule> hoursAfter = byDayOfWeek(after);
+        List<DayOfWeek> shortenedDays = hoursBefore.keySet().stream()
+                .filter(day -> isShortened(hoursBefore.get(day), hoursAfter.get(day)))
+                .toList();
+        if (shortenedDays.isEmpty()) {
+            return List.of();
+        }
+
+        awaitProjection();
+        LocalDate today = LocalDate.now(clock);
+        Optional<LocalDate> lastDate = appointmentRepository.findLastDateFrom(doctorId, today);
+        if (lastDate.isEmpty()) {
+            return List.of();
+        }
+        List<BookedSlot> affected = new ArrayList<>();
+        for (DayOfWeek day : shortenedDays) {
+            Schedule hours = hoursAfter.get(day);
+            List<LocalDate> dates = Stream.iterate(today.with(TemporalAdjusters.nextOrSame(day)),
+                            date -> !date.isAfter(lastDate.get()), date -> date.plusWeeks(1))
+                    .toList();
+            for (int from = 0; from < dates.size(); from += MAX_DATES_PER_QUERY) {
+                affected.addAll(appointmentRepository.findSlotsOutsideHours(doctorId,
+                        dates.subList(from, Math.min(from + MAX_DATES_PER_QUERY, dates.size())),
+                        hours == null,
+                        hours == null ? LocalTime.MIN : hours.startTime(),
+                        hours == null ? LocalTime.MAX : hours.endTime(),
+                        hours == null ? LocalTime.MAX : latestHourLongStart(hours.endTime())));
+            }
+        }
+        affected.sort(Comparator.comparing(BookedSlot::date).thenComparing(BookedSlot::startTime));
+        return affected;
+    }
+
+    /**
+     * Returns true if some of the hours before the change are not working hours after it.
+     */
+    private static boolean isShortened(Schedule before, Schedule after) {
+        return after == null
+                || after.startTime().isAfter(before.startTime())
+                || after.endTime().isBefore(before.endTime());
+    }
+
+    /**
+     * Returns the latest start of an hour long appointment ending by endTime, or null when the hours end before
+     * 01:00, as the hour would then wrap round to the evening before and no such appointment ends in time.
+     */
+    private static LocalTime latestHourLongStart(LocalTime endTime) {
+        return endTime.isBefore(LocalTime.of(1, 0)) ? null : endTime.minusHours(1);
+    }
+
+    /**
+     * Cancels the batch. Without the journal the rows are deleted one by one, and only the ones this call deleted
+     * are taken off the utilization counters: an appointment cancelled meanwhile by its patient is already off them.
+     */
+    private void cancel(Integer doctorId, List<BookedSlot> batch) {
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        if (ledger != null) {
+            // the projection deletes the rows and updates the utilization counters
+            ledger.decide(() -> {
+                batch.forEach(slot -> ledger.cancel(slot.id(), doctorId));
+                return null;
+            });
+            return;
+        }
+        List<BookedSlot> deleted = batch.stream()
+                .filter(slot -> appointmentRepository.deleteByIdAndDoctorId(slot.id(), doctorId) > 0)
+                .toList();
+        utilizationService.recordCancellations(doctorId, deleted);
+    }
+
+    private void awaitProjection() {
+        BookingLedger ledger = bookingLedger.getIfAvailable();
+        try {
+            if (ledger != null && !ledger.awaitProjected(PROJECTION_TIMEOUT)) {
+                throw new ServiceUnavailable();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailable();
+        }
+    }
+
+    private static Map<DayOfWeek, Schedule> byDayOfWeek(List<Schedule> schedules) {
+        Map<DayOfWeek, Schedule> byDay = new EnumMap<>(DayOfWeek.class);
+        schedules.forEach(schedule -> byDay.put(schedule.dayOfWeek(), schedule));
+        return byDay;
+    }
+}
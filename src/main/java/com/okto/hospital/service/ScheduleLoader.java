@@ -0,0 +1,36 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.config.ScheduleProperties;
+import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.repository.ScheduleRepository;
+import com.okto.hospital.support.SingleFlight;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Loads a doctor's weekly schedule for the read paths. Concurrent loads of the same doctor are
+ * coalesced into a single query whose result is shared, so a burst of identical requests costs
+ * one database round trip.
+ */
+@Component
+public class ScheduleLoader {
+
+    private final ScheduleRepository scheduleRepository;
+    private final SingleFlight<Integer, List<Schedule>> singleFlight;
+
+    public ScheduleLoader(ScheduleRepository scheduleRepository, ScheduleProperties scheduleProperties) {
+        this.scheduleRepository = scheduleRepository;
+        this.singleFlight = new SingleFlight<>(scheduleProperties.coalescingMaxWait());
+    }
+
+    /**
+     * Returns the schedules of the doctor, an empty list if the doctor has none.
+     *
+     * @param doctorId Doctor id
+     * @return immutable list of Schedule objects
+     */
+    public List<Schedule> loadByDoctorId(Integer doctorId) {
+        return singleFlight.execute(doctorId, () -> List.copyOf(scheduleRepository.findSchedulesByDoctorId(doctorId)));
+    }
+}
@@ -1,14 +1,19 @@
 package com.okto.hospital.service;
 
 import com.okto.hospital.model.request.ScheduleRequest;
+import com.okto.hospital.model.response.DoctorSchedules;
 import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.resilience.Served;
 
 import java.time.DayOfWeek;
 import java.time.LocalTime;
+import java.util.Iterator;
 import java.util.List;
 
 public interface ScheduleService {
-    List<Schedule> getScheduleByDoctorId(Integer doctorId);
+    Served<List<Schedule>> getScheduleByDoctorId(Integer doctorId);
+
+    Iterator<List<DoctorSchedules>> streamSchedules(List<Integer> doctorIds);
 
     Schedule createSchedule(Integer doctorId, DayOfWeek dayOfWeek, LocalTime startTime, LocalTime endTime);
 
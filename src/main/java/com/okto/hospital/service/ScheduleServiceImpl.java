@@ -1,23 +1,41 @@
 package com.okto.hospital.service;
 
 
+import com.okto.hospital.config.CircuitBreakerProperties;
+import com.okto.hospital.config.ScheduleProperties;
 import com.okto.hospital.exception.ResourceAlreadyExists;
 import com.okto.hospital.exception.ResourceNotFound;
 import com.okto.hospital.mapper.ScheduleMapper;
 import com.okto.hospital.model.DoctorEntity;
 import com.okto.hospital.model.ScheduleEntity;
 import com.okto.hospital.model.request.ScheduleRequest;
+import com.okto.hospital.model.response.DoctorSchedules;
 import com.okto.hospital.model.response.Schedule;
 import com.okto.hospital.repository.ScheduleRepository;
+import com.okto.hospital.resilience.DatabaseCircuitBreaker;
+import com.okto.hospital.resilience.Served;
+import com.okto.hospital.sharding.ShardFanOut;
+import com.okto.hospital.sharding.ShardRouter;
+import com.okto.hospital.support.LastKnownCache;
 import jakarta.persistence.EntityManager;
-import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Clock;
 import java.time.DayOfWeek;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class ScheduleServiceImpl implements ScheduleService {
@@ -25,35 +43,129 @@ public class ScheduleServiceImpl implements ScheduleService {
     private final ScheduleRepository scheduleRepository;
     private final ScheduleMapper scheduleMapper;
     private final EntityManager entityManager;
+    private final ScheduleLoader scheduleLoader;
+    private final ScheduleProperties scheduleProperties;
+    private final UtilizationService utilizationService;
+    private final DatabaseCircuitBreaker circuitBreaker;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectProvider<ShardRouter> shardRouter;
+    private final ObjectProvider<ShardFanOut> shardFanOut;
+    private final LastKnownCache<Integer, Served<List<Schedule>>> lastKnownSchedules;
 
-    public ScheduleServiceImpl(ScheduleRepository scheduleRepository, ScheduleMapper scheduleMapper, EntityManager entityManager) {
+    public ScheduleServiceImpl(ScheduleRepository scheduleRepository, ScheduleMapper scheduleMapper, EntityManager entityManager, ScheduleLoader scheduleLoader, ScheduleProperties scheduleProperties, UtilizationService utilizationService, DatabaseCircuitBreaker circuitBreaker, CircuitBreakerProperties circuitBreakerProperties, Clock clock, PlatformTransactionManager transactionManager, ObjectProvider<ShardRouter> shardRouter, ObjectProvider<ShardFanOut> shardFanOut) {
         this.scheduleRepository = scheduleRepository;
         this.scheduleMapper = scheduleMapper;
         this.entityManager = entityManager;
+        this.scheduleLoader = scheduleLoader;
+        this.scheduleProperties = scheduleProperties;
+        this.utilizationService = utilizationService;
+        this.circuitBreaker = circuitBreaker;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shardRouter = shardRouter;
+        this.shardFanOut = shardFanOut;
+        this.lastKnownSchedules = new LastKnownCache<>(circuitBreakerProperties.maxStaleEntries(),
+                circuitBreakerProperties.maxStaleness(), clock);
     }
 
     /**
      * Returns a list of Schedule objects for the specified doctor id.
+     * The schedules are projected straight into Schedule records, no entities are loaded, and
+     * concurrent requests for the same doctor share a single query.
      * Throws an exception if no schedules were found for the specified doctor id.
+     * The read goes through the database circuit breaker. When the breaker is open or the read fails on the
+     * database, the last schedule read for the doctor is served instead, marked stale, if it is younger than
+     * hospital.circuit-breaker.max-staleness; without one the caller gets DatabaseUnavailable.
+     * The copies of the hospital.circuit-breaker.max-stale-entries doctors read last are kept.
      *
      * @param doctorId Doctor id
-     * @return List of Schedule objects
+     * @return List of Schedule objects, and whether they are a stale copy
      */
     @Override
-    public List<Schedule> getScheduleByDoctorId(Integer doctorId) {
-        return scheduleRepository.findAllByDoctorId(doctorId)
-                .filter(schedules -> !schedules.isEmpty())
-                .map(schedules -> schedules.stream()
-                        .map(scheduleMapper::toSchedule)
-                        .toList()
-                )
-                .orElseThrow(ResourceNotFound::new);
+    public Served<List<Schedule>> getScheduleByDoctorId(Integer doctorId) {
+        long generation = lastKnownSchedules.generation(doctorId);
+        Served<List<Schedule>> schedules = circuitBreaker.readOrStale(() -> scheduleLoader.loadByDoctorId(doctorId),
+                lastKnownSchedules.get(doctorId), served -> keepLastKnownSchedule(doctorId, generation, served));
+        if (schedules.value().isEmpty()) {
+            throw new ResourceNotFound();
+        }
+        return schedules;
+    }
+
+    /**
+     * Keeps the schedule as the copy to serve while the database is unavailable. Doctors without schedules are
+     * not kept, and neither is a schedule read before a change of the doctor's schedules that committed meanwhile.
+     */
+    private void keepLastKnownSchedule(Integer doctorId, long generation, Served<List<Schedule>> served) {
+        if (served.value().isEmpty()) {
+            lastKnownSchedules.remove(doctorId);
+        } else {
+            lastKnownSchedules.put(doctorId, generation, served);
+        }
+    }
+
+    /**
+     * Loads the schedules of many doctors, hospital.schedule.batch-chunk-size doctors at a time: every call of
+     * next() on the returned iterator loads one chunk, so the caller can write it out before the next one is read,
+     * and can load the first one before it commits to an answer. The doctors of a chunk are read with one IN query
+     * per shard they live on, run in parallel on the shard fan-out threads, as the caller's session is bound to the
+     * connection it took first. Every doctor is reported once, in the order of the request; a doctor without
+     * schedules is reported NOT_FOUND instead of failing the whole batch.
+     *
+     * @param doctorIds Doctor ids, duplicates are reported once
+     * @return the chunks, loaded one by one
+     */
+    @Override
+    public Iterator<List<DoctorSchedules>> streamSchedules(List<Integer> doctorIds) {
+        List<Integer> distinctIds = List.copyOf(new LinkedHashSet<>(doctorIds));
+        int chunkSize = scheduleProperties.batchChunkSize();
+        return new Iterator<>() {
+
+            private int from;
+
+            @Override
+            public boolean hasNext() {
+                return from < distinctIds.size();
+            }
+
+            @Override
+            public List<DoctorSchedules> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<Integer> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+                List<DoctorSchedules> loaded = loadChunk(chunk);
+                from += chunk.size();
+                return loaded;
+            }
+        };
+    }
+
+    private List<DoctorSchedules> loadChunk(List<Integer> chunk) {
+        ShardRouter router = shardRouter.getIfAvailable();
+        ShardFanOut fanOut = shardFanOut.getIfAvailable();
+        List<Schedule> schedules;
+        if (router == null || fanOut == null) {
+            schedules = circuitBreaker.call(() -> scheduleRepository.findSchedulesByDoctorIdIn(chunk));
+        } else {
+            Map<String, Supplier<List<Schedule>>> reads = new LinkedHashMap<>();
+            chunk.stream()
+                    .collect(Collectors.groupingBy(router::shardFor, LinkedHashMap::new, Collectors.toList()))
+                    .forEach((shard, ids) -> reads.put(shard, () -> scheduleRepository.findSchedulesByDoctorIdIn(ids)));
+            schedules = circuitBreaker.call(() -> fanOut.onShards(reads));
+        }
+        Map<Integer, List<Schedule>> schedulesByDoctor = schedules.stream()
+                .collect(Collectors.groupingBy(Schedule::doctorId));
+        return chunk.stream()
+                .map(doctorId -> DoctorSchedules.of(doctorId, schedulesByDoctor.getOrDefault(doctorId, List.of())))
+                .toList();
     }
 
     /**
      * Creates a new schedule for the specified doctor, day of week, start time, and end time.
      * Throws an exception if the schedule already exists for this specific day and doctor
      * Returns the new Schedule
+     * The available minutes of the doctor's utilization counters are updated in the same transaction.
+     * Refused with DatabaseUnavailable before the transaction starts when the database circuit breaker is open.
      *
      * @param doctorId   Doctor id
      * @param dayOfWeek  Day of week
@@ -63,19 +175,25 @@ public class ScheduleServiceImpl implements ScheduleService {
      */
     @Override
     public Schedule createSchedule(Integer doctorId, DayOfWeek dayOfWeek, LocalTime startTime, LocalTime endTime) {
-        DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
-        try {
-            ScheduleEntity result = scheduleRepository.save(new ScheduleEntity(doctor, dayOfWeek, startTime, endTime));
-            return scheduleMapper.toSchedule(result);
-        } catch (DataIntegrityViolationException e) {
-            throw new ResourceAlreadyExists();
-        }
+        return inWriteTransaction(doctorId, () -> {
+            DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
+            Schedule result;
+            try {
+                result = scheduleMapper.toSchedule(scheduleRepository.save(new ScheduleEntity(doctor, dayOfWeek, startTime, endTime)));
+            } catch (DataIntegrityViolationException e) {
+                throw new ResourceAlreadyExists();
+            }
+            utilizationService.recordScheduleChange(doctorId, List.of(), List.of(result));
+            return result;
+        });
     }
 
     /**
      * Updates the schedule for the specified doctor, day of week, start time, and end time.
      * Throws an exception if the schedule does not exist.
      * Returns the updated Schedule
+     * The available minutes of the doctor's utilization counters are updated in the same transaction.
+     * Refused with DatabaseUnavailable before the transaction starts when the database circuit breaker is open.
      *
      * @param doctorId   Doctor id
      * @param dayOfWeek  Day of week
@@ -85,45 +203,68 @@ public class ScheduleServiceImpl implements ScheduleService {
      */
     @Override
     public Schedule updateSchedule(Integer doctorId, DayOfWeek dayOfWeek, LocalTime startTime, LocalTime endTime) {
-        DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
-        return scheduleRepository.findByDoctorAndDayOfWeek(doctor, dayOfWeek)
-                .map(schedule -> {
-                    schedule.setStartTime(startTime);
-                    schedule.setEndTime(endTime);
-                    return scheduleRepository.save(schedule);
-                })
-                .map(scheduleMapper::toSchedule)
-                .orElseThrow(ResourceNotFound::new);
+        return inWriteTransaction(doctorId, () -> {
+            DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
+            ScheduleEntity schedule = scheduleRepository.findByDoctorAndDayOfWeek(doctor, dayOfWeek)
+                    .orElseThrow(ResourceNotFound::new);
+            Schedule before = scheduleMapper.toSchedule(schedule);
+            schedule.setStartTime(startTime);
+            schedule.setEndTime(endTime);
+            Schedule result = scheduleMapper.toSchedule(scheduleRepository.save(schedule));
+            utilizationService.recordScheduleChange(doctorId, List.of(before), List.of(result));
+            return result;
+        });
     }
 
 
     /**
      * Deletes all schedules for the specified doctor and creates new schedules for the specified doctor.
+     * The available minutes of the doctor's utilization counters are updated in the same transaction.
+     * Refused with DatabaseUnavailable before the transaction starts when the database circuit breaker is open.
      * Returns the updated Schedule
      *
      * @param doctorId           Doctor id
      * @param scheduleRequestList List of ScheduleRequest objects
      * @return List of Schedule objects
      */
-    @Transactional
     @Override
     public List<Schedule> upsertScheduleList(Integer doctorId, List<ScheduleRequest> scheduleRequestList) {
-        DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
-        scheduleRepository.deleteAllByDoctor(doctor);
-        entityManager.flush();
-
-        List<ScheduleEntity> scheduleEntityList = new ArrayList<>();
-        for (ScheduleRequest scheduleRequest : scheduleRequestList) {
-            scheduleEntityList.add(new ScheduleEntity(doctor,
-                    scheduleRequest.dayOfWeek(),
-                    scheduleRequest.startTime(),
-                    scheduleRequest.endTime()
-            ));
-        }
+        return inWriteTransaction(doctorId, () -> {
+            DoctorEntity doctor = entityManager.getReference(DoctorEntity.class, doctorId);
+            List<Schedule> before = scheduleRepository.findSchedulesByDoctorId(doctorId);
+            scheduleRepository.deleteAllByDoctor(doctor);
+            entityManager.flush();
 
-        return scheduleRepository.saveAll(scheduleEntityList)
-                .stream()
-                .map(scheduleMapper::toSchedule)
-                .toList();
+            List<ScheduleEntity> scheduleEntityList = new ArrayList<>();
+            for (ScheduleRequest scheduleRequest : scheduleRequestList) {
+                scheduleEntityList.add(new ScheduleEntity(doctor,
+                        scheduleRequest.dayOfWeek(),
+                        scheduleRequest.startTime(),
+                        scheduleRequest.endTime()
+                ));
+            }
+
+            List<Schedule> result = scheduleRepository.saveAll(scheduleEntityList)
+                    .stream()
+                    .map(scheduleMapper::toSchedule)
+                    .toList();
+            utilizationService.recordScheduleChange(doctorId, before, result);
+            return result;
+        });
+    }
+
+    /**
+     * Runs a schedule change in a transaction, through the database circuit breaker, so that no connection is
+     * asked for while the breaker is open. The doctor's last known schedule is dropped, and the reads still
+     * running will not keep theirs, so a copy older than the change is never served.
+     *
+     * @param doctorId Doctor id
+     * @param write    the writes of the change
+     * @return the result of the change
+     */
+    private <T> T inWriteTransaction(Integer doctorId, Supplier<T> write) {
+        T result = circuitBreaker.call(() -> transactionTemplate.execute(status -> write.get()));
+        lastKnownSchedules.invalidate(doctorId);
+        return result;
     }
 }
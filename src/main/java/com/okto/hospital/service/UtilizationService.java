@@ -0,0 +1,22 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.model.UtilizationEntity;
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.model.response.DoctorUtilization;
+import com.okto.hospital.model.response.Schedule;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+public interface UtilizationService {
+    DoctorUtilization getUtilization(Integer doctorId, LocalDate from, LocalDate to, UtilizationEntity.Period period);
+
+    void recordBooking(Integer doctorId, LocalDate date, LocalTime startTime, LocalTime endTime);
+
+    void recordCancellation(Integer doctorId, LocalDate date, LocalTime startTime, LocalTime endTime);
+
+    void recordCancellations(Integer doctorId, List<BookedSlot> slots);
+
+    void recordScheduleChange(Integer doctorId, List<Schedule> before, List<Schedule> after);
+}
@@ -0,0 +1,259 @@
+package com.okto.hospital.service;
+
+import com.okto.hospital.exception.InvalidDateRange;
+import com.okto.hospital.model.UtilizationEntity;
+import com.okto.hospital.model.UtilizationEntity.Period;
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.model.response.DoctorUtilization;
+import com.okto.hospital.model.response.Schedule;
+import com.okto.hospital.model.response.Utilization;
+import com.okto.hospital.repository.UtilizationRepository;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains the doctor_utilization counters and reads utilization from them.
+ * <p>
+ * Every booking and cancellation adds its minutes to the rows of its day, its week and its month, in the
+ * transaction that writes the appointment. A row is created by the first booking of its period, with the
+ * available minutes of the doctor's schedule at that time. A cancellation only updates existing rows: without one,
+ * the appointment was booked before the counters existed and was never counted. A schedule change adjusts the
+ * available minutes of the rows of the changed days from today on; past days keep the hours they had.
+ * <p>
+ * A booking locks the rows of its day, its week and its month, in that order. The writes that touch the rows of
+ * several dates take them in the same order, all the days first, then the weeks, then the months, each in date
+ * order, so they never wait for a booking in a cycle.
+ * <p>
+ * A range is read with one query for its whole periods and, for weeks and months, one query of days for each of
+ * the two periods cut by the range. Periods without a row have no bookings and the hours of the current schedule.
+ */
+@Service
+public class UtilizationServiceImpl implements UtilizationService {
+
+    private static final int MAX_RANGE_YEARS = 10;
+
+    private final UtilizationRepository utilizationRepository;
+    private final ScheduleLoader scheduleLoader;
+    private final Clock clock;
+
+    public UtilizationServiceImpl(UtilizationRepository utilizationRepository, ScheduleLoader scheduleLoader, Clock clock) {
+        this.utilizationRepository = utilizationRepository;
+        this.scheduleLoader = scheduleLoader;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the doctor's utilization between two dates, both included, in total and per period.
+     * Reads the counters only, never the appointment table.
+     *
+     * @param doctorId Doctor id
+     * @param from     first date
+     * @param to       last date, at most ten years after the first
+     * @param period   DAY, WEEK or MONTH
+     * @return the utilization of the range and of every period in it
+     */
+    @Override
+    public DoctorUtilization getUtilization(Integer doctorId, LocalDate from, LocalDate to, Period period) {
+        if (to.isBefore(from) || to.isAfter(from.plusYears(MAX_RANGE_YEARS))) {
+            throw new InvalidDateRange();
+        }
+        int[] workingMinutes = workingMinutes(scheduleLoader.loadByDoctorId(doctorId));
+        Map<LocalDate, UtilizationEntity> rows = byStartDate(
+                utilizationRepository.findByDoctorIdAndPeriodAndStartDateBetween(doctorId, period, from, to));
+
+        List<Utilization> periods = new ArrayList<>();
+        LocalDate start = from;
+        while (!start.isAfter(to)) {
+            LocalDate periodStart = startOf(period, start);
+            LocalDate periodEnd = endOf(period, periodStart);
+            LocalDate end = periodEnd.isAfter(to) ? to : periodEnd;
+            periods.add(start.equals(periodStart) && end.equals(periodEnd)
+                    ? utilization(rows.get(start), start, end, workingMinutes)
+                    : utilizationOfDays(doctorId, start, end, workingMinutes));
+            start = end.plusDays(1);
+        }
+
+        Utilization total = Utilization.of(from, to,
+                periods.stream().mapToInt(Utilization::availableMinutes).sum(),
+                periods.stream().mapToInt(Utilization::bookedMinutes).sum(),
+                periods.stream().mapToInt(Utilization::appointments).sum());
+        return new DoctorUtilization(doctorId, period, total, periods);
+    }
+
+    /**
+     * Adds an appointment to the counters of its day, week and month. Runs in the caller's transaction.
+     *
+     * @param doctorId  Doctor id
+     * @param date      the date of the appointment
+     * @param startTime the start time of the appointment
+     * @param endTime   the end time of the appointment
+     */
+    @Override
+    public void recordBooking(Integer doctorId, LocalDate date, LocalTime startTime, LocalTime endTime) {
+        add(doctorId, date, minutesBetween(startTime, endTime), 1);
+    }
+
+    /**
+     * Removes a cancelled appointment from the counters of its day, week and month, in place. Periods without a
+     * row are left alone, like in {@link #recordCancellations}. Runs in the caller's transaction.
+     *
+     * @param doctorId  Doctor id
+     * @param date      the date of the appointment
+     * @param startTime the start time of the appointment
+     * @param endTime   the end time of the appointment
+     */
+    @Override
+    public void recordCancellation(Integer doctorId, LocalDate date, LocalTime startTime, LocalTime endTime) {
+        int minutes = minutesBetween(startTime, endTime);
+        for (Period period : Period.values()) {
+            utilizationRepository.addBookings(doctorId, period, startOf(period, date), -minutes, -1);
+        }
+    }
+
+    /**
+     * Removes many cancelled appointments of a doctor from the counters, with one statement per day, week and
+     * month. Periods without a row are left alone, their appointments were booked before the counters existed.
+     * An appointment without an end time lasts an hour. Runs in the caller's transaction.
+     *
+     * @param doctorId Doctor id
+     * @param slots    the cancelled appointments
+     */
+    @Override
+    public void recordCancellations(Integer doctorId, List<BookedSlot> slots) {
+        for (Period period : Period.values()) {
+            Map<LocalDate, List<BookedSlot>> slotsByStart = slots.stream()
+                    .collect(Collectors.groupingBy(slot -> startOf(period, slot.date()), TreeMap::new, Collectors.toList()));
+            slotsByStart.forEach((start, slotsOfPeriod) -> utilizationRepository.addBookings(doctorId, period, start,
+                    -slotsOfPeriod.stream()
+                            .mapToInt(slot -> minutesBetween(slot.startTime(),
+                                    slot.endTime() != null ? slot.endTime() : slot.startTime().plusMinutes(60)))
+                            .sum(),
+                    -slotsOfPeriod.size()));
+        }
+    }
+
+    /**
+     * Adjusts the available minutes of the doctor's rows to a schedule change, for the days of the changed days
+     * of the week from today on. Only the rows of the current week and month and later are read, and only the
+     * ones whose minutes change are written, in place. Runs in the caller's transaction.
+     *
+     * @param doctorId Doctor id
+     * @param before   the schedules replaced by the change
+     * @param after    the schedules written by the change
+     */
+    @Override
+    public void recordScheduleChange(Integer doctorId, List<Schedule> before, List<Schedule> after) {
+        int[] minutesBefore = workingMinutes(before);
+        int[] minutesAfter = workingMinutes(after);
+        if (Arrays.equals(minutesBefore, minutesAfter)) {
+            return;
+        }
+        LocalDate today = LocalDate.now(clock);
+        LocalDate firstStart = startOf(Period.MONTH, today).isBefore(startOf(Period.WEEK, today))
+                ? startOf(Period.MONTH, today)
+                : startOf(Period.WEEK, today);
+        List<UtilizationEntity> rows = new ArrayList<>(utilizationRepository.findByDoctorIdAndStartDateGreaterThanEqual(doctorId, firstStart));
+        rows.sort(Comparator.comparing(UtilizationEntity::getPeriod).thenComparing(UtilizationEntity::getStartDate));
+        for (UtilizationEntity row : rows) {
+            int change = 0;
+            LocalDate end = endOf(row.getPeriod(), row.getStartDate());
+            for (LocalDate date = row.getStartDate().isBefore(today) ? today : row.getStartDate();
+                 !date.isAfter(end); date = date.plusDays(1)) {
+                int dayOfWeek = date.getDayOfWeek().getValue();
+                change += minutesAfter[dayOfWeek] - minutesBefore[dayOfWeek];
+            }
+            if (change != 0) {
+                utilizationRepository.addAvailableMinutes(doctorId, row.getPeriod(), row.getStartDate(), change);
+            }
+        }
+    }
+
+    private void add(Integer doctorId, LocalDate date, int bookedMinutes, int appointments) {
+        int[] workingMinutes = workingMinutes(scheduleLoader.loadByDoctorId(doctorId));
+        LocalDate week = startOf(Period.WEEK, date);
+        LocalDate month = startOf(Period.MONTH, date);
+        utilizationRepository.add(doctorId,
+                date, availableMinutes(date, date, workingMinutes),
+                week, availableMinutes(week, endOf(Period.WEEK, week), workingMinutes),
+                month, availableMinutes(month, endOf(Period.MONTH, month), workingMinutes),
+                bookedMinutes, appointments);
+    }
+
+    private Utilization utilizationOfDays(Integer doctorId, LocalDate from, LocalDate to, int[] workingMinutes) {
+        Map<LocalDate, UtilizationEntity> days = byStartDate(
+                utilizationRepository.findByDoctorIdAndPeriodAndStartDateBetween(doctorId, Period.DAY, from, to));
+        int available = 0;
+        int booked = 0;
+        int appointments = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            Utilization day = utilization(days.get(date), date, date, workingMinutes);
+            available += day.availableMinutes();
+            booked += day.bookedMinutes();
+            appointments += day.appointments();
+        }
+        return Utilization.of(from, to, available, booked, appointments);
+    }
+
+    private static Utilization utilization(UtilizationEntity row, LocalDate from, LocalDate to, int[] workingMinutes) {
+        return row == null
+                ? Utilization.of(from, to, availableMinutes(from, to, workingMinutes), 0, 0)
+                : Utilization.of(from, to, row.getAvailableMinutes(), row.getBookedMinutes(), row.getAppointments());
+    }
+
+    private static Map<LocalDate, UtilizationEntity> byStartDate(List<UtilizationEntity> rows) {
+        return rows.stream().collect(Collectors.toMap(UtilizationEntity::getStartDate, Function.identity()));
+    }
+
+    /**
+     * Working minutes per day of the week, indexed by {@link DayOfWeek#getValue()}.
+     */
+    private static int[] workingMinutes(List<Schedule> schedules) {
+        int[] minutes = new int[8];
+        for (Schedule schedule : schedules) {
+            minutes[schedule.dayOfWeek().getValue()] = minutesBetween(schedule.startTime(), schedule.endTime());
+        }
+        return minutes;
+    }
+
+    private static int availableMinutes(LocalDate from, LocalDate to, int[] workingMinutes) {
+        int minutes = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            minutes += workingMinutes[date.getDayOfWeek().getValue()];
+        }
+        return minutes;
+    }
+
+    private static int minutesBetween(LocalTime startTime, LocalTime endTime) {
+        return (int) Duration.between(startTime, endTime).toMinutes();
+    }
+
+    private static LocalDate startOf(Period period, LocalDate date) {
+        return switch (period) {
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> date.withDayOfMonth(1);
+        };
+    }
+
+    private static LocalDate endOf(Period period, LocalDate start) {
+        return switch (period) {
+            case DAY -> start;
+            case WEEK -> start.plusDays(6);
+            case MONTH -> start.with(TemporalAdjusters.lastDayOfMonth());
+        };
+    }
+}
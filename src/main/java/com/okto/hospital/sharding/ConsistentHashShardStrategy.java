@@ -0,0 +1,54 @@
+package com.okto.hospital.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing: every shard is placed on a hash ring at {@code virtualNodes} points, and a doctor belongs
+ * to the first shard point at or after the doctor's hash. Adding or removing a shard only moves the doctors
+ * between that shard and its neighbours, about 1/N of them, instead of reshuffling everyone.
+ * <p>
+ * The hash is FNV-1a 64 bit followed by the MurmurHash3 finalizer, so the mapping is the same on every instance
+ * and across restarts. FNV-1a alone spreads short keys that only differ in the last digits badly over the ring.
+ */
+public class ConsistentHashShardStrategy implements ShardStrategy {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHashShardStrategy(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        for (String shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    @Override
+    public String shardFor(Integer doctorId) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash("doctor-" + doctorId));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,35 @@
+package com.okto.hospital.sharding;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Explicit doctor to shard assignments, for doctors that have to be placed by hand (a busy doctor on a
+ * dedicated shard, a doctor being moved). Doctors without an assignment go through the fallback strategy.
+ */
+public class DirectoryShardStrategy implements ShardStrategy {
+
+    private final Map<Integer, String> assignments = new ConcurrentHashMap<>();
+    private final ShardStrategy fallback;
+
+    public DirectoryShardStrategy(Map<Integer, String> assignments, ShardStrategy fallback) {
+        this.assignments.putAll(assignments);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String shardFor(Integer doctorId) {
+        String shard = assignments.get(doctorId);
+        return shard != null ? shard : fallback.shardFor(doctorId);
+    }
+
+    /**
+     * Assigns the doctor to a shard. The doctor's data still has to be moved, see {@link ShardRebalancer}.
+     *
+     * @param doctorId Doctor id
+     * @param shard    shard name
+     */
+    public void assign(Integer doctorId, String shard) {
+        assignments.put(doctorId, shard);
+    }
+}
@@ -0,0 +1,70 @@
+package com.okto.hospital.sharding;
+
+import java.util.function.Supplier;
+
+/**
+ * The shard the current thread works on. {@link ShardRoutingDataSource} hands out connections of that shard,
+ * and the default shard when none is set.
+ * <p>
+ * The shard has to be set before the first database access of a transaction, since the connection is
+ * kept until the transaction ends.
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    /**
+     * Returns the shard of the current thread.
+     *
+     * @return shard name, null if none is set
+     */
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    public static void set(String shard) {
+        CURRENT.set(shard);
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Runs the call on the given shard, then restores the shard the thread was on.
+     *
+     * @param shard shard name
+     * @param call  the work to run
+     * @param <T>   result type
+     * @return the result of the call
+     */
+    public static <T> T callOn(String shard, Supplier<T> call) {
+        String previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Runs the work on the given shard, then restores the shard the thread was on.
+     *
+     * @param shard shard name
+     * @param work  the work to run
+     */
+    public static void runOn(String shard, Runnable work) {
+        callOn(shard, () -> {
+            work.run();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package com.okto.hospital.sharding;
+
+import com.okto.hospital.exception.ServiceUnavailable;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a read on several shards in parallel and merges the results, for reads that are not about a single
+ * doctor. Each shard is queried on its own thread, in its own transaction.
+ * <p>
+ * The read fails as a whole: if a shard fails, its exception is rethrown, and if a shard does not answer within
+ * the timeout the caller gets {@link ServiceUnavailable}. A partial result is never returned.
+ */
+public class ShardFanOut implements DisposableBean {
+
+    private final ShardRouter router;
+    private final ExecutorService executor;
+    private final long timeoutNanos;
+
+    public ShardFanOut(ShardRouter router, Duration timeout) {
+        this.router = router;
+        this.executor = Executors.newFixedThreadPool(Math.max(2, router.getShards().size() * 2), runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * Runs the read on every shard.
+     *
+     * @param read the read, run once per shard with that shard selected
+     * @param <T>  element type
+     * @return the results of all shards, in shard order
+     */
+    public <T> List<T> onAllShards(Supplier<List<T>> read) {
+        return on(router.getShards(), shard -> read);
+    }
+
+    /**
+     * Runs the read on every shard but the one the calling thread is on, which the caller typically
+     * has already queried.
+     *
+     * @param read the read, run once per shard with that shard selected
+     * @param <T>  element type
+     * @return the results of the other shards, in shard order
+     */
+    public <T> List<T> onOtherShards(Supplier<List<T>> read) {
+        String currentShard = Objects.requireNonNullElse(ShardContext.current(), router.getDefaultShard());
+        return on(router.getShards().stream().filter(shard -> !shard.equals(currentShard)).toList(), shard -> read);
+    }
+
+    /**
+     * Runs a different read on each of the given shards, like a query for the doctors that live there.
+     *
+     * @param reads the read of every shard, run with that shard selected
+     * @param <T>   element type
+     * @return the results of the shards, in the order of the map
+     */
+    public <T> List<T> onShards(Map<String, Supplier<List<T>>> reads) {
+        return on(List.copyOf(reads.keySet()), reads::get);
+    }
+
+    private <T> List<T> on(List<String> shards, Function<String, Supplier<List<T>>> reads) {
+        List<CompletableFuture<List<T>>> calls = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> ShardContext.callOn(shard, reads.apply(shard)), executor))
+                .toList();
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<T> merged = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> call : calls) {
+                merged.addAll(call.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            return merged;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ServiceUnavailable();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailable();
+        } finally {
+            calls.forEach(call -> call.cancel(true));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,163 @@
+package com.okto.hospital.sharding;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Moves doctors to the shard the router currently assigns them, after shards were added or removed or
+ * doctors were reassigned in the directory.
+ * <p>
+ * A doctor is moved with their schedules, appointments, archived appointments and waitlist entries, and the
+ * patients those appointments refer to.
+ * The copy is committed on the target shard before the rows are deleted from the source shard, and rows already
+ * present on the target are skipped, so a move that failed halfway can simply be run again.
+ * The router sends the doctor's requests to the new shard as soon as the layout changes, so run the rebalancing
+ * right after changing it. Moved waitlist entries get new ids on the target shard and the in-memory waitlists are
+ * only loaded at startup, so restart the instances after moving doctors with waiting patients.
+ */
+public class ShardRebalancer {
+
+    private final ShardRouter router;
+    private final ShardRoutingDataSource dataSource;
+
+    public ShardRebalancer(ShardRouter router, ShardRoutingDataSource dataSource) {
+        this.router = router;
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * A doctor whose data is on another shard than the one the router assigns them.
+     *
+     * @param doctorId Doctor id
+     * @param from     shard holding the data
+     * @param to       shard assigned by the router
+     */
+    public record Move(Integer doctorId, String from, String to) {
+    }
+
+    /**
+     * Lists the moves needed to match the current routing, without changing anything.
+     *
+     * @return the moves
+     */
+    public List<Move> plan() {
+        List<Move> moves = new ArrayList<>();
+        for (String shard : router.getShards()) {
+            for (Integer doctorId : jdbc(shard).queryForList("SELECT id FROM doctor ORDER BY id", Integer.class)) {
+                String assigned = router.shardFor(doctorId);
+                if (!assigned.equals(shard)) {
+                    moves.add(new Move(doctorId, shard, assigned));
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Moves every doctor whose data is not on the shard the router assigns them.
+     *
+     * @return the moves made
+     */
+    public List<Move> rebalance() {
+        List<Move> moves = plan();
+        moves.forEach(this::move);
+        return moves;
+    }
+
+    private void move(Move move) {
+        JdbcTemplate source = jdbc(move.from());
+        Integer doctorId = move.doctorId();
+        var doctor = source.queryForMap("SELECT id, name FROM doctor WHERE id = ?", doctorId);
+        var patients = source.queryForList("""
+                SELECT p.id, p.name FROM patient p
+                WHERE p.id IN (SELECT a.patient_id FROM appointment a WHERE a.doctor_id = ?)
+                """, doctorId);
+        var schedules = source.queryForList("""
+                SELECT day_of_week, start_time, end_time FROM schedule WHERE doctor_id = ?
+                """, doctorId);
+        var appointments = source.queryForList("""
+                SELECT patient_id, date, start_time, end_time, created_at FROM appointment WHERE doctor_id = ?
+                """, doctorId);
+        var archivedAppointments = source.queryForList("""
+                SELECT appointment_id, patient_id, date, start_time, end_time, created_at, archived_at
+                FROM appointment_archive WHERE doctor_id = ?
+                """, doctorId);
+        var waitlistEntries = source.queryForList("""
+                SELECT patient_id, date, start_time, created_at FROM waitlist_entry WHERE doctor_id = ? ORDER BY id
+                """, doctorId);
+
+        inTransaction(move.to(), target -> {
+            insertPersonIfMissing(target, "doctor", doctor);
+            patients.forEach(patient -> insertPersonIfMissing(target, "patient", patient));
+            for (Map<String, Object> schedule : schedules) {
+                target.update("""
+                                INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+                                SELECT ?, ?, ?, ? WHERE NOT EXISTS
+                                (SELECT 1 FROM schedule WHERE doctor_id = ? AND day_of_week = ?)
+                                """,
+                        doctorId, schedule.get("day_of_week"), schedule.get("start_time"), schedule.get("end_time"),
+                        doctorId, schedule.get("day_of_week"));
+            }
+            for (Map<String, Object> appointment : appointments) {
+                target.update("""
+                                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                                SELECT ?, ?, ?, ?, ?, ? WHERE NOT EXISTS
+                                (SELECT 1 FROM appointment WHERE doctor_id = ? AND date = ? AND start_time = ?)
+                                """,
+                        appointment.get("patient_id"), doctorId, appointment.get("date"), appointment.get("start_time"),
+                        appointment.get("end_time"), appointment.get("created_at"),
+                        doctorId, appointment.get("date"), appointment.get("start_time"));
+            }
+            for (Map<String, Object> archived : archivedAppointments) {
+                target.update("""
+                                INSERT INTO appointment_archive
+                                (appointment_id, patient_id, doctor_id, date, start_time, end_time, created_at, archived_at)
+                                SELECT ?, ?, ?, ?, ?, ?, ?, ? WHERE NOT EXISTS
+                                (SELECT 1 FROM appointment_archive WHERE doctor_id = ? AND date = ? AND start_time = ?)
+                                """,
+                        archived.get("appointment_id"), archived.get("patient_id"), doctorId, archived.get("date"),
+                        archived.get("start_time"), archived.get("end_time"), archived.get("created_at"),
+                        archived.get("archived_at"), doctorId, archived.get("date"), archived.get("start_time"));
+            }
+            for (Map<String, Object> entry : waitlistEntries) {
+                target.update("""
+                                INSERT INTO waitlist_entry (patient_id, doctor_id, date, start_time, created_at)
+                                SELECT ?, ?, ?, ?, ? WHERE NOT EXISTS
+                                (SELECT 1 FROM waitlist_entry WHERE doctor_id = ? AND patient_id = ? AND date = ? AND start_time = ?)
+                                """,
+                        entry.get("patient_id"), doctorId, entry.get("date"), entry.get("start_time"), entry.get("created_at"),
+                        doctorId, entry.get("patient_id"), entry.get("date"), entry.get("start_time"));
+            }
+        });
+
+        inTransaction(move.from(), jdbc -> {
+            jdbc.update("DELETE FROM waitlist_entry WHERE doctor_id = ?", doctorId);
+            jdbc.update("DELETE FROM appointment_archive WHERE doctor_id = ?", doctorId);
+            jdbc.update("DELETE FROM appointment WHERE doctor_id = ?", doctorId);
+            jdbc.update("DELETE FROM schedule WHERE doctor_id = ?", doctorId);
+            jdbc.update("DELETE FROM doctor WHERE id = ?", doctorId);
+        });
+    }
+
+    private void insertPersonIfMissing(JdbcTemplate jdbc, String table, Map<String, Object> row) {
+        jdbc.update("INSERT INTO " + table + " (id, name) SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE id = ?)",
+                row.get("id"), row.get("name"), row.get("id"));
+    }
+
+    private void inTransaction(String shard, Consumer<JdbcTemplate> work) {
+        DataSource shardDataSource = dataSource.getShard(shard);
+        new TransactionTemplate(new DataSourceTransactionManager(shardDataSource))
+                .executeWithoutResult(status -> work.accept(new JdbcTemplate(shardDataSource)));
+    }
+
+    private JdbcTemplate jdbc(String shard) {
+        return new JdbcTemplate(dataSource.getShard(shard));
+    }
+}
@@ -0,0 +1,62 @@
+package com.okto.hospital.sharding;
+
+import java.util.List;
+
+/**
+ * Entry point of the shard routing: knows the shards and which one holds a doctor.
+ */
+public class ShardRouter {
+
+    private final List<String> shards;
+    private final ShardStrategy strategy;
+
+    public ShardRouter(List<String> shards, ShardStrategy strategy) {
+        this.shards = List.copyOf(shards);
+        this.strategy = strategy;
+    }
+
+    /**
+     * Returns the shard holding the doctor.
+     *
+     * @param doctorId Doctor id
+     * @return shard name
+     */
+    public String shardFor(Integer doctorId) {
+        return strategy.shardFor(doctorId);
+    }
+
+    /**
+     * Moves the doctor to another shard in the directory. Only the routing changes, the data is moved by
+     * {@link ShardRebalancer}.
+     *
+     * @param doctorId Doctor id
+     * @param shard    shard name
+     */
+    public void assign(Integer doctorId, String shard) {
+        if (!shards.contains(shard)) {
+            throw new IllegalArgumentException("Unknown shard " + shard);
+        }
+        if (!(strategy instanceof DirectoryShardStrategy directory)) {
+            throw new IllegalStateException("Doctors can only be assigned with the directory strategy");
+        }
+        directory.assign(doctorId, shard);
+    }
+
+    /**
+     * Returns the shard names, the default shard first.
+     *
+     * @return shard names
+     */
+    public List<String> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the shard used when no shard is selected, e.g. for requests that are not about a doctor.
+     *
+     * @return shard name
+     */
+    public String getDefaultShard() {
+        return shards.get(0);
+    }
+}
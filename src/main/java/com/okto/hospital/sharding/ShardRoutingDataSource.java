@@ -0,0 +1,55 @@
+package com.okto.hospital.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out connections of the shard selected in {@link ShardContext}, with one connection pool per shard.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private final Map<String, HikariDataSource> shards;
+
+    public ShardRoutingDataSource(Map<String, HikariDataSource> shards, String defaultShard) {
+        this.shards = new LinkedHashMap<>(shards);
+        setTargetDataSources(new LinkedHashMap<>(shards));
+        setDefaultTargetDataSource(shards.get(defaultShard));
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current();
+    }
+
+    /**
+     * Returns the datasource of one shard, bypassing the routing.
+     *
+     * @param shard shard name
+     * @return the shard's datasource
+     */
+    public DataSource getShard(String shard) {
+        DataSource dataSource = shards.get(shard);
+        if (dataSource == null) {
+            throw new IllegalArgumentException("Unknown shard " + shard);
+        }
+        return dataSource;
+    }
+
+    /**
+     * @return the maximum size of the smallest shard pool
+     */
+    public int getSmallestPoolSize() {
+        return shards.values().stream().mapToInt(HikariDataSource::getMaximumPoolSize).min().orElse(0);
+    }
+
+    @Override
+    public void destroy() {
+        shards.values().forEach(HikariDataSource::close);
+    }
+}
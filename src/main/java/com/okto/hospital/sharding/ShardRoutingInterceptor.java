@@ -0,0 +1,44 @@
+package com.okto.hospital.sharding;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Map;
+
+/**
+ * Selects the shard of the doctor in the request path ({doctorId} URI variable) before the controller runs,
+ * so the services and repositories below work on that shard without knowing about sharding.
+ * Requests without a doctor stay on the default shard.
+ */
+public class ShardRoutingInterceptor implements HandlerInterceptor {
+
+    private static final String DOCTOR_ID_VARIABLE = "doctorId";
+
+    private final ShardRouter router;
+
+    public ShardRoutingInterceptor(ShardRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        @SuppressWarnings("unchecked")
+        var variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables == null || variables.get(DOCTOR_ID_VARIABLE) == null) {
+            return true;
+        }
+        try {
+            ShardContext.set(router.shardFor(Integer.valueOf(variables.get(DOCTOR_ID_VARIABLE))));
+        } catch (NumberFormatException e) {
+            // not a doctor id, the controller answers 400
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ShardContext.clear();
+    }
+}
@@ -0,0 +1,45 @@
+package com.okto.hospital.sharding;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.relational.SchemaManager;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.Set;
+
+/**
+ * Hibernate only creates the schema on the connection it gets at startup, which is the default shard's.
+ * When the schema is generated (spring.jpa.hibernate.ddl-auto create or create-drop), this does the same on
+ * every other shard.
+ */
+public class ShardSchemaInitializer implements InitializingBean {
+
+    private static final Set<String> CREATE_ACTIONS = Set.of("create", "create-drop");
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final ShardRouter router;
+
+    public ShardSchemaInitializer(EntityManagerFactory entityManagerFactory, ShardRouter router) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.router = router;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Object action = entityManagerFactory.getProperties().get(AvailableSettings.HBM2DDL_AUTO);
+        if (action == null || !CREATE_ACTIONS.contains(action.toString())) {
+            return;
+        }
+
+        SchemaManager schemaManager = entityManagerFactory.unwrap(SessionFactory.class).getSchemaManager();
+        for (String shard : router.getShards()) {
+            if (!shard.equals(router.getDefaultShard())) {
+                ShardContext.runOn(shard, () -> {
+                    schemaManager.dropMappedObjects(false);
+                    schemaManager.exportMappedObjects(false);
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.okto.hospital.sharding;
+
+/**
+ * Maps a doctor to the shard holding the doctor, their schedules and appointments.
+ */
+public interface ShardStrategy {
+
+    /**
+     * Returns the shard of the doctor.
+     *
+     * @param doctorId Doctor id
+     * @return shard name
+     */
+    String shardFor(Integer doctorId);
+}
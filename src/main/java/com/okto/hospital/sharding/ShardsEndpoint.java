@@ -0,0 +1,36 @@
+package com.okto.hospital.sharding;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.List;
+
+/**
+ * Shard rebalancing tool, at /actuator/shards: GET lists the doctors that are on the wrong shard,
+ * POST moves them.
+ */
+@Endpoint(id = "shards")
+public class ShardsEndpoint {
+
+    private final ShardRouter router;
+    private final ShardRebalancer rebalancer;
+
+    public ShardsEndpoint(ShardRouter router, ShardRebalancer rebalancer) {
+        this.router = router;
+        this.rebalancer = rebalancer;
+    }
+
+    public record ShardLayout(List<String> shards, List<ShardRebalancer.Move> pendingMoves) {
+    }
+
+    @ReadOperation
+    public ShardLayout layout() {
+        return new ShardLayout(router.getShards(), rebalancer.plan());
+    }
+
+    @WriteOperation
+    public List<ShardRebalancer.Move> rebalance() {
+        return rebalancer.rebalance();
+    }
+}
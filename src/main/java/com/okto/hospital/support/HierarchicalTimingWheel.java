@@ -0,0 +1,215 @@
+package com.okto.hospital.support;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: fires items at their deadlines with O(1) work per add, per cancel and per expired
+ * item, whatever the number of pending items, instead of one scheduled task or one priority queue entry each.
+ * <p>
+ * Level 0 has one bucket per tick; every level above it has buckets as wide as a whole turn of the level below.
+ * An item is put on the lowest level whose turn still reaches its deadline. When a level-0 turn completes, the next
+ * bucket of level 1 is emptied into level 0, and so on upwards, so an item moves down at most once per level before
+ * it fires. Levels are added when a deadline is further away than the highest one reaches; with 64 buckets of one
+ * second, three levels cover three days.
+ * <p>
+ * Deadlines are rounded up to the next tick, an item never fires early. Not thread-safe: the owner serializes the
+ * calls, which are all short.
+ *
+ * @param <T> item type
+ */
+public class HierarchicalTimingWheel<T> {
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<Bucket<T>[]> levels = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tick      resolution of the wheel
+     * @param wheelSize buckets per level
+     * @param nowMillis the current time, in the milliseconds the deadlines are given in
+     */
+    public HierarchicalTimingWheel(Duration tick, int wheelSize, long nowMillis) {
+        if (tick.toMillis() <= 0 || wheelSize < 2) {
+            throw new IllegalArgumentException("tick must be at least 1ms and wheelSize at least 2");
+        }
+        this.tickMillis = tick.toMillis();
+        this.wheelSize = wheelSize;
+        this.currentTick = Math.floorDiv(nowMillis, tickMillis);
+        addLevel();
+    }
+
+    /**
+     * A pending item, returned by {@link #add} so that it can be cancelled.
+     *
+     * @param <T> item type
+     */
+    public static final class Timeout<T> {
+
+        private final T item;
+        private final long deadlineTick;
+        private Bucket<T> bucket;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T item() {
+            return item;
+        }
+    }
+
+    /**
+     * Doubly linked list of the items of one bucket, so an item is unlinked in O(1).
+     */
+    private static final class Bucket<T> {
+
+        private Timeout<T> head;
+
+        void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout<T> timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        Timeout<T> clear() {
+            Timeout<T> first = head;
+            head = null;
+            return first;
+        }
+    }
+
+    /**
+     * Schedules the item. A deadline that has already passed fires on the next tick.
+     *
+     * @param item           the item handed back when it expires
+     * @param deadlineMillis when it expires
+     * @return the handle to cancel it
+     */
+    public Timeout<T> add(T item, long deadlineMillis) {
+        long deadlineTick = Math.max(currentTick + 1, -Math.floorDiv(-deadlineMillis, tickMillis));
+        Timeout<T> timeout = new Timeout<>(item, deadlineTick);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Removes a pending item, it will not fire. Does nothing if it has already fired or been cancelled.
+     *
+     * @param timeout the handle returned by add
+     */
+    public void cancel(Timeout<T> timeout) {
+        if (timeout.bucket != null) {
+            timeout.bucket.remove(timeout);
+            size--;
+        }
+    }
+
+    /**
+     * Moves the wheel to the current time, handing every item whose deadline has passed to the consumer, in the
+     * order of their ticks. Costs one step per elapsed tick plus the items moved or fired.
+     *
+     * @param nowMillis the current time
+     * @param expired   receives the expired items
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        while (currentTick < targetTick) {
+            currentTick++;
+            // the buckets whose span starts at this tick move down first, top level first
+            for (int level = levels.size() - 1; level >= 1; level--) {
+                long span = spanOf(level);
+                if (currentTick % span == 0) {
+                    cascade(level, currentTick / span);
+                }
+            }
+            for (Timeout<T> timeout = bucketAt(0, currentTick).clear(); timeout != null; ) {
+                Timeout<T> next = timeout.next;
+                timeout.bucket = null;
+                timeout.previous = null;
+                timeout.next = null;
+                size--;
+                expired.accept(timeout.item);
+                timeout = next;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pending items.
+     *
+     * @return pending items
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, long index) {
+        for (Timeout<T> timeout = bucketAt(level, index).clear(); timeout != null; ) {
+            Timeout<T> next = timeout.next;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long delta = Math.max(0, timeout.deadlineTick - currentTick);
+        int level = 0;
+        long reach = wheelSize;
+        while (delta >= reach) {
+            level++;
+            if (level == levels.size()) {
+                addLevel();
+            }
+            reach *= wheelSize;
+        }
+        bucketAt(level, timeout.deadlineTick / spanOf(level)).add(timeout);
+    }
+
+    private Bucket<T> bucketAt(int level, long index) {
+        return levels.get(level)[(int) Math.floorMod(index, (long) wheelSize)];
+    }
+
+    private long spanOf(int level) {
+        long span = 1;
+        for (int i = 0; i < level; i++) {
+            span *= wheelSize;
+        }
+        return span;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addLevel() {
+        Bucket<T>[] buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket<>();
+        }
+        levels.add(buckets);
+    }
+}
@@ -0,0 +1,114 @@
+package com.okto.hospital.support;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The last value read per key, kept to be served while the source cannot be reached.
+ * <p>
+ * At most maxEntries keys are kept, the least recently used is dropped beyond it, and an entry expires maxAge
+ * after it was written. So the entries follow the keys actually being read, and the old ones make room instead
+ * of filling the cache.
+ * <p>
+ * A read takes the {@link #generation} of its key before it starts and hands it to {@link #put}; a write of the
+ * key calls {@link #invalidate}, which moves the generation on. A read that started before the write and ends
+ * after it is then refused, so it cannot put back a value older than the write. The generations are kept in a
+ * fixed number of stripes: keys sharing a stripe also refuse each other's reads in flight, which only costs a put.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LastKnownCache<K, V> {
+
+    private static final int GENERATION_STRIPES = 256;
+
+    // guarded by this
+    private final Map<K, Entry<V>> entries;
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private final Duration maxAge;
+    private final Clock clock;
+
+    private record Entry<V>(V value, Instant writtenAt) {
+    }
+
+    public LastKnownCache(int maxEntries, Duration maxAge, Clock clock) {
+        this.maxAge = maxAge;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param key the key
+     * @return the generation to hand to {@link #put} once the value is read
+     */
+    public synchronized long generation(K key) {
+        return generations[stripe(key)];
+    }
+
+    /**
+     * @param key the key
+     * @return the value kept for the key, null if there is none or it has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.writtenAt().plus(maxAge).isBefore(clock.instant())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    /**
+     * Keeps the value read for the key, unless the key was written since the read started.
+     *
+     * @param key        the key
+     * @param generation the generation of the key taken before the read started
+     * @param value      the value read
+     * @return true if the value is kept
+     */
+    public synchronized boolean put(K key, long generation, V value) {
+        if (generations[stripe(key)] != generation) {
+            return false;
+        }
+        entries.put(key, new Entry<>(value, clock.instant()));
+        return true;
+    }
+
+    /**
+     * Drops the value of the key, for a read that found nothing to keep.
+     *
+     * @param key the key
+     */
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drops the value of the key after a write, and refuses the reads of it that started before.
+     *
+     * @param key the key
+     */
+    public synchronized void invalidate(K key) {
+        generations[stripe(key)]++;
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static int stripe(Object key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+}
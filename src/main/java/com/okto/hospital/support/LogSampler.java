@@ -0,0 +1,51 @@
+package com.okto.hospital.support;
+
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate limits a high frequency log statement: at most {@code eventsPerSecond} events are let through
+ * in every one second window, the others are counted and reported with the next event that passes.
+ * This keeps the logging cost bounded under load without losing track of how much was dropped.
+ */
+public class LogSampler {
+
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+    private static final long COUNT_MASK = 0xFFFF_FFFFL;
+
+    private final int eventsPerSecond;
+    private final LongSupplier nanoClock;
+    private final long origin;
+    // the index of the current window in the high 32 bits, the events logged in it in the low 32 bits
+    private final AtomicLong state = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public LogSampler(int eventsPerSecond, LongSupplier nanoClock) {
+        this.eventsPerSecond = eventsPerSecond;
+        this.nanoClock = nanoClock;
+        this.origin = nanoClock.getAsLong();
+    }
+
+    /**
+     * Decides whether the current event is logged. Lock-free, the callers only race on one compare-and-set.
+     *
+     * @return the number of events suppressed since the last logged one, or empty if this one is suppressed too
+     */
+    public OptionalLong sample() {
+        long window = ((nanoClock.getAsLong() - origin) / WINDOW_NANOS) & COUNT_MASK;
+        while (eventsPerSecond > 0) {
+            long current = state.get();
+            // a caller that read the clock just before the window turned counts in the new one
+            long next = window > current >>> 32 ? window << 32 : current;
+            if ((next & COUNT_MASK) >= eventsPerSecond) {
+                break;
+            }
+            if (state.compareAndSet(current, next + 1)) {
+                return OptionalLong.of(suppressed.getAndSet(0));
+            }
+        }
+        suppressed.incrementAndGet();
+        return OptionalLong.empty();
+    }
+}
@@ -0,0 +1,62 @@
+package com.okto.hospital.waitlist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The waiters of one doctor on one day, in arrival order, kept in primitive arrays: an entry costs 10 bytes
+ * instead of an object per waiter. A day holds few waiters, so lookups scan the arrays.
+ * Not thread safe, callers hold the lock of the doctor's day.
+ */
+final class DayQueue {
+
+    // entry id in the high 32 bits, patient id in the low 32 bits
+    private long[] waiters = new long[4];
+    private short[] startMinutes = new short[4];
+    private int size;
+
+    void add(int entryId, int patientId, int startMinute) {
+        if (size == waiters.length) {
+            waiters = Arrays.copyOf(waiters, size * 2);
+            startMinutes = Arrays.copyOf(startMinutes, size * 2);
+        }
+        waiters[size] = ((long) entryId << 32) | (patientId & 0xffffffffL);
+        startMinutes[size] = (short) startMinute;
+        size++;
+    }
+
+    boolean remove(int entryId) {
+        for (int i = 0; i < size; i++) {
+            if (entryId(i) == entryId) {
+                System.arraycopy(waiters, i + 1, waiters, i, size - i - 1);
+                System.arraycopy(startMinutes, i + 1, startMinutes, i, size - i - 1);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<Waitlist.Waiter> waitersFor(int startMinute) {
+        List<Waitlist.Waiter> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (startMinutes[i] == startMinute) {
+                result.add(new Waitlist.Waiter(entryId(i), patientId(i)));
+            }
+        }
+        return result;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int entryId(int index) {
+        return (int) (waiters[index] >>> 32);
+    }
+
+    private int patientId(int index) {
+        return (int) waiters[index];
+    }
+}
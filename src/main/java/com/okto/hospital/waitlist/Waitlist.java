@@ -0,0 +1,198 @@
+package com.okto.hospital.waitlist;
+
+import com.okto.hospital.model.WaitlistEntryEntity;
+import com.okto.hospital.repository.WaitlistEntryRepository;
+import com.okto.hospital.sharding.ShardContext;
+import com.okto.hospital.sharding.ShardRouter;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of the patients waiting for booked slots, one {@link DayQueue} per doctor and day.
+ * The waitlist_entry table is the durable copy; it is loaded at startup and the callers keep both in step.
+ * <p>
+ * Everything that reads or changes the waiters of a doctor's day, together with the table and the appointments
+ * of that day, runs inside {@link #withLock}, so a cancellation cannot miss a patient who is joining the
+ * waitlist at the same time. The bookings and the slot holds of the day take the same lock, so a hold and a
+ * booking of the same slot cannot both pass their checks. The locks are striped and only cover this instance.
+ * Queues of past days are dropped as new patients join.
+ */
+@Component
+public class Waitlist implements SmartInitializingSingleton {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final NavigableMap<Long, DayQueue> queues = new ConcurrentSkipListMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final WaitlistEntryRepository waitlistEntryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+    private final ObjectProvider<ShardRouter> shardRouter;
+
+    public Waitlist(
+            WaitlistEntryRepository waitlistEntryRepository,
+            PlatformTransactionManager transactionManager,
+            Clock clock,
+            ObjectProvider<ShardRouter> shardRouter
+    ) {
+        this.waitlistEntryRepository = waitlistEntryRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clock = clock;
+        this.shardRouter = shardRouter;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * A patient in the queue of a slot.
+     *
+     * @param entryId   id of the waitlist_entry row
+     * @param patientId Patient id
+     */
+    public record Waiter(int entryId, int patientId) {
+    }
+
+    /**
+     * Removes the entries of past days from the table and loads the others, in arrival order.
+     * Runs once every singleton exists, so the schema of every shard has been created.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        ShardRouter router = shardRouter.getIfAvailable();
+        if (router == null) {
+            load();
+            return;
+        }
+        for (String shard : router.getShards()) {
+            ShardContext.runOn(shard, this::load);
+        }
+    }
+
+    private void load() {
+        LocalDate today = LocalDate.now(clock);
+        List<WaitlistEntryEntity> entries = transactionTemplate.execute(status -> {
+            waitlistEntryRepository.deleteDatedBefore(today);
+            return waitlistEntryRepository.findByDateGreaterThanEqualOrderByIdAsc(today);
+        });
+        entries.forEach(entry -> add(entry.getId(), entry.getDoctorId(), entry.getPatientId(), entry.getDate(), entry.getStartTime()));
+    }
+
+    /**
+     * Runs the work while holding the lock of the doctor's day.
+     *
+     * @param doctorId Doctor id
+     * @param date     the day
+     * @param work     the work to run
+     * @param <T>      result type
+     * @return the result of the work
+     */
+    public <T> T withLock(Integer doctorId, LocalDate date, Supplier<T> work) {
+        synchronized (locks[stripe(doctorId, date)]) {
+            return work.get();
+        }
+    }
+
+    /**
+     * Runs the work while holding the locks of several days of the doctor. They are taken in stripe order, so two
+     * callers with overlapping days never wait for each other in a cycle.
+     *
+     * @param doctorId Doctor id
+     * @param dates    the days
+     * @param work     the work to run
+     * @param <T>      result type
+     * @return the result of the work
+     */
+    public <T> T withLocks(Integer doctorId, List<LocalDate> dates, Supplier<T> work) {
+        int[] stripes = dates.stream().mapToInt(date -> stripe(doctorId, date)).distinct().sorted().toArray();
+        return withStripes(stripes, 0, work);
+    }
+
+    private <T> T withStripes(int[] stripes, int from, Supplier<T> work) {
+        if (from == stripes.length) {
+            return work.get();
+        }
+        synchronized (locks[stripes[from]]) {
+            return withStripes(stripes, from + 1, work);
+        }
+    }
+
+    private static int stripe(Integer doctorId, LocalDate date) {
+        return Math.floorMod(Long.hashCode(key(doctorId, date)), LOCK_STRIPES);
+    }
+
+    public void add(int entryId, Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        queues.headMap(key(0, LocalDate.now(clock))).clear();
+        queues.computeIfAbsent(key(doctorId, date), day -> new DayQueue())
+                .add(entryId, patientId, minuteOfDay(startTime));
+    }
+
+    public void remove(int entryId, Integer doctorId, LocalDate date) {
+        DayQueue queue = queues.get(key(doctorId, date));
+        if (queue != null && queue.remove(entryId) && queue.isEmpty()) {
+            queues.remove(key(doctorId, date));
+        }
+    }
+
+    /**
+     * Returns the patients waiting for the slot, first come first.
+     *
+     * @param doctorId  Doctor id
+     * @param date      the date of the slot
+     * @param startTime the start time of the slot
+     * @return the waiters, empty if nobody waits
+     */
+    public List<Waiter> waitersFor(Integer doctorId, LocalDate date, LocalTime startTime) {
+        DayQueue queue = queues.get(key(doctorId, date));
+        return queue == null ? List.of() : queue.waitersFor(minuteOfDay(startTime));
+    }
+
+    /**
+     * Returns the waitlist entry of the patient for the slot, if the patient already waits for it.
+     *
+     * @param doctorId  Doctor id
+     * @param patientId Patient id
+     * @param date      the date of the slot
+     * @param startTime the start time of the slot
+     * @return the patient's entry and the patient's position in the queue of the slot, starting at 1
+     */
+    public Optional<Position> find(Integer doctorId, Integer patientId, LocalDate date, LocalTime startTime) {
+        List<Waiter> waiters = waitersFor(doctorId, date, startTime);
+        for (int i = 0; i < waiters.size(); i++) {
+            if (waiters.get(i).patientId() == patientId) {
+                return Optional.of(new Position(waiters.get(i).entryId(), i + 1));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Place of a patient in the queue of a slot.
+     *
+     * @param entryId  id of the waitlist_entry row
+     * @param position 1 for the next patient to be promoted
+     */
+    public record Position(int entryId, int position) {
+    }
+
+    // day first, so the queues of past days are a prefix of the map
+    private static long key(int doctorId, LocalDate date) {
+        return (date.toEpochDay() << 32) | (doctorId & 0xffffffffL);
+    }
+
+    private static int minuteOfDay(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
@@ -19,7 +19,8 @@ CREATE TABLE appointment
     start_time TIME,
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     FOREIGN KEY (patient_id) REFERENCES patient (id) ON DELETE CASCADE,
-    FOREIGN KEY (doctor_id) REFERENCES doctor (id) ON DELETE CASCADE
+    FOREIGN KEY (doctor_id) REFERENCES doctor (id) ON DELETE CASCADE,
+    CONSTRAINT uk_appointment_doctor_date_start UNIQUE (doctor_id, date, start_time)
 );
 
 CREATE TABLE schedule
@@ -31,4 +32,22 @@ CREATE TABLE schedule
     end_time    TIME,
     FOREIGN KEY (doctor_id) REFERENCES doctor (id) ON DELETE CASCADE,
     CONSTRAINT unique_doctor_day UNIQUE (doctor_id, day_of_week)
-);
\ No newline at end of file
+);
+CREATE INDEX idx_appointment_doctor_date ON appointment (doctor_id, date);
+CREATE INDEX idx_appointment_patient_date_start ON appointment (patient_id, date, start_time);
+CREATE INDEX idx_appointment_date ON appointment (date);
+
+CREATE TABLE appointment_archive
+(
+    id             INT AUTO_INCREMENT PRIMARY KEY,
+    appointment_id INT       NOT NULL,
+    doctor_id      INT,
+    patient_id     INT,
+    date           DATE,
+    start_time     TIME,
+    end_time       TIME,
+    created_at     TIMESTAMP NOT NULL,
+    archived_at    TIMESTAMP NOT NULL
+);
+CREATE INDEX idx_appointment_archive_doctor_date ON appointment_archive (doctor_id, date);
+CREATE INDEX idx_appointment_archive_patient_date ON appointment_archive (patient_id, date);
@@ -0,0 +1,91 @@
+package com.okto.hospital;
+
+import com.okto.hospital.controller.AppointmentControllerTest;
+import com.okto.hospital.journal.BookingLedger;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Boots with the "faststart" profile, where beans are created on first use, and the journal on. The beans that
+ * load their state once all singletons exist, the booking ledger and the doctor name index, must still be
+ * created at startup.
+ */
+@SpringBootTest(properties = {
+        "hospital.journal.enabled=true",
+        "hospital.journal.directory=target/journal-test/${random.uuid}",
+        "hospital.journal.fsync=ALWAYS"
+})
+@ActiveProfiles("faststart")
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'MONDAY', '09:00:00', '17:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class FastStartTest {
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void test_startup_shouldCreateTheLedgerAndTheDoctorIndex() {
+        assertTrue(context.getBeanFactory().containsSingleton("bookingLedger"));
+        assertTrue(context.getBeanFactory().containsSingleton("doctorNameIndex"));
+    }
+
+    @Test
+    void test_createAppointment_shouldDecideOnTheJournal_andProjectTheAppointment() throws Exception {
+        book(1).andExpect(status().isCreated());
+        book(2).andExpect(status().isConflict());
+
+        BookingLedger bookingLedger = context.getBean(BookingLedger.class);
+        assertEquals(1, bookingLedger.lastSequence());
+        assertTrue(bookingLedger.awaitProjected(Duration.ofSeconds(5)));
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2099-03-02")
+                        .param("to", "2099-03-02"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].patientId").value(1));
+    }
+
+    private ResultActions book(int patientId) throws Exception {
+        return mockMvc.perform(post("/v1/doctors/1/appointments")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": %d,
+                            "date": "2099-03-02",
+                            "startTime": "10:00"
+                        }""".formatted(patientId)));
+    }
+}
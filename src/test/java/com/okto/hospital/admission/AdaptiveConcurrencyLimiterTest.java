@@ -0,0 +1,61 @@
+package com.okto.hospital.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void test_bulkhead_whenLimitIsReached_shouldNotLetMoreIn() throws InterruptedException {
+        var bulkhead = new Bulkhead(10, 0);
+        var limiter = new AdaptiveConcurrencyLimiter(bulkhead, 2, 1, TARGET);
+
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(0));
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(0));
+        assertEquals(Bulkhead.Entry.QUEUE_FULL, bulkhead.enter(0));
+
+        limiter.onCompletion(TimeUnit.MILLISECONDS.toNanos(10), false);
+        bulkhead.exit();
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(0));
+    }
+
+    @Test
+    void test_onCompletion_whenLatencyIsAboveTarget_shouldLowerLimitDownToMinimum() throws InterruptedException {
+        var bulkhead = new Bulkhead(10, 0);
+        var limiter = new AdaptiveConcurrencyLimiter(bulkhead, 10, 4, TARGET);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(0));
+            limiter.onCompletion(TARGET * 2, false);
+            bulkhead.exit();
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(4, bulkhead.getLimit());
+    }
+
+    @Test
+    void test_onCompletion_whenSaturatedAndFast_shouldRaiseLimitUpToTheBulkheadSize() throws InterruptedException {
+        var bulkhead = new Bulkhead(4, 0);
+        var limiter = new AdaptiveConcurrencyLimiter(bulkhead, 2, 1, TARGET);
+
+        for (int round = 0; round < 50; round++) {
+            while (bulkhead.enter(0) == Bulkhead.Entry.ENTERED) {
+                // fill every available place
+            }
+            int inside = bulkhead.getActive();
+            for (int i = 0; i < inside; i++) {
+                limiter.onCompletion(TARGET / 10, false);
+                bulkhead.exit();
+            }
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(4, bulkhead.getLimit());
+    }
+}
@@ -0,0 +1,95 @@
+package com.okto.hospital.admission;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "hospital.admission.client-burst=1",
+        "hospital.admission.client-rate-per-second=0.01",
+        "hospital.admission.doctor-burst=2",
+        "hospital.admission.doctor-rate-per-second=0.01",
+        "hospital.admission.trusted-proxies=127.0.0.1"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class BookingAdmissionFilterTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void test_createAppointment_whenClientExceedsItsRate_shouldReturn429WithRetryAfter() throws Exception {
+        mockMvc.perform(booking(1, "client-a"))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(booking(1, "client-a"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void test_createAppointment_whenDoctorExceedsItsRate_shouldReturn429() throws Exception {
+        mockMvc.perform(booking(1, "client-a"))
+                .andExpect(status().isConflict());
+        mockMvc.perform(booking(1, "client-b"))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(booking(1, "client-c"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        mockMvc.perform(booking(2, "client-d"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void test_createAppointment_whenUntrustedClientChangesItsClientId_shouldKeepItsBucket() throws Exception {
+        mockMvc.perform(booking(1, "client-a").with(fromAddress("10.0.0.9")))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(booking(2, "client-b").with(fromAddress("10.0.0.9")))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        mockMvc.perform(booking(2, "client-b").with(fromAddress("10.0.0.10")))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void test_getSchedule_isNotSubjectToBookingAdmission() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get("/v1/doctors/1/schedule").header(BookingAdmissionFilter.CLIENT_ID_HEADER, "client-a"))
+                    .andExpect(status().isNotFound());
+        }
+    }
+
+    private static RequestPostProcessor fromAddress(String remoteAddr) {
+        return request -> {
+            request.setRemoteAddr(remoteAddr);
+            return request;
+        };
+    }
+
+    private MockHttpServletRequestBuilder booking(int doctorId, String clientId) {
+        return post("/v1/doctors/{doctorId}/appointments", doctorId)
+                .header(BookingAdmissionFilter.CLIENT_ID_HEADER, clientId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": 1,
+                            "date": "2023-03-06",
+                            "startTime": "09:00"
+                        }""");
+    }
+}
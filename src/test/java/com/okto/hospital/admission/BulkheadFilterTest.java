@@ -0,0 +1,142 @@
+package com.okto.hospital.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "hospital.bulkhead.bookings.max-concurrent=1",
+        "hospital.bulkhead.bookings.max-waiting=0",
+        "hospital.bulkhead.schedule-admin.max-concurrent=1",
+        "hospital.bulkhead.schedule-admin.max-waiting=1",
+        "hospital.bulkhead.schedule-admin.max-wait=50ms"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class BulkheadFilterTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BulkheadFilter bulkheadFilter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void test_createAppointment_whenBookingsAreSaturated_shouldReturn503_whileReadsGoThrough() throws Exception {
+        Bulkhead bookings = bulkheadFilter.getBulkhead(BulkheadFilter.Compartment.BOOKINGS);
+        assertEquals(Bulkhead.Entry.ENTERED, bookings.enter(0));
+
+        mockMvc.perform(booking())
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isNotFound());
+        assertEquals(1, rejected("bookings", "queue_full"));
+
+        bookings.exit();
+        mockMvc.perform(booking())
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void test_updateScheduleList_whenScheduleAdminIsSaturated_shouldWait_thenReturn503() throws Exception {
+        Bulkhead scheduleAdmin = bulkheadFilter.getBulkhead(BulkheadFilter.Compartment.SCHEDULE_ADMIN);
+        assertEquals(Bulkhead.Entry.ENTERED, scheduleAdmin.enter(0));
+
+        mockMvc.perform(put("/v1/doctors/1/schedule/list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [{"doctorId": 1, "dayOfWeek": "MONDAY", "startTime": "09:00", "endTime": "17:00"}]"""))
+                .andExpect(status().isServiceUnavailable());
+        assertEquals(1, rejected("schedule_admin", "timeout"));
+        assertEquals(1, meterRegistry.get("hospital.bulkhead.wait").tag("compartment", "schedule_admin").timer().count());
+
+        mockMvc.perform(booking())
+                .andExpect(status().isConflict());
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isNotFound());
+        scheduleAdmin.exit();
+    }
+
+    @Nested
+    @TestPropertySource(properties = "hospital.bulkhead.enabled=false")
+    class WithBulkheadsOff {
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @Autowired
+        private BulkheadFilter bulkheadFilter;
+
+        @Test
+        void test_createAppointment_whenAdmissionIsOn_shouldKeepTheBookingLimit_andLeaveTheReadsOpen() throws Exception {
+            Bulkhead bookings = bulkheadFilter.getBulkhead(BulkheadFilter.Compartment.BOOKINGS);
+            Bulkhead reads = bulkheadFilter.getBulkhead(BulkheadFilter.Compartment.READS);
+            int bookingPlaces = fill(bookings);
+            int readPlaces = fill(reads);
+
+            mockMvc.perform(booking())
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+            mockMvc.perform(get("/v1/doctors/1/schedule"))
+                    .andExpect(status().isNotFound());
+
+            release(bookings, bookingPlaces);
+            release(reads, readPlaces);
+            mockMvc.perform(booking())
+                    .andExpect(status().isConflict());
+        }
+
+        private int fill(Bulkhead bulkhead) throws InterruptedException {
+            int places = bulkhead.getLimit();
+            for (int i = 0; i < places; i++) {
+                assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(0));
+            }
+            return places;
+        }
+
+        private void release(Bulkhead bulkhead, int places) {
+            for (int i = 0; i < places; i++) {
+                bulkhead.exit();
+            }
+        }
+    }
+
+    private double rejected(String compartment, String reason) {
+        return meterRegistry.get("hospital.bulkhead.rejected")
+                .tag("compartment", compartment)
+                .tag("reason", reason)
+                .counter()
+                .count();
+    }
+
+    private MockHttpServletRequestBuilder booking() {
+        return post("/v1/doctors/{doctorId}/appointments", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": 1,
+                            "date": "2023-03-06",
+                            "startTime": "09:00"
+                        }""");
+    }
+}
@@ -0,0 +1,80 @@
+package com.okto.hospital.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkheadTest {
+
+    private static final long NO_WAIT = 0;
+    private static final long LONG_WAIT = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    void test_enter_whenFull_andNoOneMayWait_shouldRefuseAtOnce() throws Exception {
+        var bulkhead = new Bulkhead(2, 0);
+
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(LONG_WAIT));
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(LONG_WAIT));
+        assertEquals(Bulkhead.Entry.QUEUE_FULL, bulkhead.enter(LONG_WAIT));
+        assertEquals(2, bulkhead.getActive());
+
+        bulkhead.exit();
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+    }
+
+    @Test
+    void test_enter_whenFull_shouldWaitUntilTimeout() throws Exception {
+        var bulkhead = new Bulkhead(1, 1);
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+
+        assertEquals(Bulkhead.Entry.TIMED_OUT, bulkhead.enter(TimeUnit.MILLISECONDS.toNanos(20)));
+        assertEquals(0, bulkhead.getWaiting());
+    }
+
+    @Test
+    void test_enter_whenAPlaceIsFreed_shouldHandItToTheWaitingCaller_andRefuseCallersBeyondMaxWaiting() throws Exception {
+        var bulkhead = new Bulkhead(1, 1);
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+
+        CompletableFuture<Bulkhead.Entry> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return bulkhead.enter(LONG_WAIT);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (bulkhead.getWaiting() == 0) {
+            Thread.onSpinWait();
+        }
+        assertEquals(Bulkhead.Entry.QUEUE_FULL, bulkhead.enter(LONG_WAIT));
+
+        bulkhead.exit();
+        assertEquals(Bulkhead.Entry.ENTERED, waiter.get(10, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getActive());
+    }
+
+    @Test
+    void test_setLimit_whenLowered_shouldKeepTheCallersInside_andLetNewOnesInOnlyBelowTheNewLimit() throws Exception {
+        var bulkhead = new Bulkhead(3, 0);
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+
+        bulkhead.setLimit(1);
+        assertEquals(2, bulkhead.getActive());
+        assertEquals(Bulkhead.Entry.QUEUE_FULL, bulkhead.enter(NO_WAIT));
+
+        bulkhead.exit();
+        assertEquals(Bulkhead.Entry.QUEUE_FULL, bulkhead.enter(NO_WAIT));
+        bulkhead.exit();
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+
+        bulkhead.setLimit(10);
+        assertEquals(3, bulkhead.getLimit());
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+        assertEquals(Bulkhead.Entry.ENTERED, bulkhead.enter(NO_WAIT));
+        assertEquals(Bulkhead.Entry.QUEUE_FULL, bulkhead.enter(NO_WAIT));
+    }
+}
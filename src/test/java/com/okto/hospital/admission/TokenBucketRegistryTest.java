@@ -0,0 +1,37 @@
+package com.okto.hospital.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketRegistryTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void test_tryConsume_whenFloodedWithDistinctKeys_shouldStayBounded() {
+        var registry = new TokenBucketRegistry(1, 0.01, 100, now::get);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(0, registry.tryConsume("client-" + i));
+        }
+
+        assertEquals(100, registry.size());
+    }
+
+    @Test
+    void test_tryConsume_whenOverTheLimit_shouldDropTheLeastRecentlyUsedBucket() {
+        var registry = new TokenBucketRegistry(1, 0.01, 2, now::get);
+        assertEquals(0, registry.tryConsume("client-a"));
+        assertEquals(0, registry.tryConsume("client-b"));
+
+        assertTrue(registry.tryConsume("client-a") > 0);
+        assertEquals(0, registry.tryConsume("client-c"));
+
+        assertTrue(registry.tryConsume("client-a") > 0);
+        assertEquals(0, registry.tryConsume("client-b"));
+    }
+}
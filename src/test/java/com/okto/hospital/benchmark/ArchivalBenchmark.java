@@ -0,0 +1,208 @@
+package com.okto.hospital.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures the booking conflict query against the "appointment" table before and after the past appointments
+ * are moved to "appointment_archive", with the tables, indexes and batched statements the application uses.
+ * <p>
+ * The database is an H2 file database with a small page cache (16 MB), so a table much larger than the cache
+ * pays for page reads the way a production database does once its working set no longer fits in memory.
+ * Appointments are spread over five years of history and 90 days ahead; the horizon is 180 days.
+ * <p>
+ * Run the main method from the IDE, or with
+ * {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.okto.hospital.benchmark.ArchivalBenchmark}.
+ * Optional arguments: number of appointments (default 1000000) and measured queries (default 20000).
+ */
+public class ArchivalBenchmark {
+
+    private static final int DOCTORS = 2_000;
+    private static final int PATIENTS = 200_000;
+    private static final int HISTORY_DAYS = 5 * 365;
+    private static final int FUTURE_DAYS = 90;
+    private static final int HORIZON_DAYS = 180;
+    private static final int BATCH_SIZE = 1_000;
+    private static final LocalDate TODAY = LocalDate.of(2023, 3, 6);
+
+    // same statement as AppointmentRepository.findBookedSlotsForBooking
+    private static final String BOOKING_QUERY = """
+            SELECT id, doctor_id, patient_id, date, start_time, end_time FROM appointment
+            WHERE doctor_id = ? AND date = ?
+            UNION
+            SELECT id, doctor_id, patient_id, date, start_time, end_time FROM appointment
+            WHERE patient_id = ? AND (date = ? OR date >= ?)
+            """;
+
+    public static void main(String[] args) throws Exception {
+        int appointments = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        Path directory = Files.createTempDirectory("archival-benchmark");
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:" + directory.resolve("hospital") + ";CACHE_SIZE=16384", "sa", "")) {
+            createTables(connection);
+            long start = System.nanoTime();
+            insertAppointments(connection, appointments);
+            System.out.printf("inserted %d appointments in %d s%n", appointments, (System.nanoTime() - start) / 1_000_000_000);
+
+            print("before", count(connection), measure(connection, queries));
+            long[] batches = archive(connection);
+            System.out.printf("archived in %d batches of %d, batch time p50 %d us, p99 %d us, max %d us%n",
+                    batches.length, BATCH_SIZE, percentile(batches, 0.5), percentile(batches, 0.99), percentile(batches, 1.0));
+            print("after", count(connection), measure(connection, queries));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE appointment (
+                        id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                        patient_id INT, doctor_id INT, date DATE, start_time TIME, end_time TIME,
+                        created_at TIMESTAMP NOT NULL)
+                    """);
+            statement.execute("CREATE INDEX idx_appointment_doctor_date ON appointment (doctor_id, date)");
+            statement.execute("CREATE INDEX idx_appointment_patient_date_start ON appointment (patient_id, date, start_time)");
+            statement.execute("CREATE INDEX idx_appointment_date ON appointment (date)");
+            statement.execute("""
+                    CREATE TABLE appointment_archive (
+                        id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                        appointment_id INT NOT NULL, doctor_id INT, patient_id INT, date DATE, start_time TIME, end_time TIME,
+                        created_at TIMESTAMP NOT NULL, archived_at TIMESTAMP NOT NULL)
+                    """);
+            statement.execute("CREATE INDEX idx_appointment_archive_doctor_date ON appointment_archive (doctor_id, date)");
+            statement.execute("CREATE INDEX idx_appointment_archive_patient_date ON appointment_archive (patient_id, date)");
+        }
+    }
+
+    private static void insertAppointments(Connection connection, int appointments) throws SQLException {
+        Random random = new Random(42);
+        LocalDate first = TODAY.minusDays(HISTORY_DAYS);
+        int days = HISTORY_DAYS + FUTURE_DAYS;
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("""
+                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+                """)) {
+            for (int i = 0; i < appointments; i++) {
+                // inserted in date order, like bookings arriving over the years
+                LocalDate date = first.plusDays((long) i * days / appointments);
+                LocalTime startTime = LocalTime.of(8 + random.nextInt(10), 0);
+                insert.setInt(1, 1 + random.nextInt(PATIENTS));
+                insert.setInt(2, 1 + random.nextInt(DOCTORS));
+                insert.setDate(3, Date.valueOf(date));
+                insert.setTime(4, Time.valueOf(startTime));
+                insert.setTime(5, Time.valueOf(startTime.plusHours(1)));
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+        connection.setAutoCommit(true);
+    }
+
+    private static long[] archive(Connection connection) throws SQLException {
+        LocalDate cutoff = TODAY.minusDays(HORIZON_DAYS);
+        List<Long> batchTimes = new ArrayList<>();
+        connection.setAutoCommit(false);
+        try (PreparedStatement select = connection.prepareStatement("SELECT id FROM appointment WHERE date < ? ORDER BY date LIMIT " + BATCH_SIZE)) {
+            select.setDate(1, Date.valueOf(cutoff));
+            while (true) {
+                long start = System.nanoTime();
+                List<Integer> ids = new ArrayList<>(BATCH_SIZE);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getInt(1));
+                    }
+                }
+                if (ids.isEmpty()) {
+                    break;
+                }
+                String in = String.join(",", ids.stream().map(String::valueOf).toList());
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("""
+                            INSERT INTO appointment_archive (appointment_id, doctor_id, patient_id, date, start_time, end_time, created_at, archived_at)
+                            SELECT id, doctor_id, patient_id, date, start_time, end_time, created_at, CURRENT_TIMESTAMP
+                            FROM appointment WHERE id IN (%s)
+                            """.formatted(in));
+                    statement.executeUpdate("DELETE FROM appointment WHERE id IN (%s)".formatted(in));
+                }
+                connection.commit();
+                batchTimes.add((System.nanoTime() - start) / 1_000);
+            }
+        }
+        connection.setAutoCommit(true);
+        return batchTimes.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long[] measure(Connection connection, int queries) throws SQLException {
+        Random random = new Random(7);
+        long[] micros = new long[queries];
+        try (PreparedStatement query = connection.prepareStatement(BOOKING_QUERY)) {
+            // warm up the JIT and the page cache with the same kind of queries before measuring
+            for (int i = -queries / 4; i < queries; i++) {
+                LocalDate date = TODAY.plusDays(random.nextInt(FUTURE_DAYS));
+                query.setInt(1, 1 + random.nextInt(DOCTORS));
+                query.setDate(2, Date.valueOf(date));
+                query.setInt(3, 1 + random.nextInt(PATIENTS));
+                query.setDate(4, Date.valueOf(date));
+                query.setDate(5, Date.valueOf(TODAY));
+                long start = System.nanoTime();
+                try (ResultSet resultSet = query.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getInt(1);
+                    }
+                }
+                if (i >= 0) {
+                    micros[i] = (System.nanoTime() - start) / 1_000;
+                }
+            }
+        }
+        return micros;
+    }
+
+    private static long count(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM appointment")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static void print(String phase, long rows, long[] micros) {
+        System.out.printf("%-7s %10d rows in appointment, booking query mean %d us, p50 %d us, p99 %d us%n",
+                phase, rows, Arrays.stream(micros).sum() / micros.length, percentile(micros, 0.5), percentile(micros, 0.99));
+    }
+}
@@ -0,0 +1,102 @@
+package com.okto.hospital.benchmark;
+
+import com.okto.hospital.journal.FsyncPolicy;
+import com.okto.hospital.journal.JournalRecord;
+import com.okto.hospital.journal.MappedJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures the booking journal: the latency of one append plus its commit under every fsync policy, and the
+ * speed of the replay that rebuilds the state at startup.
+ * <ul>
+ *     <li>ALWAYS pays a force of the page per booking, its latency is the disk's write latency</li>
+ *     <li>INTERVAL pays a force once per interval, the other appends are memory writes</li>
+ *     <li>NEVER never forces</li>
+ * </ul>
+ * The journal is written to a temporary directory; run it on the disk the journal will live on, a tmpfs makes
+ * every policy look free.
+ * <p>
+ * Run the main method from the IDE, or with
+ * {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.okto.hospital.benchmark.JournalBenchmark}.
+ * Optional arguments: appends per policy (default 20000), records replayed (default 5000000) and the directory
+ * (default a temporary one).
+ */
+public class JournalBenchmark {
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long FSYNC_INTERVAL = 10_000_000;
+
+    public static void main(String[] args) throws IOException {
+        int appends = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int replayed = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        Path root = args.length > 2 ? Files.createDirectories(Path.of(args[2])) : Files.createTempDirectory("journal-benchmark");
+
+        System.out.printf("%-10s %10s %10s %10s%n", "fsync", "p50 us", "p99 us", "max us");
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            Path directory = root.resolve(policy.name().toLowerCase());
+            long[] nanos = measureAppends(directory, policy, appends);
+            Arrays.sort(nanos);
+            System.out.printf("%-10s %10.1f %10.1f %10.1f%n", policy,
+                    nanos[nanos.length / 2] / 1e3, nanos[(int) (nanos.length * 0.99)] / 1e3, nanos[nanos.length - 1] / 1e3);
+            delete(directory);
+        }
+
+        Path directory = root.resolve("replay");
+        try (MappedJournal journal = new MappedJournal(directory, SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            for (int i = 1; i <= replayed; i++) {
+                journal.append(record(i));
+            }
+        }
+        // replays on a freshly opened journal, like a restart, the recovery scan included
+        long start = System.nanoTime();
+        long[] count = new long[1];
+        try (MappedJournal journal = new MappedJournal(directory, SEGMENT_SIZE, FsyncPolicy.NEVER, 0)) {
+            journal.replay(0, record -> count[0]++);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("replayed %d records in %.2f s, %.0f records/s%n", count[0], seconds, count[0] / seconds);
+        delete(directory);
+        if (args.length <= 2) {
+            delete(root);
+        }
+    }
+
+    private static long[] measureAppends(Path directory, FsyncPolicy policy, int appends) {
+        long[] nanos = new long[appends];
+        try (MappedJournal journal = new MappedJournal(directory, SEGMENT_SIZE, policy, FSYNC_INTERVAL)) {
+            // the first appends warm up the JIT and fault the pages in
+            for (int i = -appends; i < appends; i++) {
+                long start = System.nanoTime();
+                journal.append(record(journal.lastSequence() + 1));
+                journal.commit();
+                if (i >= 0) {
+                    nanos[i] = System.nanoTime() - start;
+                }
+            }
+        }
+        return nanos;
+    }
+
+    private static JournalRecord record(long sequence) {
+        return new JournalRecord(JournalRecord.Type.BOOKED, sequence, (int) sequence, 1 + (int) (sequence % 500),
+                1 + (int) (sequence % 20_000), LocalDate.of(2099, 3, 2), LocalTime.of(9, 0), LocalTime.of(10, 0),
+                Instant.ofEpochMilli(sequence));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.okto.hospital.benchmark;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import com.okto.hospital.support.LogSampler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Measures the logging cost of one booking request, before and after the production logging profile:
+ * <ul>
+ *     <li>before: synchronous appender, the availability and the formatted slot list logged at INFO on every booking</li>
+ *     <li>after: async non-blocking appender, availability and slot details at DEBUG (off),
+ *     one sampled key/value decision event</li>
+ * </ul>
+ * Events are written to a temporary file with the console pattern.
+ * <p>
+ * Run the main method from the IDE, or with
+ * {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.okto.hospital.benchmark.LoggingOverheadBenchmark}.
+ * Optional arguments: requests per thread (default 200000) and number of threads (default 8).
+ */
+public class LoggingOverheadBenchmark {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p --- [%15.15t] %-40.40logger{39} : %m%replace( %kvp){'^ $', ''}%n";
+
+    private static final LocalDate DATE = LocalDate.of(2023, 3, 6);
+    private static final LocalTime START_OF_DAY = LocalTime.of(8, 0);
+    private static final LocalTime END_OF_DAY = LocalTime.of(20, 0);
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        System.out.printf("%-8s %8s %16s%n", "logging", "threads", "ns per request");
+        for (int threadCount : new int[]{1, threads}) {
+            print("before", threadCount, measure(false, requests, threadCount, LoggingOverheadBenchmark::before));
+            print("after", threadCount, measure(true, requests, threadCount, after()));
+        }
+    }
+
+    private static void before(Logger log) {
+        int doctorId = 1;
+        LocalTime startTime = LocalTime.of(9, 0);
+        log.info("Doctor with id={}, isAvailableThatHours={} for day={} and hours={}", doctorId, true, DATE, startTime);
+
+        List<LocalTime> slots = new ArrayList<>();
+        LocalTime slot = START_OF_DAY;
+        while (slot.isBefore(END_OF_DAY)) {
+            slots.add(slot);
+            slot = slot.plusMinutes(60);
+        }
+        log.info("Doctor with id={} for day={} has the following slots available={} and patient wanted to book slot={}",
+                doctorId, DayOfWeek.MONDAY, slots, startTime);
+    }
+
+    private static Consumer<Logger> after() {
+        LogSampler sampler = new LogSampler(100, System::nanoTime);
+        return log -> {
+            int doctorId = 1;
+            LocalTime startTime = LocalTime.of(9, 0);
+            if (log.isDebugEnabled()) {
+                log.debug("Doctor with id={}, isAvailableThatHours={} for day={} and hours={}", doctorId, true, DATE, startTime);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Doctor with id={} for day={} has slots of {} minutes from {} to {}, patient wanted to book slot={}, isBookable={}",
+                        doctorId, DayOfWeek.MONDAY, 60, START_OF_DAY, END_OF_DAY, startTime, true);
+            }
+            OptionalLong suppressed = sampler.sample();
+            if (suppressed.isPresent()) {
+                log.atInfo()
+                        .setMessage("Booking decision")
+                        .addKeyValue("outcome", "booked")
+                        .addKeyValue("doctorId", doctorId)
+                        .addKeyValue("patientId", 1)
+                        .addKeyValue("date", DATE)
+                        .addKeyValue("startTime", startTime)
+                        .addKeyValue("suppressed", suppressed.getAsLong())
+                        .log();
+            }
+        };
+    }
+
+    private static long measure(boolean async, int requests, int threads, Consumer<Logger> request) throws Exception {
+        Path file = Files.createTempFile("logging-benchmark", ".log");
+        LoggerContext context = new LoggerContext();
+        Appender<ILoggingEvent> appender = appender(context, file, async);
+        Logger log = context.getLogger("com.okto.hospital.service.AppointmentServiceImpl");
+        log.setLevel(Level.INFO);
+        log.setAdditive(false);
+        log.addAppender(appender);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // warm up the JIT before measuring
+            run(executor, threads, requests, log, request);
+            return run(executor, threads, requests, log, request);
+        } finally {
+            executor.shutdown();
+            context.stop();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long run(ExecutorService executor, int threads, int requests, Logger log, Consumer<Logger> request) throws Exception {
+        List<Future<Long>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                for (int i = 0; i < requests; i++) {
+                    request.accept(log);
+                }
+                return (System.nanoTime() - start) / requests;
+            }));
+        }
+        long total = 0;
+        for (Future<Long> result : results) {
+            total += result.get();
+        }
+        return total / threads;
+    }
+
+    private static Appender<ILoggingEvent> appender(LoggerContext context, Path file, boolean async) {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(context);
+        fileAppender.setFile(file.toString());
+        fileAppender.setAppend(false);
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+        if (!async) {
+            return fileAppender;
+        }
+
+        // same settings as the ASYNC_CONSOLE appender of the prod profile in logback-spring.xml
+        AsyncAppender asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(context);
+        asyncAppender.setQueueSize(8192);
+        asyncAppender.setDiscardingThreshold(0);
+        asyncAppender.setNeverBlock(true);
+        asyncAppender.setIncludeCallerData(false);
+        asyncAppender.addAppender(fileAppender);
+        asyncAppender.start();
+        return asyncAppender;
+    }
+
+    private static void print(String logging, int threads, long nanosPerRequest) {
+        System.out.printf("%-8s %8d %16d%n", logging, threads, nanosPerRequest);
+    }
+}
@@ -0,0 +1,144 @@
+package com.okto.hospital.benchmark;
+
+import com.okto.hospital.HospitalApplication;
+import com.okto.hospital.mapper.ScheduleMapper;
+import com.okto.hospital.model.ScheduleEntity;
+import com.okto.hospital.model.response.Schedule;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Time;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares the two ways of reading a doctor's schedules: loading ScheduleEntity objects and mapping them to
+ * Schedule records, as the schedule reads did before, and selecting straight into the records, as
+ * ScheduleRepository does now. The entities are read in a read-write transaction, where Hibernate keeps a
+ * dirty-checking snapshot of each, and in a read-only one.
+ * <p>
+ * The application is started with its persistence unit and H2 database, with the second-level and query caches
+ * off so every read goes to the database. Each doctor works Monday to Friday. Reported per read: mean and p99
+ * latency, and the bytes allocated by the reading thread.
+ * <p>
+ * Run the main method from the IDE, or with
+ * {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.okto.hospital.benchmark.ProjectionBenchmark}.
+ * Optional arguments: number of doctors (default 1000) and measured reads (default 50000).
+ */
+public class ProjectionBenchmark {
+
+    private static final List<DayOfWeek> WORKING_DAYS = List.of(
+            DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY);
+
+    private static final String ENTITY_QUERY = "select s from ScheduleEntity s where s.doctor.id = :doctorId";
+
+    // same statement as ScheduleRepository.findSchedulesByDoctorId
+    private static final String PROJECTION_QUERY = """
+            select new com.okto.hospital.model.response.Schedule(s.id, s.doctor.id, s.dayOfWeek, s.startTime, s.endTime)
+            from ScheduleEntity s
+            where s.doctor.id = :doctorId
+            """;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int doctors = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(HospitalApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                        "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+                        "spring.jpa.properties.hibernate.generate_statistics=false")
+                .run()) {
+            insertSchedules(context.getBean(JdbcTemplate.class), doctors);
+
+            EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(
+                    context.getBean(EntityManagerFactory.class));
+            ScheduleMapper scheduleMapper = context.getBean(ScheduleMapper.class);
+            PlatformTransactionManager transactionManager = context.getBean(PlatformTransactionManager.class);
+            TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+
+            Function<Integer, List<Schedule>> entities = doctorId -> entityManager
+                    .createQuery(ENTITY_QUERY, ScheduleEntity.class)
+                    .setParameter("doctorId", doctorId)
+                    .getResultList().stream()
+                    .map(scheduleMapper::toSchedule)
+                    .toList();
+            Function<Integer, List<Schedule>> projection = doctorId -> entityManager
+                    .createQuery(PROJECTION_QUERY, Schedule.class)
+                    .setParameter("doctorId", doctorId)
+                    .getResultList();
+
+            System.out.printf("%-22s %12s %12s %16s%n", "read", "mean (us)", "p99 (us)", "bytes per read");
+            print("entities, read-write", measure(readWrite, entities, doctors, reads));
+            print("entities, read-only", measure(readOnly, entities, doctors, reads));
+            print("projection", measure(readOnly, projection, doctors, reads));
+        }
+    }
+
+    private static void insertSchedules(JdbcTemplate jdbcTemplate, int doctors) {
+        List<Object[]> doctorRows = new ArrayList<>(doctors);
+        List<Object[]> scheduleRows = new ArrayList<>(doctors * WORKING_DAYS.size());
+        for (int doctorId = 1; doctorId <= doctors; doctorId++) {
+            doctorRows.add(new Object[]{doctorId, "Doctor " + doctorId});
+            for (DayOfWeek day : WORKING_DAYS) {
+                scheduleRows.add(new Object[]{doctorId, day.name(),
+                        Time.valueOf(LocalTime.of(8 + doctorId % 4, 0)), Time.valueOf(LocalTime.of(16 + doctorId % 4, 0))});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO doctor (id, name) VALUES (?, ?)", doctorRows);
+        jdbcTemplate.batchUpdate("INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time) VALUES (?, ?, ?, ?)", scheduleRows);
+    }
+
+    private static Result measure(TransactionTemplate transactionTemplate, Function<Integer, List<Schedule>> read, int doctors, int reads) {
+        Random random = new Random(7);
+        long[] nanos = new long[reads];
+        long allocated = 0;
+        // warm up the JIT with the same kind of reads before measuring
+        for (int i = -reads / 4; i < reads; i++) {
+            int doctorId = 1 + random.nextInt(doctors);
+            long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            List<Schedule> schedules = transactionTemplate.execute(status -> read.apply(doctorId));
+            long elapsed = System.nanoTime() - start;
+            if (schedules == null || schedules.size() != WORKING_DAYS.size()) {
+                throw new IllegalStateException("Expected the working days of doctor " + doctorId + ", got " + schedules);
+            }
+            if (i >= 0) {
+                nanos[i] = elapsed;
+                allocated += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }
+        }
+        return new Result(Arrays.stream(nanos).sum() / reads / 1_000, percentile(nanos, 0.99) / 1_000, allocated / reads);
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static void print(String read, Result result) {
+        System.out.printf("%-22s %12d %12d %16d%n", read, result.meanMicros(), result.p99Micros(), result.bytesPerRead());
+    }
+
+    private record Result(long meanMicros, long p99Micros, long bytesPerRead) {
+    }
+}
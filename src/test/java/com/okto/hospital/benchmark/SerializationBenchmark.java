@@ -0,0 +1,122 @@
+package com.okto.hospital.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.okto.hospital.model.response.Appointment;
+import com.okto.hospital.model.response.Schedule;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares payload size and encode/decode time of the response records for every format the
+ * controllers negotiate. The mappers are configured like the ones behind the HTTP converters.
+ * <p>
+ * Run the main method from the IDE, or with
+ * {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.okto.hospital.benchmark.SerializationBenchmark}.
+ * Optional arguments: number of records (default 10000) and measured iterations (default 200).
+ */
+public class SerializationBenchmark {
+
+    private static final TypeReference<List<Appointment>> APPOINTMENTS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<Schedule>> SCHEDULES = new TypeReference<>() {
+    };
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Map<String, ObjectMapper> mappers = new LinkedHashMap<>();
+        mappers.put("json", asSpringBoot(Jackson2ObjectMapperBuilder.json()));
+        mappers.put("cbor", asSpringBoot(Jackson2ObjectMapperBuilder.cbor()));
+        mappers.put("smile", asSpringBoot(Jackson2ObjectMapperBuilder.smile()));
+
+        List<Appointment> appointments = appointments(records);
+        List<Schedule> schedules = schedules(records);
+
+        System.out.printf("%-8s %-12s %12s %14s %14s%n", "format", "payload", "bytes", "encode (us)", "decode (us)");
+        for (var mapper : mappers.entrySet()) {
+            print(mapper.getKey(), "appointment", measure(mapper.getValue(), appointments, APPOINTMENTS, iterations));
+            print(mapper.getKey(), "schedule", measure(mapper.getValue(), schedules, SCHEDULES, iterations));
+        }
+    }
+
+    private static ObjectMapper asSpringBoot(Jackson2ObjectMapperBuilder builder) {
+        return builder.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+    }
+
+    private static <T> Result measure(ObjectMapper mapper, List<T> payload, TypeReference<List<T>> type, int iterations) throws IOException {
+        byte[] encoded = mapper.writeValueAsBytes(payload);
+        if (!mapper.readValue(encoded, type).equals(payload)) {
+            throw new IllegalStateException("Round trip changed the payload");
+        }
+        // warm up the JIT before measuring
+        for (int i = 0; i < iterations; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(payload), type);
+        }
+
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            encoded = mapper.writeValueAsBytes(payload);
+            long encodedAt = System.nanoTime();
+            mapper.readValue(encoded, type);
+            decodeNanos += System.nanoTime() - encodedAt;
+            encodeNanos += encodedAt - start;
+        }
+        return new Result(encoded.length, encodeNanos / iterations / 1_000, decodeNanos / iterations / 1_000);
+    }
+
+    private static void print(String format, String payload, Result result) {
+        System.out.printf("%-8s %-12s %12d %14d %14d%n", format, payload, result.bytes(), result.encodeMicros(), result.decodeMicros());
+    }
+
+    private static List<Appointment> appointments(int count) {
+        List<Appointment> appointments = new ArrayList<>(count);
+        LocalDate firstDate = LocalDate.of(2023, 3, 6);
+        Instant createdAt = Instant.parse("2023-03-01T10:15:30Z");
+        for (int i = 0; i < count; i++) {
+            LocalTime startTime = LocalTime.of(8 + i % 12, 0);
+            appointments.add(new Appointment(
+                    i + 1,
+                    i % 100 + 1,
+                    i % 1_000 + 1,
+                    firstDate.plusDays(i % 365),
+                    startTime,
+                    startTime.plusHours(1),
+                    createdAt.plusSeconds(i),
+                    null
+            ));
+        }
+        return appointments;
+    }
+
+    private static List<Schedule> schedules(int count) {
+        List<Schedule> schedules = new ArrayList<>(count);
+        DayOfWeek[] days = DayOfWeek.values();
+        for (int i = 0; i < count; i++) {
+            schedules.add(new Schedule(
+                    i + 1,
+                    i / days.length + 1,
+                    days[i % days.length],
+                    LocalTime.of(8 + i % 4, 0),
+                    LocalTime.of(16 + i % 4, 0)
+            ));
+        }
+        return schedules;
+    }
+
+    private record Result(int bytes, long encodeMicros, long decodeMicros) {
+    }
+}
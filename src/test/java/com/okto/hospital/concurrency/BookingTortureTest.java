@@ -0,0 +1,298 @@
+package com.okto.hospital.concurrency;
+
+import com.okto.hospital.config.BookingProperties;
+import com.okto.hospital.exception.DoctorScheduleAvailabilityException;
+import com.okto.hospital.exception.PatientAlreadyBooked;
+import com.okto.hospital.exception.PatientAppointmentLimitReached;
+import com.okto.hospital.exception.SlotConflict;
+import com.okto.hospital.model.response.ScheduleImpact;
+import com.okto.hospital.service.AppointmentService;
+import com.okto.hospital.service.ScheduleImpactService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.sql.Time;
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Fires thousands of concurrent bookings at a few hot slots while the hot day's hours are narrowed and widened
+ * again with impact=CANCEL, then checks what the database holds:
+ * <ul>
+ *     <li>no doctor has two appointments in one slot, or two overlapping appointments</li>
+ *     <li>no patient has two overlapping appointments, or more open appointments than the limit</li>
+ *     <li>no appointment lies outside the doctor's final hours</li>
+ *     <li>the utilization counters of every day match the appointments of that day</li>
+ * </ul>
+ * Every call must end in a booking or in one of the rejections a client can get; anything else, a lock timeout
+ * or a deadlock, fails the run. It prints the throughput, the latency of the bookings and the time the booking
+ * threads spent blocked or waiting (row locks, connection pool), measured per call with the JVM's thread
+ * contention monitoring, at millisecond resolution.
+ * <p>
+ * Tagged "torture" and left out of the default build. Run it with {@code ./mvnw test -Ptorture}. Bookings,
+ * booking threads, schedule changes and the number of hot doctors and dates are set with -Dtorture.bookings
+ * (default 5000), -Dtorture.threads (default 32), -Dtorture.schedule-changes (default 100), -Dtorture.doctors
+ * (default 2) and -Dtorture.dates (default 2). Every doctor works 08:00 to 18:00 on the hot day, narrowed to
+ * 10:00 to 14:00 and back; bookings ask for 08:00 to 17:00, so some of them fall outside the narrow hours.
+ */
+@Tag("torture")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:torture",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.sql.init.mode=never",
+        "hospital.admission.enabled=false",
+        "hospital.archive.enabled=false",
+        "hospital.booking.decision-logs-per-second=10",
+        "logging.level.org.springframework.web=INFO"
+})
+class BookingTortureTest {
+
+    private static final long SEED = 42;
+    private static final int PATIENTS = 2_000;
+    private static final LocalTime OPEN = LocalTime.of(8, 0);
+    private static final LocalTime CLOSE = LocalTime.of(18, 0);
+    private static final LocalTime NARROW_OPEN = LocalTime.of(10, 0);
+    private static final LocalTime NARROW_CLOSE = LocalTime.of(14, 0);
+
+    @Autowired
+    private AppointmentService appointmentService;
+
+    @Autowired
+    private ScheduleImpactService scheduleImpactService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private Clock clock;
+
+    @Autowired
+    private BookingProperties bookingProperties;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @Test
+    void test_concurrentBookings_andScheduleChanges_shouldKeepEveryBookingInvariant() throws Exception {
+        int bookings = Integer.getInteger("torture.bookings", 5000);
+        int bookingThreads = Integer.getInteger("torture.threads", 32);
+        int scheduleChanges = Integer.getInteger("torture.schedule-changes", 100);
+        int doctors = Integer.getInteger("torture.doctors", 2);
+        int dateCount = Integer.getInteger("torture.dates", 2);
+
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        LocalDate firstDate = LocalDate.now(clock).plusWeeks(1).with(TemporalAdjusters.nextOrSame(DayOfWeek.MONDAY));
+        List<LocalDate> dates = Stream.iterate(firstDate, date -> date.plusWeeks(1)).limit(dateCount).toList();
+        insertData(jdbc, doctors);
+        if (threads.isThreadContentionMonitoringSupported()) {
+            threads.setThreadContentionMonitoringEnabled(true);
+        }
+
+        Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        long[] latencies = new long[bookings];
+        long[] waits = new long[bookings];
+        AtomicBoolean booking = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService bookers = Executors.newFixedThreadPool(bookingThreads);
+        ExecutorService scheduler = Executors.newSingleThreadExecutor();
+
+        List<Future<?>> calls = new ArrayList<>(bookings);
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < bookings; i++) {
+            int call = i;
+            int doctorId = 1 + random.nextInt(doctors);
+            int patientId = 1 + random.nextInt(PATIENTS);
+            LocalDate date = dates.get(random.nextInt(dates.size()));
+            LocalTime startTime = OPEN.plusHours(random.nextInt(CLOSE.getHour() - OPEN.getHour()));
+            calls.add(bookers.submit(() -> {
+                start.await();
+                long waitedBefore = waitedMillis();
+                long before = System.nanoTime();
+                String outcome;
+                try {
+                    appointmentService.createAppointment(doctorId, patientId, date, startTime);
+                    outcome = "booked";
+                } catch (SlotConflict | DoctorScheduleAvailabilityException | PatientAlreadyBooked | PatientAppointmentLimitReached e) {
+                    outcome = e.getClass().getSimpleName();
+                } catch (RuntimeException e) {
+                    outcome = "error";
+                    errors.add(e.toString());
+                }
+                latencies[call] = (System.nanoTime() - before) / 1_000;
+                waits[call] = waitedMillis() - waitedBefore;
+                outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+                return null;
+            }));
+        }
+        Future<Integer> changes = scheduler.submit(() -> {
+            start.await();
+            SplittableRandom changeRandom = new SplittableRandom(SEED + 1);
+            int done = 0;
+            while (done < scheduleChanges && booking.get()) {
+                int doctorId = 1 + changeRandom.nextInt(doctors);
+                boolean narrow = changeRandom.nextBoolean();
+                try {
+                    scheduleImpactService.updateSchedule(doctorId, DayOfWeek.MONDAY,
+                            narrow ? NARROW_OPEN : OPEN, narrow ? NARROW_CLOSE : CLOSE, ScheduleImpact.Mode.CANCEL);
+                } catch (RuntimeException e) {
+                    errors.add("schedule change: " + e);
+                }
+                done++;
+                // spread the changes over the bookings
+                Thread.sleep(changeRandom.nextInt(20));
+            }
+            return done;
+        });
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Future<?> call : calls) {
+            call.get();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        booking.set(false);
+        int changed = changes.get();
+        bookers.shutdown();
+        scheduler.shutdown();
+        assertTrue(bookers.awaitTermination(1, TimeUnit.MINUTES));
+
+        System.out.printf("%d bookings on %d threads and %d schedule changes in %.2f s, %.0f bookings/s%n",
+                bookings, bookingThreads, changed, seconds, bookings / seconds);
+        new TreeMap<>(outcomes).forEach((outcome, count) -> System.out.printf("  %-32s %8d%n", outcome, count.sum()));
+        print("latency us", latencies);
+        print("blocked or waiting ms", waits);
+
+        List<String> violations = new ArrayList<>(errors);
+        violations.addAll(checkInvariants(jdbc));
+        if (!violations.isEmpty()) {
+            fail(violations.size() + " violations, the first ones: "
+                    + String.join("; ", violations.subList(0, Math.min(10, violations.size()))));
+        }
+    }
+
+    private static void insertData(JdbcTemplate jdbc, int doctors) {
+        List<Object[]> doctorRows = new ArrayList<>();
+        List<Object[]> scheduleRows = new ArrayList<>();
+        for (int id = 1; id <= doctors; id++) {
+            doctorRows.add(new Object[]{id, "Doctor " + id});
+            scheduleRows.add(new Object[]{id, DayOfWeek.MONDAY.name(), Time.valueOf(OPEN), Time.valueOf(CLOSE)});
+        }
+        List<Object[]> patientRows = new ArrayList<>();
+        for (int id = 1; id <= PATIENTS; id++) {
+            patientRows.add(new Object[]{id, "Patient " + id});
+        }
+        jdbc.batchUpdate("INSERT INTO doctor (id, name) VALUES (?, ?)", doctorRows);
+        jdbc.batchUpdate("INSERT INTO patient (id, name) VALUES (?, ?)", patientRows);
+        jdbc.batchUpdate("INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time) VALUES (?, ?, ?, ?)", scheduleRows);
+    }
+
+    private record Row(int id, int doctorId, int patientId, LocalDate date, LocalTime startTime, LocalTime endTime) {
+
+        boolean overlaps(Row other) {
+            return date.equals(other.date) && startTime.isBefore(other.endTime) && other.startTime.isBefore(endTime);
+        }
+    }
+
+    private List<String> checkInvariants(JdbcTemplate jdbc) {
+        List<Row> rows = jdbc.query("SELECT id, doctor_id, patient_id, date, start_time, end_time FROM appointment",
+                (resultSet, rowNum) -> new Row(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3),
+                        resultSet.getDate(4).toLocalDate(), resultSet.getTime(5).toLocalTime(), resultSet.getTime(6).toLocalTime()));
+        Map<Integer, LocalTime[]> hours = new HashMap<>();
+        jdbc.query("SELECT doctor_id, start_time, end_time FROM schedule WHERE day_of_week = 'MONDAY'",
+                resultSet -> {
+                    hours.put(resultSet.getInt(1), new LocalTime[]{resultSet.getTime(2).toLocalTime(), resultSet.getTime(3).toLocalTime()});
+                });
+
+        List<String> violations = new ArrayList<>();
+        Map<Integer, List<Row>> byDoctor = new HashMap<>();
+        Map<Integer, List<Row>> byPatient = new HashMap<>();
+        for (Row row : rows) {
+            byDoctor.computeIfAbsent(row.doctorId(), id -> new ArrayList<>()).add(row);
+            byPatient.computeIfAbsent(row.patientId(), id -> new ArrayList<>()).add(row);
+            LocalTime[] doctorHours = hours.get(row.doctorId());
+            if (row.startTime().isBefore(doctorHours[0]) || row.endTime().isAfter(doctorHours[1])) {
+                violations.add("outside the hours " + doctorHours[0] + "-" + doctorHours[1] + ": " + row);
+            }
+        }
+        byDoctor.values().forEach(appointments -> overlapping(appointments, "doctor", violations));
+        byPatient.values().forEach(appointments -> overlapping(appointments, "patient", violations));
+        int limit = bookingProperties.maxOpenAppointmentsPerPatient();
+        byPatient.forEach((patientId, appointments) -> {
+            if (limit > 0 && appointments.size() > limit) {
+                violations.add("patient " + patientId + " holds " + appointments.size() + " appointments");
+            }
+        });
+
+        Map<String, Integer> counted = new HashMap<>();
+        jdbc.query("SELECT doctor_id, start_date, appointments FROM doctor_utilization WHERE period = 'DAY' AND appointments <> 0",
+                resultSet -> {
+                    counted.put(resultSet.getInt(1) + " " + resultSet.getDate(2).toLocalDate(), resultSet.getInt(3));
+                });
+        Map<String, Integer> booked = new HashMap<>();
+        rows.forEach(row -> booked.merge(row.doctorId() + " " + row.date(), 1, Integer::sum));
+        if (!counted.equals(booked)) {
+            violations.add("utilization counters " + new TreeMap<>(counted) + " but appointments " + new TreeMap<>(booked));
+        }
+        return violations;
+    }
+
+    private static void overlapping(List<Row> appointments, String holder, List<String> violations) {
+        for (int i = 0; i < appointments.size(); i++) {
+            for (int j = i + 1; j < appointments.size(); j++) {
+                if (appointments.get(i).overlaps(appointments.get(j))) {
+                    violations.add(holder + " booked twice: " + appointments.get(i) + " and " + appointments.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Time the current thread spent blocked on monitors or waiting (locks, parking, the connection pool), in
+     * milliseconds; 0 when the JVM does not monitor contention.
+     */
+    private long waitedMillis() {
+        if (!threads.isThreadContentionMonitoringEnabled()) {
+            return 0;
+        }
+        ThreadInfo info = threads.getThreadInfo(Thread.currentThread().getId());
+        return info.getBlockedTime() + info.getWaitedTime();
+    }
+
+    private static void print(String name, long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.printf("  %-24s p50 %8d  p90 %8d  p99 %8d  max %8d%n", name,
+                sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.9)],
+                sorted[(int) Math.ceil(sorted.length * 0.99) - 1], sorted[sorted.length - 1]);
+    }
+}
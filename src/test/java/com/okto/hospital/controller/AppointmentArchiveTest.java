@@ -0,0 +1,113 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.model.DoctorEntity;
+import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.ArchivedAppointmentRepository;
+import com.okto.hospital.repository.DoctorRepository;
+import com.okto.hospital.service.AppointmentArchiver;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "hospital.archive.horizon=30d",
+        "hospital.archive.batch-size=2",
+        "hospital.booking.max-appointment-range=100y"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe');
+
+        INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES
+        (1, 1, '2020-01-06', '09:00:00', '10:00:00', '2020-01-01 10:00:00'),
+        (1, 1, '2020-01-06', '10:00:00', '11:00:00', '2020-01-01 10:00:00'),
+        (1, 1, '2020-01-07', '09:00:00', '10:00:00', '2020-01-01 10:00:00'),
+        (1, 1, '2099-01-05', '09:00:00', '10:00:00', '2020-01-01 10:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+class AppointmentArchiveTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AppointmentArchiver appointmentArchiver;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Autowired
+    private ArchivedAppointmentRepository archivedAppointmentRepository;
+
+    @Autowired
+    private DoctorRepository doctorRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void test_archive_shouldMoveAppointmentsOlderThanTheHorizonInBatches() {
+        assertEquals(3, appointmentArchiver.archive());
+
+        assertEquals(1, appointmentRepository.count());
+        assertEquals(3, archivedAppointmentRepository.count());
+        assertEquals(0, appointmentArchiver.archive());
+    }
+
+    @Test
+    void test_archive_shouldKeepTheDoctorCache() {
+        doctorRepository.findById(1);
+        assertTrue(entityManagerFactory.getCache().contains(DoctorEntity.class, 1));
+
+        appointmentArchiver.archive();
+
+        assertTrue(entityManagerFactory.getCache().contains(DoctorEntity.class, 1));
+    }
+
+    @Test
+    void test_getAppointments_whenArchivedAreNotIncluded_shouldOnlyReturnRecentAppointments() throws Exception {
+        appointmentArchiver.archive();
+
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2020-01-01")
+                        .param("to", "2099-12-31"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].date").value("2099-01-05"));
+    }
+
+    @Test
+    void test_getAppointments_whenArchivedAreIncluded_shouldReturnAllAppointmentsInOrder() throws Exception {
+        appointmentArchiver.archive();
+
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2020-01-01")
+                        .param("to", "2099-12-31")
+                        .param("includeArchived", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(4)))
+                .andExpect(jsonPath("$[0].date").value("2020-01-06"))
+                .andExpect(jsonPath("$[0].startTime").value("09:00"))
+                .andExpect(jsonPath("$[1].startTime").value("10:00"))
+                .andExpect(jsonPath("$[2].date").value("2020-01-07"))
+                .andExpect(jsonPath("$[3].date").value("2099-01-05"));
+    }
+}
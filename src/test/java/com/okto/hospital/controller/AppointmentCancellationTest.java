@@ -0,0 +1,180 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.WaitlistEntryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.context.jdbc.SqlMergeMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Patients may hold one open appointment, so waiters with another appointment ahead cannot be promoted.
+ */
+@SpringBootTest(properties = "hospital.booking.max-open-appointments-per-patient=1")
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe'), (3, 'Patient Poe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES
+        (1, 'MONDAY', '09:00:00', '17:00:00'),
+        (2, 'MONDAY', '09:00:00', '17:00:00');
+
+        INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES
+        (1, 1, '2099-03-02', '10:00:00', '11:00:00', '2021-03-06 10:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+class AppointmentCancellationTest {
+
+    // a Monday, waitlists of past days are dropped
+    private static final LocalDate DATE = LocalDate.of(2099, 3, 2);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Autowired
+    private WaitlistEntryRepository waitlistEntryRepository;
+
+    @Test
+    void test_cancelAppointment_shouldReturn204_andFreeTheSlot() throws Exception {
+        mockMvc.perform(delete("/v1/doctors/1/appointments/1"))
+                .andExpect(status().isNoContent());
+
+        assertEquals(0, appointmentRepository.count());
+        book(2, false).andExpect(status().isCreated());
+    }
+
+    @Test
+    void test_cancelAppointment_whenAppointmentDoesNotExist_shouldReturn404() throws Exception {
+        mockMvc.perform(delete("/v1/doctors/1/appointments/2"))
+                .andExpect(status().isNotFound());
+        // the appointment belongs to doctor 1
+        mockMvc.perform(delete("/v1/doctors/2/appointments/1"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void test_createAppointment_whenSlotIsBookedAndWaitlistIsAsked_shouldReturn202_withPosition() throws Exception {
+        book(2, true)
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.patientId").value(2))
+                .andExpect(jsonPath("$.position").value(1));
+        book(3, true)
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.position").value(2));
+
+        // a retry keeps the patient's place
+        book(2, true)
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.position").value(1));
+        assertEquals(2, waitlistEntryRepository.count());
+
+        // without the parameter it is still a conflict
+        book(2, false).andExpect(status().isConflict());
+    }
+
+    @Test
+    void test_createAppointment_whenSlotIsFreeAndWaitlistIsAsked_shouldReturn201() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments?waitlist=true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 2,
+                                    "date": "2099-03-02",
+                                    "startTime": "11:00"
+                                }"""))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.startTime").value("11:00"));
+    }
+
+    @Test
+    void test_cancelAppointment_shouldPromoteTheFirstWaiter() throws Exception {
+        book(2, true).andExpect(status().isAccepted());
+        book(3, true).andExpect(status().isAccepted());
+
+        mockMvc.perform(delete("/v1/doctors/1/appointments/1"))
+                .andExpect(status().isNoContent());
+
+        var appointments = appointmentRepository.findByDoctorIdAndDate(1, DATE);
+        assertEquals(1, appointments.size());
+        assertEquals(2, appointments.get(0).getPatient().getId());
+        assertEquals(1, waitlistEntryRepository.count());
+        // patient 3 is now first in line
+        book(3, true)
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.position").value(1));
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES
+            (2, 2, '2099-03-02', '10:00:00', '11:00:00', '2021-03-06 10:00:00');
+            """)
+    @SqlMergeMode(SqlMergeMode.MergeMode.MERGE)
+    void test_cancelAppointment_whenFirstWaiterIsBookedElsewhere_shouldPromoteTheNextWaiter() throws Exception {
+        book(2, true).andExpect(status().isAccepted());
+        book(3, true).andExpect(status().isAccepted());
+
+        mockMvc.perform(delete("/v1/doctors/1/appointments/1"))
+                .andExpect(status().isNoContent());
+
+        var appointments = appointmentRepository.findByDoctorIdAndDate(1, DATE);
+        assertEquals(3, appointments.get(0).getPatient().getId());
+        // patient 2 keeps their place for the next cancellation
+        assertEquals(1, waitlistEntryRepository.count());
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES
+            (2, 2, '2099-03-09', '10:00:00', '11:00:00', '2021-03-06 10:00:00');
+            """)
+    @SqlMergeMode(SqlMergeMode.MergeMode.MERGE)
+    void test_cancelAppointment_whenFirstWaiterReachedTheLimit_shouldPromoteTheNextWaiter() throws Exception {
+        book(2, true).andExpect(status().isAccepted());
+        book(3, true).andExpect(status().isAccepted());
+
+        mockMvc.perform(delete("/v1/doctors/1/appointments/1"))
+                .andExpect(status().isNoContent());
+
+        var appointments = appointmentRepository.findByDoctorIdAndDate(1, DATE);
+        assertEquals(3, appointments.get(0).getPatient().getId());
+        assertEquals(1, waitlistEntryRepository.count());
+    }
+
+    private ResultActions book(int patientId, boolean waitlist) throws Exception {
+        return mockMvc.perform(post("/v1/doctors/1/appointments" + (waitlist ? "?waitlist=true" : ""))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": %d,
+                            "date": "2099-03-02",
+                            "startTime": "10:00"
+                        }""".formatted(patientId)));
+    }
+}
@@ -1,15 +1,24 @@
 package com.okto.hospital.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.okto.hospital.config.BinaryFormatConfiguration;
 import com.okto.hospital.model.AppointmentEntity;
 import com.okto.hospital.repository.AppointmentRepository;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -18,8 +27,15 @@ import java.util.Comparator;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -37,12 +53,12 @@ class AppointmentControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
-    @Autowired
+    @SpyBean
     private AppointmentRepository appointmentRepository;
 
     @Test
     void test_createAppointment_whenMethodIsNotPost_shouldReturn405() throws Exception {
-        mockMvc.perform(get("/v1/doctors/1/appointments"))
+        mockMvc.perform(put("/v1/doctors/1/appointments"))
                 .andExpect(status().isMethodNotAllowed());
     }
 
@@ -172,7 +188,11 @@ class AppointmentControllerTest {
                                     "date": "2023-03-06",
                                     "startTime": "13:15"
                                 }"""))
-                .andExpect(status().isConflict());
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.detail").value("Slot is not bookable"))
+                .andExpect(jsonPath("$.suggestedSlots", hasSize(3)))
+                .andExpect(jsonPath("$.suggestedSlots[0].startTime").value("14:00"))
+                .andExpect(jsonPath("$.suggestedSlots[2].startTime").value("16:00"));
     }
 
     @Test
@@ -203,7 +223,54 @@ class AppointmentControllerTest {
                                     "date": "2023-03-06",
                                     "startTime": "14:00"
                                 }"""))
-                .andExpect(status().isConflict());
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.detail").value("Slot is already booked"))
+                .andExpect(jsonPath("$.suggestedSlots", hasSize(3)))
+                .andExpect(jsonPath("$.suggestedSlots[0].doctorId").value(1))
+                .andExpect(jsonPath("$.suggestedSlots[0].date").value("2023-03-06"))
+                .andExpect(jsonPath("$.suggestedSlots[0].startTime").value("15:00"))
+                .andExpect(jsonPath("$.suggestedSlots[0].endTime").value("16:00"))
+                .andExpect(jsonPath("$.suggestedSlots[2].startTime").value("17:00"));
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones'), (3, 'Doctor Brown');
+
+            INSERT INTO patient (id, name)
+            VALUES ( 1, 'Patient Doe') , (2, 'Patient Two');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '13:00:00', '15:00:00'),
+            (2, 2, 'MONDAY', '13:00:00', '22:00:00'),
+            (3, 3, 'TUESDAY', '13:00:00', '22:00:00');
+
+            INSERT INTO appointment (id, patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES
+            (1, 2, 1, '2023-03-06', '14:00:00', '15:00:00', '2021-03-06 14:00:00'),
+            (2, 2, 2, '2023-03-06', '15:00:00', '16:00:00', '2021-03-06 14:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_createAppointment_whenSlotIsAlreadyBooked_andOtherDoctorsAreAsked_shouldSuggestTheirFreeSlots() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments?suggestOtherDoctors=true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-06",
+                                    "startTime": "14:00"
+                                }"""))
+                .andExpect(status().isConflict())
+                // doctor 1 has no later slot, doctor 2 is booked at 15:00, doctor 3 does not work on Mondays
+                .andExpect(jsonPath("$.suggestedSlots", hasSize(3)))
+                .andExpect(jsonPath("$.suggestedSlots[0].doctorId").value(2))
+                .andExpect(jsonPath("$.suggestedSlots[0].startTime").value("14:00"))
+                .andExpect(jsonPath("$.suggestedSlots[1].startTime").value("16:00"))
+                .andExpect(jsonPath("$.suggestedSlots[2].startTime").value("17:00"));
     }
 
     @Test
@@ -269,6 +336,36 @@ class AppointmentControllerTest {
         assertEquals("21:00", secondAppointment.getEndTime().toString());
     }
 
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'Doctor Smith');
+
+            INSERT INTO patient (id, name)
+            VALUES (1, 'Patient Doe');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '22:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_createAppointment_whenPatientDoesNotExist_shouldFailOnTheForeignKey_withoutRunningTheBookingAgain() {
+        ServletException thrown = assertThrows(ServletException.class, () -> mockMvc.perform(post("/v1/doctors/1/appointments")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": 3,
+                            "date": "2023-03-06",
+                            "startTime": "10:00"
+                        }""")));
+
+        assertInstanceOf(DataIntegrityViolationException.class, thrown.getCause());
+        verify(appointmentRepository, times(1)).saveAll(anyList());
+        assertEquals(0, appointmentRepository.count());
+    }
+
     @Test
     @Sql(statements = """
             INSERT INTO doctor (id, name)
@@ -376,4 +473,179 @@ class AppointmentControllerTest {
         assertEquals("10:00", firstAppointment.getStartTime().toString());
         assertEquals("11:00", firstAppointment.getEndTime().toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones');
+
+            INSERT INTO patient (id, name)
+            VALUES ( 1, 'Patient Doe');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '22:00:00'),
+            (2, 2, 'MONDAY', '09:30:00', '22:00:00');
+
+            INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES
+            (1, 2, '2023-03-06', '09:30:00', '10:30:00', '2021-03-06 10:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_createAppointment_whenPatientHasOverlappingAppointmentWithAnotherDoctor_shouldReturn409() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-06",
+                                    "startTime": "10:00"
+                                }"""))
+                .andExpect(status().isConflict());
+
+        assertEquals(1, appointmentRepository.count());
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones');
+
+            INSERT INTO patient (id, name)
+            VALUES ( 1, 'Patient Doe');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '22:00:00'),
+            (2, 2, 'MONDAY', '09:30:00', '22:00:00');
+
+            INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES
+            (1, 2, '2023-03-06', '09:30:00', '10:30:00', '2021-03-06 10:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_createAppointment_whenPatientAppointmentWithAnotherDoctorDoesNotOverlap_shouldReturn201() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-06",
+                                    "startTime": "11:00"
+                                }"""))
+                .andExpect(status().isCreated());
+
+        assertEquals(2, appointmentRepository.count());
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'Doctor Smith');
+
+            INSERT INTO patient (id, name)
+            VALUES ( 1, 'Patient Doe');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '22:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_createAppointment_withSmileBody_shouldReturn201_withSmileBody() throws Exception {
+        SmileMapper smileMapper = new SmileMapper();
+        byte[] request = smileMapper.writeValueAsBytes(new ObjectMapper().readTree("""
+                {
+                    "patientId": 1,
+                    "date": "2023-03-06",
+                    "startTime": "11:00"
+                }"""));
+
+        byte[] response = mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(BinaryFormatConfiguration.APPLICATION_SMILE)
+                        .accept(BinaryFormatConfiguration.APPLICATION_SMILE)
+                        .content(request))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType(BinaryFormatConfiguration.APPLICATION_SMILE))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode appointment = smileMapper.readTree(response);
+        assertEquals(1, appointment.get("doctorId").asInt());
+        assertEquals(1, appointment.get("patientId").asInt());
+        assertEquals("2023-03-06", appointment.get("date").asText());
+        assertEquals("11:00", appointment.get("startTime").asText());
+        assertEquals("12:00", appointment.get("endTime").asText());
+        assertEquals(1, appointmentRepository.count());
+    }
+
+    @Test
+    void test_getAppointments_whenRangeEndsBeforeItStarts_shouldReturn400() throws Exception {
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2099-03-02")
+                        .param("to", "2099-03-01"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void test_getAppointments_whenRangeIsLongerThanTheMaximum_shouldReturn400() throws Exception {
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2099-03-02")
+                        .param("to", "2100-03-02"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2099-03-02")
+                        .param("to", "2100-03-03"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Nested
+    @TestPropertySource(properties = "hospital.booking.max-open-appointments-per-patient=2")
+    class WithOpenAppointmentLimit {
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @Autowired
+        private AppointmentRepository appointmentRepository;
+
+        @Test
+        @Sql(statements = """
+                INSERT INTO doctor (id, name)
+                VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones');
+
+                INSERT INTO patient (id, name)
+                VALUES ( 1, 'Patient Doe');
+
+                INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+                VALUES
+                (1, 1, 'MONDAY', '09:00:00', '22:00:00');
+
+                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                VALUES
+                (1, 2, '2099-03-02', '09:00:00', '10:00:00', '2021-03-06 10:00:00'),
+                (1, 2, '2099-03-09', '09:00:00', '10:00:00', '2021-03-06 10:00:00'),
+                (1, 2, '2023-03-06', '09:00:00', '10:00:00', '2021-03-06 10:00:00');
+                """,
+                executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+        @Sql(statements = CLEAN_TABLES_QUERY,
+                executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+        void test_createAppointment_whenPatientReachedOpenAppointmentLimit_shouldReturn409() throws Exception {
+            mockMvc.perform(post("/v1/doctors/1/appointments")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("""
+                                    {
+                                        "patientId": 1,
+                                        "date": "2099-03-16",
+                                        "startTime": "11:00"
+                                    }"""))
+                    .andExpect(status().isConflict());
+
+            assertEquals(3, appointmentRepository.count());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.repository.AppointmentRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Patients may hold three open appointments, so a long series runs into the limit.
+ * Doctor 1 works on Mondays; 2099-03-02 is a Monday and patient 2 holds doctor 1's 10:00 slot on 2099-03-16.
+ */
+@SpringBootTest(properties = "hospital.booking.max-open-appointments-per-patient=3")
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES
+        (1, 'MONDAY', '09:00:00', '17:00:00');
+
+        INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES
+        (2, 1, '2099-03-16', '10:00:00', '11:00:00', '2021-03-06 10:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+class AppointmentSeriesTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Test
+    void test_createAppointmentSeries_whenEveryOccurrenceIsFree_shouldReturn201_andBookThemAll() throws Exception {
+        series("2099-03-02", "09:00", 3, "ALL_OR_NOTHING")
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.booked").value(3))
+                .andExpect(jsonPath("$.occurrences", hasSize(3)))
+                .andExpect(jsonPath("$.occurrences[0].date").value("2099-03-02"))
+                .andExpect(jsonPath("$.occurrences[1].date").value("2099-03-09"))
+                .andExpect(jsonPath("$.occurrences[2].outcome").value("BOOKED"))
+                .andExpect(jsonPath("$.occurrences[2].appointment.date").value("2099-03-16"))
+                .andExpect(jsonPath("$.occurrences[2].appointment.endTime").value("10:00"));
+
+        assertEquals(4, appointmentRepository.count());
+    }
+
+    @Test
+    void test_createAppointmentSeries_whenAllOrNothingAndOneSlotIsBooked_shouldReturn409_andBookNothing() throws Exception {
+        series("2099-03-02", "10:00", 3, "ALL_OR_NOTHING")
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.booked").value(0))
+                .andExpect(jsonPath("$.occurrences[0].outcome").value("NOT_BOOKED"))
+                .andExpect(jsonPath("$.occurrences[1].outcome").value("NOT_BOOKED"))
+                .andExpect(jsonPath("$.occurrences[2].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$.occurrences[2].reason").value("slot_already_booked"));
+
+        assertEquals(1, appointmentRepository.count());
+    }
+
+    @Test
+    void test_createAppointmentSeries_whenBestEffort_shouldBookTheFreeOccurrences_upToTheLimit() throws Exception {
+        series("2099-03-02", "10:00", 5, "BEST_EFFORT")
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.booked").value(3))
+                .andExpect(jsonPath("$.occurrences[0].outcome").value("BOOKED"))
+                .andExpect(jsonPath("$.occurrences[1].outcome").value("BOOKED"))
+                .andExpect(jsonPath("$.occurrences[2].reason").value("slot_already_booked"))
+                .andExpect(jsonPath("$.occurrences[3].outcome").value("BOOKED"))
+                .andExpect(jsonPath("$.occurrences[4].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$.occurrences[4].reason").value("patient_appointment_limit"));
+
+        assertEquals(4, appointmentRepository.count());
+    }
+
+    @Test
+    void test_createAppointmentSeries_whenDoctorDoesNotWorkThatDay_shouldReturn409() throws Exception {
+        series("2099-03-03", "10:00", 2, "BEST_EFFORT")
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.occurrences[0].reason").value("doctor_not_available"))
+                .andExpect(jsonPath("$.occurrences[1].date").value("2099-03-10"))
+                .andExpect(jsonPath("$.occurrences[1].reason").value("doctor_not_available"));
+    }
+
+    @Test
+    void test_createAppointmentSeries_whenOccurrencesAreOutOfRange_shouldReturn400() throws Exception {
+        series("2099-03-02", "10:00", 0, "BEST_EFFORT")
+                .andExpect(status().isBadRequest());
+        series("2099-03-02", "10:00", 53, "BEST_EFFORT")
+                .andExpect(status().isBadRequest());
+    }
+
+    private ResultActions series(String firstDate, String startTime, int occurrences, String mode) throws Exception {
+        return mockMvc.perform(post("/v1/doctors/1/appointments/series")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": 1,
+                            "firstDate": "%s",
+                            "startTime": "%s",
+                            "occurrences": %d,
+                            "mode": "%s"
+                        }""".formatted(firstDate, startTime, occurrences, mode)));
+    }
+}
@@ -0,0 +1,156 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.model.AppointmentEntity;
+import com.okto.hospital.repository.AppointmentRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import static com.okto.hospital.diagnostics.SqlStatementCountFilter.STATEMENT_COUNT_HEADER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Books on Monday 2099-03-02 with the single conditional insert. Doctor 1 works from 09:00 to 17:30 and is booked
+ * by patient 2 at 10:00, doctor 2 has slots on the half hour. Patient 3 is at the limit of two open appointments.
+ */
+@SpringBootTest(properties = {
+        "hospital.booking.conditional-insert=true",
+        "hospital.booking.max-open-appointments-per-patient=2",
+        "hospital.diagnostics.sql-statement-header=true"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe'), (3, 'Patient Poe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'MONDAY', '09:00:00', '17:30:00'), (2, 'MONDAY', '09:30:00', '12:30:00');
+
+        INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES
+        (2, 1, '2099-03-02', '10:00:00', '11:00:00', '2021-03-06 10:00:00'),
+        (3, 2, '2099-03-09', '09:30:00', '10:30:00', '2021-03-06 10:00:00'),
+        (3, 2, '2099-03-16', '09:30:00', '10:30:00', '2021-03-06 10:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM doctor_utilization; " + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class ConditionalInsertTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Test
+    void test_createAppointment_shouldBookWithoutReadingTheScheduleOrTheAppointmentsFirst() throws Exception {
+        book(1, 1, "17:00")
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").isNumber())
+                .andExpect(jsonPath("$.doctorId").value(1))
+                .andExpect(jsonPath("$.patientId").value(1))
+                .andExpect(jsonPath("$.date").value("2099-03-02"))
+                .andExpect(jsonPath("$.startTime").value("17:00"))
+                // the last slot is cut at the end of the day
+                .andExpect(jsonPath("$.endTime").value("17:30"))
+                .andExpect(jsonPath("$.createdAt").isNotEmpty())
+                // insert, schedule for the utilization counters (not cached yet), counters
+                .andExpect(header().string(STATEMENT_COUNT_HEADER, "3"));
+
+        AppointmentEntity saved = appointmentRepository.findByDoctorIdAndDate(1, LocalDate.of(2099, 3, 2)).stream()
+                .filter(appointment -> appointment.getStartTime().equals(LocalTime.of(17, 0)))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(LocalTime.of(17, 30), saved.getEndTime());
+
+        book(1, 1, "12:00")
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.endTime").value("13:00"))
+                .andExpect(header().string(STATEMENT_COUNT_HEADER, "2"));
+        book(2, 2, "11:30")
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.endTime").value("12:30"));
+    }
+
+    @Test
+    void test_createAppointment_whenSlotIsAlreadyBooked_shouldStillSuggestOtherSlots() throws Exception {
+        // the insert breaks the unique constraint, the checked path then reads the schedule and the day
+        book(1, 1, "10:00")
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.detail").value("Slot is already booked"))
+                .andExpect(jsonPath("$.suggestedSlots[0].startTime").value("11:00"))
+                .andExpect(header().string(STATEMENT_COUNT_HEADER, "3"));
+    }
+
+    @Test
+    void test_createAppointment_whenTheInsertIsRefused_shouldThrowTheExceptionOfTheRule() throws Exception {
+        book(1, 1, "2099-03-03", "10:00")
+                .andExpect(status().isConflict())
+                .andExpect(status().reason("Doctor is not available on this day"));
+        book(1, 1, "10:30")
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.detail").value("Slot is not bookable"));
+        book(2, 1, "10:00")
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.detail").value("Slot is not bookable"));
+        // patient 2 is with doctor 1 from 10:00 to 11:00
+        book(2, 2, "10:30")
+                .andExpect(status().isConflict())
+                .andExpect(status().reason("Patient already has an appointment at this time"));
+        book(1, 3, "12:00")
+                .andExpect(status().isConflict())
+                .andExpect(status().reason("Patient has reached the limit of open appointments"));
+
+        assertEquals(3, appointmentRepository.count());
+    }
+
+    @Test
+    void test_createAppointment_whenAnotherPatientHoldsTheSlot_shouldReturn409() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 2,
+                                    "date": "2099-03-02",
+                                    "startTime": "12:00"
+                                }"""))
+                .andExpect(status().isCreated());
+
+        book(1, 1, "12:00")
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.detail").value("Slot is already booked"));
+    }
+
+    private ResultActions book(int doctorId, int patientId, String startTime) throws Exception {
+        return book(doctorId, patientId, "2099-03-02", startTime);
+    }
+
+    private ResultActions book(int doctorId, int patientId, String date, String startTime) throws Exception {
+        return mockMvc.perform(post("/v1/doctors/{doctorId}/appointments", doctorId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": %d,
+                            "date": "%s",
+                            "startTime": "%s"
+                        }""".formatted(patientId, date, startTime)));
+    }
+}
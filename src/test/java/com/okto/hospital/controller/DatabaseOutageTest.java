@@ -0,0 +1,227 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.exception.DatabaseUnavailable;
+import com.okto.hospital.resilience.DatabaseCircuitBreaker;
+import com.okto.hospital.search.DoctorNameIndex;
+import com.okto.hospital.service.ScheduleLoader;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Opens the database circuit breaker on Wednesday 2099-03-04 at 10:00, as if the database had stalled. Doctor 1
+ * works on Thursday, doctor 2 on Friday. Batches of schedules are loaded one doctor at a time.
+ */
+@SpringBootTest(properties = {
+        "hospital.circuit-breaker.open-duration=1m",
+        "hospital.schedule.batch-chunk-size=1"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith'), (2, 'Doctor Jones');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'THURSDAY', '09:00:00', '17:00:00'), (2, 'FRIDAY', '09:00:00', '17:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM doctor_utilization; " + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class DatabaseOutageTest {
+
+    @TestConfiguration
+    static class FixedClock {
+
+        @Bean
+        @Primary
+        Clock fixedClock() {
+            return Clock.fixed(Instant.parse("2099-03-04T10:00:00Z"), ZoneOffset.UTC);
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @SpyBean
+    private DatabaseCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private DoctorNameIndex doctorNameIndex;
+
+    @SpyBean
+    private ScheduleLoader scheduleLoader;
+
+    @Test
+    void test_getSchedule_whenBreakerIsOpen_shouldServeTheLastKnownSchedule_markedStale() throws Exception {
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.WARNING))
+                .andExpect(jsonPath("$[0].dayOfWeek").value("THURSDAY"));
+
+        circuitBreaker.open();
+
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.WARNING, "110 - \"Response is Stale\""))
+                .andExpect(header().string(HttpHeaders.AGE, "0"))
+                .andExpect(jsonPath("$[0].dayOfWeek").value("THURSDAY"));
+    }
+
+    @Test
+    void test_getSchedule_whenAReadEndsAfterAScheduleChange_shouldNotKeepTheOlderSchedule() throws Exception {
+        var readDone = new CountDownLatch(1);
+        var changeCommitted = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            Object schedules = invocation.callRealMethod();
+            readDone.countDown();
+            changeCommitted.await(5, TimeUnit.SECONDS);
+            return schedules;
+        }).when(scheduleLoader).loadByDoctorId(1);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> read = reader.submit(() -> mockMvc.perform(get("/v1/doctors/1/schedule"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].dayOfWeek").value("THURSDAY")));
+            assertTrue(readDone.await(5, TimeUnit.SECONDS));
+
+            mockMvc.perform(put("/v1/doctors/1/schedule")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("""
+                                    {
+                                        "doctorId": 1,
+                                        "dayOfWeek": "THURSDAY",
+                                        "startTime": "10:00",
+                                        "endTime": "12:00"
+                                    }"""))
+                    .andExpect(status().isNoContent());
+            changeCommitted.countDown();
+            read.get(5, TimeUnit.SECONDS);
+        } finally {
+            reader.shutdownNow();
+        }
+
+        circuitBreaker.open();
+
+        // the schedule read before the change was not kept, there is no copy to serve
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void test_getSchedule_whenBreakerIsOpen_andNoScheduleWasReadBefore_shouldReturn503() throws Exception {
+        circuitBreaker.open();
+
+        mockMvc.perform(get("/v1/doctors/2/schedule"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "60"))
+                .andExpect(jsonPath("$.detail").value("The database is unavailable, please retry later"));
+    }
+
+    @Test
+    void test_getSchedules_whenBreakerIsOpen_shouldReturn503_beforeStreaming() throws Exception {
+        circuitBreaker.open();
+
+        mockMvc.perform(get("/v1/schedules").param("doctorIds", "1,2"))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "60"));
+    }
+
+    @Test
+    void test_getSchedules_whenTheSecondChunkFails_shouldAbortTheStream_withoutClosingTheList() throws Exception {
+        doCallRealMethod()
+                .doThrow(new DatabaseUnavailable(Duration.ofSeconds(60)))
+                .when(circuitBreaker).call(any());
+
+        MvcResult streaming = mockMvc.perform(get("/v1/schedules").param("doctorIds", "1,2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        ServletException failure = assertThrows(ServletException.class,
+                () -> mockMvc.perform(asyncDispatch(streaming)));
+        assertInstanceOf(ScheduleController.StreamAborted.class, failure.getCause());
+        String partial = streaming.getResponse().getContentAsString();
+        assertTrue(partial.startsWith("[{\"doctorId\":1"));
+        assertFalse(partial.contains("\"doctorId\":2"));
+        assertFalse(partial.endsWith("]"));
+    }
+
+    @Test
+    void test_writes_whenBreakerIsOpen_shouldFailFastWith503() throws Exception {
+        circuitBreaker.open();
+
+        mockMvc.perform(post("/v1/doctors/{doctorId}/appointments", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2099-03-05",
+                                    "startTime": "09:00"
+                                }"""))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "doctorId": 1,
+                                    "dayOfWeek": "THURSDAY",
+                                    "startTime": "10:00",
+                                    "endTime": "12:00"
+                                }"""))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void test_searchDoctors_whenBreakerIsOpen_shouldLeaveTheAvailabilityOut() throws Exception {
+        doctorNameIndex.rebuild();
+        circuitBreaker.open();
+
+        mockMvc.perform(get("/v1/doctors/search").param("q", "doctor").param("withAvailability", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].freeSlotsThisWeek").doesNotExist());
+    }
+}
@@ -0,0 +1,152 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.model.DoctorEntity;
+import com.okto.hospital.repository.DoctorRepository;
+import com.okto.hospital.search.DoctorNameIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Searches doctors by name on Wednesday 2099-03-04 at 10:00. Doctor Smith only works on Friday and is booked
+ * then, Zoë Smith-Jones only works on Wednesday morning, Doctor Smithers still works on Thursday.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        -- CHAR(235) is an e with diaeresis, the statements are not read as UTF-8 on every platform
+        INSERT INTO doctor (id, name)
+        VALUES (11, 'Gregory House'), (12, 'Lisa Cuddy'), (13, 'Doctor Smith'), (14, 'Doctor Smithers'),
+        (15, 'Zo' || CHAR(235) || ' Smith-Jones');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (13, 'FRIDAY', '09:00:00', '10:00:00'), (14, 'MONDAY', '09:00:00', '17:00:00'),
+        (14, 'THURSDAY', '09:00:00', '10:00:00'), (15, 'WEDNESDAY', '09:00:00', '10:00:00');
+
+        INSERT INTO appointment (id, patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES (1, 1, 13, '2099-03-06', '09:00:00', '10:00:00', '2099-03-01 08:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class DoctorSearchTest {
+
+    @TestConfiguration
+    static class FixedClock {
+
+        @Bean
+        @Primary
+        Clock fixedClock() {
+            return Clock.fixed(Instant.parse("2099-03-04T10:00:00Z"), ZoneOffset.UTC);
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private DoctorNameIndex doctorNameIndex;
+
+    @Autowired
+    private DoctorRepository doctorRepository;
+
+    @BeforeEach
+    void indexTheDoctorsInsertedBySql() {
+        doctorNameIndex.rebuild();
+    }
+
+    @Test
+    void test_searchDoctors_shouldRankExactWordsFirst_thenShorterNames() throws Exception {
+        mockMvc.perform(get("/v1/doctors/search").param("q", "smith"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].id").value(13))
+                .andExpect(jsonPath("$[0].name").value("Doctor Smith"))
+                .andExpect(jsonPath("$[0].freeSlotsThisWeek").doesNotExist())
+                .andExpect(jsonPath("$[1].id").value(15))
+                .andExpect(jsonPath("$[2].id").value(14));
+
+        mockMvc.perform(get("/v1/doctors/search").param("q", "smi").param("limit", "2"))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(13))
+                .andExpect(jsonPath("$[1].id").value(14));
+    }
+
+    @Test
+    void test_searchDoctors_shouldMatchPrefixesOfEveryWord_inAnyOrder_ignoringCaseAndAccents() throws Exception {
+        mockMvc.perform(get("/v1/doctors/search").param("q", "hou GREG"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(11));
+        mockMvc.perform(get("/v1/doctors/search").param("q", "zoe"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].name").value("Zo\u00eb Smith-Jones"));
+        mockMvc.perform(get("/v1/doctors/search").param("q", "doc smithe"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(14));
+        mockMvc.perform(get("/v1/doctors/search").param("q", "cuddy house"))
+                .andExpect(jsonPath("$.length()").value(0));
+        mockMvc.perform(get("/v1/doctors/search").param("q", " - "))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void test_searchDoctors_withAvailability_shouldTellWhoHasAFreeSlotLeftThisWeek() throws Exception {
+        mockMvc.perform(get("/v1/doctors/search").param("q", "smith").param("withAvailability", "true"))
+                .andExpect(status().isOk())
+                // booked on Friday
+                .andExpect(jsonPath("$[0].id").value(13))
+                .andExpect(jsonPath("$[0].freeSlotsThisWeek").value(false))
+                // the Wednesday slot has started
+                .andExpect(jsonPath("$[1].id").value(15))
+                .andExpect(jsonPath("$[1].freeSlotsThisWeek").value(false))
+                // free on Thursday, Monday is over
+                .andExpect(jsonPath("$[2].id").value(14))
+                .andExpect(jsonPath("$[2].freeSlotsThisWeek").value(true));
+
+        mockMvc.perform(get("/v1/doctors/search").param("q", "house").param("withAvailability", "true"))
+                .andExpect(jsonPath("$[0].freeSlotsThisWeek").value(false));
+    }
+
+    @Test
+    void test_searchDoctors_shouldFollowTheDoctorsSavedThroughJpa() throws Exception {
+        DoctorEntity doctor = new DoctorEntity();
+        doctor.setName("Meredith Grey");
+        doctor = doctorRepository.save(doctor);
+
+        mockMvc.perform(get("/v1/doctors/search").param("q", "mered"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(doctor.getId()));
+
+        doctor.setName("Meredith Shepherd");
+        doctorRepository.save(doctor);
+        mockMvc.perform(get("/v1/doctors/search").param("q", "grey"))
+                .andExpect(jsonPath("$.length()").value(0));
+        mockMvc.perform(get("/v1/doctors/search").param("q", "shep"))
+                .andExpect(jsonPath("$[0].name").value("Meredith Shepherd"));
+
+        doctorRepository.deleteById(doctor.getId());
+        mockMvc.perform(get("/v1/doctors/search").param("q", "mered"))
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+}
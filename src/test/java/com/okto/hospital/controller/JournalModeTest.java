@@ -0,0 +1,139 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.journal.BookingLedger;
+import com.okto.hospital.repository.AppointmentRepository;
+import com.okto.hospital.repository.WaitlistEntryRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.Duration;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Books with the journal on: the decisions are taken on the ledger's state and reach the appointment table
+ * through the projection. Every context gets a journal directory of its own.
+ */
+@SpringBootTest(properties = {
+        "hospital.journal.enabled=true",
+        "hospital.journal.directory=target/journal-test/${random.uuid}",
+        "hospital.journal.fsync=ALWAYS"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'MONDAY', '09:00:00', '17:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM waitlist_entry; " + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class JournalModeTest {
+
+    // a Monday, waitlists of past days are dropped
+    private static final LocalDate DATE = LocalDate.of(2099, 3, 2);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BookingLedger bookingLedger;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @Autowired
+    private WaitlistEntryRepository waitlistEntryRepository;
+
+    @Test
+    void test_createAppointment_shouldDecideOnTheJournal_andProjectTheAppointment() throws Exception {
+        book(1, false)
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(1))
+                .andExpect(jsonPath("$.endTime").value("11:00"));
+        // the conflict is found in the ledger, whether or not the table has the row yet
+        book(2, false).andExpect(status().isConflict());
+        assertEquals(1, bookingLedger.lastSequence());
+
+        assertTrue(bookingLedger.awaitProjected(Duration.ofSeconds(5)));
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", DATE.toString())
+                        .param("to", DATE.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(jsonPath("$[0].patientId").value(1));
+    }
+
+    @Test
+    void test_createAppointment_whenPatientDoesNotExist_shouldReturn404() throws Exception {
+        book(3, false).andExpect(status().isNotFound());
+        assertEquals(0, bookingLedger.lastSequence());
+    }
+
+    @Test
+    void test_cancelAppointment_shouldPromoteTheFirstWaiter_andProjectBoth() throws Exception {
+        book(1, false).andExpect(status().isCreated());
+        book(2, true).andExpect(status().isAccepted());
+
+        mockMvc.perform(delete("/v1/doctors/1/appointments/1"))
+                .andExpect(status().isNoContent());
+
+        assertTrue(bookingLedger.awaitProjected(Duration.ofSeconds(5)));
+        var appointments = appointmentRepository.findByDoctorIdAndDate(1, DATE);
+        assertEquals(1, appointments.size());
+        assertEquals(2, appointments.get(0).getId());
+        assertEquals(2, appointments.get(0).getPatient().getId());
+        // the promoted waiter left the waitlist through the projection
+        assertEquals(0, waitlistEntryRepository.count());
+    }
+
+    @Test
+    void test_createAppointmentSeries_shouldBookEveryOccurrenceOnTheJournal() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments/series")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "firstDate": "2099-03-02",
+                                    "startTime": "09:00",
+                                    "occurrences": 3,
+                                    "mode": "ALL_OR_NOTHING"
+                                }"""))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.booked").value(3));
+
+        assertTrue(bookingLedger.awaitProjected(Duration.ofSeconds(5)));
+        assertEquals(3, appointmentRepository.count());
+    }
+
+    private ResultActions book(int patientId, boolean waitlist) throws Exception {
+        return mockMvc.perform(post("/v1/doctors/1/appointments" + (waitlist ? "?waitlist=true" : ""))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                            "patientId": %d,
+                            "date": "2099-03-02",
+                            "startTime": "10:00"
+                        }""".formatted(patientId)));
+    }
+}
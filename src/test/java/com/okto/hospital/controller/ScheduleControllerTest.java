@@ -1,5 +1,7 @@
 package com.okto.hospital.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.okto.hospital.model.ScheduleEntity;
 import com.okto.hospital.repository.ScheduleRepository;
 import org.junit.jupiter.api.Test;
@@ -12,15 +14,18 @@ import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.time.DayOfWeek;
 import java.time.LocalTime;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -97,6 +102,129 @@ class ScheduleControllerTest {
                         """));
     }
 
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'John Smith');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '13:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_getSchedule_whenCborIsAccepted_shouldReturn200_withCborBody() throws Exception {
+        byte[] response = mockMvc.perform(get("/v1/doctors/1/schedule")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode schedules = new CBORMapper().readTree(response);
+        assertEquals(1, schedules.size());
+        assertEquals(1, schedules.get(0).get("doctorId").asInt());
+        assertEquals("MONDAY", schedules.get(0).get("dayOfWeek").asText());
+        assertEquals("09:00:00", schedules.get(0).get("startTime").asText());
+        assertEquals("13:00:00", schedules.get(0).get("endTime").asText());
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'John Smith'), (2, 'Jane Doe');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '13:00:00'),
+            (2, 2, 'TUESDAY', '12:00:00', '17:00:00'),
+            (3, 2, 'FRIDAY', '09:00:00', '17:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_getSchedules_shouldReturn200_withOneEntryPerDoctorInRequestOrder_andReportMissingDoctors() throws Exception {
+        MvcResult streaming = mockMvc.perform(get("/v1/schedules").param("doctorIds", "2,3,1,2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(streaming))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json("""
+                        [
+                          {
+                            "doctorId": 2,
+                            "status": "FOUND",
+                            "schedules": [
+                              {"id": 2, "doctorId": 2, "dayOfWeek": "TUESDAY", "startTime": "12:00:00", "endTime": "17:00:00"},
+                              {"id": 3, "doctorId": 2, "dayOfWeek": "FRIDAY", "startTime": "09:00:00", "endTime": "17:00:00"}
+                            ]
+                          },
+                          {"doctorId": 3, "status": "NOT_FOUND"},
+                          {
+                            "doctorId": 1,
+                            "status": "FOUND",
+                            "schedules": [
+                              {"id": 1, "doctorId": 1, "dayOfWeek": "MONDAY", "startTime": "09:00:00", "endTime": "13:00:00"}
+                            ]
+                          }
+                        ]""", true));
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'John Smith');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '13:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_searchSchedules_whenCborIsAccepted_shouldReturn200_withCborBody() throws Exception {
+        MvcResult streaming = mockMvc.perform(post("/v1/schedules/search")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .content("""
+                                {"doctorIds": [1, 4]}"""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        byte[] response = mockMvc.perform(asyncDispatch(streaming))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode doctors = new CBORMapper().readTree(response);
+        assertEquals(2, doctors.size());
+        assertEquals("FOUND", doctors.get(0).get("status").asText());
+        assertEquals("MONDAY", doctors.get(0).get("schedules").get(0).get("dayOfWeek").asText());
+        assertEquals(4, doctors.get(1).get("doctorId").asInt());
+        assertEquals("NOT_FOUND", doctors.get(1).get("status").asText());
+    }
+
+    @Test
+    void test_searchSchedules_whenOnlyXmlIsAccepted_shouldReturn406() throws Exception {
+        mockMvc.perform(post("/v1/schedules/search")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_XML)
+                        .content("""
+                                {"doctorIds": [1]}"""))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    void test_searchSchedules_withEmptyList_shouldReturn400() throws Exception {
+        mockMvc.perform(post("/v1/schedules/search")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"doctorIds": []}"""))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @Sql(statements = """
             INSERT INTO doctor (id, name)
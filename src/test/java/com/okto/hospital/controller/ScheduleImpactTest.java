@@ -0,0 +1,193 @@
+package com.okto.hospital.controller;
+
+import com.okto.hospital.model.projection.BookedSlot;
+import com.okto.hospital.service.UtilizationService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Shortens and removes working hours with appointments booked on the Mondays of March 2099 and a Tuesday.
+ */
+@SpringBootTest(properties = {
+        "hospital.schedule.impact-batch-size=2",
+        "hospital.booking.max-appointment-range=100y"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'MONDAY', '09:00:00', '17:00:00'), (1, 'TUESDAY', '09:00:00', '17:00:00');
+
+        INSERT INTO appointment (id, patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES
+        (1, 1, 1, '2099-03-02', '09:00:00', '10:00:00', '2099-01-01 08:00:00'),
+        (2, 1, 1, '2099-03-02', '15:00:00', '16:00:00', '2099-01-01 08:00:00'),
+        (3, 2, 1, '2099-03-02', '16:00:00', '17:00:00', '2099-01-01 08:00:00'),
+        (4, 2, 1, '2099-03-30', '16:00:00', NULL, '2099-01-01 08:00:00'),
+        (5, 2, 1, '2099-03-03', '16:00:00', '17:00:00', '2099-01-01 08:00:00'),
+        (6, 1, 1, '2000-03-06', '16:00:00', '17:00:00', '2000-01-01 08:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM doctor_utilization; " + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class ScheduleImpactTest {
+
+    private static final String MONDAY_UNTIL_3PM = """
+            {
+                "doctorId": 1,
+                "dayOfWeek": "MONDAY",
+                "startTime": "09:00",
+                "endTime": "15:00"
+            }""";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SpyBean
+    private UtilizationService utilizationService;
+
+    @Test
+    void test_updateSchedule_dryRun_shouldReportTheFutureAppointmentsOutsideTheNewHours_andChangeNothing() throws Exception {
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .param("impact", "DRY_RUN")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MONDAY_UNTIL_3PM))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mode").value("DRY_RUN"))
+                // not the 9:00 one, not the Tuesday one, not the past one
+                .andExpect(jsonPath("$.affected").value(3))
+                .andExpect(jsonPath("$.appointments[0].id").value(2))
+                .andExpect(jsonPath("$.appointments[1].id").value(3))
+                .andExpect(jsonPath("$.appointments[2].id").value(4))
+                .andExpect(jsonPath("$.appointments[2].date").value("2099-03-30"));
+
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(jsonPath("$[0].endTime").value("17:00:00"));
+    }
+
+    @Test
+    void test_updateSchedule_flag_shouldChangeTheHours_andFlagTheAffectedAppointments() throws Exception {
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .param("impact", "FLAG")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MONDAY_UNTIL_3PM))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(3));
+
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2099-03-02")
+                        .param("to", "2099-03-02"))
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].flaggedAt").doesNotExist())
+                .andExpect(jsonPath("$[1].flaggedAt").exists())
+                .andExpect(jsonPath("$[2].flaggedAt").exists());
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(jsonPath("$[0].endTime").value("15:00:00"));
+    }
+
+    @Test
+    void test_upsertScheduleList_cancel_shouldCancelEveryAppointmentOfTheRemovedDay_inBatches() throws Exception {
+        mockMvc.perform(put("/v1/doctors/1/schedule/list")
+                        .param("impact", "CANCEL")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [
+                                    {
+                                        "doctorId": 1,
+                                        "dayOfWeek": "TUESDAY",
+                                        "startTime": "09:00",
+                                        "endTime": "17:00"
+                                    }
+                                ]"""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.mode").value("CANCEL"))
+                .andExpect(jsonPath("$.affected").value(4));
+
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2000-01-01")
+                        .param("to", "2099-12-31"))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(6))
+                .andExpect(jsonPath("$[1].id").value(5))
+                .andExpect(jsonPath("$[1].flaggedAt").doesNotExist());
+    }
+
+    @Test
+    void test_updateSchedule_whenTheHoursEndBeforeOneAm_shouldReportTheAppointmentsWithoutEndTime() throws Exception {
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .param("impact", "DRY_RUN")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "doctorId": 1,
+                                    "dayOfWeek": "MONDAY",
+                                    "startTime": "00:00",
+                                    "endTime": "00:30"
+                                }"""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(4))
+                .andExpect(jsonPath("$.appointments[3].id").value(4));
+    }
+
+    @Test
+    void test_upsertScheduleList_cancel_whenAnAppointmentIsCancelledMeanwhile_shouldNotCountItTwice() throws Exception {
+        // the appointments of the removed Monday are cancelled two at a time: 1 and 2, then 3 and 4; 4 is
+        // cancelled by someone else while the first batch runs
+        var cancelledMeanwhile = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (cancelledMeanwhile.compareAndSet(false, true)) {
+                jdbcTemplate.update("DELETE FROM appointment WHERE id = 4");
+            }
+            return invocation.callRealMethod();
+        }).when(utilizationService).recordCancellations(eq(1), anyList());
+
+        mockMvc.perform(put("/v1/doctors/1/schedule/list")
+                        .param("impact", "CANCEL")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [
+                                    {
+                                        "doctorId": 1,
+                                        "dayOfWeek": "TUESDAY",
+                                        "startTime": "09:00",
+                                        "endTime": "17:00"
+                                    }
+                                ]"""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(4));
+
+        // the second batch deleted 3 only, and only 3 is taken off the counters
+        verify(utilizationService).recordCancellations(eq(1),
+                argThat(slots -> slots.stream().map(BookedSlot::id).toList().equals(List.of(3))));
+    }
+}
@@ -0,0 +1,197 @@
+package com.okto.hospital.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import com.okto.hospital.hold.SlotHolds;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.LocalDate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Holds the 09:00 slot of Monday 2099-03-02 for one patient while another one tries to take it.
+ * Holds without minutes last one second here.
+ */
+@SpringBootTest(properties = {"hospital.hold.ttl=1s", "hospital.hold.tick=100ms"})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'MONDAY', '09:00:00', '11:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM doctor_utilization; " + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class SlotHoldTest {
+
+    private static final String PATIENT_2_AT_9 = """
+            {
+                "patientId": 2,
+                "date": "2099-03-02",
+                "startTime": "09:00"
+            }""";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @SpyBean
+    private SlotHolds slotHolds;
+
+    @Test
+    void test_holdSlot_shouldKeepTheSlotFromOtherPatients_untilTheHolderConfirmsIt() throws Exception {
+        String token = hold(1, 5);
+
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PATIENT_2_AT_9))
+                .andExpect(status().isConflict())
+                // the held slot is not suggested either
+                .andExpect(jsonPath("$.suggestedSlots[0].startTime").value("10:00"));
+        mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PATIENT_2_AT_9))
+                .andExpect(status().isConflict());
+        // holding it again returns the same hold
+        mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(holdRequest(1, 5)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.token").value(token));
+
+        mockMvc.perform(post("/v1/doctors/1/holds/{token}/confirm", token))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.patientId").value(1))
+                .andExpect(jsonPath("$.startTime").value("09:00"));
+
+        mockMvc.perform(post("/v1/doctors/1/holds/{token}/confirm", token))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PATIENT_2_AT_9))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void test_releaseHold_shouldGiveTheSlotBack() throws Exception {
+        String token = hold(1, 5);
+
+        mockMvc.perform(delete("/v1/doctors/2/holds/{token}", token))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(delete("/v1/doctors/1/holds/{token}", token))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PATIENT_2_AT_9))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void test_holdSlot_shouldExpire() throws Exception {
+        String token = hold(1, null);
+
+        Thread.sleep(1500);
+
+        mockMvc.perform(post("/v1/doctors/1/holds/{token}/confirm", token))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PATIENT_2_AT_9))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void test_holdSlot_shouldBeRejected_whenTheSlotIsBooked() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(PATIENT_2_AT_9))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(holdRequest(1, 5)))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void test_holdSlot_whileAnotherPatientBooksTheSlot_shouldWaitForTheBooking_andBeRejected() throws Exception {
+        CountDownLatch bookingChecked = new CountDownLatch(1);
+        CountDownLatch holdDone = new CountDownLatch(1);
+        AtomicBoolean paused = new AtomicBoolean();
+        // the booking of patient 2 stops after reading the holds of the day, before it inserts the appointment
+        doAnswer(invocation -> {
+            Object slots = invocation.callRealMethod();
+            if (paused.compareAndSet(false, true)) {
+                bookingChecked.countDown();
+                holdDone.await(1, TimeUnit.SECONDS);
+            }
+            return slots;
+        }).when(slotHolds).heldSlots(eq(1), eq(LocalDate.of(2099, 3, 2)), eq(2));
+
+        ExecutorService booker = Executors.newSingleThreadExecutor();
+        try {
+            Future<ResultActions> booking = booker.submit(() -> mockMvc.perform(post("/v1/doctors/1/appointments")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(PATIENT_2_AT_9)));
+            assertTrue(bookingChecked.await(5, TimeUnit.SECONDS));
+
+            ResultActions hold = mockMvc.perform(post("/v1/doctors/1/holds")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(holdRequest(1, 5)));
+            holdDone.countDown();
+
+            booking.get(5, TimeUnit.SECONDS).andExpect(status().isCreated());
+            hold.andExpect(status().isConflict());
+        } finally {
+            booker.shutdownNow();
+        }
+    }
+
+    private String hold(int patientId, Integer minutes) throws Exception {
+        String body = mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(holdRequest(patientId, minutes)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.startTime").value("09:00"))
+                .andExpect(jsonPath("$.endTime").value("10:00"))
+                .andReturn().getResponse().getContentAsString();
+        return JsonPath.read(body, "$.token");
+    }
+
+    private static String holdRequest(int patientId, Integer minutes) {
+        return """
+                {
+                    "patientId": %d,
+                    "date": "2099-03-02",
+                    "startTime": "09:00",
+                    "minutes": %s
+                }""".formatted(patientId, minutes);
+    }
+}
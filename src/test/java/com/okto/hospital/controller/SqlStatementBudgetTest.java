@@ -0,0 +1,410 @@
+package com.okto.hospital.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import com.okto.hospital.search.DoctorNameIndex;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import static com.okto.hospital.diagnostics.SqlStatementCountFilter.STATEMENT_COUNT_HEADER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Pins the number of SQL statements every endpoint runs. Streamed responses carry no header, their budget is
+ * checked on the hospital.http.sql.statements metric. A change that adds statements to an endpoint,
+ * like an N+1 load, fails here; when the new count is intended, update the budget with the change.
+ */
+@SpringBootTest(properties = {
+        "hospital.diagnostics.sql-statement-header=true",
+        "hospital.booking.max-appointment-range=100y"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES
+        (1, 'MONDAY', '09:00:00', '17:00:00'),
+        (1, 'TUESDAY', '09:00:00', '17:00:00'),
+        (1, 'WEDNESDAY', '09:00:00', '17:00:00');
+
+        INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+        VALUES
+        (2, 1, '2023-03-06', '10:00:00', '11:00:00', '2021-03-06 10:00:00'),
+        (2, 1, '2099-03-02', '10:00:00', '11:00:00', '2021-03-06 10:00:00');
+
+        INSERT INTO appointment_archive (appointment_id, doctor_id, patient_id, date, start_time, end_time, created_at, archived_at)
+        VALUES (100, 1, 1, '2020-01-06', '09:00:00', '10:00:00', '2020-01-01 10:00:00', '2021-01-01 10:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM appointment_archive; DELETE FROM waitlist_entry; DELETE FROM doctor_utilization; "
+        + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class SqlStatementBudgetTest {
+
+    private static final String MONDAY_UNTIL_10AM = """
+            {
+                "doctorId": 1,
+                "dayOfWeek": "MONDAY",
+                "startTime": "09:00",
+                "endTime": "10:00"
+            }""";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private DoctorNameIndex doctorNameIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void indexTheDoctorsInsertedBySql() {
+        doctorNameIndex.rebuild();
+    }
+
+    @Test
+    void test_getSchedule_budget() throws Exception {
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isOk())
+                .andExpect(statements(1));
+    }
+
+    @Test
+    void test_getSchedule_whenCached_budget() throws Exception {
+        // the second read is served by the query cache
+        mockMvc.perform(get("/v1/doctors/1/schedule"));
+
+        mockMvc.perform(get("/v1/doctors/1/schedule"))
+                .andExpect(status().isOk())
+                .andExpect(statements(0));
+    }
+
+    @Test
+    void test_getSchedule_whenDoctorDoesNotExist_budget() throws Exception {
+        mockMvc.perform(get("/v1/doctors/2/schedule"))
+                .andExpect(status().isNotFound())
+                .andExpect(statements(1));
+    }
+
+    @Test
+    void test_getSchedules_budget() throws Exception {
+        // one IN query for all the doctors, missing ones included
+        MvcResult streaming = mockMvc.perform(get("/v1/schedules").param("doctorIds", "1,2,3"))
+                .andExpect(header().doesNotExist(STATEMENT_COUNT_HEADER))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(streaming))
+                .andExpect(status().isOk());
+
+        assertStreamedStatements("GET", "/v1/schedules", 1);
+    }
+
+    @Test
+    void test_createSchedule_budget() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/schedule")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "doctorId": 1,
+                                    "dayOfWeek": "FRIDAY",
+                                    "startTime": "09:00",
+                                    "endTime": "17:00"
+                                }"""))
+                .andExpect(status().isCreated())
+                // insert, utilization rows from this month on
+                .andExpect(statements(2));
+    }
+
+    @Test
+    void test_updateSchedule_budget() throws Exception {
+        // select of the day's schedule, update; the hours stay eight, so the utilization rows are not read
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "doctorId": 1,
+                                    "dayOfWeek": "MONDAY",
+                                    "startTime": "10:00",
+                                    "endTime": "18:00"
+                                }"""))
+                .andExpect(status().isNoContent())
+                .andExpect(statements(2));
+    }
+
+    @Test
+    void test_upsertScheduleList_budget() throws Exception {
+        // previous schedules, one bulk delete, one insert per schedule, utilization rows from this month on
+        mockMvc.perform(put("/v1/doctors/1/schedule/list")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [
+                                    {
+                                        "doctorId": 1,
+                                        "dayOfWeek": "MONDAY",
+                                        "startTime": "10:00",
+                                        "endTime": "18:00"
+                                    },
+                                    {
+                                        "doctorId": 1,
+                                        "dayOfWeek": "FRIDAY",
+                                        "startTime": "10:00",
+                                        "endTime": "18:00"
+                                    }
+                                ]"""))
+                .andExpect(status().isOk())
+                .andExpect(statements(5));
+    }
+
+    @Test
+    void test_createAppointment_budget() throws Exception {
+        // schedule, conflict check covering doctor and patient, insert, utilization counters
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-06",
+                                    "startTime": "09:00"
+                                }"""))
+                .andExpect(status().isCreated())
+                .andExpect(statements(4));
+    }
+
+    @Test
+    void test_createAppointment_whenSlotIsAlreadyBooked_budget() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-06",
+                                    "startTime": "10:00"
+                                }"""))
+                .andExpect(status().isConflict())
+                .andExpect(statements(2));
+    }
+
+    @Test
+    void test_createAppointment_whenSlotIsNotBookable_budget() throws Exception {
+        // schedule, conflict check to find the free slots to suggest
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-06",
+                                    "startTime": "10:30"
+                                }"""))
+                .andExpect(status().isConflict())
+                .andExpect(statements(2));
+    }
+
+    @Test
+    void test_createAppointment_whenDoctorDoesNotWorkThatDay_budget() throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-10",
+                                    "startTime": "10:00"
+                                }"""))
+                .andExpect(status().isConflict())
+                .andExpect(statements(1));
+    }
+
+    @Test
+    void test_createAppointmentSeries_budget() throws Exception {
+        // schedule, one conflict check for the whole series, one insert and one counter update per appointment
+        mockMvc.perform(post("/v1/doctors/1/appointments/series")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "firstDate": "2023-03-06",
+                                    "startTime": "09:00",
+                                    "occurrences": 4,
+                                    "mode": "ALL_OR_NOTHING"
+                                }"""))
+                .andExpect(status().isCreated())
+                .andExpect(statements(10));
+    }
+
+    @Test
+    void test_cancelAppointment_whenNobodyWaits_budget() throws Exception {
+        // slot lookup, delete, schedule for the utilization counters (not cached yet), counters
+        mockMvc.perform(delete("/v1/doctors/1/appointments/1"))
+                .andExpect(status().isNoContent())
+                .andExpect(statements(4));
+    }
+
+    @Test
+    void test_getUtilization_budget() throws Exception {
+        // schedule, the counters of the whole weeks, the days of the weeks cut at both ends of the range
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2023-03-01")
+                        .param("to", "2023-06-30")
+                        .param("period", "WEEK"))
+                .andExpect(status().isOk())
+                .andExpect(statements(4));
+    }
+
+    @Test
+    void test_searchSchedules_budget() throws Exception {
+        // one IN query for all the doctors, like the GET
+        MvcResult streaming = mockMvc.perform(post("/v1/schedules/search")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"doctorIds": [1, 2, 3]}"""))
+                .andExpect(header().doesNotExist(STATEMENT_COUNT_HEADER))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(streaming))
+                .andExpect(status().isOk());
+
+        assertStreamedStatements("POST", "/v1/schedules/search", 1);
+    }
+
+    @Test
+    void test_getAppointments_budget() throws Exception {
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2020-01-01")
+                        .param("to", "2099-12-31"))
+                .andExpect(status().isOk())
+                .andExpect(statements(1));
+    }
+
+    @Test
+    void test_getAppointments_includingArchived_budget() throws Exception {
+        // the live table and the archive
+        mockMvc.perform(get("/v1/doctors/1/appointments")
+                        .param("from", "2020-01-01")
+                        .param("to", "2099-12-31")
+                        .param("includeArchived", "true"))
+                .andExpect(status().isOk())
+                .andExpect(statements(2));
+    }
+
+    @Test
+    void test_joinWaitlist_budget() throws Exception {
+        // schedule, conflict check that finds the slot taken, waitlist insert
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .param("waitlist", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2099-03-02",
+                                    "startTime": "10:00"
+                                }"""))
+                .andExpect(status().isAccepted())
+                .andExpect(statements(3));
+    }
+
+    @Test
+    void test_holdSlot_thenConfirm_budget() throws Exception {
+        // hold: schedule, conflict check; confirm: conflict check, insert, utilization counters
+        String body = mockMvc.perform(post("/v1/doctors/1/holds")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2099-03-02",
+                                    "startTime": "12:00"
+                                }"""))
+                .andExpect(status().isCreated())
+                .andExpect(statements(2))
+                .andReturn().getResponse().getContentAsString();
+
+        mockMvc.perform(post("/v1/doctors/1/holds/{token}/confirm", JsonPath.<String>read(body, "$.token")))
+                .andExpect(status().isCreated())
+                .andExpect(statements(3));
+    }
+
+    @Test
+    void test_searchDoctors_budget() throws Exception {
+        // names are matched in the in-memory index
+        mockMvc.perform(get("/v1/doctors/search").param("q", "smith"))
+                .andExpect(status().isOk())
+                .andExpect(statements(0));
+    }
+
+    @Test
+    void test_searchDoctors_withAvailability_budget() throws Exception {
+        // one IN query for the schedules of the matches and one for their appointments this week
+        mockMvc.perform(get("/v1/doctors/search").param("q", "smith").param("withAvailability", "true"))
+                .andExpect(status().isOk())
+                .andExpect(statements(2));
+    }
+
+    @Test
+    void test_updateSchedule_dryRun_budget() throws Exception {
+        // current schedules, last booked date, one query per chunk of affected dates; nothing is written
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .param("impact", "DRY_RUN")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MONDAY_UNTIL_10AM))
+                .andExpect(status().isOk())
+                .andExpect(statements(6));
+    }
+
+    @Test
+    void test_updateSchedule_flag_budget() throws Exception {
+        // the update (day's schedule, utilization rows, update), the dry run's scan, one bulk flag
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .param("impact", "FLAG")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MONDAY_UNTIL_10AM))
+                .andExpect(status().isOk())
+                .andExpect(statements(10));
+    }
+
+    @Test
+    void test_updateSchedule_cancel_budget() throws Exception {
+        // the flag budget with one bulk delete instead of the flag, and a counter update per utilization period
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .param("impact", "CANCEL")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(MONDAY_UNTIL_10AM))
+                .andExpect(status().isOk())
+                .andExpect(statements(13));
+    }
+
+    /**
+     * Streamed responses are not buffered for the header, their count is only recorded in the metric.
+     */
+    private void assertStreamedStatements(String method, String uri, int budget) {
+        DistributionSummary statements = meterRegistry.get("hospital.http.sql.statements")
+                .tag("method", method)
+                .tag("uri", uri)
+                .summary();
+        assertEquals(1, statements.count());
+        assertEquals(budget, statements.totalAmount());
+    }
+
+    private static ResultMatcher statements(int budget) {
+        return header().string(STATEMENT_COUNT_HEADER, String.valueOf(budget));
+    }
+}
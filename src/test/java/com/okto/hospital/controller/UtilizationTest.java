@@ -0,0 +1,158 @@
+package com.okto.hospital.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.context.jdbc.SqlMergeMode;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Books, cancels and changes hours through the API and reads the utilization counters they maintain.
+ * The dates are in March 2099, whose Mondays are the 2nd, 9th, 16th, 23rd and 30th, so schedule changes apply
+ * to all of them.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@Sql(statements = """
+        INSERT INTO doctor (id, name)
+        VALUES (1, 'Doctor Smith');
+
+        INSERT INTO patient (id, name)
+        VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+
+        INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+        VALUES (1, 'MONDAY', '09:00:00', '17:00:00');
+        """,
+        executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+@Sql(statements = "DELETE FROM doctor_utilization; " + AppointmentControllerTest.CLEAN_TABLES_QUERY,
+        executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+class UtilizationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void test_getUtilization_perWeek_shouldCountBookingsAndCancellations_andCutTheRangeEnds() throws Exception {
+        book(1, "2099-03-02", "10:00");
+        book(2, "2099-03-02", "11:00");
+        book(1, "2099-03-09", "10:00");
+        mockMvc.perform(delete("/v1/doctors/1/appointments/3"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2099-03-01")
+                        .param("to", "2099-03-31")
+                        .param("period", "WEEK"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total.availableMinutes").value(5 * 480))
+                .andExpect(jsonPath("$.total.bookedMinutes").value(120))
+                .andExpect(jsonPath("$.total.appointments").value(2))
+                .andExpect(jsonPath("$.total.utilization").value(0.05))
+                // Sunday 1st, four whole weeks, Monday 30th and Tuesday 31st
+                .andExpect(jsonPath("$.periods.length()").value(6))
+                .andExpect(jsonPath("$.periods[0].from").value("2099-03-01"))
+                .andExpect(jsonPath("$.periods[0].availableMinutes").value(0))
+                .andExpect(jsonPath("$.periods[1].from").value("2099-03-02"))
+                .andExpect(jsonPath("$.periods[1].to").value("2099-03-08"))
+                .andExpect(jsonPath("$.periods[1].bookedMinutes").value(120))
+                .andExpect(jsonPath("$.periods[1].utilization").value(0.25))
+                .andExpect(jsonPath("$.periods[2].bookedMinutes").value(0))
+                .andExpect(jsonPath("$.periods[2].appointments").value(0))
+                .andExpect(jsonPath("$.periods[5].from").value("2099-03-30"))
+                .andExpect(jsonPath("$.periods[5].to").value("2099-03-31"))
+                .andExpect(jsonPath("$.periods[5].availableMinutes").value(480));
+    }
+
+    @Test
+    void test_getUtilization_afterScheduleChange_shouldUseTheNewHours() throws Exception {
+        book(1, "2099-03-02", "10:00");
+
+        mockMvc.perform(put("/v1/doctors/1/schedule")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "doctorId": 1,
+                                    "dayOfWeek": "MONDAY",
+                                    "startTime": "09:00",
+                                    "endTime": "13:00"
+                                }"""))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2099-03-01")
+                        .param("to", "2099-03-31")
+                        .param("period", "MONTH"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.periods.length()").value(1))
+                .andExpect(jsonPath("$.periods[0].availableMinutes").value(5 * 240))
+                .andExpect(jsonPath("$.periods[0].bookedMinutes").value(60));
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2099-03-02")
+                        .param("to", "2099-03-02"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.period").value("DAY"))
+                .andExpect(jsonPath("$.total.availableMinutes").value(240))
+                .andExpect(jsonPath("$.total.utilization").value(0.25));
+    }
+
+    @Test
+    @SqlMergeMode(SqlMergeMode.MergeMode.MERGE)
+    @Sql(statements = """
+            INSERT INTO appointment (id, patient_id, doctor_id, date, start_time, end_time, created_at)
+            VALUES (100, 1, 1, '2099-03-02', '09:00:00', '10:00:00', '2099-01-01 08:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    void test_getUtilization_afterCancellingAnAppointmentBookedBeforeTheCounters_shouldNotCountItNegatively() throws Exception {
+        mockMvc.perform(delete("/v1/doctors/1/appointments/100"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2099-03-02")
+                        .param("to", "2099-03-02"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total.bookedMinutes").value(0))
+                .andExpect(jsonPath("$.total.appointments").value(0));
+
+        book(2, "2099-03-02", "11:00");
+
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2099-03-01")
+                        .param("to", "2099-03-31")
+                        .param("period", "MONTH"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total.bookedMinutes").value(60))
+                .andExpect(jsonPath("$.total.appointments").value(1));
+    }
+
+    @Test
+    void test_getUtilization_whenRangeEndsBeforeItStarts_shouldReturn400() throws Exception {
+        mockMvc.perform(get("/v1/doctors/1/utilization")
+                        .param("from", "2099-03-02")
+                        .param("to", "2099-03-01"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private void book(int patientId, String date, String startTime) throws Exception {
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": %d,
+                                    "date": "%s",
+                                    "startTime": "%s"
+                                }""".formatted(patientId, date, startTime)))
+                .andExpect(status().isCreated());
+    }
+}
@@ -0,0 +1,235 @@
+package com.okto.hospital.journal;
+
+import com.okto.hospital.exception.ResourceNotFound;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Restarts the ledger on the journal and the snapshots a previous one left behind, against a database of its own.
+ */
+class BookingLedgerRecoveryTest {
+
+    private static final LocalDate DATE = LocalDate.of(2099, 3, 2);
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2099-01-01T08:00:00Z"), ZoneOffset.UTC);
+
+    @TempDir
+    Path directory;
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private BookingLedger ledger;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("""
+                CREATE TABLE patient (id INT PRIMARY KEY, name VARCHAR(255));
+                CREATE TABLE appointment (id INT PRIMARY KEY, patient_id INT REFERENCES patient (id), doctor_id INT,
+                    date DATE, start_time TIME, end_time TIME, created_at TIMESTAMP NOT NULL);
+                CREATE TABLE appointment_archive (id INT PRIMARY KEY, appointment_id INT NOT NULL);
+                CREATE TABLE journal_checkpoint (id INT PRIMARY KEY, sequence BIGINT NOT NULL);
+                CREATE TABLE journal_dead_letter (sequence BIGINT PRIMARY KEY, type VARCHAR(16) NOT NULL,
+                    appointment_id INT NOT NULL, doctor_id INT NOT NULL, patient_id INT NOT NULL, date DATE NOT NULL,
+                    start_time TIME NOT NULL, end_time TIME NOT NULL, created_at TIMESTAMP NOT NULL,
+                    error VARCHAR(1000) NOT NULL, dead_lettered_at TIMESTAMP NOT NULL);
+                INSERT INTO patient (id, name) VALUES (1, 'Patient Doe'), (2, 'Patient Roe');
+                """);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (ledger != null) {
+            ledger.destroy();
+        }
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    void test_start_whenJournalIsNew_shouldReadTheStateFromTheAppointmentTable() {
+        jdbcTemplate.update("""
+                INSERT INTO appointment (id, patient_id, doctor_id, date, start_time, end_time, created_at)
+                VALUES (7, 1, 1, '2099-03-02', '09:00:00', NULL, '2099-01-01 08:00:00')
+                """);
+        jdbcTemplate.update("INSERT INTO appointment_archive (id, appointment_id) VALUES (1, 9)");
+
+        ledger = start();
+
+        assertEquals(1, ledger.size());
+        assertEquals(LocalTime.of(10, 0), ledger.find(7, 1).orElseThrow().endTime());
+        // ids of archived appointments are not handed out again
+        assertEquals(10, book(2, LocalTime.of(10, 0)).appointmentId());
+    }
+
+    @Test
+    void test_start_afterCrash_shouldRebuildTheStateFromSnapshotAndJournal_andProjectWhatTheTableMisses() throws Exception {
+        BookingLedger crashed = start();
+        // the projection never gets to write anything before the crash
+        crashed.projector.stop(Duration.ofSeconds(5));
+        book(crashed, 1, LocalTime.of(9, 0));
+        book(crashed, 1, LocalTime.of(10, 0));
+        book(crashed, 2, LocalTime.of(11, 0));
+        crashed.snapshot();
+        book(crashed, 2, LocalTime.of(12, 0));
+        crashed.decide(() -> crashed.cancel(2, 1));
+        // the process dies halfway through the next append: a frame with a length but a garbage checksum
+        tearFrameAfter(crashed.lastSequence());
+
+        ledger = start();
+
+        assertEquals(5, ledger.lastSequence());
+        assertEquals(3, ledger.size());
+        assertTrue(ledger.find(2, 1).isEmpty());
+        assertEquals(List.of(1, 3, 4), ledger.bookedSlots(1, 1, DATE, DATE, DATE).stream()
+                .map(slot -> slot.id()).sorted().toList());
+        assertEquals(5, book(1, LocalTime.of(13, 0)).appointmentId());
+
+        assertTrue(ledger.awaitProjected(Duration.ofSeconds(5)));
+        assertEquals(List.of(1, 3, 4, 5), jdbcTemplate.queryForList("SELECT id FROM appointment ORDER BY id", Integer.class));
+        assertEquals(6, jdbcTemplate.queryForObject("SELECT sequence FROM journal_checkpoint", Long.class));
+    }
+
+    @Test
+    void test_start_afterShutdown_shouldNotProjectTheRecordsTwice() throws Exception {
+        ledger = start();
+        book(1, LocalTime.of(9, 0));
+        book(2, LocalTime.of(10, 0));
+        ledger.destroy();
+
+        ledger = start();
+        book(1, LocalTime.of(11, 0));
+
+        assertTrue(ledger.awaitProjected(Duration.ofSeconds(5)));
+        assertEquals(List.of(1, 2, 3), jdbcTemplate.queryForList("SELECT id FROM appointment ORDER BY id", Integer.class));
+    }
+
+    @Test
+    void test_projection_whenTheDatabaseRefusesARecord_shouldDeadLetterIt_andGoOn() throws Exception {
+        ledger = start();
+        book(2, LocalTime.of(9, 0));
+        ledger.decide(() -> ledger.cancel(1, 1));
+        assertTrue(ledger.awaitProjected(Duration.ofSeconds(5)));
+        // the ledger still knows the patient, the table no longer does
+        jdbcTemplate.update("DELETE FROM patient WHERE id = 2");
+        book(2, LocalTime.of(10, 0));
+        book(1, LocalTime.of(11, 0));
+
+        assertTrue(ledger.awaitProjected(Duration.ofSeconds(5)));
+        assertEquals(4, jdbcTemplate.queryForObject("SELECT sequence FROM journal_checkpoint", Long.class));
+        assertEquals(List.of(3), jdbcTemplate.queryForList("SELECT id FROM appointment ORDER BY id", Integer.class));
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT appointment_id FROM journal_dead_letter WHERE sequence = 3", Integer.class));
+        // the refused booking is dropped and its patient looked up again
+        assertEquals(List.of(3), ledger.bookedSlots(1, 1, DATE, DATE, DATE).stream().map(slot -> slot.id()).toList());
+        assertThrows(ResourceNotFound.class, () -> book(2, LocalTime.of(12, 0)));
+
+        ledger.destroy();
+        ledger = start();
+
+        assertEquals(1, ledger.size());
+        assertTrue(ledger.find(2, 1).isEmpty());
+    }
+
+    @Test
+    void test_projection_whenTheFallbackFailsAfterWritingARecord_shouldRetryFromTheRecordAfterIt() throws Exception {
+        AtomicInteger secondRecordWrites = new AtomicInteger();
+        JournalProjector projector = new JournalProjector(jdbcTemplate, transactionTemplate(), 100, 1_000, record -> {
+            if (record.sequence() == 2) {
+                // the batch is refused as a whole, then the connection is lost on the second record alone
+                switch (secondRecordWrites.incrementAndGet()) {
+                    case 1 -> throw new DataIntegrityViolationException("refused");
+                    case 2 -> throw new TransientDataAccessResourceException("connection lost");
+                    default -> {
+                    }
+                }
+            }
+        }, record -> { });
+        projector.readCheckpoint();
+        // queued before the start, so the three records make one batch
+        for (int sequence = 1; sequence <= 3; sequence++) {
+            projector.enqueue(new JournalRecord(JournalRecord.Type.BOOKED, sequence, sequence, 1, 1, DATE,
+                    LocalTime.of(8 + sequence, 0), LocalTime.of(9 + sequence, 0), CLOCK.instant()));
+        }
+        projector.start();
+        try {
+            assertTrue(projector.awaitProjected(3, Duration.ofSeconds(5)));
+        } finally {
+            projector.stop(Duration.ofSeconds(5));
+        }
+
+        assertEquals(3, secondRecordWrites.get());
+        assertEquals(List.of(1, 2, 3), jdbcTemplate.queryForList("SELECT id FROM appointment ORDER BY id", Integer.class));
+        assertEquals(3, jdbcTemplate.queryForObject("SELECT sequence FROM journal_checkpoint", Long.class));
+    }
+
+    @Test
+    void test_book_whenPatientDoesNotExist_shouldThrowResourceNotFound_andJournalNothing() {
+        ledger = start();
+
+        assertThrows(ResourceNotFound.class, () -> book(3, LocalTime.of(9, 0)));
+        assertEquals(0, ledger.lastSequence());
+    }
+
+    @Test
+    void test_book_outsideDecide_shouldThrow() {
+        ledger = start();
+
+        assertThrows(IllegalStateException.class,
+                () -> ledger.book(1, 1, DATE, LocalTime.of(9, 0), LocalTime.of(10, 0)));
+    }
+
+    private BookingLedger start() {
+        MappedJournal journal = new MappedJournal(directory, 1 << 16, FsyncPolicy.ALWAYS, 0);
+        // no utilization counters in this database
+        BookingLedger started = new BookingLedger(journal, directory, jdbcTemplate,
+                transactionTemplate(), 100, 1_000, record -> { }, CLOCK);
+        started.afterSingletonsInstantiated();
+        return started;
+    }
+
+    private TransactionTemplate transactionTemplate() {
+        return new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    private JournalRecord book(int patientId, LocalTime startTime) {
+        return book(ledger, patientId, startTime);
+    }
+
+    private static JournalRecord book(BookingLedger ledger, int patientId, LocalTime startTime) {
+        return ledger.decide(() -> ledger.book(1, patientId, DATE, startTime, startTime.plusHours(1)));
+    }
+
+    private void tearFrameAfter(long sequence) throws IOException {
+        Path segment = directory.resolve("%020d.log".formatted(1));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putInt(JournalRecord.SIZE).putInt(0xbad).flip(),
+                    sequence * MappedJournal.FRAME_SIZE);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.okto.hospital.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedJournalTest {
+
+    private static final int SEGMENT_SIZE = MappedJournal.FRAME_SIZE * 10;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void test_replay_afterReopen_shouldReadTheAppendedRecordsInOrder() {
+        MappedJournal journal = open();
+        appendRecords(journal, 1, 25);
+        journal.close();
+
+        MappedJournal reopened = open();
+
+        assertEquals(25, reopened.lastSequence());
+        assertEquals(sequences(1, 25), replay(reopened, 0));
+        assertEquals(sequences(18, 25), replay(reopened, 17));
+        // three segments of ten records
+        assertEquals(3, segmentFiles().size());
+    }
+
+    @Test
+    void test_open_whenLastRecordIsTorn_shouldTruncateIt_andAppendAfterTheLastGoodRecord() throws IOException {
+        MappedJournal journal = open();
+        appendRecords(journal, 1, 5);
+        journal.close();
+        // a crash in the middle of the sixth append: checksum and part of the record written, the length not yet
+        writeAt(segmentFiles().get(0), 5 * MappedJournal.FRAME_SIZE + 4, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        MappedJournal reopened = open();
+        appendRecords(reopened, 6, 7);
+
+        assertEquals(sequences(1, 7), replay(reopened, 0));
+    }
+
+    @Test
+    void test_open_whenRecordIsCorrupt_shouldDropItAndEverythingAfter() throws IOException {
+        MappedJournal journal = open();
+        appendRecords(journal, 1, 15);
+        journal.close();
+        // flip a byte of the fourth record's payload, its checksum no longer matches
+        writeAt(segmentFiles().get(0), 3 * MappedJournal.FRAME_SIZE + 20, new byte[]{(byte) 0xff});
+
+        MappedJournal reopened = open();
+
+        assertEquals(3, reopened.lastSequence());
+        assertEquals(sequences(1, 3), replay(reopened, 0));
+        // the second segment is set aside, not deleted
+        assertEquals(1, segmentFiles().size());
+        appendRecords(reopened, 4, 12);
+        assertEquals(sequences(1, 12), replay(reopened, 0));
+    }
+
+    @Test
+    void test_deleteUpTo_shouldKeepTheSegmentsNeededAfterTheSequence_andReopenAfterThem() {
+        MappedJournal journal = open();
+        appendRecords(journal, 1, 25);
+
+        journal.deleteUpTo(15);
+
+        // the segment of 11..20 still holds 16..20
+        assertEquals(2, segmentFiles().size());
+        assertEquals(sequences(16, 25), replay(journal, 15));
+        journal.close();
+
+        MappedJournal reopened = open();
+        assertEquals(25, reopened.lastSequence());
+        appendRecords(reopened, 26, 26);
+        assertEquals(sequences(11, 26), replay(reopened, 0));
+    }
+
+    @Test
+    void test_append_whenSequenceDoesNotFollow_shouldThrow() {
+        MappedJournal journal = open();
+        appendRecords(journal, 1, 2);
+
+        assertThrows(IllegalArgumentException.class, () -> journal.append(record(4)));
+    }
+
+    private MappedJournal open() {
+        return new MappedJournal(directory, SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0);
+    }
+
+    static JournalRecord record(long sequence) {
+        return new JournalRecord(sequence % 3 == 0 ? JournalRecord.Type.CANCELLED : JournalRecord.Type.BOOKED,
+                sequence, (int) sequence, 1, 2, LocalDate.of(2099, 3, 2), LocalTime.of(9, 0), LocalTime.of(10, 0),
+                Instant.ofEpochMilli(sequence));
+    }
+
+    private static void appendRecords(MappedJournal journal, long first, long last) {
+        for (long sequence = first; sequence <= last; sequence++) {
+            journal.append(record(sequence));
+        }
+        journal.commit();
+    }
+
+    private static List<Long> replay(MappedJournal journal, long afterSequence) {
+        List<Long> sequences = new ArrayList<>();
+        journal.replay(afterSequence, record -> {
+            assertEquals(record(record.sequence()), record);
+            sequences.add(record.sequence());
+        });
+        return sequences;
+    }
+
+    private static List<Long> sequences(long first, long last) {
+        return Stream.iterate(first, sequence -> sequence <= last, sequence -> sequence + 1).toList();
+    }
+
+    private List<Path> segmentFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).sorted().toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeAt(Path file, long position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.okto.hospital.repository;
+
+import com.okto.hospital.model.request.ScheduleRequest;
+import com.okto.hospital.service.ScheduleService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ScheduleRepositoryCacheTest {
+
+    public static final String CLEAN_TABLES_QUERY = """
+            DELETE FROM schedule;
+            DELETE FROM doctor;
+            """;
+
+    @Autowired
+    private ScheduleRepository scheduleRepository;
+
+    @Autowired
+    private ScheduleService scheduleService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'John Smith');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '13:00:00'),
+            (2, 1, 'TUESDAY', '12:00:00', '17:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_findSchedulesByDoctorId_secondLookupIsServedFromQueryCache() {
+        assertEquals(2, scheduleRepository.findSchedulesByDoctorId(1).size());
+        assertEquals(2, scheduleRepository.findSchedulesByDoctorId(1).size());
+
+        var region = statistics.getQueryRegionStatistics(ScheduleRepository.QUERY_CACHE_REGION);
+        assertEquals(1, region.getMissCount());
+        assertEquals(1, region.getHitCount());
+        assertEquals(1, statistics.getQueryExecutionCount());
+    }
+
+    @Test
+    @Sql(statements = """
+            INSERT INTO doctor (id, name)
+            VALUES (1, 'John Smith');
+
+            INSERT INTO schedule (id, doctor_id, day_of_week, start_time, end_time)
+            VALUES
+            (1, 1, 'MONDAY', '09:00:00', '13:00:00'),
+            (2, 1, 'TUESDAY', '12:00:00', '17:00:00');
+            """,
+            executionPhase = Sql.ExecutionPhase.BEFORE_TEST_METHOD)
+    @Sql(statements = CLEAN_TABLES_QUERY,
+            executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void test_findSchedulesByDoctorId_whenScheduleListIsReplaced_shouldNotServeStaleResults() {
+        assertEquals(2, scheduleRepository.findSchedulesByDoctorId(1).size());
+
+        scheduleService.upsertScheduleList(1, List.of(
+                new ScheduleRequest(1, DayOfWeek.FRIDAY, LocalTime.of(8, 0), LocalTime.of(12, 0))
+        ));
+
+        var schedules = scheduleRepository.findSchedulesByDoctorId(1);
+        assertEquals(1, schedules.size());
+        assertEquals(DayOfWeek.FRIDAY, schedules.get(0).dayOfWeek());
+    }
+}
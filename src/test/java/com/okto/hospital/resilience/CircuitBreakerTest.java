@@ -0,0 +1,80 @@
+package com.okto.hospital.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CircuitBreakerTest {
+
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+    private static final long OPEN = TimeUnit.SECONDS.toNanos(10);
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void test_onResult_whenFailureRateIsReached_shouldOpenAndDenyCalls() {
+        var breaker = new CircuitBreaker(10, 4, 0.5, SLOW, OPEN, now::get);
+
+        breaker.onResult(false, 0);
+        breaker.onResult(true, 0);
+        breaker.onResult(false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onResult(true, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.tryAcquire());
+        assertEquals(OPEN, breaker.remainingOpenNanos());
+    }
+
+    @Test
+    void test_onResult_shouldCountSlowCallsAsFailures_andForgetCallsLeavingTheWindow() {
+        var breaker = new CircuitBreaker(4, 4, 0.5, SLOW, OPEN, now::get);
+
+        breaker.onResult(false, SLOW + 1);
+        for (int i = 0; i < 4; i++) {
+            breaker.onResult(false, SLOW);
+        }
+        // the slow call has left the window
+        breaker.onResult(false, SLOW + 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onResult(false, SLOW + 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void test_tryAcquire_whenOpenDurationHasElapsed_shouldLetOneProbeThrough() {
+        var breaker = new CircuitBreaker(10, 1, 0.5, SLOW, OPEN, now::get);
+        breaker.open();
+
+        now.addAndGet(OPEN - 1);
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.tryAcquire());
+        now.incrementAndGet();
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.tryAcquire());
+
+        breaker.onResult(false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.GRANTED, breaker.tryAcquire());
+    }
+
+    @Test
+    void test_onResult_whenProbeFails_shouldOpenAgain_andIgnoreCallsStartedBeforeOpening() {
+        var breaker = new CircuitBreaker(10, 1, 0.5, SLOW, OPEN, now::get);
+        breaker.open();
+        now.addAndGet(OPEN);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.tryAcquire());
+
+        breaker.onResult(true, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(OPEN, breaker.remainingOpenNanos());
+
+        // a call granted before the breaker opened comes back late
+        breaker.onResult(false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,181 @@
+package com.okto.hospital.scaling;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Measures the latency of the endpoints as the number of appointments grows, on data filled by the
+ * {@link SyntheticDataGenerator}, and fails when an endpoint's latency grows faster than the data: between two
+ * sizes, the median latency may grow at most by the size ratio to the power of scaling.max-exponent (1, linear).
+ * An indexed read should stay close to 0.
+ * <p>
+ * Tagged "scaling" and left out of the default build. Run it with
+ * {@code ./mvnw test -Pscaling}; the sizes are set with -Dscaling.sizes (default 1000,10000,100000,1000000) and
+ * the database with -Dscaling.url (default in memory). Use an H2 file database from 10^7 appointments on, for
+ * example -Dscaling.url=jdbc:h2:file:./target/scaling;CACHE_SIZE=262144, and give the forked JVM more heap with
+ * -DargLine=-Xmx8g. Requests per endpoint and size: -Dscaling.requests (default 2000).
+ */
+@Tag("scaling")
+@SpringBootTest(properties = {
+        "spring.datasource.url=${scaling.url:jdbc:h2:mem:scaling}",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.sql.init.mode=never",
+        "hospital.admission.enabled=false",
+        "hospital.archive.enabled=false",
+        "logging.level.org.springframework.web=INFO"
+})
+@AutoConfigureMockMvc
+class ScalingTest {
+
+    private static final long SEED = 42;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private Clock clock;
+
+    private record Endpoint(String name, Function<Request, RequestBuilder> request) {
+    }
+
+    /**
+     * A random doctor, patient and date for one request.
+     */
+    private record Request(int doctorId, int patientId, LocalDate date, int hour) {
+    }
+
+    @Test
+    void test_endpointLatency_shouldNotGrowSuperLinearly_withTheNumberOfAppointments() throws Exception {
+        long[] sizes = Arrays.stream(System.getProperty("scaling.sizes", "1000,10000,100000,1000000").split(","))
+                .mapToLong(size -> Long.parseLong(size.trim()))
+                .toArray();
+        int requests = Integer.getInteger("scaling.requests", 2000);
+        double maxExponent = Double.parseDouble(System.getProperty("scaling.max-exponent", "1.0"));
+        LocalDate today = LocalDate.now(clock);
+
+        List<Endpoint> endpoints = List.of(
+                new Endpoint("GET schedule", request -> get("/v1/doctors/{doctorId}/schedule", request.doctorId())),
+                new Endpoint("POST appointment", request -> post("/v1/doctors/{doctorId}/appointments", request.doctorId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"patientId": %d, "date": "%s", "startTime": "%02d:00"}
+                                """.formatted(request.patientId(), request.date(), request.hour()))),
+                new Endpoint("GET appointments month", request -> get("/v1/doctors/{doctorId}/appointments", request.doctorId())
+                        .param("from", request.date().withDayOfMonth(1).toString())
+                        .param("to", request.date().withDayOfMonth(1).plusMonths(1).minusDays(1).toString()))
+        );
+
+        Map<String, List<long[]>> latencies = new LinkedHashMap<>();
+        List<Long> generated = new ArrayList<>();
+        for (long size : sizes) {
+            SyntheticDataGenerator.Spec spec = SyntheticDataGenerator.Spec.forAppointments(size, today, SEED);
+            clear();
+            long start = System.nanoTime();
+            SyntheticDataGenerator.Summary summary = new SyntheticDataGenerator(spec).generate(dataSource);
+            generated.add(summary.appointments());
+            System.out.printf("generated %s in %d ms%n", summary, (System.nanoTime() - start) / 1_000_000);
+
+            for (Endpoint endpoint : endpoints) {
+                latencies.computeIfAbsent(endpoint.name(), name -> new ArrayList<>())
+                        .add(measure(endpoint, spec, today, requests));
+            }
+        }
+
+        System.out.printf("%-24s %12s %10s %10s %10s%n", "endpoint", "appointments", "p50 us", "p99 us", "exponent");
+        List<String> superLinear = new ArrayList<>();
+        latencies.forEach((name, results) -> {
+            for (int i = 0; i < results.size(); i++) {
+                String exponent = "";
+                if (i > 0) {
+                    // growth of the median latency relative to the growth of the data, on a log-log scale
+                    double growth = Math.log((double) results.get(i)[0] / results.get(i - 1)[0])
+                            / Math.log((double) generated.get(i) / generated.get(i - 1));
+                    exponent = "%.2f".formatted(growth);
+                    if (growth > maxExponent) {
+                        superLinear.add("%s from %d to %d appointments (%s)".formatted(name, generated.get(i - 1), generated.get(i), exponent));
+                    }
+                }
+                System.out.printf("%-24s %12d %10d %10d %10s%n", name, generated.get(i), results.get(i)[0], results.get(i)[1], exponent);
+            }
+        });
+        if (!superLinear.isEmpty()) {
+            fail("latency grows faster than the data: " + String.join(", ", superLinear));
+        }
+    }
+
+    /**
+     * Sends the requests, after as many to warm up the JIT and the caches, and returns the median and the 99th percentile
+     * latency in microseconds. Doctors and patients are drawn with the skew of the generated data, dates from
+     * the booking window ahead of today, on the doctor's working days or not.
+     */
+    private long[] measure(Endpoint endpoint, SyntheticDataGenerator.Spec spec, LocalDate today, int requests) throws Exception {
+        SplittableRandom random = new SplittableRandom(SEED);
+        long[] micros = new long[requests];
+        for (int i = -requests; i < requests; i++) {
+            double u = random.nextDouble();
+            double v = random.nextDouble();
+            Request request = new Request(
+                    1 + (int) (spec.doctors() * u * u),
+                    1 + (int) (spec.patients() * v * v * v),
+                    today.plusDays(1 + random.nextInt(spec.futureDays())),
+                    7 + random.nextInt(12));
+            RequestBuilder builder = endpoint.request().apply(request);
+            long start = System.nanoTime();
+            int status = mockMvc.perform(builder).andReturn().getResponse().getStatus();
+            long elapsed = (System.nanoTime() - start) / 1_000;
+            // bookings answer 409 when the generated data already holds the slot
+            assertTrue(status < 400 || status == 409, () -> endpoint.name() + " answered " + status);
+            if (i >= 0) {
+                micros[i] = elapsed;
+            }
+        }
+        Arrays.sort(micros);
+        return new long[]{micros[requests / 2], micros[(int) Math.ceil(requests * 0.99) - 1]};
+    }
+
+    /**
+     * Empties the tables and the persistence caches between two sizes; the rows are written behind
+     * Hibernate's back, so its caches would otherwise serve the previous population.
+     */
+    private void clear() {
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("SET REFERENTIAL_INTEGRITY FALSE");
+        for (String table : List.of("waitlist_entry", "appointment_archive", "appointment", "schedule", "patient", "doctor")) {
+            jdbc.execute("TRUNCATE TABLE " + table + " RESTART IDENTITY");
+        }
+        jdbc.execute("SET REFERENTIAL_INTEGRITY TRUE");
+        entityManagerFactory.getCache().evictAll();
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+}
@@ -0,0 +1,296 @@
+package com.okto.hospital.scaling;
+
+import com.okto.hospital.HospitalApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Fills the hospital tables with a deterministic synthetic population: the same {@link Spec} always produces
+ * the same rows. The data is skewed the way a real hospital's is:
+ * <ul>
+ *     <li>doctors work 3 to 5 days a week, starting between 07:00 and 10:00, for 6 to 9 hours</li>
+ *     <li>doctor popularity follows a power law, the most popular doctors are almost fully booked while
+ *     the long tail has few appointments</li>
+ *     <li>a minority of the patients holds most of the appointments (patient ids are drawn as
+ *     {@code patients * u^3}, so the first 10% of the patients hold close to half of the appointments)</li>
+ *     <li>appointments cover {@code years} of history up to today and {@code futureDays} ahead</li>
+ * </ul>
+ * Appointments never collide on a doctor's slot. A patient may get two overlapping appointments with different
+ * doctors, which the booking rules would reject, but the conflict queries read them the same way.
+ * The rows are written with batched JDBC statements into the tables the application created, so the generator
+ * works for the in-memory database of a test as well as for an H2 file database.
+ * <p>
+ * Run the main method to fill a file database, for example for the H2 console:
+ * {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.okto.hospital.scaling.SyntheticDataGenerator
+ * -Dexec.args="jdbc:h2:file:./data/hospital 1000000"}. Arguments: JDBC url, number of appointments (default 1000000)
+ * and seed (default 42). The tables are created by the application's own entity mapping.
+ */
+public class SyntheticDataGenerator {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final DayOfWeek[] DAYS = DayOfWeek.values();
+
+    /**
+     * What to generate.
+     *
+     * @param doctors      number of doctors
+     * @param patients     number of patients
+     * @param appointments number of appointments to aim for, the generated count is within a few percent
+     * @param years        years of history
+     * @param futureDays   days of bookings ahead of today
+     * @param today        the last day of history
+     * @param seed         seed of the random generator
+     */
+    public record Spec(int doctors, int patients, long appointments, int years, int futureDays, LocalDate today, long seed) {
+
+        /**
+         * A population sized for the number of appointments: three years of history and 90 days ahead,
+         * about 800 appointments per doctor and year and 25 appointments per patient.
+         *
+         * @param appointments number of appointments
+         * @param today        the last day of history
+         * @param seed         seed of the random generator
+         * @return the spec
+         */
+        public static Spec forAppointments(long appointments, LocalDate today, long seed) {
+            int years = 3;
+            int doctors = (int) Math.max(2, appointments / (800L * years));
+            int patients = (int) Math.max(10, appointments / 25);
+            return new Spec(doctors, patients, appointments, years, 90, today, seed);
+        }
+    }
+
+    /**
+     * What was generated.
+     *
+     * @param doctors      number of doctors
+     * @param patients     number of patients
+     * @param schedules    number of weekly schedule rows
+     * @param appointments number of appointments
+     */
+    public record Summary(int doctors, int patients, int schedules, long appointments) {
+    }
+
+    private record DaySchedule(int doctorId, DayOfWeek dayOfWeek, LocalTime startTime, LocalTime endTime) {
+
+        int slots() {
+            return endTime.getHour() - startTime.getHour();
+        }
+    }
+
+    private final Spec spec;
+
+    public SyntheticDataGenerator(Spec spec) {
+        this.spec = spec;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: SyntheticDataGenerator <jdbc url> [appointments] [seed]");
+            System.exit(1);
+        }
+        long appointments = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(HospitalApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=" + args[0],
+                        "spring.jpa.hibernate.ddl-auto=update",
+                        "spring.sql.init.mode=never",
+                        "hospital.archive.enabled=false")
+                .run()) {
+            long start = System.nanoTime();
+            Summary summary = new SyntheticDataGenerator(Spec.forAppointments(appointments, LocalDate.now(), seed))
+                    .generate(context.getBean(DataSource.class));
+            System.out.printf("generated %s in %d s%n", summary, (System.nanoTime() - start) / 1_000_000_000);
+        }
+    }
+
+    /**
+     * Inserts the population into empty tables.
+     *
+     * @param dataSource the database
+     * @return the number of rows written
+     * @throws SQLException when a statement fails
+     */
+    public Summary generate(DataSource dataSource) throws SQLException {
+        SplittableRandom random = new SplittableRandom(spec.seed());
+        List<DaySchedule> schedules = schedules(random);
+        double[] fillRates = fillRates(schedules);
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                insertPeople(connection, "doctor", "Doctor", spec.doctors());
+                insertPeople(connection, "patient", "Patient", spec.patients());
+                insertSchedules(connection, schedules);
+                long appointments = insertAppointments(connection, schedules, fillRates, random);
+                return new Summary(spec.doctors(), spec.patients(), schedules.size(), appointments);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private List<DaySchedule> schedules(SplittableRandom random) {
+        List<DaySchedule> schedules = new ArrayList<>();
+        for (int doctorId = 1; doctorId <= spec.doctors(); doctorId++) {
+            int workingDays = 3 + random.nextInt(3);
+            int firstDay = random.nextInt(DAYS.length);
+            LocalTime startTime = LocalTime.of(7 + random.nextInt(4), 0);
+            LocalTime endTime = startTime.plusHours(6 + random.nextInt(4));
+            for (int day = 0; day < workingDays; day++) {
+                schedules.add(new DaySchedule(doctorId, DAYS[(firstDay + day * 2) % DAYS.length], startTime, endTime));
+            }
+        }
+        return schedules;
+    }
+
+    /**
+     * Returns the share of each doctor's slots that gets booked. Doctor popularity follows a power law of the
+     * doctor id; the shares are scaled so that the expected number of appointments is the one asked for,
+     * capped at 95% per doctor.
+     */
+    private double[] fillRates(List<DaySchedule> schedules) {
+        long days = (long) spec.years() * 365 + spec.futureDays();
+        double[] capacity = new double[spec.doctors() + 1];
+        for (DaySchedule schedule : schedules) {
+            capacity[schedule.doctorId()] += schedule.slots() * days / 7.0;
+        }
+        double[] popularity = new double[spec.doctors() + 1];
+        for (int doctorId = 1; doctorId <= spec.doctors(); doctorId++) {
+            popularity[doctorId] = Math.pow(doctorId, -0.8);
+        }
+
+        // bisection on the scale factor, the expected total grows with it
+        double low = 0;
+        double high = 1;
+        while (expectedAppointments(capacity, popularity, high) < spec.appointments() && high < 1e12) {
+            high *= 2;
+        }
+        for (int i = 0; i < 60; i++) {
+            double middle = (low + high) / 2;
+            if (expectedAppointments(capacity, popularity, middle) < spec.appointments()) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        double[] fillRates = new double[spec.doctors() + 1];
+        for (int doctorId = 1; doctorId <= spec.doctors(); doctorId++) {
+            fillRates[doctorId] = Math.min(0.95, high * popularity[doctorId]);
+        }
+        return fillRates;
+    }
+
+    private static double expectedAppointments(double[] capacity, double[] popularity, double scale) {
+        double expected = 0;
+        for (int doctorId = 1; doctorId < capacity.length; doctorId++) {
+            expected += capacity[doctorId] * Math.min(0.95, scale * popularity[doctorId]);
+        }
+        return expected;
+    }
+
+    private static void insertPeople(Connection connection, String table, String prefix, int count) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table + " (id, name) VALUES (?, ?)")) {
+            for (int id = 1; id <= count; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, prefix + " " + id);
+                insert.addBatch();
+                if (id % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private static void insertSchedules(Connection connection, List<DaySchedule> schedules) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time) VALUES (?, ?, ?, ?)")) {
+            int count = 0;
+            for (DaySchedule schedule : schedules) {
+                insert.setInt(1, schedule.doctorId());
+                insert.setString(2, schedule.dayOfWeek().name());
+                insert.setTime(3, Time.valueOf(schedule.startTime()));
+                insert.setTime(4, Time.valueOf(schedule.endTime()));
+                insert.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private long insertAppointments(
+            Connection connection,
+            List<DaySchedule> schedules,
+            double[] fillRates,
+            SplittableRandom random
+    ) throws SQLException {
+        List<List<DaySchedule>> schedulesByDay = new ArrayList<>();
+        for (int day = 0; day < DAYS.length; day++) {
+            schedulesByDay.add(new ArrayList<>());
+        }
+        schedules.forEach(schedule -> schedulesByDay.get(schedule.dayOfWeek().ordinal()).add(schedule));
+
+        LocalDate first = spec.today().minusYears(spec.years());
+        LocalDate last = spec.today().plusDays(spec.futureDays());
+        long count = 0;
+        try (PreparedStatement insert = connection.prepareStatement("""
+                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                VALUES (?, ?, ?, ?, ?, ?)
+                """)) {
+            // in date order, like bookings arriving over the years
+            for (LocalDate date = first; !date.isAfter(last); date = date.plusDays(1)) {
+                Date sqlDate = Date.valueOf(date);
+                for (DaySchedule schedule : schedulesByDay.get(date.getDayOfWeek().ordinal())) {
+                    double fillRate = fillRates[schedule.doctorId()];
+                    for (LocalTime slot = schedule.startTime(); slot.isBefore(schedule.endTime()); slot = slot.plusHours(1)) {
+                        if (random.nextDouble() >= fillRate) {
+                            continue;
+                        }
+                        double u = random.nextDouble();
+                        insert.setInt(1, 1 + (int) (spec.patients() * u * u * u));
+                        insert.setInt(2, schedule.doctorId());
+                        insert.setDate(3, sqlDate);
+                        insert.setTime(4, Time.valueOf(slot));
+                        insert.setTime(5, Time.valueOf(slot.plusHours(1)));
+                        // booked up to 60 days ahead
+                        insert.setTimestamp(6, Timestamp.valueOf(date.minusDays(random.nextInt(60)).atTime(8, 0)));
+                        insert.addBatch();
+                        if (++count % BATCH_SIZE == 0) {
+                            insert.executeBatch();
+                            connection.commit();
+                        }
+                    }
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,54 @@
+package com.okto.hospital.search;
+
+import com.okto.hospital.model.projection.DoctorName;
+import com.okto.hospital.repository.DoctorRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DoctorNameIndexTest {
+
+    private final DoctorRepository doctorRepository = mock(DoctorRepository.class);
+
+    @SuppressWarnings("unchecked")
+    private final DoctorNameIndex index = new DoctorNameIndex(doctorRepository, mock(PlatformTransactionManager.class),
+            mock(ObjectProvider.class));
+
+    @Test
+    void test_rebuild_shouldKeepTheChangesCommittedWhileItReads() {
+        when(doctorRepository.findAllNames()).thenAnswer(invocation -> {
+            // committed after the rebuild read the table
+            index.put(2, "Lisa Cuddy");
+            index.remove(1);
+            return List.of(new DoctorName(1, "Gregory House"), new DoctorName(3, "James Wilson"));
+        });
+
+        index.rebuild();
+
+        assertEquals(2, index.size());
+        assertEquals(List.of(new DoctorNameIndex.Match(2, "Lisa Cuddy")), index.search("cuddy", 10));
+        assertEquals(List.of(), index.search("house", 10));
+        assertEquals(List.of(new DoctorNameIndex.Match(3, "James Wilson")), index.search("wil", 10));
+    }
+
+    @Test
+    void test_rebuild_shouldNotReplayTheChangesOfAnEarlierRebuild() {
+        when(doctorRepository.findAllNames())
+                .thenAnswer(invocation -> {
+                    index.put(1, "Gregory House");
+                    return List.of();
+                })
+                .thenReturn(List.of());
+
+        index.rebuild();
+        assertEquals(1, index.size());
+        index.rebuild();
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,46 @@
+package com.okto.hospital.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashShardStrategyTest {
+
+    private static final int DOCTORS = 10_000;
+
+    @Test
+    void test_shardFor_shouldBeStableAndSpreadDoctorsEvenly() {
+        var strategy = new ConsistentHashShardStrategy(List.of("a", "b", "c"), 128);
+        var sameLayout = new ConsistentHashShardStrategy(List.of("a", "b", "c"), 128);
+
+        Map<String, Integer> doctorsPerShard = new HashMap<>();
+        for (int doctorId = 1; doctorId <= DOCTORS; doctorId++) {
+            assertEquals(strategy.shardFor(doctorId), sameLayout.shardFor(doctorId));
+            doctorsPerShard.merge(strategy.shardFor(doctorId), 1, Integer::sum);
+        }
+
+        assertEquals(3, doctorsPerShard.size());
+        doctorsPerShard.values().forEach(count -> assertTrue(count > DOCTORS / 3 * 0.8, "uneven spread " + doctorsPerShard));
+    }
+
+    @Test
+    void test_shardFor_whenShardIsAdded_shouldOnlyMoveDoctorsToTheNewShard() {
+        var before = new ConsistentHashShardStrategy(List.of("a", "b", "c"), 128);
+        var after = new ConsistentHashShardStrategy(List.of("a", "b", "c", "d"), 128);
+
+        int moved = 0;
+        for (int doctorId = 1; doctorId <= DOCTORS; doctorId++) {
+            if (!before.shardFor(doctorId).equals(after.shardFor(doctorId))) {
+                assertEquals("d", after.shardFor(doctorId));
+                moved++;
+            }
+        }
+
+        assertTrue(moved > DOCTORS / 4 * 0.8 && moved < DOCTORS / 4 * 1.2, "moved " + moved);
+    }
+}
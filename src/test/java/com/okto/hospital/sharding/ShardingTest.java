@@ -0,0 +1,179 @@
+package com.okto.hospital.sharding;
+
+import com.okto.hospital.repository.AppointmentRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the application on two in-memory H2 shards, doctor 1 on shard-a and doctor 2 on shard-b.
+ */
+@SpringBootTest(properties = {
+        "hospital.sharding.enabled=true",
+        "hospital.sharding.strategy=directory",
+        "hospital.sharding.shards.shard-a.url=jdbc:h2:mem:sharding-test-a",
+        "hospital.sharding.shards.shard-b.url=jdbc:h2:mem:sharding-test-b",
+        "hospital.sharding.directory.1=shard-a",
+        "hospital.sharding.directory.2=shard-b",
+        "spring.datasource.hikari.maximum-pool-size=7"
+})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ShardingTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ShardRoutingDataSource dataSource;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Autowired
+    private AppointmentRepository appointmentRepository;
+
+    @BeforeEach
+    void setUp() {
+        for (String shard : List.of("shard-a", "shard-b")) {
+            jdbc(shard).update("INSERT INTO patient (id, name) VALUES (1, 'Patient Doe')");
+        }
+        jdbc("shard-a").update("INSERT INTO doctor (id, name) VALUES (1, 'Doctor Smith')");
+        jdbc("shard-a").update("""
+                INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+                VALUES (1, 'MONDAY', '09:00:00', '17:00:00')
+                """);
+        jdbc("shard-b").update("INSERT INTO doctor (id, name) VALUES (2, 'Doctor Jones')");
+        jdbc("shard-b").update("""
+                INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+                VALUES (2, 'TUESDAY', '10:00:00', '18:00:00')
+                """);
+    }
+
+    @Test
+    void test_shardPools_shouldTakeTheHikariSettings() {
+        for (String shard : List.of("shard-a", "shard-b")) {
+            HikariDataSource pool = (HikariDataSource) dataSource.getShard(shard);
+            assertEquals(7, pool.getMaximumPoolSize());
+            assertEquals("hospital-" + shard, pool.getPoolName());
+        }
+        assertEquals(7, dataSource.getSmallestPoolSize());
+    }
+
+    @Test
+    void test_getSchedule_shouldReadFromTheDoctorsShard() throws Exception {
+        mockMvc.perform(get("/v1/doctors/2/schedule"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].dayOfWeek").value("TUESDAY"));
+
+        // the default shard does not know doctor 2
+        assertEquals(0, appointmentRepository.count());
+        assertEquals(0, jdbc("shard-a").queryForObject("SELECT count(*) FROM schedule WHERE doctor_id = 2", Integer.class));
+    }
+
+    @Test
+    void test_getSchedules_shouldReadEveryDoctorFromItsShard_inRequestOrder() throws Exception {
+        MvcResult streaming = mockMvc.perform(get("/v1/schedules").param("doctorIds", "2,3,1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(streaming))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].doctorId").value(2))
+                .andExpect(jsonPath("$[0].status").value("FOUND"))
+                .andExpect(jsonPath("$[0].schedules[0].dayOfWeek").value("TUESDAY"))
+                .andExpect(jsonPath("$[1].doctorId").value(3))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[2].doctorId").value(1))
+                .andExpect(jsonPath("$[2].schedules[0].dayOfWeek").value("MONDAY"));
+    }
+
+    @Test
+    void test_createAppointment_shouldWriteToTheDoctorsShard() throws Exception {
+        mockMvc.perform(post("/v1/doctors/2/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-07",
+                                    "startTime": "10:00"
+                                }"""))
+                .andExpect(status().isCreated());
+
+        assertEquals(1, jdbc("shard-b").queryForObject("SELECT count(*) FROM appointment WHERE doctor_id = 2", Integer.class));
+        assertEquals(0, jdbc("shard-a").queryForObject("SELECT count(*) FROM appointment", Integer.class));
+    }
+
+    @Test
+    void test_createAppointment_whenPatientIsBookedOnAnotherShard_shouldReturn409() throws Exception {
+        jdbc("shard-a").update("""
+                INSERT INTO schedule (doctor_id, day_of_week, start_time, end_time)
+                VALUES (1, 'TUESDAY', '09:00:00', '17:00:00')
+                """);
+        jdbc("shard-b").update("""
+                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                VALUES (1, 2, '2023-03-07', '10:00:00', '11:00:00', '2021-03-06 10:00:00')
+                """);
+
+        mockMvc.perform(post("/v1/doctors/1/appointments")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "patientId": 1,
+                                    "date": "2023-03-07",
+                                    "startTime": "10:00"
+                                }"""))
+                .andExpect(status().isConflict());
+
+        assertEquals(0, jdbc("shard-a").queryForObject("SELECT count(*) FROM appointment", Integer.class));
+    }
+
+    @Test
+    void test_rebalance_whenDoctorIsReassigned_shouldMoveTheDoctorsData() throws Exception {
+        jdbc("shard-b").update("""
+                INSERT INTO appointment (patient_id, doctor_id, date, start_time, end_time, created_at)
+                VALUES (1, 2, '2023-03-07', '10:00:00', '11:00:00', '2021-03-06 10:00:00')
+                """);
+        shardRouter.assign(2, "shard-a");
+
+        assertEquals(List.of(new ShardRebalancer.Move(2, "shard-b", "shard-a")), shardRebalancer.plan());
+        shardRebalancer.rebalance();
+
+        assertEquals(List.of(), shardRebalancer.plan());
+        assertEquals(0, jdbc("shard-b").queryForObject("SELECT count(*) FROM doctor", Integer.class));
+        assertEquals(0, jdbc("shard-b").queryForObject("SELECT count(*) FROM schedule", Integer.class));
+        assertEquals(0, jdbc("shard-b").queryForObject("SELECT count(*) FROM appointment", Integer.class));
+        assertEquals(1, jdbc("shard-a").queryForObject("SELECT count(*) FROM appointment WHERE doctor_id = 2", Integer.class));
+
+        mockMvc.perform(get("/v1/doctors/2/schedule"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].dayOfWeek").value("TUESDAY"));
+    }
+
+    private JdbcTemplate jdbc(String shard) {
+        return new JdbcTemplate(dataSource.getShard(shard));
+    }
+}
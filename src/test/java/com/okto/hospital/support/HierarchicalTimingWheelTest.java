@@ -0,0 +1,83 @@
+package com.okto.hospital.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchicalTimingWheelTest {
+
+    private static final long START = 1_000_000;
+
+    @Test
+    void test_advance_shouldFireEveryItemAtItsDeadline_acrossLevels_andNeverEarly() {
+        // 8 buckets of 10ms: level 0 covers 80ms, the deadlines up to 100s need four levels
+        var wheel = new HierarchicalTimingWheel<long[]>(Duration.ofMillis(10), 8, START);
+        var random = new Random(42);
+        List<long[]> items = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            long[] item = {START + random.nextInt(100_000), -1};
+            items.add(item);
+            wheel.add(item, item[0]);
+        }
+        assertEquals(100_000, wheel.size());
+
+        long now = START;
+        while (now < START + 101_000) {
+            now += 1 + random.nextInt(500);
+            long firedAt = now;
+            wheel.advance(now, item -> item[1] = firedAt);
+        }
+
+        assertEquals(0, wheel.size());
+        for (long[] item : items) {
+            assertTrue(item[1] >= item[0], "fired early");
+            // on the first advance past its deadline, rounded up to the tick
+            assertTrue(item[1] - 10 - 500 <= item[0], "fired late");
+        }
+    }
+
+    @Test
+    void test_advance_shouldFireInDeadlineOrder() {
+        var wheel = new HierarchicalTimingWheel<Integer>(Duration.ofMillis(1), 4, 0);
+        wheel.add(3, 300);
+        wheel.add(1, 5);
+        wheel.add(2, 70);
+        List<Integer> fired = new ArrayList<>();
+
+        for (long now = 0; now <= 300; now++) {
+            wheel.advance(now, fired::add);
+        }
+
+        assertEquals(List.of(1, 2, 3), fired);
+    }
+
+    @Test
+    void test_cancel_shouldRemoveTheItem_andAPastDeadlineShouldFireOnTheNextTick() {
+        var wheel = new HierarchicalTimingWheel<String>(Duration.ofSeconds(1), 64, 10_000);
+        var cancelled = wheel.add("cancelled", 20_000);
+        wheel.add("kept", 20_000);
+        wheel.add("late", 5_000);
+        wheel.cancel(cancelled);
+        wheel.cancel(cancelled);
+        assertEquals(2, wheel.size());
+
+        Set<String> fired = new HashSet<>();
+        wheel.advance(10_999, fired::add);
+        assertEquals(Set.of(), fired);
+        wheel.advance(11_000, fired::add);
+        assertEquals(Set.of("late"), fired);
+        wheel.advance(19_999, fired::add);
+        assertEquals(Set.of("late"), fired);
+        wheel.advance(20_000, fired::add);
+        assertEquals(Set.of("late", "kept"), fired);
+        assertEquals(0, wheel.size());
+    }
+}
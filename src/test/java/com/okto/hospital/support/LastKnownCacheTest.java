@@ -0,0 +1,89 @@
+package com.okto.hospital.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LastKnownCacheTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2099-03-04T10:00:00Z"));
+
+    @Test
+    void test_put_whenFull_shouldDropTheLeastRecentlyReadKey() {
+        var cache = new LastKnownCache<Integer, String>(2, Duration.ofMinutes(15), clock);
+        cache.put(1, cache.generation(1), "one");
+        cache.put(2, cache.generation(2), "two");
+
+        assertEquals("one", cache.get(1));
+        cache.put(3, cache.generation(3), "three");
+
+        assertEquals(2, cache.size());
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals("three", cache.get(3));
+    }
+
+    @Test
+    void test_get_whenOlderThanMaxAge_shouldDropTheEntry() {
+        var cache = new LastKnownCache<Integer, String>(10, Duration.ofMinutes(15), clock);
+        cache.put(1, cache.generation(1), "one");
+
+        clock.advance(Duration.ofMinutes(16));
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void test_put_whenTheKeyWasWrittenWhileReading_shouldRefuseTheValue() {
+        var cache = new LastKnownCache<Integer, String>(10, Duration.ofMinutes(15), clock);
+        cache.put(1, cache.generation(1), "before");
+
+        // a read starts, a write commits and invalidates the key, then the read ends
+        long generation = cache.generation(1);
+        cache.invalidate(1);
+        assertFalse(cache.put(1, generation, "before"));
+        assertNull(cache.get(1));
+
+        // a read that starts after the write is kept
+        assertTrue(cache.put(1, cache.generation(1), "after"));
+        assertEquals("after", cache.get(1));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
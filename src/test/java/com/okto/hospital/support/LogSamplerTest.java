@@ -0,0 +1,67 @@
+package com.okto.hospital.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogSamplerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void test_sample_whenRateIsExceeded_shouldSuppressUntilNextWindow() {
+        var sampler = new LogSampler(2, now::get);
+
+        assertEquals(OptionalLong.of(0), sampler.sample());
+        assertEquals(OptionalLong.of(0), sampler.sample());
+        assertEquals(OptionalLong.empty(), sampler.sample());
+        assertEquals(OptionalLong.empty(), sampler.sample());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals(OptionalLong.empty(), sampler.sample());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(OptionalLong.of(3), sampler.sample());
+        assertEquals(OptionalLong.of(0), sampler.sample());
+    }
+
+    @Test
+    void test_sample_whenRateIsZero_shouldSuppressEverything() {
+        var sampler = new LogSampler(0, now::get);
+
+        assertEquals(OptionalLong.empty(), sampler.sample());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertEquals(OptionalLong.empty(), sampler.sample());
+    }
+
+    @Test
+    void test_sample_whenCalledConcurrently_shouldLetExactlyTheRateThrough_andCountTheOthers() throws Exception {
+        var sampler = new LogSampler(10, now::get);
+        var logged = new AtomicLong();
+        var reportedSuppressed = new AtomicLong();
+        var threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1_000; j++) {
+                    sampler.sample().ifPresent(suppressed -> {
+                        logged.incrementAndGet();
+                        reportedSuppressed.addAndGet(suppressed);
+                    });
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(10, logged.get());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        reportedSuppressed.addAndGet(sampler.sample().orElseThrow());
+        assertEquals(8_000 - 10, reportedSuppressed.get());
+    }
+}
@@ -0,0 +1,124 @@
+package com.okto.hospital.support;
+
+import com.okto.hospital.exception.ServiceUnavailable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void test_execute_whenCallersOverlap_shouldRunLoaderOnceAndShareResult() throws Exception {
+        var singleFlight = new SingleFlight<Integer, List<String>>(Duration.ofSeconds(5));
+        var loads = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        var result = List.of("schedule");
+
+        List<Future<List<String>>> futures = submitAll(() -> singleFlight.execute(1, () -> {
+            loads.incrementAndGet();
+            await(release);
+            return result;
+        }));
+        waitUntilAllWaiting(loads);
+        release.countDown();
+
+        for (Future<List<String>> future : futures) {
+            assertSame(result, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void test_execute_whenLoaderFails_shouldPropagateFailureToEveryCaller() throws Exception {
+        var singleFlight = new SingleFlight<Integer, String>(Duration.ofSeconds(5));
+        var loads = new AtomicInteger();
+        var release = new CountDownLatch(1);
+
+        List<Future<String>> futures = submitAll(() -> singleFlight.execute(1, () -> {
+            loads.incrementAndGet();
+            await(release);
+            throw new IllegalStateException("database down");
+        }));
+        waitUntilAllWaiting(loads);
+        release.countDown();
+
+        for (Future<String> future : futures) {
+            var failure = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, failure.getCause());
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void test_execute_whenLoadIsTooSlow_shouldGiveUpWaitingWithServiceUnavailable() throws Exception {
+        var singleFlight = new SingleFlight<Integer, String>(Duration.ofMillis(50));
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute(1, () -> {
+            started.countDown();
+            await(release);
+            return "late";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThrows(ServiceUnavailable.class, () -> singleFlight.execute(1, () -> "own load"));
+
+        release.countDown();
+        assertEquals("late", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("fresh", singleFlight.execute(1, () -> "fresh"));
+    }
+
+    private <T> List<Future<T>> submitAll(Callable<T> call) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(call));
+        }
+        return futures;
+    }
+
+    /**
+     * Gives the other callers time to join the load that is blocked on the latch.
+     */
+    private void waitUntilAllWaiting(AtomicInteger loads) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loads.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(200);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}